@@ -35,6 +35,7 @@ import com.flaptor.indextank.index.scorer.IntersectionMatchFilter;
 import com.flaptor.indextank.index.scorer.MatchFilter;
 import com.flaptor.indextank.index.scorer.VariablesRangeFilter;
 import com.flaptor.indextank.query.IndexEngineParser;
+import com.flaptor.indextank.query.InvalidCursorException;
 import com.flaptor.indextank.query.NoSuchQueryVariableException;
 import com.flaptor.indextank.query.ParseException;
 import com.flaptor.indextank.query.Query;
@@ -86,6 +87,8 @@ public class IndexEngineApi {
             throw new IndexEngineApiException("Missing query variable with index '" + e.getMissingVariableIndex() + "'", e);
         } catch (ParseException e) {
             throw new IndexEngineApiException("Invalid query", e);
+        } catch (InvalidCursorException e) {
+            throw new IndexEngineApiException("Invalid search_after cursor", e);
         } catch (RuntimeException e) {
             throw new IndexEngineApiException(e);
         } catch (InterruptedException e) {
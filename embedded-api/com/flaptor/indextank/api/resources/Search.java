@@ -61,6 +61,13 @@ public class Search extends Action {
         String fetchCategories = params("fetch_categories");
         String fetch = params("fetch");
         String snippet = params("snippet");
+        String timeout = params("timeout");
+        String rescoreWindow = params("rescore_window");
+        String searchAfter = params("search_after");
+        String facetsCategories = params("facets_categories");
+        String facetsLimit = params("facets_limit");
+        String facetsSampleThreshold = params("facets_sample_threshold");
+        String facetsRanges = params("facets_ranges");
         int start = QueryHelper.parseIntParam(params("start"), 0);
         int len = QueryHelper.parseIntParam(params("len"), 10);
         int function = QueryHelper.parseIntParam(params("function"), 0);
@@ -69,7 +76,8 @@ public class Search extends Action {
         List<RangeFilter> variableRangeFilters = Lists.newArrayList();
         List<RangeFilter> functionRangeFilters = Lists.newArrayList();
         Map<String, String> extras = createExtraParameters(fetch, snippet,
-                fetchVariables, fetchCategories);
+                fetchVariables, fetchCategories, timeout, rescoreWindow, searchAfter,
+                facetsCategories, facetsLimit, facetsSampleThreshold, facetsRanges);
 
         try {
             long t0 = System.currentTimeMillis();
@@ -78,6 +86,7 @@ public class Search extends Action {
             double searchTime = (t1 - t0) / 1000;
             int matches = results.getMatches();
             Map<String, Map<String, Integer>> facets = toFacets(results.getFacets());
+            Map<String, Map<String, Integer>> rangeFacets = toFacets(results.getRangeFacets());
             String didYouMean = results.getDidYouMean();
             
             JSONArray ja = new JSONArray();
@@ -85,7 +94,9 @@ public class Search extends Action {
                 addResult(ja, result);
             }
 
-            JSONObject jo = createResponse(q, searchTime, ja, matches, facets, didYouMean);
+            String nextCursor = results.getNextCursor() == null ? null : results.getNextCursor().toToken();
+
+            JSONObject jo = createResponse(q, searchTime, ja, matches, facets, rangeFacets, results.isFacetsApproximate(), didYouMean, results.isTruncated(), nextCursor);
             
             print(jo.toJSONString());
             return;
@@ -101,21 +112,36 @@ public class Search extends Action {
     @SuppressWarnings("unchecked")
     private JSONObject createResponse(String q, double searchTime,
             JSONArray ja, int matches,
-            Map<String, Map<String, Integer>> facets, String didYouMean) {
+            Map<String, Map<String, Integer>> facets, Map<String, Map<String, Integer>> rangeFacets,
+            boolean facetsApproximate, String didYouMean, boolean truncated, String nextCursor) {
         JSONObject jo = new JSONObject();
         jo.put("query", q);
         jo.put("results", ja);
         jo.put("matches", matches);
         jo.put("facets", facets);
+        if(!rangeFacets.isEmpty()) {
+            jo.put("range_facets", rangeFacets);
+        }
+        if(facetsApproximate) {
+            jo.put("facets_approximate", true);
+        }
         if(didYouMean != null) {
             jo.put("didyoumean", didYouMean);
         }
+        if(truncated) {
+            jo.put("truncated", true);
+        }
+        if(nextCursor != null) {
+            jo.put("search_after", nextCursor);
+        }
         jo.put("search_time", String.format("%.3f", searchTime));
         return jo;
     }
 
     private Map<String, String> createExtraParameters(String fetch,
-            String snippet, String fetchVariables, String fetchCategories) {
+            String snippet, String fetchVariables, String fetchCategories, String timeout, String rescoreWindow,
+            String searchAfter, String facetsCategories, String facetsLimit, String facetsSampleThreshold,
+            String facetsRanges) {
         Map<String, String> extras = Maps.newHashMap();
         if("true".equalsIgnoreCase(fetchVariables) || "*".equals(fetchVariables)) {
             if(LOG_ENABLED) LOG.fine("Fetch variables: all");
@@ -133,6 +159,37 @@ public class Search extends Action {
             if(LOG_ENABLED) LOG.fine("Fetch snippets: " + snippet);
             extras.put("snippet_fields", snippet);
         }
+        if(timeout != null) {
+            if(LOG_ENABLED) LOG.fine("Timeout: " + timeout);
+            extras.put("timeout", timeout);
+        }
+        if(rescoreWindow != null) {
+            if(LOG_ENABLED) LOG.fine("Rescore window: " + rescoreWindow);
+            extras.put("rescore_window", rescoreWindow);
+        }
+        if(searchAfter != null) {
+            // empty for the first page, the previous page's cursor for the next ones
+            if(LOG_ENABLED) LOG.fine("Search after: " + searchAfter);
+            extras.put("search_after", searchAfter);
+        }
+        if(facetsCategories != null) {
+            if(LOG_ENABLED) LOG.fine("Facets categories: " + facetsCategories);
+            extras.put("facets_categories", facetsCategories);
+        }
+        if(facetsLimit != null) {
+            // a number for all categories, or a comma separated list of 'category:number'
+            if(LOG_ENABLED) LOG.fine("Facets limit: " + facetsLimit);
+            extras.put("facets_limit", facetsLimit);
+        }
+        if(facetsSampleThreshold != null) {
+            if(LOG_ENABLED) LOG.fine("Facets sample threshold: " + facetsSampleThreshold);
+            extras.put("facets_sample_threshold", facetsSampleThreshold);
+        }
+        if(facetsRanges != null) {
+            // a semicolon separated list of 'var[n]:edges' or 'timestamp:edges'
+            if(LOG_ENABLED) LOG.fine("Facets ranges: " + facetsRanges);
+            extras.put("facets_ranges", facetsRanges);
+        }
         return extras;
     }
 
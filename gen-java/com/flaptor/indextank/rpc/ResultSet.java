@@ -37,6 +37,10 @@ import org.apache.thrift.protocol.*;
   private static final TField CATEGORIES_FIELD_DESC = new TField("categories", TType.LIST, (short)6);
   private static final TField VARIABLES_FIELD_DESC = new TField("variables", TType.LIST, (short)7);
   private static final TField SCORES_FIELD_DESC = new TField("scores", TType.LIST, (short)8);
+  private static final TField SEARCH_AFTER_FIELD_DESC = new TField("search_after", TType.STRING, (short)9);
+  private static final TField TRUNCATED_FIELD_DESC = new TField("truncated", TType.BOOL, (short)10);
+  private static final TField FACETS_APPROXIMATE_FIELD_DESC = new TField("facets_approximate", TType.BOOL, (short)11);
+  private static final TField RANGE_FACETS_FIELD_DESC = new TField("range_facets", TType.MAP, (short)12);
 
   private String status;
   private int matches;
@@ -46,6 +50,10 @@ import org.apache.thrift.protocol.*;
   private List<Map<String,String>> categories;
   private List<Map<Integer,Double>> variables;
   private List<Double> scores;
+  private String search_after;
+  private boolean truncated;
+  private boolean facets_approximate;
+  private Map<String,Map<String,Integer>> range_facets;
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements TFieldIdEnum {
@@ -56,7 +64,11 @@ import org.apache.thrift.protocol.*;
     DIDYOUMEAN((short)5, "didyoumean"),
     CATEGORIES((short)6, "categories"),
     VARIABLES((short)7, "variables"),
-    SCORES((short)8, "scores");
+    SCORES((short)8, "scores"),
+    SEARCH_AFTER((short)9, "search_after"),
+    TRUNCATED((short)10, "truncated"),
+    FACETS_APPROXIMATE((short)11, "facets_approximate"),
+    RANGE_FACETS((short)12, "range_facets");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -87,6 +99,14 @@ import org.apache.thrift.protocol.*;
           return VARIABLES;
         case 8: // SCORES
           return SCORES;
+        case 9: // SEARCH_AFTER
+          return SEARCH_AFTER;
+        case 10: // TRUNCATED
+          return TRUNCATED;
+        case 11: // FACETS_APPROXIMATE
+          return FACETS_APPROXIMATE;
+        case 12: // RANGE_FACETS
+          return RANGE_FACETS;
         default:
           return null;
       }
@@ -128,7 +148,9 @@ import org.apache.thrift.protocol.*;
 
   // isset id assignments
   private static final int __MATCHES_ISSET_ID = 0;
-  private BitSet __isset_bit_vector = new BitSet(1);
+  private static final int __TRUNCATED_ISSET_ID = 1;
+  private static final int __FACETS_APPROXIMATE_ISSET_ID = 2;
+  private BitSet __isset_bit_vector = new BitSet(3);
 
   public static final Map<_Fields, FieldMetaData> metaDataMap;
   static {
@@ -163,6 +185,18 @@ import org.apache.thrift.protocol.*;
     tmpMap.put(_Fields.SCORES, new FieldMetaData("scores", TFieldRequirementType.OPTIONAL, 
         new ListMetaData(TType.LIST, 
             new FieldValueMetaData(TType.DOUBLE))));
+    tmpMap.put(_Fields.SEARCH_AFTER, new FieldMetaData("search_after", TFieldRequirementType.OPTIONAL, 
+        new FieldValueMetaData(TType.STRING)));
+    tmpMap.put(_Fields.TRUNCATED, new FieldMetaData("truncated", TFieldRequirementType.OPTIONAL, 
+        new FieldValueMetaData(TType.BOOL)));
+    tmpMap.put(_Fields.FACETS_APPROXIMATE, new FieldMetaData("facets_approximate", TFieldRequirementType.OPTIONAL, 
+        new FieldValueMetaData(TType.BOOL)));
+    tmpMap.put(_Fields.RANGE_FACETS, new FieldMetaData("range_facets", TFieldRequirementType.OPTIONAL, 
+        new MapMetaData(TType.MAP, 
+            new FieldValueMetaData(TType.STRING), 
+            new MapMetaData(TType.MAP, 
+                new FieldValueMetaData(TType.STRING), 
+                new FieldValueMetaData(TType.I32)))));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     FieldMetaData.addStructMetaDataMap(ResultSet.class, metaDataMap);
   }
@@ -291,6 +325,37 @@ import org.apache.thrift.protocol.*;
       }
       this.scores = __this__scores;
     }
+    if (other.is_set_search_after()) {
+      this.search_after = other.search_after;
+    }
+    this.truncated = other.truncated;
+    this.facets_approximate = other.facets_approximate;
+    if (other.is_set_range_facets()) {
+      Map<String,Map<String,Integer>> __this__range_facets = new HashMap<String,Map<String,Integer>>();
+      for (Map.Entry<String, Map<String,Integer>> other_element : other.range_facets.entrySet()) {
+
+        String other_element_key = other_element.getKey();
+        Map<String,Integer> other_element_value = other_element.getValue();
+
+        String __this__range_facets_copy_key = other_element_key;
+
+        Map<String,Integer> __this__range_facets_copy_value = new HashMap<String,Integer>();
+        for (Map.Entry<String, Integer> other_element_value_element : other_element_value.entrySet()) {
+
+          String other_element_value_element_key = other_element_value_element.getKey();
+          Integer other_element_value_element_value = other_element_value_element.getValue();
+
+          String __this__range_facets_copy_value_copy_key = other_element_value_element_key;
+
+          Integer __this__range_facets_copy_value_copy_value = other_element_value_element_value;
+
+          __this__range_facets_copy_value.put(__this__range_facets_copy_value_copy_key, __this__range_facets_copy_value_copy_value);
+        }
+
+        __this__range_facets.put(__this__range_facets_copy_key, __this__range_facets_copy_value);
+      }
+      this.range_facets = __this__range_facets;
+    }
   }
 
   public ResultSet deepCopy() {
@@ -311,6 +376,12 @@ import org.apache.thrift.protocol.*;
     this.variables = new ArrayList<Map<Integer,Double>>();
 
     this.scores = null;
+    this.search_after = null;
+    set_truncated_isSet(false);
+    this.truncated = false;
+    set_facets_approximate_isSet(false);
+    this.facets_approximate = false;
+    this.range_facets = null;
   }
 
   public String get_status() {
@@ -575,6 +646,111 @@ import org.apache.thrift.protocol.*;
     }
   }
 
+  public String get_search_after() {
+    return this.search_after;
+  }
+
+  public ResultSet set_search_after(String search_after) {
+    this.search_after = search_after;
+    return this;
+  }
+
+  public void unset_search_after() {
+    this.search_after = null;
+  }
+
+  /** Returns true if field search_after is set (has been asigned a value) and false otherwise */
+  public boolean is_set_search_after() {
+    return this.search_after != null;
+  }
+
+  public void set_search_after_isSet(boolean value) {
+    if (!value) {
+      this.search_after = null;
+    }
+  }
+
+  public boolean is_truncated() {
+    return this.truncated;
+  }
+
+  public ResultSet set_truncated(boolean truncated) {
+    this.truncated = truncated;
+    set_truncated_isSet(true);
+    return this;
+  }
+
+  public void unset_truncated() {
+    __isset_bit_vector.clear(__TRUNCATED_ISSET_ID);
+  }
+
+  /** Returns true if field truncated is set (has been asigned a value) and false otherwise */
+  public boolean is_set_truncated() {
+    return __isset_bit_vector.get(__TRUNCATED_ISSET_ID);
+  }
+
+  public void set_truncated_isSet(boolean value) {
+    __isset_bit_vector.set(__TRUNCATED_ISSET_ID, value);
+  }
+
+  public boolean is_facets_approximate() {
+    return this.facets_approximate;
+  }
+
+  public ResultSet set_facets_approximate(boolean facets_approximate) {
+    this.facets_approximate = facets_approximate;
+    set_facets_approximate_isSet(true);
+    return this;
+  }
+
+  public void unset_facets_approximate() {
+    __isset_bit_vector.clear(__FACETS_APPROXIMATE_ISSET_ID);
+  }
+
+  /** Returns true if field facets_approximate is set (has been asigned a value) and false otherwise */
+  public boolean is_set_facets_approximate() {
+    return __isset_bit_vector.get(__FACETS_APPROXIMATE_ISSET_ID);
+  }
+
+  public void set_facets_approximate_isSet(boolean value) {
+    __isset_bit_vector.set(__FACETS_APPROXIMATE_ISSET_ID, value);
+  }
+
+  public int get_range_facets_size() {
+    return (this.range_facets == null) ? 0 : this.range_facets.size();
+  }
+
+  public void put_to_range_facets(String key, Map<String,Integer> val) {
+    if (this.range_facets == null) {
+      this.range_facets = new HashMap<String,Map<String,Integer>>();
+    }
+    this.range_facets.put(key, val);
+  }
+
+  public Map<String,Map<String,Integer>> get_range_facets() {
+    return this.range_facets;
+  }
+
+  public ResultSet set_range_facets(Map<String,Map<String,Integer>> range_facets) {
+    this.range_facets = range_facets;
+    return this;
+  }
+
+  public void unset_range_facets() {
+    this.range_facets = null;
+  }
+
+  /** Returns true if field range_facets is set (has been asigned a value) and false otherwise */
+  public boolean is_set_range_facets() {
+    return this.range_facets != null;
+  }
+
+  public void set_range_facets_isSet(boolean value) {
+    if (!value) {
+      this.range_facets = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case STATUS:
@@ -641,6 +817,42 @@ import org.apache.thrift.protocol.*;
       }
       break;
 
+
+    case SEARCH_AFTER:
+      if (value == null) {
+        unset_search_after();
+      } else {
+        set_search_after((String)value);
+      }
+      break;
+
+
+    case TRUNCATED:
+      if (value == null) {
+        unset_truncated();
+      } else {
+        set_truncated((Boolean)value);
+      }
+      break;
+
+
+    case FACETS_APPROXIMATE:
+      if (value == null) {
+        unset_facets_approximate();
+      } else {
+        set_facets_approximate((Boolean)value);
+      }
+      break;
+
+
+    case RANGE_FACETS:
+      if (value == null) {
+        unset_range_facets();
+      } else {
+        set_range_facets((Map<String,Map<String,Integer>>)value);
+      }
+      break;
+
     }
   }
 
@@ -670,6 +882,18 @@ import org.apache.thrift.protocol.*;
     case SCORES:
       return get_scores();
 
+    case SEARCH_AFTER:
+      return get_search_after();
+
+    case TRUNCATED:
+      return new Boolean(is_truncated());
+
+    case FACETS_APPROXIMATE:
+      return new Boolean(is_facets_approximate());
+
+    case RANGE_FACETS:
+      return get_range_facets();
+
     }
     throw new IllegalStateException();
   }
@@ -697,6 +921,14 @@ import org.apache.thrift.protocol.*;
       return is_set_variables();
     case SCORES:
       return is_set_scores();
+    case SEARCH_AFTER:
+      return is_set_search_after();
+    case TRUNCATED:
+      return is_set_truncated();
+    case FACETS_APPROXIMATE:
+      return is_set_facets_approximate();
+    case RANGE_FACETS:
+      return is_set_range_facets();
     }
     throw new IllegalStateException();
   }
@@ -786,6 +1018,42 @@ import org.apache.thrift.protocol.*;
         return false;
     }
 
+    boolean this_present_search_after = true && this.is_set_search_after();
+    boolean that_present_search_after = true && that.is_set_search_after();
+    if (this_present_search_after || that_present_search_after) {
+      if (!(this_present_search_after && that_present_search_after))
+        return false;
+      if (!this.search_after.equals(that.search_after))
+        return false;
+    }
+
+    boolean this_present_truncated = true && this.is_set_truncated();
+    boolean that_present_truncated = true && that.is_set_truncated();
+    if (this_present_truncated || that_present_truncated) {
+      if (!(this_present_truncated && that_present_truncated))
+        return false;
+      if (this.truncated != that.truncated)
+        return false;
+    }
+
+    boolean this_present_facets_approximate = true && this.is_set_facets_approximate();
+    boolean that_present_facets_approximate = true && that.is_set_facets_approximate();
+    if (this_present_facets_approximate || that_present_facets_approximate) {
+      if (!(this_present_facets_approximate && that_present_facets_approximate))
+        return false;
+      if (this.facets_approximate != that.facets_approximate)
+        return false;
+    }
+
+    boolean this_present_range_facets = true && this.is_set_range_facets();
+    boolean that_present_range_facets = true && that.is_set_range_facets();
+    if (this_present_range_facets || that_present_range_facets) {
+      if (!(this_present_range_facets && that_present_range_facets))
+        return false;
+      if (!this.range_facets.equals(that.range_facets))
+        return false;
+    }
+
     return true;
   }
 
@@ -882,6 +1150,46 @@ import org.apache.thrift.protocol.*;
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(is_set_search_after()).compareTo(typedOther.is_set_search_after());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (is_set_search_after()) {
+      lastComparison = TBaseHelper.compareTo(this.search_after, typedOther.search_after);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(is_set_truncated()).compareTo(typedOther.is_set_truncated());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (is_set_truncated()) {
+      lastComparison = TBaseHelper.compareTo(this.truncated, typedOther.truncated);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(is_set_facets_approximate()).compareTo(typedOther.is_set_facets_approximate());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (is_set_facets_approximate()) {
+      lastComparison = TBaseHelper.compareTo(this.facets_approximate, typedOther.facets_approximate);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(is_set_range_facets()).compareTo(typedOther.is_set_range_facets());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (is_set_range_facets()) {
+      lastComparison = TBaseHelper.compareTo(this.range_facets, typedOther.range_facets);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -1056,6 +1364,60 @@ import org.apache.thrift.protocol.*;
             TProtocolUtil.skip(iprot, field.type);
           }
           break;
+        case 9: // SEARCH_AFTER
+          if (field.type == TType.STRING) {
+            this.search_after = iprot.readString();
+          } else { 
+            TProtocolUtil.skip(iprot, field.type);
+          }
+          break;
+        case 10: // TRUNCATED
+          if (field.type == TType.BOOL) {
+            this.truncated = iprot.readBool();
+            set_truncated_isSet(true);
+          } else { 
+            TProtocolUtil.skip(iprot, field.type);
+          }
+          break;
+        case 11: // FACETS_APPROXIMATE
+          if (field.type == TType.BOOL) {
+            this.facets_approximate = iprot.readBool();
+            set_facets_approximate_isSet(true);
+          } else { 
+            TProtocolUtil.skip(iprot, field.type);
+          }
+          break;
+        case 12: // RANGE_FACETS
+          if (field.type == TType.MAP) {
+            {
+              TMap _map46 = iprot.readMapBegin();
+              this.range_facets = new HashMap<String,Map<String,Integer>>(2*_map46.size);
+              for (int _i47 = 0; _i47 < _map46.size; ++_i47)
+              {
+                String _key48;
+                Map<String,Integer> _val49;
+                _key48 = iprot.readString();
+                {
+                  TMap _map50 = iprot.readMapBegin();
+                  _val49 = new HashMap<String,Integer>(2*_map50.size);
+                  for (int _i51 = 0; _i51 < _map50.size; ++_i51)
+                  {
+                    String _key52;
+                    int _val53;
+                    _key52 = iprot.readString();
+                    _val53 = iprot.readI32();
+                    _val49.put(_key52, _val53);
+                  }
+                  iprot.readMapEnd();
+                }
+                this.range_facets.put(_key48, _val49);
+              }
+              iprot.readMapEnd();
+            }
+          } else { 
+            TProtocolUtil.skip(iprot, field.type);
+          }
+          break;
         default:
           TProtocolUtil.skip(iprot, field.type);
       }
@@ -1187,6 +1549,46 @@ import org.apache.thrift.protocol.*;
         oprot.writeFieldEnd();
       }
     }
+    if (this.search_after != null) {
+      if (is_set_search_after()) {
+        oprot.writeFieldBegin(SEARCH_AFTER_FIELD_DESC);
+        oprot.writeString(this.search_after);
+        oprot.writeFieldEnd();
+      }
+    }
+    if (is_set_truncated()) {
+      oprot.writeFieldBegin(TRUNCATED_FIELD_DESC);
+      oprot.writeBool(this.truncated);
+      oprot.writeFieldEnd();
+    }
+    if (is_set_facets_approximate()) {
+      oprot.writeFieldBegin(FACETS_APPROXIMATE_FIELD_DESC);
+      oprot.writeBool(this.facets_approximate);
+      oprot.writeFieldEnd();
+    }
+    if (this.range_facets != null) {
+      if (is_set_range_facets()) {
+        oprot.writeFieldBegin(RANGE_FACETS_FIELD_DESC);
+        {
+          oprot.writeMapBegin(new TMap(TType.STRING, TType.MAP, this.range_facets.size()));
+          for (Map.Entry<String, Map<String,Integer>> _iter54 : this.range_facets.entrySet())
+          {
+            oprot.writeString(_iter54.getKey());
+            {
+              oprot.writeMapBegin(new TMap(TType.STRING, TType.I32, _iter54.getValue().size()));
+              for (Map.Entry<String, Integer> _iter55 : _iter54.getValue().entrySet())
+              {
+                oprot.writeString(_iter55.getKey());
+                oprot.writeI32(_iter55.getValue());
+              }
+              oprot.writeMapEnd();
+            }
+          }
+          oprot.writeMapEnd();
+        }
+        oprot.writeFieldEnd();
+      }
+    }
     oprot.writeFieldStop();
     oprot.writeStructEnd();
   }
@@ -1265,6 +1667,38 @@ import org.apache.thrift.protocol.*;
       }
       first = false;
     }
+    if (is_set_search_after()) {
+      if (!first) sb.append(", ");
+      sb.append("search_after:");
+      if (this.search_after == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.search_after);
+      }
+      first = false;
+    }
+    if (is_set_truncated()) {
+      if (!first) sb.append(", ");
+      sb.append("truncated:");
+      sb.append(this.truncated);
+      first = false;
+    }
+    if (is_set_facets_approximate()) {
+      if (!first) sb.append(", ");
+      sb.append("facets_approximate:");
+      sb.append(this.facets_approximate);
+      first = false;
+    }
+    if (is_set_range_facets()) {
+      if (!first) sb.append(", ");
+      sb.append("range_facets:");
+      if (this.range_facets == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.range_facets);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
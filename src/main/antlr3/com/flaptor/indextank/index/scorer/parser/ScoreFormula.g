@@ -20,6 +20,10 @@ package com.flaptor.indextank.index.scorer.parser;
 @header {
 package com.flaptor.indextank.index.scorer.parser;
 
+import com.flaptor.indextank.index.scorer.CompiledScoreFunction;
+import com.flaptor.indextank.index.scorer.expression.Input;
+import com.flaptor.indextank.index.scorer.expression.Operator;
+import com.flaptor.indextank.index.scorer.expression.ScoreExpression;
 import com.flaptor.indextank.index.scorer.ScoreFunction;
 import com.flaptor.indextank.index.scorer.Boosts;
 import com.flaptor.indextank.query.QueryVariables;
@@ -36,6 +40,9 @@ import org.cojen.classfile.TypeDesc;
 import org.cojen.classfile.Opcode;
 import org.cojen.classfile.Label;
 import java.lang.reflect.Constructor;
+import java.util.LinkedList;
+import java.util.SortedSet;
+import java.util.TreeSet;
 }
 
 @lexer::members {
@@ -64,11 +71,20 @@ import java.lang.reflect.Constructor;
     private LocalVariable queryVarParam = null;
     private Exception error = null;
 
-    private Class<?> generateClass(ScoreFormulaLexer lexer, int funcNum) throws Exception {
-        // initialize the code generator
-        RuntimeClassFile cf = new RuntimeClassFile("UserDefinedFunction_"+funcNum);
-        cf.addInterface("com.flaptor.indextank.index.scorer.ScoreFunction");
-        cf.addDefaultConstructor();
+    // batch mode: the formula is evaluated for every position of the arrays
+    private boolean batch = false;
+    private LocalVariable countParam = null;
+    private LocalVariable docVarColumnsParam = null;
+    private LocalVariable scoresParam = null;
+    private LocalVariable index = null;
+    private Label loopBody = null;
+    private Label loopTest = null;
+    private final SortedSet<Integer> documentVariables = new TreeSet<Integer>();
+
+    // the expression tree, built along with the code
+    private final LinkedList<ScoreExpression> tree = new LinkedList<ScoreExpression>();
+
+    private void generateScore(ScoreFormulaLexer lexer, RuntimeClassFile cf) throws Exception {
         docVarType = TypeDesc.forClass("com.flaptor.indextank.index.scorer.Boosts"); // DocVariables
         queryVarType = TypeDesc.forClass("com.flaptor.indextank.query.QueryVariables"); // Variables
         params = new TypeDesc[] {TypeDesc.DOUBLE, TypeDesc.INT, docVarType, queryVarType};
@@ -81,30 +97,105 @@ import java.lang.reflect.Constructor;
 
         // parse and generate code
         start();
+        checkErrors(lexer);
+    }
+
+    private ScoreExpression getExpression() {
+        return tree.getFirst();
+    }
+
+    private void push(Operator operator) {
+        ScoreExpression[] args = new ScoreExpression[operator.getArity()];
+        for (int i = args.length - 1; i >= 0; i--) {
+            args[i] = tree.pop();
+        }
+        tree.push(ScoreExpression.operation(operator, args));
+    }
+
+    /**
+     * Generates scoreBatch(count, textualScores, ages, docVars, queryVars, scores)
+     * as a plain loop over the arrays, where docVars holds one column per
+     * document variable. Also generates getDocumentVariables() to tell the
+     * caller which columns the formula reads.
+     */
+    private void generateScoreBatch(ScoreFormulaLexer lexer, RuntimeClassFile cf) throws Exception {
+        batch = true;
+        queryVarType = TypeDesc.forClass("com.flaptor.indextank.query.QueryVariables"); // Variables
+        TypeDesc doubles = TypeDesc.DOUBLE.toArrayType();
+        params = new TypeDesc[] {TypeDesc.INT, doubles, TypeDesc.INT.toArrayType(), TypeDesc.FLOAT.toArrayType().toArrayType(), queryVarType, doubles};
+        MethodInfo mi = cf.addMethod(Modifiers.PUBLIC, "scoreBatch", null, params);
+        b = new CodeBuilder(mi);
+        countParam = b.getParameter(0);
+        scoreParam = b.getParameter(1);
+        ageParam = b.getParameter(2);
+        docVarColumnsParam = b.getParameter(3);
+        queryVarParam = b.getParameter(4);
+        scoresParam = b.getParameter(5);
+
+        // for (int i = 0; i < count; i++) scores[i] = <formula>
+        index = b.createLocalVariable("i", TypeDesc.INT);
+        loopBody = b.createLabel();
+        loopTest = b.createLabel();
+        b.loadConstant(0);
+        b.storeLocal(index);
+        b.branch(loopTest);
+        loopBody.setLocation();
+        b.loadLocal(scoresParam);
+        b.loadLocal(index);
+
+        // parse and generate code, emit_return() closes the loop
+        start();
+        checkErrors(lexer);
 
+        mi = cf.addMethod(Modifiers.PUBLIC, "getDocumentVariables", TypeDesc.INT.toArrayType(), null);
+        b = new CodeBuilder(mi);
+        b.loadConstant(documentVariables.size());
+        b.newObject(TypeDesc.INT.toArrayType());
+        int position = 0;
+        for (int var : documentVariables) {
+            b.dup();
+            b.loadConstant(position++);
+            b.loadConstant(var);
+            b.storeToArray(TypeDesc.INT);
+        }
+        b.returnValue(TypeDesc.INT.toArrayType());
+    }
+
+    private void checkErrors(ScoreFormulaLexer lexer) throws Exception {
         error = error == null ? lexer.getError() : error;
         if (null != error) {
             throw error;
         }
-
-        // return the generated class
-        Class<?> clazz = cf.defineClass();
-        return clazz;
     }
 
     public void emitErrorMessage(String msg) {
         error = new ParserException(msg);
     }
 
-    public static ScoreFunction parseFormula(int funcNum, String definition) throws Exception {
+    private static ScoreFormulaLexer newLexer(String definition) throws IOException {
         InputStream reader = new ByteArrayInputStream(definition.getBytes());
         ANTLRInputStream input = new ANTLRInputStream(reader);
-        ScoreFormulaLexer lexer = new ScoreFormulaLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        ScoreFormulaParser parser = new ScoreFormulaParser(tokens);
-        Class<?> funcClass = parser.generateClass(lexer, funcNum);
+        return new ScoreFormulaLexer(input);
+    }
+
+    public static ScoreFunction parseFormula(int funcNum, String definition) throws Exception {
+        // initialize the code generator
+        RuntimeClassFile cf = new RuntimeClassFile("UserDefinedFunction_"+funcNum, "com.flaptor.indextank.index.scorer.CompiledScoreFunction");
+        cf.addDefaultConstructor();
+
+        // the formula is parsed twice, once for each scoring method
+        ScoreFormulaLexer lexer = newLexer(definition);
+        ScoreFormulaParser parser = new ScoreFormulaParser(new CommonTokenStream(lexer));
+        parser.generateScore(lexer, cf);
+        lexer = newLexer(definition);
+        new ScoreFormulaParser(new CommonTokenStream(lexer)).generateScoreBatch(lexer, cf);
+
+        // return an instance of the generated class
+        Class<?> funcClass = cf.defineClass();
         Constructor cons = funcClass.getConstructor();
-        return (ScoreFunction)cons.newInstance();
+        CompiledScoreFunction function = (CompiledScoreFunction)cons.newInstance();
+        function.setExpression(parser.getExpression());
+        return function;
     }
 
 
@@ -125,6 +216,7 @@ import java.lang.reflect.Constructor;
 
     private void emit_double(double value) {
         b.loadConstant(value);
+        tree.push(ScoreExpression.constant(value));
     }
 
     private void emit_integer(int value) {
@@ -133,22 +225,43 @@ import java.lang.reflect.Constructor;
 
     private void emit_relevance() {
         b.loadLocal(scoreParam); // push the textualScore parameter
+        tree.push(ScoreExpression.input(Input.RELEVANCE));
+        if (batch) {
+            b.loadLocal(index);
+            b.loadFromArray(TypeDesc.DOUBLE);
+        }
     }
 
     private void emit_age() {
         b.loadLocal(ageParam); // push the age parameter
+        tree.push(ScoreExpression.input(Input.AGE));
+        if (batch) {
+            b.loadLocal(index);
+            b.loadFromArray(TypeDesc.INT);
+        }
         b.convert(TypeDesc.INT, TypeDesc.DOUBLE);
     }
 
-    private void emit_docVar() {
-        b.loadLocal(docVarParam); // push the docVar parameter
-        b.swap(); // swap the top two words on the stack, so the var id is on top
-        params = new TypeDesc[] {TypeDesc.INT}; // the type of the id parameter (int)
-        b.invokeInterface(docVarType, "getBoost", TypeDesc.FLOAT, params);
+    private void emit_docVar(int var) {
+        tree.push(ScoreExpression.input(Input.documentVariable(var)));
+        if (batch) {
+            documentVariables.add(var);
+            b.loadLocal(docVarColumnsParam); // push the docVar columns parameter
+            b.swap(); // swap the top two words on the stack, so the var id is on top
+            b.loadFromArray(TypeDesc.FLOAT.toArrayType());
+            b.loadLocal(index);
+            b.loadFromArray(TypeDesc.FLOAT);
+        } else {
+            b.loadLocal(docVarParam); // push the docVar parameter
+            b.swap(); // swap the top two words on the stack, so the var id is on top
+            params = new TypeDesc[] {TypeDesc.INT}; // the type of the id parameter (int)
+            b.invokeInterface(docVarType, "getBoost", TypeDesc.FLOAT, params);
+        }
         b.convert(TypeDesc.FLOAT, TypeDesc.DOUBLE);
     }
 
-    private void emit_queryVar() {
+    private void emit_queryVar(int var) {
+        tree.push(ScoreExpression.input(Input.queryVariable(var)));
         b.loadLocal(queryVarParam); // push the queryVar parameter
         b.swap(); // swap the top two words on the stack, so the var id is on top
         params = new TypeDesc[] {TypeDesc.INT}; // the type of the id parameter (int)
@@ -156,76 +269,102 @@ import java.lang.reflect.Constructor;
     }
 
     private void emit_return() {
-        b.returnValue(TypeDesc.DOUBLE);
+        if (batch) {
+            b.storeToArray(TypeDesc.DOUBLE);
+            b.integerIncrement(index, 1);
+            loopTest.setLocation();
+            b.loadLocal(index);
+            b.loadLocal(countParam);
+            b.ifComparisonBranch(loopBody, "<");
+            b.returnVoid();
+        } else {
+            b.returnValue(TypeDesc.DOUBLE);
+        }
     }
 
     private void emit_plus() {
+        push(Operator.PLUS);
         b.math(Opcode.DADD);
     }
 
     private void emit_minus() {
+        push(Operator.MINUS);
         b.math(Opcode.DSUB);
     }
 
     private void emit_mult() {
+        push(Operator.MULT);
         b.math(Opcode.DMUL);
     }
 
     private void emit_div() {
+        push(Operator.DIV);
         b.math(Opcode.DDIV);
     }
 
     private void emit_pow() {
+        push(Operator.POW);
         params = new TypeDesc[] {TypeDesc.DOUBLE, TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "pow", TypeDesc.DOUBLE, params);
     }
 
     private void emit_sqrt() {
+        push(Operator.SQRT);
         params = new TypeDesc[] {TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "sqrt", TypeDesc.DOUBLE, params);
     }
 
     private void emit_log() {
+        push(Operator.LOG);
         params = new TypeDesc[] {TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "log", TypeDesc.DOUBLE, params);
     }
 
     private void emit_max() {
+        push(Operator.MAX);
         params = new TypeDesc[] {TypeDesc.DOUBLE, TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "max", TypeDesc.DOUBLE, params);
     }
 
     private void emit_min() {
+        push(Operator.MIN);
         params = new TypeDesc[] {TypeDesc.DOUBLE, TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "min", TypeDesc.DOUBLE, params);
     }
 
     private void emit_abs() {
+        push(Operator.ABS);
         params = new TypeDesc[] {TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "abs", TypeDesc.DOUBLE, params);
     }
 
     private void emit_neg() {
+        push(Operator.NEG);
         params = new TypeDesc[] {TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "neg", TypeDesc.DOUBLE, params);
     }
 
     private void emit_km() {
+        push(Operator.KM);
         params = new TypeDesc[] {TypeDesc.DOUBLE,TypeDesc.DOUBLE,TypeDesc.DOUBLE, TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "km", TypeDesc.DOUBLE, params);
     }
 
     private void emit_miles() {
+        push(Operator.MILES);
         params = new TypeDesc[] {TypeDesc.DOUBLE,TypeDesc.DOUBLE,TypeDesc.DOUBLE, TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "miles", TypeDesc.DOUBLE, params);
     }
 
     private void emit_bit() {
+        push(Operator.BIT);
         params = new TypeDesc[] {TypeDesc.DOUBLE, TypeDesc.DOUBLE};
         b.invokeStatic("com.flaptor.indextank.index.scorer.ScoreMath", "bit", TypeDesc.DOUBLE, params);
     }
 
     private void emit_cond(String comp) {
+        ScoreExpression right = tree.pop();
+        tree.push(ScoreExpression.condition(comp, tree.pop(), right));
         Label lbl1 = b.createLabel();
         Label lbl2 = b.createLabel();
         b.ifComparisonBranch(lbl1, comp, TypeDesc.DOUBLE);
@@ -237,6 +376,9 @@ import java.lang.reflect.Constructor;
     }
 
     private void emit_if() {
+        ScoreExpression otherwise = tree.pop();
+        ScoreExpression then = tree.pop();
+        tree.push(ScoreExpression.ifThenElse(tree.pop(), then, otherwise));
         LocalVariable var1 = b.createLocalVariable("var1", TypeDesc.DOUBLE);
         LocalVariable var2 = b.createLocalVariable("var2", TypeDesc.DOUBLE);
         b.storeLocal(var2);
@@ -301,9 +443,9 @@ cond
 var
 	:	RELEVANCE { emit_relevance(); }
 	|	AGE { emit_age(); }
-	|	BOOST '(' integer ')' { emit_docVar(); }
-	|	DOC_VAR '[' integer ']' { emit_docVar(); }
-	|	QUERY_VAR '[' integer ']' { emit_queryVar(); }
+	|	BOOST '(' integer ')' { emit_docVar($integer.value); }
+	|	DOC_VAR '[' integer ']' { emit_docVar($integer.value); }
+	|	QUERY_VAR '[' integer ']' { emit_queryVar($integer.value); }
 	;
 
 number
@@ -311,8 +453,8 @@ number
 	|	DBL { emit_double(Double.parseDouble($DBL.text)); } 
 	;
 
-integer
-	:	INT { emit_integer(Integer.parseInt($INT.text)); }
+integer returns [int value]
+	:	INT { $value = Integer.parseInt($INT.text); emit_integer($value); }
 	;
 
 
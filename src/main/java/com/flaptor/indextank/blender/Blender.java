@@ -16,7 +16,9 @@
 
 package com.flaptor.indextank.blender;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -28,7 +30,10 @@ import com.flaptor.indextank.index.TopMatches;
 import com.flaptor.indextank.index.lsi.LargeScaleIndex;
 import com.flaptor.indextank.index.rti.RealTimeIndex;
 import com.flaptor.indextank.index.scorer.BoostsManager;
+import com.flaptor.indextank.index.scorer.DynamicDataManager;
+import com.flaptor.indextank.index.scorer.FacetingRequest;
 import com.flaptor.indextank.query.Query;
+import com.flaptor.indextank.query.SearchCursor;
 import com.flaptor.indextank.search.AbstractDocumentSearcher;
 import com.flaptor.indextank.search.SearchResult;
 import com.flaptor.indextank.search.SearchResults;
@@ -39,13 +44,25 @@ import com.flaptor.util.Execute;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 /**
  *
  * @author Flaptor Team
  */
 public class Blender extends AbstractDocumentSearcher implements QueryMatcher {
+    public static final String SEARCH_AFTER_PARAMETER = "search_after";
+    public static final String TIMEOUT_PARAMETER = "timeout";
+    public static final String RESCORE_WINDOW_PARAMETER = "rescore_window";
+    public static final String FACETS_CATEGORIES_PARAMETER = "facets_categories";
+    public static final String FACETS_LIMIT_PARAMETER = "facets_limit";
+    public static final String FACETS_SAMPLE_PARAMETER = "facets_sample_threshold";
+    public static final String FACETS_RANGES_PARAMETER = "facets_ranges";
+    
     @SuppressWarnings("unused")
 	private static final Logger logger = Logger.getLogger(Execute.whoAmI());
 
@@ -54,18 +71,39 @@ public class Blender extends AbstractDocumentSearcher implements QueryMatcher {
     private final Suggestor suggestor;
     private final Promoter promoter;
     private final BoostsManager boostsManager;
+    private final QueryResultCache resultCache;
+    private final int defaultTimeout;
 
     public Blender(LargeScaleIndex lsi, RealTimeIndex rti, Suggestor suggestor, Promoter promoter, BoostsManager boostsManager) {
+        this(lsi, rti, suggestor, promoter, boostsManager, null);
+    }
+
+    /**
+     * @param resultCache cache for the results of {@link #findMatches(Query, int, int)}, 
+     * or null to always run queries against the indexes.
+     */
+    public Blender(LargeScaleIndex lsi, RealTimeIndex rti, Suggestor suggestor, Promoter promoter, BoostsManager boostsManager, QueryResultCache resultCache) {
+        this(lsi, rti, suggestor, promoter, boostsManager, resultCache, 0);
+    }
+
+    /**
+     * @param defaultTimeout the milliseconds a search can run before returning the results
+     * found so far, when no 'timeout' is given for it. 0 means no limit.
+     */
+    public Blender(LargeScaleIndex lsi, RealTimeIndex rti, Suggestor suggestor, Promoter promoter, BoostsManager boostsManager, QueryResultCache resultCache, int defaultTimeout) {
         Preconditions.checkNotNull(lsi);
         Preconditions.checkNotNull(rti);
         Preconditions.checkNotNull(promoter);
         Preconditions.checkNotNull(suggestor);
         Preconditions.checkNotNull(boostsManager);
+        Preconditions.checkArgument(defaultTimeout >= 0);
         this.lsi = lsi;
         this.rti = rti;
         this.suggestor = suggestor;
         this.promoter = promoter;
         this.boostsManager = boostsManager;
+        this.resultCache = resultCache;
+        this.defaultTimeout = defaultTimeout;
     };
 
     private QueryMatcher getSearcher() {
@@ -85,7 +123,12 @@ public class Blender extends AbstractDocumentSearcher implements QueryMatcher {
     public TopMatches findMatches(Query query, int limit, int scoringFunctionIndex) throws InterruptedException {
         Preconditions.checkNotNull(query);
         Preconditions.checkArgument(limit > 0);
-        TopMatches retVal = getSearcher().findMatches(query, limit, scoringFunctionIndex);
+        TopMatches retVal;
+        if (resultCache != null) {
+            retVal = resultCache.findMatches(getSearcher(), query, limit, scoringFunctionIndex);
+        } else {
+            retVal = getSearcher().findMatches(query, limit, scoringFunctionIndex);
+        }
     	suggestor.noteQuery(query, retVal.getTotalMatches());
     	return retVal;
     }
@@ -95,8 +138,59 @@ public class Blender extends AbstractDocumentSearcher implements QueryMatcher {
 		return getSearcher().hasChanges(docid);
 	}
 
+    /**
+     * @param extraParameters besides 'fetch_variables' and 'fetch_categories', it 
+     *      processes 'search_after'. If present, the results include a cursor for the
+     *      next page, and its value should be empty for the first page or the token
+     *      of the previous page's cursor. The start is then relative to the cursor.
+     *      Also 'timeout', the milliseconds after which the search stops and returns the
+     *      best results found so far, flagged as truncated.
+     *      And 'rescore_window', the number of best matches by textual score that are
+     *      scored with the scoring function, the rest are left out of the results.
+     *      'facets_categories' is a comma separated list of the categories to compute
+     *      facets for. 'facets_limit' is the number of values with the most matches to
+     *      return per category, either a number for all categories or a comma separated
+     *      list of 'category:number', which may include a plain number for the rest.
+     *      And 'facets_sample_threshold', the number of matches above which facets are
+     *      estimated from a sample of the matches, flagged as approximate.
+     *      'facets_ranges' is a semicolon separated list of 'var[n]:edges' or
+     *      'timestamp:edges', with comma separated edges, to count the matches in the
+     *      ranges between them, returned apart from the categories as 'var[n]' or 'timestamp'.
+     */
 	@Override
     public SearchResults search(Query query, int start, int limit, int scoringFunctionIndex, Map<String, String> extraParameters) throws InterruptedException {
+        String searchAfter = extraParameters.get(SEARCH_AFTER_PARAMETER);
+        if (searchAfter != null && searchAfter.length() > 0) {
+            // only results after the previous page are collected, instead of all the previous pages
+            query = query.after(SearchCursor.fromToken(searchAfter));
+        }
+        int timeout = defaultTimeout;
+        String timeoutParameter = extraParameters.get(TIMEOUT_PARAMETER);
+        if (timeoutParameter != null) {
+            try {
+                timeout = Integer.parseInt(timeoutParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid timeout: " + timeoutParameter);
+            }
+        }
+        if (timeout > 0 && query.getDeadline() == 0) {
+            query = query.withDeadline(System.currentTimeMillis() + timeout);
+        }
+        String rescoreWindowParameter = extraParameters.get(RESCORE_WINDOW_PARAMETER);
+        if (rescoreWindowParameter != null) {
+            int rescoreWindow;
+            try {
+                rescoreWindow = Integer.parseInt(rescoreWindowParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid rescore window: " + rescoreWindowParameter);
+            }
+            query = query.withRescoreWindow(rescoreWindow);
+        }
+        FacetingRequest facetingRequest = parseFacetingRequest(extraParameters);
+        if (facetingRequest != null) {
+            query = query.withFacetingRequest(facetingRequest);
+        }
+        
         TopMatches matches = this.findMatches(query, start+limit, scoringFunctionIndex);
         Iterable<ScoredMatch> ids = matches;
         
@@ -104,6 +198,16 @@ public class Blender extends AbstractDocumentSearcher implements QueryMatcher {
         ids = SkippingIterable.skipping(ids, start);
         ids = CollectionsUtil.limit(ids, limit);
         
+        SearchCursor nextCursor = null;
+        if (searchAfter != null) {
+            List<ScoredMatch> page = Lists.newArrayList(ids);
+            if (page.size() == limit) {
+                ScoredMatch last = page.get(page.size() - 1);
+                nextCursor = new SearchCursor(last.getScore(), last.getDocId().copy(), query.getNow());
+            }
+            ids = page;
+        }
+        
         // base transform function
         final Function<ScoredMatch, SearchResult> baseTransform = ScoredMatch.SEARCH_RESULT_FUNCTION;
         Function<ScoredMatch, SearchResult> transformFunction = baseTransform;
@@ -141,7 +245,88 @@ public class Blender extends AbstractDocumentSearcher implements QueryMatcher {
         // fix'em in a list
         results = Lists.newArrayList(results);
 
-        return new SearchResults(results, matches.getTotalMatches(), matches.getFacetingResults());
+        // the matchers return whole counts, each category is limited only once they are merged
+        Map<String, Multiset<String>> facets = query.getFacetingRequest().limit(matches.getFacetingResults());
+
+        return new SearchResults(results, matches.getTotalMatches(), facets, null, nextCursor, matches.isTruncated(), matches.isFacetingApproximate(), matches.getRangeFacetingResults());
+    }
+
+    /**
+     * Returns the faceting request in the parameters, or null if there is none.
+     */
+    private static FacetingRequest parseFacetingRequest(Map<String, String> extraParameters) {
+        String categoriesParameter = extraParameters.get(FACETS_CATEGORIES_PARAMETER);
+        String limitParameter = extraParameters.get(FACETS_LIMIT_PARAMETER);
+        String sampleParameter = extraParameters.get(FACETS_SAMPLE_PARAMETER);
+        String rangesParameter = extraParameters.get(FACETS_RANGES_PARAMETER);
+        if (categoriesParameter == null && limitParameter == null && sampleParameter == null && rangesParameter == null) {
+            return null;
+        }
+        Set<String> categories = null;
+        if (categoriesParameter != null) {
+            categories = Sets.newHashSet(Splitter.on(',').trimResults().omitEmptyStrings().split(categoriesParameter));
+        }
+        int defaultLimit = 0;
+        Map<String, Integer> limits = Maps.newHashMap();
+        if (limitParameter != null) {
+            for (String limit : Splitter.on(',').trimResults().omitEmptyStrings().split(limitParameter)) {
+                int colon = limit.lastIndexOf(':');
+                try {
+                    if (colon < 0) {
+                        defaultLimit = Integer.parseInt(limit);
+                    } else {
+                        limits.put(limit.substring(0, colon), Integer.parseInt(limit.substring(colon + 1)));
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid facets limit: " + limit);
+                }
+            }
+        }
+        int sampleThreshold = 0;
+        if (sampleParameter != null) {
+            try {
+                sampleThreshold = Integer.parseInt(sampleParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid facets sample threshold: " + sampleParameter);
+            }
+        }
+        List<FacetingRequest.Range> ranges = Lists.newArrayList();
+        if (rangesParameter != null) {
+            for (String range : Splitter.on(';').trimResults().omitEmptyStrings().split(rangesParameter)) {
+                ranges.add(parseRange(range));
+            }
+        }
+        return new FacetingRequest(categories, defaultLimit, limits, sampleThreshold, ranges);
+    }
+
+    private static FacetingRequest.Range parseRange(String range) {
+        int colon = range.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Invalid facets range: " + range);
+        }
+        String source = range.substring(0, colon).trim();
+        int variable;
+        if (source.equals("timestamp")) {
+            variable = DynamicDataManager.TIMESTAMP_VARIABLE;
+        } else if (source.startsWith("var[") && source.endsWith("]")) {
+            try {
+                variable = Integer.parseInt(source.substring(4, source.length() - 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid facets range variable: " + source);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid facets range variable: " + source);
+        }
+        List<String> edgeStrings = Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(range.substring(colon + 1)));
+        double[] edges = new double[edgeStrings.size()];
+        for (int i = 0; i < edges.length; i++) {
+            try {
+                edges[i] = Double.parseDouble(edgeStrings.get(i));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid facets range edge: " + edgeStrings.get(i));
+            }
+        }
+        return new FacetingRequest.Range(variable, edges);
     }
 	
     @Override
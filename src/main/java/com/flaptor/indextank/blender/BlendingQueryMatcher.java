@@ -29,6 +29,7 @@ import com.flaptor.indextank.index.TopMatches;
 import com.flaptor.indextank.index.results.SimpleScoredDocIds;
 import com.flaptor.indextank.index.scorer.FacetingManager;
 import com.flaptor.indextank.query.Query;
+import com.flaptor.indextank.query.SearchCursor;
 import com.flaptor.util.CollectionsUtil;
 import com.flaptor.util.Execute;
 import com.google.common.base.Predicate;
@@ -67,39 +68,53 @@ public class BlendingQueryMatcher implements QueryMatcher {
 	public TopMatches findMatches(Query query, Predicate<DocId> docFilter, int limit, int scoringFunctionIndex) throws InterruptedException {
 		Predicate<DocId> historyFilter = notModified(currentSearcher, docFilter);
 		
-        /* instrumentation */ long historyStart = System.currentTimeMillis();
-		
-        TopMatches history = historySearcher.findMatches(query, historyFilter, limit, scoringFunctionIndex);
-		int historyMatches = history.getTotalMatches();
-		
-		/* instrumentation */ long currentStart = System.currentTimeMillis();
+        /* instrumentation */ long currentStart = System.currentTimeMillis();
 		
         TopMatches current = docFilter == null ? currentSearcher.findMatches(query, limit, scoringFunctionIndex) : currentSearcher.findMatches(query, docFilter, limit, scoringFunctionIndex);
 		int currentMatches = current.getTotalMatches();
+		List<ScoredMatch> currentResults = Lists.newArrayList(current);
+		
+		// current results that rank before the cursor hide history results but
+		// won't be part of this page, so more history results are needed
+		int historyLimit = limit;
+		if (query.getAfter() != null) {
+			historyLimit += currentResults.size() - Iterables.size(Iterables.filter(currentResults, after(query.getAfter())));
+		}
+		
+        /* instrumentation */ long historyStart = System.currentTimeMillis();
+		
+        TopMatches history = historySearcher.findMatches(query, historyFilter, historyLimit, scoringFunctionIndex);
+		int historyMatches = history.getTotalMatches();
 
 		/* instrumentation */ long endSearch = System.currentTimeMillis();
 		
-		List<ScoredMatch> currentResults = Lists.newArrayList(current);
-		
 		Iterable<ScoredMatch> historyResults = filterIds(history, getIds(currentResults));
 		List<ScoredMatch> results = mergeIntoList(currentResults, historyResults, limit);
-        int matches = Math.abs(currentMatches) + Math.abs(historyMatches);
-		if (results.size() < limit) {
-			matches = results.size();
+		if (query.getAfter() != null) {
+			// current results may override history results that were already returned
+			// in previous pages (i.e. promoted results), those are dropped only now
+			results = Lists.newArrayList(Iterables.filter(results, after(query.getAfter())));
 		}
-		
-		if (currentMatches < 0 || historyMatches < 0) {
-		    matches = -matches;
+        int matches = currentMatches + historyMatches;
+        boolean truncated = current.isTruncated() || history.isTruncated();
+		// when resuming from a cursor, a short page doesn't mean that the previous
+		// pages had no more matches than the ones seen here
+		if (results.size() < limit && query.getAfter() == null && !truncated) {
+			matches = results.size();
 		}
 		
 		/* instrumentation */  long end = System.currentTimeMillis();
 		
-        logger.debug("(Search) historic searcher took: " + (currentStart - historyStart) + " ms., current searcher took: " +
-                + (endSearch - currentStart) + " ms., merge took: " + (end - endSearch) + " ms.");
+        logger.debug("(Search) historic searcher took: " + (endSearch - historyStart) + " ms., current searcher took: " +
+                + (historyStart - currentStart) + " ms., merge took: " + (end - endSearch) + " ms.");
         
+        // the counts are merged whole, they are limited by the blender
         Map<String, Multiset<String>> facets = FacetingManager.mergeFacets(history.getFacetingResults(), current.getFacetingResults());
+        boolean facetingApproximate = current.isFacetingApproximate() || history.isFacetingApproximate();
+        // ranges are never limited, each side has the counts of all of them
+        Map<String, Multiset<String>> rangeFacets = FacetingManager.mergeFacets(history.getRangeFacetingResults(), current.getRangeFacetingResults());
         
-		return new SimpleScoredDocIds(results, limit, matches, facets);
+		return new SimpleScoredDocIds(results, limit, matches, facets, truncated, facetingApproximate, rangeFacets);
 	}
 
 	public TopMatches findMatches(Query query, int limit, int scoringFunctionIndex) throws InterruptedException {
@@ -129,6 +144,15 @@ public class BlendingQueryMatcher implements QueryMatcher {
 		});
 	}
 
+	private static Predicate<ScoredMatch> after(final SearchCursor cursor) {
+		return new Predicate<ScoredMatch>() {
+			@Override
+			public boolean apply(ScoredMatch r) {
+				return cursor.precedes(r);
+			}
+		};
+	}
+
 	private static Predicate<DocId> notModified(final QueryMatcher s, final Predicate<DocId> andFilter) {
 		return new Predicate<DocId>() {
 			@Override
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.blender;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.flaptor.indextank.index.BasicPromoter;
+import com.flaptor.indextank.index.QueryMatcher;
+import com.flaptor.indextank.index.TopMatches;
+import com.flaptor.indextank.index.lsi.LargeScaleIndex;
+import com.flaptor.indextank.index.results.SimpleScoredDocIds;
+import com.flaptor.indextank.index.rti.RealTimeIndex;
+import com.flaptor.indextank.index.scorer.BoostsScorer;
+import com.flaptor.indextank.index.scorer.DynamicDataManager;
+import com.flaptor.indextank.index.scorer.FacetingRequest;
+import com.flaptor.indextank.index.scorer.MatchFilter;
+import com.flaptor.indextank.query.Query;
+import com.flaptor.indextank.query.QueryNode;
+import com.flaptor.indextank.query.QueryVariables;
+import com.flaptor.indextank.query.SearchCursor;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+
+/**
+ * Size bounded LRU cache of {@link TopMatches}, keyed by everything that
+ * determines the results of a query: the query tree, the original string
+ * (used by the promoter), facet filters, range filters, faceting request, scoring function,
+ * rescore window, limit and query variables.
+ * <br><br>
+ * Each entry remembers the generations of the LSI, the RTI, the dynamic
+ * data, the scoring functions and the promoter at the time it was computed,
+ * and it's discarded when any of them has moved forward. Entries also expire
+ * after <code>maxAge</code> seconds.
+ * <br><br>
+ * Queries scored by functions that read the documents' age are not cached,
+ * their results change with the query time. Cached results, including their
+ * facets, are immutable, since they are shared by every query that hits them.
+ *
+ * @author Flaptor Team
+ */
+public class QueryResultCache {
+
+    private final int maxEntries;
+    private final int maxAge;
+    private final LargeScaleIndex lsi;
+    private final RealTimeIndex rti;
+    private final DynamicDataManager dynamicDataManager;
+    private final BoostsScorer scorer;
+    private final BasicPromoter promoter;
+    private final Map<Key, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of results to keep, least recently used go first.
+     * @param maxAge the number of seconds after which an entry is considered stale.
+     */
+    public QueryResultCache(final int maxEntries, int maxAge, LargeScaleIndex lsi, RealTimeIndex rti, DynamicDataManager dynamicDataManager, BoostsScorer scorer, BasicPromoter promoter) {
+        Preconditions.checkArgument(maxEntries > 0);
+        Preconditions.checkArgument(maxAge > 0);
+        Preconditions.checkNotNull(lsi);
+        Preconditions.checkNotNull(rti);
+        Preconditions.checkNotNull(dynamicDataManager);
+        Preconditions.checkNotNull(scorer);
+        Preconditions.checkNotNull(promoter);
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+        this.lsi = lsi;
+        this.rti = rti;
+        this.dynamicDataManager = dynamicDataManager;
+        this.scorer = scorer;
+        this.promoter = promoter;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached results for the query if there is a valid entry for it,
+     * otherwise it runs the query on the given matcher and caches its results.
+     */
+    public TopMatches findMatches(QueryMatcher matcher, Query query, int limit, int scoringFunctionIndex) throws InterruptedException {
+        if (scorer.dependsOnTime(scoringFunctionIndex)) {
+            bypasses.incrementAndGet();
+            return matcher.findMatches(query, limit, scoringFunctionIndex);
+        }
+        Key key = new Key(query, limit, scoringFunctionIndex);
+        // read the generations before running the query, so that any change that
+        // happens while it runs leaves the new entry already invalid.
+        long[] generations = currentGenerations();
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            if (entry.isValid(generations, query.getNow() - maxAge)) {
+                hits.incrementAndGet();
+                return entry.matches;
+            }
+            invalidations.incrementAndGet();
+        }
+        misses.incrementAndGet();
+
+        TopMatches matches = matcher.findMatches(query, limit, scoringFunctionIndex);
+        if (matches.isTruncated()) {
+            // partial results depend on how long the query took, don't keep them
+            return matches;
+        }
+        // keep a copy that can be iterated any number of times
+        matches = new SimpleScoredDocIds(ImmutableList.copyOf(matches), matches.getLimit(), matches.getTotalMatches(), immutableCopy(matches.getFacetingResults()), false, matches.isFacetingApproximate(), immutableCopy(matches.getRangeFacetingResults()));
+
+        synchronized (entries) {
+            entries.put(key, new Entry(matches, generations, query.getNow()));
+        }
+        return matches;
+    }
+
+    private static Map<String, Multiset<String>> immutableCopy(Map<String, Multiset<String>> facets) {
+        if (facets == null) {
+            return null;
+        }
+        ImmutableMap.Builder<String, Multiset<String>> copy = ImmutableMap.builder();
+        for (Map.Entry<String, Multiset<String>> entry : facets.entrySet()) {
+            copy.put(entry.getKey(), ImmutableMultiset.copyOf(entry.getValue()));
+        }
+        return copy.build();
+    }
+
+    private long[] currentGenerations() {
+        return new long[] { lsi.getGeneration(), rti.getGeneration(), dynamicDataManager.getGeneration(), scorer.getGeneration(), promoter.getGeneration() };
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public Map<String, String> getStats() {
+        Map<String, String> stats = Maps.newHashMap();
+        long h = hits.get();
+        long m = misses.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        stats.put("query_cache_size", String.valueOf(size));
+        stats.put("query_cache_max_size", String.valueOf(maxEntries));
+        stats.put("query_cache_hits", String.valueOf(h));
+        stats.put("query_cache_misses", String.valueOf(m));
+        stats.put("query_cache_invalidations", String.valueOf(invalidations.get()));
+        stats.put("query_cache_bypasses", String.valueOf(bypasses.get()));
+        stats.put("query_cache_hit_rate", String.valueOf(h + m == 0 ? 0 : (double) h / (h + m)));
+        return stats;
+    }
+
+    private static class Entry {
+        private final TopMatches matches;
+        private final long[] generations;
+        private final int now;
+
+        Entry(TopMatches matches, long[] generations, int now) {
+            this.matches = matches;
+            this.generations = generations;
+            this.now = now;
+        }
+
+        boolean isValid(long[] current, int oldest) {
+            return now > oldest && Arrays.equals(generations, current);
+        }
+    }
+
+    /**
+     * Same as {@link Query#equals(Object)} but ignoring the query time,
+     * plus the limit and the scoring function.
+     */
+    private static class Key {
+        private final QueryNode root;
+        private final String originalStr;
+        private final QueryVariables vars;
+        private final Multimap<String, String> filteringFacets;
+        private final MatchFilter rangeFilter;
+        private final FacetingRequest facetingRequest;
+        private final SearchCursor after;
+        private final int rescoreWindow;
+        private final int limit;
+        private final int scoringFunctionIndex;
+
+        Key(Query query, int limit, int scoringFunctionIndex) {
+            this.root = query.getRoot();
+            this.originalStr = query.getOriginalStr();
+            this.vars = query.getVars();
+            this.filteringFacets = query.getFilteringFacets();
+            this.rangeFilter = query.getRangeFilter();
+            this.facetingRequest = query.getFacetingRequest();
+            this.after = query.getAfter();
+            this.rescoreWindow = query.getRescoreWindow();
+            this.limit = limit;
+            this.scoringFunctionIndex = scoringFunctionIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(root, originalStr, vars, filteringFacets, rangeFilter, facetingRequest, after, rescoreWindow, limit, scoringFunctionIndex);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return limit == other.limit
+                && rescoreWindow == other.rescoreWindow
+                && scoringFunctionIndex == other.scoringFunctionIndex
+                && Objects.equal(root, other.root)
+                && Objects.equal(originalStr, other.originalStr)
+                && Objects.equal(vars, other.vars)
+                && Objects.equal(filteringFacets, other.filteringFacets)
+                && Objects.equal(rangeFilter, other.rangeFilter)
+                && Objects.equal(facetingRequest, other.facetingRequest)
+                && Objects.equal(after, other.after);
+        }
+    }
+
+}
@@ -29,6 +29,7 @@ import org.apache.log4j.Logger;
 
 import com.flaptor.indextank.BoostingIndexer;
 import com.flaptor.indextank.IndexRecoverer;
+import com.flaptor.indextank.blender.QueryResultCache;
 import com.flaptor.indextank.index.Document;
 import com.flaptor.indextank.index.Promoter;
 import com.flaptor.indextank.index.lsi.DumpCompletionListener;
@@ -62,8 +63,16 @@ public class Dealer implements DumpCompletionListener, BoostingIndexer {
     private int rtiSize;
 
 	private final DynamicDataManager dynamicDataManager;
+	private final QueryResultCache resultCache;
 
     public Dealer(LargeScaleIndex lsi, RealTimeIndex rti, Suggestor suggestor, DynamicDataManager dynamicDataManager, int rtiSize, Promoter promoter, UserFunctionsManager functionsManager) {
+        this(lsi, rti, suggestor, dynamicDataManager, rtiSize, promoter, functionsManager, null);
+    }
+
+    /**
+     * @param resultCache the searcher's result cache, only used to report its stats. May be null.
+     */
+    public Dealer(LargeScaleIndex lsi, RealTimeIndex rti, Suggestor suggestor, DynamicDataManager dynamicDataManager, int rtiSize, Promoter promoter, UserFunctionsManager functionsManager, QueryResultCache resultCache) {
 		Preconditions.checkNotNull(lsi);
         Preconditions.checkNotNull(rti);
         Preconditions.checkNotNull(suggestor);
@@ -81,6 +90,7 @@ public class Dealer implements DumpCompletionListener, BoostingIndexer {
         this.timeOfMark = 0;
         this.promoter = promoter;
         this.dumpInProgress = false;
+        this.resultCache = resultCache;
     }
 
     @Override
@@ -311,6 +321,9 @@ public class Dealer implements DumpCompletionListener, BoostingIndexer {
         stats.putAll(functionsManager.getStats());
         stats.putAll(promoter.getStats());
         stats.putAll(dynamicDataManager.getStats());
+        if (resultCache != null) {
+            stats.putAll(resultCache.getStats());
+        }
         stats.put("dealer_last_mark", String.valueOf(this.timeOfMark));
         stats.put("dealer_dump_in_progress", String.valueOf(dumpInProgress));
         stats.put("dealer_doc_count", String.valueOf(docCount));
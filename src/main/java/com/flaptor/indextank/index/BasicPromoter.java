@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -40,6 +41,7 @@ public class BasicPromoter extends AbstractPromoter {
     private static final String MAIN_FILE_NAME = "promoter";
     private final ConcurrentMap<String, String> storage;
     private final File backupDir;
+    private final AtomicLong generation = new AtomicLong();
 
     /**
      * Constructor.
@@ -89,6 +91,14 @@ public class BasicPromoter extends AbstractPromoter {
         Preconditions.checkNotNull(docId);
         Preconditions.checkNotNull(queryStr);
         storage.put(queryStr, docId);
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Returns a counter that is incremented every time a result is promoted.
+     */
+    public long getGeneration() {
+        return generation.get();
     }
 
     @Override
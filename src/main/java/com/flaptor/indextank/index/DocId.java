@@ -23,6 +23,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 
 public class DocId implements Serializable, Comparable<DocId> {
@@ -54,16 +55,31 @@ public class DocId implements Serializable, Comparable<DocId> {
     public int hashCode() {
         int h = hash;
         if (h == 0) {
-            int off = start; 
-            byte[] buf = buffer;
-            int len = count;
-            for (int i = 0; i < len; i++) {
-                h = 31*h + buf[off++];
-            }
+            h = hash(buffer, start, count);
             hash = h;
         }
         return h;
     }
+
+    /**
+     * Returns the hash code of the docid with the given bytes, without building it.
+     */
+    public static int hash(byte[] buffer, int start, int count) {
+        int h = 0;
+        for (int i = 0; i < count; i++) {
+            h = 31*h + buffer[start + i];
+        }
+        return h;
+    }
+
+    /**
+     * Writes the bytes of this docid to the buffer at the given position.
+     */
+    public void writeBytes(ByteBuffer target, int position) {
+        for (int i = 0; i < count; i++) {
+            target.put(position + i, buffer[start + i]);
+        }
+    }
     
     @Override
     public boolean equals(Object obj) {
@@ -93,6 +109,28 @@ public class DocId implements Serializable, Comparable<DocId> {
         return new String(buffer, start, count);
     }
 
+    /**
+     * Returns the number of bytes of this docid.
+     */
+    public int length() {
+        return count;
+    }
+
+    /**
+     * Returns whether this docid's bytes are the ones in the buffer at the given position.
+     */
+    public boolean equalsBytes(ByteBuffer other, int position, int length) {
+        if (length != count) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != other.get(position + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void writeObject(ObjectOutputStream oos) throws IOException {
         oos.writeInt(count);
         oos.write(buffer, start, count);
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Append-only store of docids' bytes in large off-heap slabs, addressed by a
+ * long holding the slab and the position in it. Each docid is written as its
+ * length followed by its bytes, and never spans two slabs.
+ * <br><br>
+ * Appends must be synchronized by the caller, reads of addresses returned by
+ * appends that happened before need no locking. Space isn't reclaimed: docids
+ * no longer used are counted as dead, and the arena is expected to be rebuilt
+ * by its owner (see {@link DocumentOrdinals#compactArena()}).
+ *
+ * @author Flaptor Team
+ */
+class DocIdArena {
+
+    private static final int SLAB_SIZE = 1 << 20;
+
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private int position = SLAB_SIZE;
+    private long usedBytes;
+    private long deadBytes;
+
+    /**
+     * Appends the docid and returns its address.
+     */
+    long append(DocId docId) {
+        int size = 4 + docId.length();
+        if (position + size > SLAB_SIZE || slabs.length == 0) {
+            ByteBuffer[] newSlabs = new ByteBuffer[slabs.length + 1];
+            System.arraycopy(slabs, 0, newSlabs, 0, slabs.length);
+            newSlabs[slabs.length] = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, size));
+            slabs = newSlabs;
+            position = 0;
+        }
+        int slab = slabs.length - 1;
+        ByteBuffer buffer = slabs[slab];
+        buffer.putInt(position, docId.length());
+        docId.writeBytes(buffer, position + 4);
+        long address = ((long) slab << 32) | position;
+        position += size;
+        usedBytes += size;
+        return address;
+    }
+
+    /**
+     * Counts the docid at the address as no longer used.
+     */
+    void free(long address) {
+        deadBytes += 4 + slab(address).getInt(offset(address));
+    }
+
+    boolean matches(long address, DocId docId) {
+        ByteBuffer slab = slab(address);
+        int offset = offset(address);
+        return docId.equalsBytes(slab, offset + 4, slab.getInt(offset));
+    }
+
+    int hash(long address) {
+        ByteBuffer slab = slab(address);
+        int offset = offset(address);
+        int count = slab.getInt(offset);
+        int h = 0;
+        for (int i = 0; i < count; i++) {
+            h = 31*h + slab.get(offset + 4 + i);
+        }
+        return h;
+    }
+
+    DocId getDocId(long address) {
+        ByteBuffer slab = slab(address);
+        int offset = offset(address);
+        byte[] bytes = new byte[slab.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = slab.get(offset + 4 + i);
+        }
+        return new DocId(bytes, 0, bytes.length);
+    }
+
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    long getDeadBytes() {
+        return deadBytes;
+    }
+
+    private ByteBuffer slab(long address) {
+        return slabs[(int) (address >>> 32)];
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+/**
+ * Registry of dense int ordinals for documents, so that per-document data can
+ * be kept in arrays. A document keeps its ordinal until it's released, and
+ * released ordinals are given to the next documents registered.
+ * <br><br>
+ * The ordinals are those of the dynamic data (see
+ * {@link com.flaptor.indextank.index.scorer.DynamicDataManager#getDocumentOrdinals()}),
+ * and they key its rows and the static rank columns. A match is resolved to
+ * its ordinal once, when its data is fetched for scoring, and filters, faceters
+ * and scorers take it from that data. The matchers' decoding and the blending
+ * of their results, the storage and the promoter still identify documents by
+ * their {@link DocId}.
+ * <br><br>
+ * Ordinals can start from a {@link Base} read from disk, whose documents keep
+ * the ordinals in it. The documents registered since are interned in a
+ * {@link DocIdArena}, found through an open addressing index of their ordinals,
+ * so they take no objects on the heap. Released documents of the base are
+ * kept in a bitset, released docids in the arena are reclaimed by
+ * {@link #compactArena()}.
+ * <br><br>
+ * Lookups need no locking.
+ *
+ * @author Flaptor Team
+ */
+public class DocumentOrdinals {
+
+    /**
+     * Ordinals of documents 0 to count - 1, as persisted.
+     */
+    public interface Base {
+        int getCount();
+        /**
+         * Returns the ordinal of the document, or -1 if it's not in the base.
+         */
+        int find(DocId docId);
+        DocId getDocId(int ordinal);
+    }
+
+    /**
+     * Notified of every released ordinal, before it can be given to another document.
+     * Called holding the registry's lock, so it must not block.
+     */
+    public interface ReleaseListener {
+        void released(int ordinal);
+    }
+
+    /* index slots hold the ordinal plus one, or one of these */
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+    private static final long NO_ADDRESS = -1;
+
+    private volatile AtomicIntegerArray index = new AtomicIntegerArray(16);
+    private volatile Docids docids = new Docids(new DocIdArena(), newAddresses(16));
+    private Base base;
+    private AtomicLongArray released;
+    private final List<ReleaseListener> listeners = new CopyOnWriteArrayList<ReleaseListener>();
+
+    // guarded by this
+    private int next;
+    private int[] free = new int[16];
+    private int freeCount;
+    private int usedSlots;
+    private volatile int size;
+
+    /**
+     * Starts from the ordinals in the base. Must be called before any document
+     * is registered.
+     */
+    public synchronized void load(Base base) {
+        Preconditions.checkState(next == 0, "Documents were already registered");
+        this.released = new AtomicLongArray((base.getCount() + 63) / 64);
+        this.base = base;
+        this.next = base.getCount();
+        this.size = base.getCount();
+    }
+
+    public void addReleaseListener(ReleaseListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the ordinal of the document, or -1 if it's not registered.
+     */
+    public int get(DocId docId) {
+        int slot = findSlot(docId);
+        if (slot >= 0) {
+            return index.get(slot) - 1;
+        }
+        return findInBase(docId);
+    }
+
+    /**
+     * Returns the ordinal of the document, registering it if it wasn't.
+     */
+    public synchronized int getOrCreate(DocId docId) {
+        int ordinal = get(docId);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+        int newOrdinal = freeCount > 0 ? free[--freeCount] : next++;
+        Docids current = docids;
+        if (newOrdinal >= current.addresses.length) {
+            long[] newAddresses = newAddresses(Math.max(newOrdinal + 1, current.addresses.length * 2));
+            System.arraycopy(current.addresses, 0, newAddresses, 0, current.addresses.length);
+            current = new Docids(current.arena, newAddresses);
+            docids = current;
+        }
+        current.addresses[newOrdinal] = current.arena.append(docId);
+        insert(index, docId.hashCode(), newOrdinal);
+        size++;
+        return newOrdinal;
+    }
+
+    /**
+     * Releases the document's ordinal, to be given to another document.
+     * 
+     * @return the released ordinal, or -1 if the document wasn't registered.
+     */
+    public synchronized int release(DocId docId) {
+        int ordinal;
+        int slot = findSlot(docId);
+        if (slot >= 0) {
+            ordinal = index.get(slot) - 1;
+            index.set(slot, DELETED);
+            Docids current = docids;
+            current.arena.free(current.addresses[ordinal]);
+            current.addresses[ordinal] = NO_ADDRESS;
+        } else {
+            ordinal = findInBase(docId);
+            if (ordinal < 0) {
+                return -1;
+            }
+            long bit = 1L << (ordinal % 64);
+            released.set(ordinal / 64, released.get(ordinal / 64) | bit);
+        }
+        for (ReleaseListener listener : listeners) {
+            listener.released(ordinal);
+        }
+        if (freeCount == free.length) {
+            int[] newFree = new int[freeCount * 2];
+            System.arraycopy(free, 0, newFree, 0, freeCount);
+            free = newFree;
+        }
+        free[freeCount++] = ordinal;
+        size--;
+        return ordinal;
+    }
+
+    /**
+     * Returns the number of registered documents.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns an upper bound of the ordinals given so far. 
+     */
+    public synchronized int getCapacity() {
+        return next;
+    }
+
+    /**
+     * Returns the number of bytes taken by the docids registered since the base,
+     * including the ones released.
+     */
+    public synchronized long getArenaBytes() {
+        return docids.arena.getUsedBytes();
+    }
+
+    /**
+     * Returns the number of bytes of the arena taken by released docids.
+     */
+    public synchronized long getDeadArenaBytes() {
+        return docids.arena.getDeadBytes();
+    }
+
+    /**
+     * Rebuilds the arena with the registered docids only, if the released ones take
+     * more than half the space of the registered ones. Lookups are not blocked, they
+     * keep reading the old arena until the new one is swapped in.
+     * 
+     * @return whether the arena was rebuilt.
+     */
+    public synchronized boolean compactArena() {
+        Docids current = docids;
+        long dead = current.arena.getDeadBytes();
+        if (dead == 0 || dead <= (current.arena.getUsedBytes() - dead) / 2) {
+            return false;
+        }
+        DocIdArena arena = new DocIdArena();
+        long[] addresses = newAddresses(current.addresses.length);
+        for (int ordinal = 0; ordinal < addresses.length; ordinal++) {
+            if (current.addresses[ordinal] != NO_ADDRESS) {
+                addresses[ordinal] = arena.append(current.arena.getDocId(current.addresses[ordinal]));
+            }
+        }
+        docids = new Docids(arena, addresses);
+        return true;
+    }
+
+    /**
+     * Returns the registered documents with their ordinals. Docids are built as
+     * they are iterated.
+     */
+    public Iterable<Entry<DocId, Integer>> getEntries() {
+        final Base loaded = base;
+        final int count;
+        synchronized (this) {
+            count = next;
+        }
+        Iterable<Entry<DocId, Integer>> fromBase = new Iterable<Entry<DocId, Integer>>() {
+            @Override
+            public Iterator<Entry<DocId, Integer>> iterator() {
+                return new AbstractIterator<Entry<DocId, Integer>>() {
+                    private int ordinal = 0;
+                    @Override
+                    protected Entry<DocId, Integer> computeNext() {
+                        while (loaded != null && ordinal < loaded.getCount()) {
+                            int current = ordinal++;
+                            if (!isReleased(current)) {
+                                return Maps.immutableEntry(loaded.getDocId(current), current);
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+        Iterable<Entry<DocId, Integer>> added = new Iterable<Entry<DocId, Integer>>() {
+            @Override
+            public Iterator<Entry<DocId, Integer>> iterator() {
+                return new AbstractIterator<Entry<DocId, Integer>>() {
+                    private int ordinal = 0;
+                    @Override
+                    protected Entry<DocId, Integer> computeNext() {
+                        Docids current = docids;
+                        while (ordinal < count && ordinal < current.addresses.length) {
+                            long address = current.addresses[ordinal++];
+                            if (address != NO_ADDRESS) {
+                                return Maps.immutableEntry(current.arena.getDocId(address), ordinal - 1);
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+        return Iterables.concat(fromBase, added);
+    }
+
+    /**
+     * Returns the slot of the index holding the document, or -1.
+     */
+    private int findSlot(DocId docId) {
+        AtomicIntegerArray current = index;
+        int mask = current.length() - 1;
+        for (int slot = mix(docId.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int entry = current.get(slot);
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if (entry != DELETED) {
+                // the ordinal may have been released and taken since the slot was read
+                Docids found = docids;
+                long address = found.addresses[entry - 1];
+                if (address != NO_ADDRESS && found.arena.matches(address, docId)) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private int findInBase(DocId docId) {
+        if (base == null) {
+            return -1;
+        }
+        int ordinal = base.find(docId);
+        return ordinal < 0 || isReleased(ordinal) ? -1 : ordinal;
+    }
+
+    private boolean isReleased(int baseOrdinal) {
+        return (released.get(baseOrdinal / 64) & (1L << (baseOrdinal % 64))) != 0;
+    }
+
+    /**
+     * Adds the ordinal to the index, growing it when more than half its slots
+     * are taken. Deleted slots are reused, and dropped when the index grows.
+     */
+    private void insert(AtomicIntegerArray target, int hash, int ordinal) {
+        int mask = target.length() - 1;
+        int slot = mix(hash) & mask;
+        while (target.get(slot) > 0) {
+            slot = (slot + 1) & mask;
+        }
+        if (target.get(slot) == EMPTY) {
+            usedSlots++;
+        }
+        target.set(slot, ordinal + 1);
+        if (target == index && usedSlots * 2 > target.length()) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        long[] current = docids.addresses;
+        int live = 0;
+        for (long address : current) {
+            if (address != NO_ADDRESS) {
+                live++;
+            }
+        }
+        int capacity = 16;
+        while (capacity < live * 4) {
+            capacity <<= 1;
+        }
+        AtomicIntegerArray newIndex = new AtomicIntegerArray(capacity);
+        usedSlots = 0;
+        for (int ordinal = 0; ordinal < current.length; ordinal++) {
+            if (current[ordinal] != NO_ADDRESS) {
+                insert(newIndex, docids.arena.hash(current[ordinal]), ordinal);
+            }
+        }
+        index = newIndex;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The arena and the address in it of each ordinal's docid, NO_ADDRESS if it's
+     * not in the arena. Replaced as a whole when the addresses grow or the arena
+     * is rebuilt, so that readers always pair addresses with their arena.
+     */
+    private static class Docids {
+        private final DocIdArena arena;
+        private final long[] addresses;
+
+        Docids(DocIdArena arena, long[] addresses) {
+            this.arena = arena;
+            this.addresses = addresses;
+        }
+    }
+
+    private static long[] newAddresses(int length) {
+        long[] newAddresses = new long[length];
+        Arrays.fill(newAddresses, NO_ADDRESS);
+        return newAddresses;
+    }
+
+}
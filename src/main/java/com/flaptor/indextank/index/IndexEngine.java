@@ -20,8 +20,10 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -40,6 +42,7 @@ import com.flaptor.indextank.DocumentStoringIndexer;
 import com.flaptor.indextank.IndexRecoverer;
 import com.flaptor.indextank.LogIndexRecoverer;
 import com.flaptor.indextank.blender.Blender;
+import com.flaptor.indextank.blender.QueryResultCache;
 import com.flaptor.indextank.dealer.Dealer;
 import com.flaptor.indextank.index.lsi.LargeScaleIndex;
 import com.flaptor.indextank.index.rti.RealTimeIndex;
@@ -51,6 +54,9 @@ import com.flaptor.indextank.index.scorer.NoFacetingManager;
 import com.flaptor.indextank.index.scorer.ScoreFunction;
 import com.flaptor.indextank.index.scorer.UserFunctionsManager;
 import com.flaptor.indextank.index.storage.InMemoryStorage;
+import com.flaptor.indextank.index.storage.LogStructuredStorage;
+import com.flaptor.indextank.query.FuzzyTermQuery;
+import com.flaptor.indextank.query.IndexEngineAnalyzer;
 import com.flaptor.indextank.query.IndexEngineParser;
 import com.flaptor.indextank.query.analyzers.CompositeAnalyzer;
 import com.flaptor.indextank.query.analyzers.FilteringAnalyzer;
@@ -72,6 +78,7 @@ import com.flaptor.util.Execute;
 import com.flaptor.util.FileUtil;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  *
@@ -114,9 +121,12 @@ public class IndexEngine {
     private static final int DEFAULT_RTI_SIZE = 1000;
     private static final int DEFAULT_BDB_CACHE = 100;
     private static final int DEFAULT_MAX_SEARCH_QUEUE_LENGTH = 100;
+    private static final int DEFAULT_QUERY_CACHE_SIZE = 0;
+    private static final int DEFAULT_QUERY_CACHE_TTL = 60;
+    private static final int DEFAULT_QUERY_TIMEOUT = 0;
 
     public static enum SuggestValues { NO, QUERIES, DOCUMENTS};
-    public static enum StorageValues { NO, BDB, RAM, CASSANDRA };
+    public static enum StorageValues { NO, BDB, RAM, LOG, CASSANDRA };
     
     public IndexEngine( File baseDir, 
                         int basePort, 
@@ -184,6 +194,11 @@ public class IndexEngine {
     	    }
     	}
     	
+    	int maxFuzzyExpansions = FuzzyTermQuery.DEFAULT_MAX_EXPANSIONS;
+    	if (configuration.containsKey("fuzzy_max_expansions")) {
+    	    maxFuzzyExpansions = ((Long) configuration.get("fuzzy_max_expansions")).intValue();
+    	}
+    	
     	Map<Object, Object> analyzerConfiguration = (Map<Object, Object>) configuration.get("analyzer_config");
 
     	if (analyzerConfiguration != null) {
@@ -205,14 +220,21 @@ public class IndexEngine {
 				analyzer = buildAnalyzer(analyzerConfiguration);
 			}
 			
-			parser = new IndexEngineParser(defaultField, analyzer);
+			parser = new IndexEngineParser(defaultField, analyzer, maxFuzzyExpansions);
 		} else {
-			parser = new IndexEngineParser(defaultField);
+			parser = new IndexEngineParser(defaultField, new IndexEngineAnalyzer(), maxFuzzyExpansions);
 		}
     	
     	boostsManager = new DynamicDataManager(boostsSize, baseDir);
         
-    	scorer = new BoostsScorer(boostsManager, Maps.<Integer, ScoreFunction>newHashMap());
+    	Set<Integer> precomputedFunctions = Sets.newHashSet();
+    	if (configuration.containsKey("precomputed_functions")) {
+    	    for (Object functionIndex : (List<Object>) configuration.get("precomputed_functions")) {
+    	        precomputedFunctions.add(((Long) functionIndex).intValue());
+    	    }
+    	    logger.info("Precomputing the scores of functions " + precomputedFunctions);
+    	}
+    	scorer = new BoostsScorer(boostsManager, Maps.<Integer, ScoreFunction>newHashMap(), precomputedFunctions);
         
         functionsManager = new UserFunctionsManager(scorer);
         boolean someFunctionDefined = false;
@@ -249,8 +271,8 @@ public class IndexEngine {
         	facetingManager = new NoFacetingManager();
         }
         
-        lsi = new LargeScaleIndex(scorer, parser, baseDir, facetingManager);
-		rti = new RealTimeIndex(scorer, parser, rtiSize, facetingManager);
+        lsi = new LargeScaleIndex(scorer, parser, baseDir, facetingManager, boostsManager);
+		rti = new RealTimeIndex(scorer, parser, rtiSize, facetingManager, boostsManager);
         switch (suggest) {
             case NO:
                 suggestor = new NoSuggestor();
@@ -283,6 +305,10 @@ public class IndexEngine {
                 storage = new InMemoryStorage(baseDir, load);
                 logger.info("Using in-memory storage");
                 break;
+            case LOG:
+                storage = new LogStructuredStorage(baseDir, load);
+                logger.info("Using log-structured storage");
+                break;
             case NO:
                 storage = null;
                 logger.info("NOT Using storage");
@@ -290,8 +316,29 @@ public class IndexEngine {
         }
 
         promoter = new BasicPromoter(baseDir, load);
-        searcher = new Blender(lsi, rti, suggestor, promoter, boostsManager);
-        indexer = new Dealer(lsi, rti, suggestor, boostsManager, rtiSize, promoter, functionsManager);
+
+        QueryResultCache resultCache = null;
+        int queryCacheSize = DEFAULT_QUERY_CACHE_SIZE;
+        if (configuration.containsKey("query_cache_size")) {
+            queryCacheSize = ((Long) configuration.get("query_cache_size")).intValue();
+        }
+        int queryCacheTtl = DEFAULT_QUERY_CACHE_TTL;
+        if (configuration.containsKey("query_cache_ttl")) {
+            queryCacheTtl = ((Long) configuration.get("query_cache_ttl")).intValue();
+        }
+        if (queryCacheSize > 0) {
+            resultCache = new QueryResultCache(queryCacheSize, queryCacheTtl, lsi, rti, boostsManager, scorer, promoter);
+            logger.info("Using a query result cache of " + queryCacheSize + " entries");
+        }
+
+        int queryTimeout = DEFAULT_QUERY_TIMEOUT;
+        if (configuration.containsKey("query_timeout")) {
+            queryTimeout = ((Long) configuration.get("query_timeout")).intValue();
+            logger.info("Using a query timeout of " + queryTimeout + " ms");
+        }
+
+        searcher = new Blender(lsi, rti, suggestor, promoter, boostsManager, resultCache, queryTimeout);
+        indexer = new Dealer(lsi, rti, suggestor, boostsManager, rtiSize, promoter, functionsManager, resultCache);
         status = IndexerStatus.started;
 
     }
@@ -340,6 +387,10 @@ public class IndexEngine {
         return this.suggestor;
     }
    
+    public DynamicDataManager getDynamicDataManager() {
+        return boostsManager;
+    }
+
     public DocumentStorage getStorage() {
 		return storage;
 	}
@@ -487,7 +538,7 @@ public class IndexEngine {
         
         Option storage  = OptionBuilder.withLongOpt("storage")
                                         .hasArg()
-                                        .withDescription("if present, specifies a storage backend. Options are 'bdb' and 'ram'. Defaults to 'ram'.")
+                                        .withDescription("if present, specifies a storage backend. Options are 'bdb', 'ram' and 'log'. Defaults to 'ram'.")
                                         .create("st");
 
         Option bdbCache  = OptionBuilder.withLongOpt("bdb-cache")
@@ -596,8 +647,10 @@ public class IndexEngine {
                     storageValue = StorageValues.CASSANDRA;
                 } else if ("ram".equals(storageType)) {
                     storageValue = StorageValues.RAM;
+                } else if ("log".equals(storageType)) {
+                    storageValue = StorageValues.LOG;
                 } else {
-                    throw new IllegalArgumentException("storage has to be 'cassandra', 'bdb' or 'ram'. '" + storageType + "' given.");
+                    throw new IllegalArgumentException("storage has to be 'cassandra', 'bdb', 'ram' or 'log'. '" + storageType + "' given.");
                 }
             }
 
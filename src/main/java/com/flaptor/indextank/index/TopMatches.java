@@ -24,4 +24,20 @@ public interface TopMatches extends Iterable<ScoredMatch> {
 	public int getLimit();
 	public int getTotalMatches();
 	public Map<String, Multiset<String>> getFacetingResults();
+	/**
+	 * @return true if the query ran out of time, in which case these are the 
+	 * best results among the matches found until then, and the total matches
+	 * are a lower bound.
+	 */
+	public boolean isTruncated();
+	/**
+	 * @return true if the faceting results were estimated from a sample of
+	 * the matches.
+	 */
+	public boolean isFacetingApproximate();
+	/**
+	 * @return the counts of the requested ranges of variables, by range name,
+	 * apart from the categories in {@link #getFacetingResults()}.
+	 */
+	public Map<String, Multiset<String>> getRangeFacetingResults();
 }
@@ -33,6 +33,7 @@ import com.flaptor.indextank.index.DocId;
 import com.flaptor.indextank.index.Document;
 import com.flaptor.indextank.index.QueryMatcher;
 import com.flaptor.indextank.index.TopMatches;
+import com.flaptor.indextank.index.scorer.DynamicDataManager;
 import com.flaptor.indextank.index.scorer.FacetingManager;
 import com.flaptor.indextank.index.scorer.Scorer;
 import com.flaptor.indextank.query.IndexEngineParser;
@@ -72,6 +73,16 @@ public class LargeScaleIndex implements QueryMatcher, Indexer {
      * @param basePath The base path (a directory) from the which all the LSI directories will be found.   
      */
     public LargeScaleIndex(Scorer scorer, IndexEngineParser parser, File baseDir, FacetingManager facetingManager) {
+        this(scorer, parser, baseDir, facetingManager, null);
+    }
+
+    /**
+     * Create an LSI and its components
+     * 
+     * @param dynamicDataManager the documents' variables and timestamps, used to
+     * resolve range queries. If null, range queries are not supported.
+     */
+    public LargeScaleIndex(Scorer scorer, IndexEngineParser parser, File baseDir, FacetingManager facetingManager, DynamicDataManager dynamicDataManager) {
 		Preconditions.checkNotNull(scorer);
         Preconditions.checkNotNull(parser);
         Preconditions.checkNotNull(baseDir);
@@ -88,7 +99,7 @@ public class LargeScaleIndex implements QueryMatcher, Indexer {
         } 
 
         try {
-            index = new LsiIndex(parser, indexDir.getAbsolutePath(), scorer, facetingManager);
+            index = new LsiIndex(parser, indexDir.getAbsolutePath(), scorer, facetingManager, dynamicDataManager);
         } catch (IOException e) {
             throw new IllegalArgumentException("IOException when trying to use the directory set in the index.directory property.", e);
         }
@@ -251,6 +262,13 @@ public class LargeScaleIndex implements QueryMatcher, Indexer {
         return searcher.countMatches(query, idFilter);
     }
     
+    /**
+     * @see LsiIndex#getGeneration()
+     */
+    public long getGeneration() {
+        return index.getGeneration();
+    }
+
     public Map<String, String> getStats() {
         HashMap<String, String> stats = Maps.newHashMap(index.getStats());
         stats.put("lsi_queue_size", String.valueOf(queue.size()));
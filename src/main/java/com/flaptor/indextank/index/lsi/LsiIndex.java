@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
@@ -37,10 +38,14 @@ import org.apache.lucene.store.MMapDirectory;
 
 import com.flaptor.indextank.index.QueryMatcher;
 import com.flaptor.indextank.index.lsi.term.IndexReaderTermMatcher;
+import com.flaptor.indextank.index.scorer.DynamicDataManager;
 import com.flaptor.indextank.index.scorer.FacetingManager;
 import com.flaptor.indextank.index.scorer.Scorer;
 import com.flaptor.indextank.index.term.TermMatcher;
+import com.flaptor.indextank.index.term.query.FilterBitSetCache;
+import com.flaptor.indextank.index.term.query.NumericRangeIndex;
 import com.flaptor.indextank.index.term.query.TermBasedQueryMatcher;
+import com.flaptor.indextank.index.term.query.TermExpansionCache;
 import com.flaptor.indextank.query.IndexEngineParser;
 import com.flaptor.util.Execute;
 import com.flaptor.util.Pair;
@@ -55,23 +60,35 @@ public class LsiIndex {
     public static final String PAYLOAD_TERM_FIELD = "docidpayload";
     public static final String PAYLOAD_TERM_TEXT = "docidpayload";
     public static final Term PAYLOAD_TERM = new Term(PAYLOAD_TERM_FIELD, PAYLOAD_TERM_TEXT);
+    public static final String DOCUMENT_ID_FIELD = "documentId";
     
     private final File dirLocation;
     private /*final*/ Directory directory;
     private final Scorer scorer;
     private final AtomicReference<Pair<BlockingDeque<IndexSearcher>, BlockingDeque<QueryMatcher>>> searchObjects;
     private volatile IndexWriter indexWriter;
+    private final AtomicLong generation = new AtomicLong();
 
     private final FacetingManager facetingManager;
+    private final DynamicDataManager dynamicDataManager;
 	private final IndexEngineParser parser;
 	
 	private final Map<String, String> stats = new ConcurrentHashMap<String, String>();
 
 
     public LsiIndex(IndexEngineParser parser, String directoryPath, Scorer scorer, FacetingManager facetingManager) throws IOException {
+        this(parser, directoryPath, scorer, facetingManager, null);
+    }
+
+    /**
+     * @param dynamicDataManager the documents' variables and timestamps, used to
+     * resolve range queries. If null, range queries are not supported.
+     */
+    public LsiIndex(IndexEngineParser parser, String directoryPath, Scorer scorer, FacetingManager facetingManager, DynamicDataManager dynamicDataManager) throws IOException {
         this.parser = parser;
 		this.scorer = scorer;
 		this.facetingManager = facetingManager;
+		this.dynamicDataManager = dynamicDataManager;
 		Preconditions.checkNotNull(directoryPath);
         dirLocation = new File(directoryPath);
         if (!dirLocation.exists() || !dirLocation.isDirectory()) {
@@ -86,11 +103,24 @@ public class LsiIndex {
     private void reopenSearcher() { 
         BlockingDeque<IndexSearcher> searcherPool= new LinkedBlockingDeque<IndexSearcher>();
         BlockingDeque<QueryMatcher> matcherPool = new LinkedBlockingDeque<QueryMatcher>();
+        // all searchers see the same commit, so they can share the filters' rawId bitsets,
+        // the numeric range index and the terms expansions. the commit never changes, so
+        // prefix unions are cached too
+        FilterBitSetCache filterCache = null;
+        NumericRangeIndex rangeIndex = null;
+        TermExpansionCache expansionCache = null;
         for (int i=0; i < SEARCHER_POOL_SIZE; i++) {
             try { 
                 IndexSearcher searcher = new IndexSearcher(directory, true); //read-only for better concurrent performance.
                 TermMatcher termMatcher = new IndexReaderTermMatcher(searcher.getIndexReader(), PAYLOAD_TERM);
-                QueryMatcher matcher = new TermBasedQueryMatcher(scorer, termMatcher, this.facetingManager);		
+                if (filterCache == null) {
+                    filterCache = new FilterBitSetCache(termMatcher);
+                    expansionCache = new TermExpansionCache(termMatcher, true);
+                    if (dynamicDataManager != null) {
+                        rangeIndex = new NumericRangeIndex(termMatcher, dynamicDataManager);
+                    }
+                }
+                QueryMatcher matcher = new TermBasedQueryMatcher(scorer, termMatcher, this.facetingManager, filterCache, rangeIndex, expansionCache);		
                 searcherPool.addFirst(searcher); //no blocking, throws exception.
                 matcherPool.addFirst(matcher);
             } catch (CorruptIndexException cie) {
@@ -100,6 +130,7 @@ public class LsiIndex {
             } 
         }
         searchObjects.set(new Pair<BlockingDeque<IndexSearcher>, BlockingDeque<QueryMatcher>>(searcherPool, matcherPool));
+        generation.incrementAndGet();
     }
 
     private void reopenWriter() throws CorruptIndexException, LockObtainFailedException, IOException {
@@ -146,6 +177,14 @@ public class LsiIndex {
         reopenSearcher();
     }
     
+    /**
+     * Returns a counter that is incremented every time the searchers are reopened,
+     * i.e. every time the visible contents of the index may have changed.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
     public Map<String, String> getStats() {
         return stats;
     }
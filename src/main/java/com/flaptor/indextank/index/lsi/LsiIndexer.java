@@ -60,7 +60,7 @@ public final class LsiIndexer implements Indexer {
         org.apache.lucene.document.Field docidPayloadField = new org.apache.lucene.document.Field(LsiIndex.PAYLOAD_TERM_FIELD, docId, Field.Store.NO, Field.Index.ANALYZED);
         doc.add(docidPayloadField);
 
-        doc.add(new Field("documentId",docId,Field.Store.NO,Field.Index.NOT_ANALYZED));
+        doc.add(new Field(LsiIndex.DOCUMENT_ID_FIELD,docId,Field.Store.NO,Field.Index.NOT_ANALYZED));
         try {
             if (logger.isDebugEnabled()) {
                 logger.debug("Adding document with docId=" + docId + ". Doc is " + itdoc.getFieldNames());
@@ -85,7 +85,7 @@ public final class LsiIndexer implements Indexer {
     }
 
     private static Term docIdTerm(final String docId) {
-        return new Term("documentId", docId);
+        return new Term(LsiIndex.DOCUMENT_ID_FIELD, docId);
     }
 
 
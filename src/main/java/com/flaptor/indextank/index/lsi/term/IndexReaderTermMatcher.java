@@ -16,19 +16,21 @@
 
 package com.flaptor.indextank.index.lsi.term;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.Iterator;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.index.TermPositions;
 import org.apache.lucene.search.Similarity;
 
 import com.flaptor.indextank.index.DocId;
 import com.flaptor.indextank.index.ScoredMatch;
+import com.flaptor.indextank.index.lsi.LsiIndex;
 import com.flaptor.indextank.index.term.DocTermMatch;
 import com.flaptor.indextank.index.term.TermMatcher;
 import com.flaptor.indextank.index.term.query.RawMatch;
@@ -39,6 +41,7 @@ import com.flaptor.indextank.util.SkippableIterator;
 import com.flaptor.util.Execute;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterables;
 
 public class IndexReaderTermMatcher implements TermMatcher {
@@ -62,34 +65,74 @@ public class IndexReaderTermMatcher implements TermMatcher {
     }
 
     @Override
-    public NavigableMap<String, SkippableIterable<DocTermMatch>> getMatches(String field, String termFrom, String termTo) {
+    public Iterable<String> getTerms(final String field, final String termFrom, final String termTo) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new TermRangeIterator(field, termFrom, termTo);
+            }
+        };
+    }
+
+    /**
+     * Terms of a range, read from a {@link TermEnum} that's opened on the first
+     * call and closed when the range is exhausted or the iterator is closed.
+     */
+    private class TermRangeIterator extends AbstractIterator<String> implements Closeable {
+        private final Term leftBoundary;
+        private final Term rightBoundary;
+        private TermEnum terms = null;
+        private boolean closed = false;
+
+        TermRangeIterator(String field, String termFrom, String termTo) {
+            this.leftBoundary = new Term(field, termFrom);
+            this.rightBoundary = new Term(field, termTo);
+        }
+
+        @Override
+        protected String computeNext() {
+            if (closed) {
+                return endOfData();
+            }
+            try {
+                Term term;
+                if (terms == null) {
+                    terms = reader.terms(leftBoundary);
+                    term = terms.term();
+                } else {
+                    term = terms.next() ? terms.term() : null;
+                }
+                if (term == null || term.compareTo(rightBoundary) >= 0) {
+                    close();
+                    return endOfData();
+                }
+                return term.text();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                if (terms != null) {
+                    terms.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getCeilingTerm(String field, String termText) {
         TermEnum terms = null;
-        NavigableMap<String, SkippableIterable<DocTermMatch>> result = new TreeMap<String, SkippableIterable<DocTermMatch>>();
         try {
-            terms = reader.terms(new Term(field, termFrom));
-            Term rightBoundary = new Term(field, termTo);
-            int numberOfTerms = 0;
-
-            if (terms.term() != null) {
-                do {
-                    Term term = terms.term();
-                    if (term.compareTo(rightBoundary) >= 0) {
-                        break;
-                    }
-    
-                    SkippableIterable<DocTermMatch> docTermIterator = getDocTermIterator(term);
-                    result.put(term.text(), docTermIterator);
-    
-                    numberOfTerms++;
-                    if (numberOfTerms >= 1000) {
-                        break;
-                    }
-                    
-                } while (terms.next());
+            terms = reader.terms(new Term(field, termText));
+            Term term = terms.term();
+            if (term == null || !term.field().equals(field)) {
+                return null;
             }
-            
-            return result;
-            
+            return term.text();
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
@@ -98,6 +141,12 @@ public class IndexReaderTermMatcher implements TermMatcher {
             }
         }
     }
+
+    @Override
+    public long getGeneration() {
+        // the reader never changes
+        return 0;
+    }
 	    
     private SkippableIterable<DocTermMatch> getDocTermIterator(final Term term) {
         return new AbstractSkippableIterable<DocTermMatch>() {
@@ -164,6 +213,21 @@ public class IndexReaderTermMatcher implements TermMatcher {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public int getRawId(DocId docid) {
+	    TermDocs docs = null;
+	    try {
+	        docs = reader.termDocs(new Term(LsiIndex.DOCUMENT_ID_FIELD, docid.toString()));
+	        return docs.next() ? docs.doc() : -1;
+	    } catch (IOException e) {
+	        throw new RuntimeException(e);
+	    } finally {
+	        if (docs != null) {
+	            Execute.close(docs);
+	        }
+	    }
+	}
+
 
 	@Override
 	public Iterable<ScoredMatch> decode(Iterable<RawMatch> rawMatches, final double boostedNorm) {
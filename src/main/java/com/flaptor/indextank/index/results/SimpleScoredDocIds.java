@@ -21,6 +21,7 @@ import java.util.Map;
 
 import com.flaptor.indextank.index.ScoredMatch;
 import com.flaptor.indextank.index.TopMatches;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multiset;
 
 public class SimpleScoredDocIds implements TopMatches {
@@ -29,12 +30,30 @@ public class SimpleScoredDocIds implements TopMatches {
 	private Iterable<ScoredMatch> delegate;
 	private final int limit;
 	private Map<String, Multiset<String>> facetingResults;
+	private final boolean truncated;
+	private final boolean facetingApproximate;
+	private final Map<String, Multiset<String>> rangeFacetingResults;
 
 	public SimpleScoredDocIds(Iterable<ScoredMatch> delegate, int limit, int totalMatches, Map<String, Multiset<String>> facetingResults) {
+		this(delegate, limit, totalMatches, facetingResults, false);
+	}
+
+	public SimpleScoredDocIds(Iterable<ScoredMatch> delegate, int limit, int totalMatches, Map<String, Multiset<String>> facetingResults, boolean truncated) {
+		this(delegate, limit, totalMatches, facetingResults, truncated, false);
+	}
+
+	public SimpleScoredDocIds(Iterable<ScoredMatch> delegate, int limit, int totalMatches, Map<String, Multiset<String>> facetingResults, boolean truncated, boolean facetingApproximate) {
+		this(delegate, limit, totalMatches, facetingResults, truncated, facetingApproximate, ImmutableMap.<String, Multiset<String>>of());
+	}
+
+	public SimpleScoredDocIds(Iterable<ScoredMatch> delegate, int limit, int totalMatches, Map<String, Multiset<String>> facetingResults, boolean truncated, boolean facetingApproximate, Map<String, Multiset<String>> rangeFacetingResults) {
 		this.delegate = delegate;
 		this.limit = limit;
 		this.totalMatches = totalMatches;
 		this.facetingResults = facetingResults;
+		this.truncated = truncated;
+		this.facetingApproximate = facetingApproximate;
+		this.rangeFacetingResults = rangeFacetingResults;
 	}
 
 	@Override
@@ -57,5 +76,20 @@ public class SimpleScoredDocIds implements TopMatches {
 		return facetingResults;
 	}
 
+	@Override
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	@Override
+	public boolean isFacetingApproximate() {
+		return facetingApproximate;
+	}
+
+	@Override
+	public Map<String, Multiset<String>> getRangeFacetingResults() {
+		return rangeFacetingResults;
+	}
+
 	
 }
@@ -17,12 +17,14 @@
 package com.flaptor.indextank.index.rti;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.flaptor.indextank.Indexer;
 import com.flaptor.indextank.blender.BlendingQueryMatcher;
 import com.flaptor.indextank.index.Document;
 import com.flaptor.indextank.index.QueryMatcher;
 import com.flaptor.indextank.index.rti.inverted.InvertedIndex;
+import com.flaptor.indextank.index.scorer.DynamicDataManager;
 import com.flaptor.indextank.index.scorer.FacetingManager;
 import com.flaptor.indextank.index.scorer.Scorer;
 import com.flaptor.indextank.query.IndexEngineParser;
@@ -41,24 +43,37 @@ public class RealTimeIndex implements Indexer {
 	private final int rtiSize;
 	private final IndexEngineParser parser;
 	private final FacetingManager facetingManager;
+	private final DynamicDataManager dynamicDataManager;
+	private final AtomicLong generation = new AtomicLong();
 
     public RealTimeIndex(Scorer scorer, IndexEngineParser parser, int rtiSize, FacetingManager facetingManager) {
+        this(scorer, parser, rtiSize, facetingManager, null);
+    }
+
+    /**
+     * @param dynamicDataManager the documents' variables and timestamps, used to
+     * resolve range queries. If null, range queries are not supported.
+     */
+    public RealTimeIndex(Scorer scorer, IndexEngineParser parser, int rtiSize, FacetingManager facetingManager, DynamicDataManager dynamicDataManager) {
         this.parser = parser;
 		this.facetingManager = facetingManager;
+		this.dynamicDataManager = dynamicDataManager;
 		Preconditions.checkNotNull(scorer);
         Preconditions.checkArgument(rtiSize > 0);
         this.scorer = scorer;
 		this.rtiSize = rtiSize;
-        this.index = new InvertedIndex(scorer, parser, rtiSize, this.facetingManager);
+        this.index = new InvertedIndex(scorer, parser, rtiSize, this.facetingManager, this.dynamicDataManager);
         this.markedIndex = null;
     }
 
     public void add(String docid, Document doc) {
         index.add(docid, doc);
+        generation.incrementAndGet();
     }
 
     public void del(String docid) {
         index.del(docid);
+        generation.incrementAndGet();
     }
 
     private QueryMatcher getMergedSearcher() {
@@ -79,7 +94,7 @@ public class RealTimeIndex implements Indexer {
     	synchronized (this) {
     		Preconditions.checkState(markedIndex == null, "Cannot mark twice. clearToMark should be called before marking again.");
     		markedIndex = index; 
-    		index = new InvertedIndex(scorer, parser, rtiSize, facetingManager);
+    		index = new InvertedIndex(scorer, parser, rtiSize, facetingManager, dynamicDataManager);
     	}
     }
     
@@ -87,9 +102,18 @@ public class RealTimeIndex implements Indexer {
     	synchronized (this) {
     		Preconditions.checkState(markedIndex != null, "Mark not found. It was either never marked or already cleared.");
     		markedIndex = null; 
+    		generation.incrementAndGet();
     	}
     }
 
+    /**
+     * Returns a counter that is incremented on every add, delete and
+     * clearToMark, i.e. every time the searchable contents may have changed.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
     public Map<String, String> getStats() {
         Map<String, String> stats = Maps.newHashMap();
         InvertedIndex current = index;
@@ -19,15 +19,13 @@ package com.flaptor.indextank.index.rti.inverted;
 import java.util.BitSet;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.flaptor.indextank.Indexer;
 import com.flaptor.indextank.index.DocId;
@@ -35,10 +33,13 @@ import com.flaptor.indextank.index.Document;
 import com.flaptor.indextank.index.QueryMatcher;
 import com.flaptor.indextank.index.ScoredMatch;
 import com.flaptor.indextank.index.TopMatches;
+import com.flaptor.indextank.index.scorer.DynamicDataManager;
 import com.flaptor.indextank.index.scorer.FacetingManager;
 import com.flaptor.indextank.index.scorer.Scorer;
 import com.flaptor.indextank.index.term.DocTermMatch;
 import com.flaptor.indextank.index.term.TermMatcher;
+import com.flaptor.indextank.index.term.query.FilterBitSetCache;
+import com.flaptor.indextank.index.term.query.NumericRangeIndex;
 import com.flaptor.indextank.index.term.query.RawMatch;
 import com.flaptor.indextank.index.term.query.TermBasedQueryMatcher;
 import com.flaptor.indextank.query.AToken;
@@ -65,6 +66,7 @@ public class InvertedIndex implements Indexer, QueryMatcher, TermMatcher {
 	private final DocId[] docids;
 	private final BitSet internalDeletes;
 	private final AtomicInteger docCount;
+	private final AtomicLong generation = new AtomicLong();
 	
 	private final ConcurrentMap<DocId, Integer> docidsIndexes = new MapMaker().makeMap();
 	private final ConcurrentNavigableMap<Key, DocTermMatchList> invertedIndex = new ConcurrentSkipListMap<Key, DocTermMatchList>();
@@ -74,12 +76,21 @@ public class InvertedIndex implements Indexer, QueryMatcher, TermMatcher {
 	private final IndexEngineParser parser;
 
 	public InvertedIndex(Scorer scorer, IndexEngineParser parser, int maxDocCount, FacetingManager facetingManager) {
+		this(scorer, parser, maxDocCount, facetingManager, null);
+	}
+
+	/**
+	 * @param dynamicDataManager the documents' variables and timestamps, used to
+	 * resolve range queries. If null, range queries are not supported.
+	 */
+	public InvertedIndex(Scorer scorer, IndexEngineParser parser, int maxDocCount, FacetingManager facetingManager, DynamicDataManager dynamicDataManager) {
         Preconditions.checkArgument(maxDocCount > 0);
 		this.maxDocCount = maxDocCount;
 		this.docids = new DocId[maxDocCount];
 		this.internalDeletes = new BitSet(maxDocCount);
 		this.docCount = new AtomicInteger(0);
-		this.matcher = new TermBasedQueryMatcher(scorer, this, facetingManager);
+		NumericRangeIndex rangeIndex = dynamicDataManager == null ? null : new NumericRangeIndex(this, dynamicDataManager);
+		this.matcher = new TermBasedQueryMatcher(scorer, this, facetingManager, new FilterBitSetCache(this), rangeIndex);
         this.parser = parser;
 	}
 	
@@ -93,6 +104,7 @@ public class InvertedIndex implements Indexer, QueryMatcher, TermMatcher {
 				internalDel(oldIdx);
 			}
 			internalAdd(idx, document);
+			generation.incrementAndGet();
 		} else {
 			throw new IllegalStateException("MaxDocCount (" + maxDocCount + ") reached. Cannot add more documents.");
 		}
@@ -137,6 +149,7 @@ public class InvertedIndex implements Indexer, QueryMatcher, TermMatcher {
 
 	private void internalDel(int idx) {
 		internalDeletes.set(idx);
+		generation.incrementAndGet();
 	}
 	
 	public SkippableIterable<DocTermMatch> getMatches(String field, String term) {
@@ -149,24 +162,32 @@ public class InvertedIndex implements Indexer, QueryMatcher, TermMatcher {
 	}
 
 	@Override
-	public NavigableMap<String, SkippableIterable<DocTermMatch>> getMatches(String field, String termFrom, String termTo) {
+	public Iterable<String> getTerms(String field, String termFrom, String termTo) {
 	    Key leftBoundary = new Key(field, termFrom);
 	    Key rightBoundary = new Key(field, termTo);
 	    
+	    // the skip list's views are lazy and weakly consistent
 	    ConcurrentNavigableMap<Key, DocTermMatchList> range = invertedIndex.subMap(leftBoundary, rightBoundary);
-	    
-	    NavigableMap<String, SkippableIterable<DocTermMatch>> result = new TreeMap<String, SkippableIterable<DocTermMatch>>();
-	    
-	    int numberOfTerms = 0;
-	    for (Entry<Key, DocTermMatchList> entry : range.entrySet()) {
-            result.put(entry.getKey().term, Skippables.filter(entry.getValue(), notDeletedPredicate()));
-            numberOfTerms++;
-            if (numberOfTerms >= 1000) {
-                break;
-            }
-        }
-	    
-	    return result;
+	    return Iterables.transform(range.keySet(), new Function<Key, String>() {
+	        @Override
+	        public String apply(Key key) {
+	            return key.term;
+	        }
+	    });
+	}
+
+	@Override
+	public String getCeilingTerm(String field, String term) {
+	    Key key = invertedIndex.ceilingKey(new Key(field, term));
+	    if (key == null || !key.field.equals(field)) {
+	        return null;
+	    }
+	    return key.term;
+	}
+
+	@Override
+	public long getGeneration() {
+	    return generation.get();
 	}
 	
 	
@@ -183,6 +204,15 @@ public class InvertedIndex implements Indexer, QueryMatcher, TermMatcher {
 	    return docidsIndexes.containsKey(docid) || deletes.containsKey(docid);
 	}
 
+	@Override
+	public int getRawId(DocId docid) {
+	    Integer idx = docidsIndexes.get(docid);
+	    if (idx == null || internalDeletes.get(idx)) {
+	        return -1;
+	    }
+	    return idx;
+	}
+
 	@Override
 	public Iterable<ScoredMatch> decode(Iterable<RawMatch> rawMatches, final double boostedNorm) {
 		return Iterables.transform(rawMatches, new Function<RawMatch, ScoredMatch>() {
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import com.flaptor.indextank.query.QueryVariables;
+
+/**
+ * A {@link ScoreFunction} that can also score a block of documents at once,
+ * reading their ages and variables from plain arrays instead of going through
+ * {@link Boosts} for every document.
+ */
+public interface BatchScoreFunction extends ScoreFunction {
+    /**
+     * Calculates the scores of the first <code>count</code> documents of the block.
+     * <code>docVars[i][j]</code> is the value of the variable <code>i</code> for the
+     * document <code>j</code>, only the columns for the variables returned by
+     * {@link #getDocumentVariables()} need to be present. <code>scores</code> may be
+     * the same array as <code>textualScores</code>.
+     */
+    public abstract void scoreBatch(int count, double[] textualScores, int[] ages, float[][] docVars, QueryVariables queryVars, double[] scores);
+
+    /**
+     * Returns the indexes of the document variables used by this function, in ascending order.
+     */
+    public abstract int[] getDocumentVariables();
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.scorer.expression.Interval;
 
 /**
  * Device that holds special score boosts for every document.
@@ -96,4 +97,11 @@ public interface BoostsManager {
      */
     Map<String, String> getCategoriesAsMap(DocId documentId);
 
+    /**
+     * Returns an interval containing the value of the given boost for every
+     * document, or their timestamps for {@link DynamicDataManager#TIMESTAMP_VARIABLE}.
+     * The interval may be wider than the actual values.
+     */
+    public Interval getRange(int boostIndex);
+
 }
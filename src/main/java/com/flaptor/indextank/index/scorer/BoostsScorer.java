@@ -16,38 +16,117 @@
 
 package com.flaptor.indextank.index.scorer;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.DocumentOrdinals;
+import com.flaptor.indextank.index.scorer.expression.Input;
+import com.flaptor.indextank.index.scorer.expression.Interval;
+import com.flaptor.indextank.index.scorer.expression.ScoreExpression;
+import com.flaptor.indextank.index.scorer.expression.VariableRanges;
 import com.flaptor.indextank.query.QueryVariables;
 import com.flaptor.util.Execute;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 
 public class BoostsScorer implements Scorer {
 	@SuppressWarnings("unused")
 	private static final Logger logger = Logger.getLogger(Execute.whoAmI());
 
 	private final BoostsManager boostsManager;
-	private final Map<Integer, ScoreFunction> scoringFunctions;
+	// indexed by function index, copied on every change so that queries read it without locking
+	private volatile ScoreFunction[] scoringFunctions = new ScoreFunction[0];
+	private final AtomicLong generation = new AtomicLong();
+	private final Map<Integer, StaticRankColumn> columns = new ConcurrentHashMap<Integer, StaticRankColumn>();
+	private final Set<Integer> precomputedFunctions;
+	private final Executor columnRebuilder;
 
     public BoostsScorer(BoostsManager boostsManager, Map<Integer, ScoreFunction> scoringFunctions) {
+        this(boostsManager, scoringFunctions, ImmutableSet.<Integer>of());
+    }
+
+    /**
+     * @param precomputedFunctions the indexes of the functions whose scores are kept
+     * in {@link StaticRankColumn static rank columns}, when they can be precomputed.
+     */
+    public BoostsScorer(BoostsManager boostsManager, Map<Integer, ScoreFunction> scoringFunctions, Set<Integer> precomputedFunctions) {
+        this(boostsManager, scoringFunctions, precomputedFunctions, StaticRankColumn.BACKGROUND);
+    }
+
+    /**
+     * @param columnRebuilder runs the rebuilds of the {@link StaticRankColumn static rank columns}.
+     */
+    BoostsScorer(BoostsManager boostsManager, Map<Integer, ScoreFunction> scoringFunctions, Set<Integer> precomputedFunctions, Executor columnRebuilder) {
         Preconditions.checkNotNull(scoringFunctions);
+        Preconditions.checkNotNull(precomputedFunctions);
+        Preconditions.checkNotNull(columnRebuilder);
         this.boostsManager = boostsManager;
-        this.scoringFunctions = scoringFunctions;
+        this.precomputedFunctions = ImmutableSet.copyOf(precomputedFunctions);
+        this.columnRebuilder = columnRebuilder;
+        if (boostsManager instanceof DynamicDataManager) {
+            ((DynamicDataManager) boostsManager).getDocumentOrdinals().addReleaseListener(new DocumentOrdinals.ReleaseListener() {
+                @Override
+                public void released(int ordinal) {
+                    for (StaticRankColumn column : columns.values()) {
+                        column.released(ordinal);
+                    }
+                }
+            });
+        }
+        for (Map.Entry<Integer, ScoreFunction> entry : scoringFunctions.entrySet()) {
+            putScoringFunction(entry.getKey(), entry.getValue());
+        }
     }
 
 	@Override
-	public void putScoringFunction(Integer functionIndex, ScoreFunction function) {
-		scoringFunctions.put(functionIndex, function);
+	public synchronized void putScoringFunction(Integer functionIndex, ScoreFunction function) {
+		Preconditions.checkArgument(functionIndex >= 0, "Invalid function index %s", functionIndex);
+		ScoreFunction[] functions = Arrays.copyOf(scoringFunctions, Math.max(scoringFunctions.length, functionIndex + 1));
+		functions[functionIndex] = function;
+		scoringFunctions = functions;
+		columns.remove(functionIndex);
+		generation.incrementAndGet();
 	}
 
+    @Override
+    public synchronized void removeScoringFunction(Integer functionIndex) {
+        if (functionIndex >= 0 && functionIndex < scoringFunctions.length) {
+            ScoreFunction[] functions = scoringFunctions.clone();
+            functions[functionIndex] = null;
+            scoringFunctions = functions;
+        }
+        columns.remove(functionIndex);
+        generation.incrementAndGet();
+    }
+
+    private ScoreFunction getFunction(Integer functionIndex) {
+        ScoreFunction[] functions = scoringFunctions;
+        int index = functionIndex;
+        return index >= 0 && index < functions.length ? functions[index] : null;
+    }
+
+    /**
+     * Returns the data of the document if it was fetched, or looks it up.
+     */
+    private Boosts getBoosts(DocId documentId, Boosts data) {
+        return data != null ? data : boostsManager.getBoosts(documentId);
+    }
+
 	@Override
     public double scoreDocument(DocId documentId, double textualScore, int now, QueryVariables queryVars, Integer functionIndex) {
-        Boosts docVars = boostsManager.getBoosts(documentId);
+        return score(getFunction(functionIndex), documentId, null, textualScore, now, queryVars);
+    }
+
+    private double score(ScoreFunction scoreFunction, DocId documentId, Boosts data, double textualScore, int now, QueryVariables queryVars) {
+        Boosts docVars = getBoosts(documentId, data);
         int age = now - docVars.getTimestamp();
-        ScoreFunction scoreFunction = scoringFunctions.get(functionIndex);
         if (scoreFunction == null) {
             return -age;
         }
@@ -55,8 +134,129 @@ public class BoostsScorer implements Scorer {
     }
 
     @Override
-    public void removeScoringFunction(Integer functionIndex) {
-        scoringFunctions.remove(functionIndex);
+    public void scoreDocuments(DocId[] documentIds, double[] scores, int count, int now, QueryVariables queryVars, Integer functionIndex) {
+        score(getFunction(functionIndex), documentIds, null, scores, count, now, queryVars);
+    }
+
+    private void score(ScoreFunction scoreFunction, DocId[] documentIds, Boosts[] data, double[] scores, int count, int now, QueryVariables queryVars) {
+        if (!(scoreFunction instanceof BatchScoreFunction)) {
+            for (int i = 0; i < count; i++) {
+                scores[i] = score(scoreFunction, documentIds[i], data == null ? null : data[i], scores[i], now, queryVars);
+            }
+            return;
+        }
+        BatchScoreFunction batchFunction = (BatchScoreFunction) scoreFunction;
+        
+        // gather the ages and the columns of the variables used by the function
+        int[] vars = batchFunction.getDocumentVariables();
+        int[] ages = new int[count];
+        float[][] columns = new float[vars.length == 0 ? 0 : vars[vars.length - 1] + 1][];
+        for (int var : vars) {
+            columns[var] = new float[count];
+        }
+        for (int i = 0; i < count; i++) {
+            Boosts docVars = getBoosts(documentIds[i], data == null ? null : data[i]);
+            ages[i] = now - docVars.getTimestamp();
+            for (int var : vars) {
+                columns[var][i] = docVars.getBoost(var);
+            }
+        }
+        batchFunction.scoreBatch(count, scores, ages, columns, queryVars, scores);
+    }
+
+    @Override
+    public double getUpperBound(double textualScore, int now, QueryVariables queryVars, Integer functionIndex) {
+        ScoreFunction scoreFunction = getFunction(functionIndex);
+        Interval timestamps = boostsManager.getRange(DynamicDataManager.TIMESTAMP_VARIABLE);
+        if (scoreFunction == null) {
+            return timestamps.getMax() - now;
+        }
+        if (!(scoreFunction instanceof CompiledScoreFunction)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        ScoreExpression expression = ((CompiledScoreFunction) scoreFunction).getExpression();
+        
+        // textual scores are never negative
+        Interval ages = Interval.of(now - timestamps.getMax(), now - timestamps.getMin());
+        VariableRanges ranges = new VariableRanges(Interval.of(0, textualScore), ages, queryVars);
+        for (Input input : expression.getInputs()) {
+            if (input.getKind() == Input.Kind.DOCUMENT_VARIABLE) {
+                ranges = ranges.withDocumentVariable(input.getIndex(), boostsManager.getRange(input.getIndex()));
+            }
+        }
+        return expression.getUpperBound(ranges);
+    }
+
+    /**
+     * Whether the scores given by the function change with the query time, through
+     * the documents' age. Functions that can't be analyzed are assumed to.
+     */
+    public boolean dependsOnTime(Integer functionIndex) {
+        ScoreFunction scoreFunction = getFunction(functionIndex);
+        if (!(scoreFunction instanceof CompiledScoreFunction)) {
+            return true;
+        }
+        return ((CompiledScoreFunction) scoreFunction).getExpression().getInputs().contains(Input.AGE);
+    }
+
+    @Override
+    public StaticRankColumn getStaticRankColumn(int now, Integer functionIndex) {
+        ScoreFunction scoreFunction = getFunction(functionIndex);
+        if (scoreFunction == null || !precomputedFunctions.contains(functionIndex) || !(boostsManager instanceof DynamicDataManager)) {
+            return null;
+        }
+        StaticRankColumn column = columns.get(functionIndex);
+        if (column == null || column.getFunction() != scoreFunction) {
+            column = StaticRankColumn.create(scoreFunction, (DynamicDataManager) boostsManager, columnRebuilder);
+            if (column == null) {
+                return null;
+            }
+            columns.put(functionIndex, column);
+        }
+        return column.refresh(now) && column.isValidAt(now) ? column : null;
+    }
+
+    @Override
+    public BoundScorer bind(int now, QueryVariables queryVars, Integer functionIndex) {
+        return new Bound(now, queryVars, functionIndex);
+    }
+
+    /**
+     * Resolves the function once, and fetches documents' data straight from
+     * the {@link DynamicDataManager}.
+     */
+    private class Bound extends BoundScorer {
+        private final ScoreFunction function;
+
+        Bound(int now, QueryVariables queryVars, Integer functionIndex) {
+            super(BoostsScorer.this, now, queryVars, functionIndex);
+            this.function = getFunction(functionIndex);
+        }
+
+        @Override
+        public Boosts fetch(DocId documentId) {
+            if (boostsManager instanceof DynamicDataManager) {
+                return ((DynamicDataManager) boostsManager).getDynamicData(documentId);
+            }
+            return null;
+        }
+
+        @Override
+        public double score(DocId documentId, Boosts data, double textualScore) {
+            return BoostsScorer.this.score(function, documentId, data, textualScore, now, queryVars);
+        }
+
+        @Override
+        public void score(DocId[] documentIds, Boosts[] data, double[] scores, int count) {
+            BoostsScorer.this.score(function, documentIds, data, scores, count, now, queryVars);
+        }
+    }
+
+    /**
+     * Returns a counter that is incremented every time a function is defined or removed.
+     */
+    public long getGeneration() {
+        return generation.get();
     }
 
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.query.QueryVariables;
+
+/**
+ * A {@link Scorer} bound to the time, variables and scoring function of a
+ * query, resolved once for all of its matches.
+ * <br><br>
+ * Each match's data is looked up once with {@link #fetch(DocId)} and handed
+ * to the filters, the faceter and the scorer. A null data means it wasn't
+ * fetched, or the document has none, and whoever needs it looks it up.
+ * This base implementation fetches nothing and delegates to the scorer.
+ */
+public class BoundScorer {
+
+    private final Scorer scorer;
+    protected final int now;
+    protected final QueryVariables queryVars;
+    protected final Integer functionIndex;
+
+    public BoundScorer(Scorer scorer, int now, QueryVariables queryVars, Integer functionIndex) {
+        this.scorer = scorer;
+        this.now = now;
+        this.queryVars = queryVars;
+        this.functionIndex = functionIndex;
+    }
+
+    /**
+     * Returns the data of the document, or null.
+     */
+    public Boosts fetch(DocId documentId) {
+        return null;
+    }
+
+    /**
+     * @see Scorer#scoreDocument(DocId, double, int, QueryVariables, Integer)
+     */
+    public double score(DocId documentId, Boosts data, double textualScore) {
+        return scorer.scoreDocument(documentId, textualScore, now, queryVars, functionIndex);
+    }
+
+    /**
+     * @param data the data of each document, the array itself may be null.
+     * @see Scorer#scoreDocuments(DocId[], double[], int, int, QueryVariables, Integer)
+     */
+    public void score(DocId[] documentIds, Boosts[] data, double[] scores, int count) {
+        scorer.scoreDocuments(documentIds, scores, count, now, queryVars, functionIndex);
+    }
+
+    /**
+     * @see Scorer#getUpperBound(double, int, QueryVariables, Integer)
+     */
+    public double getUpperBound(double textualScore) {
+        return scorer.getUpperBound(textualScore, now, queryVars, functionIndex);
+    }
+
+    /**
+     * @see Scorer#getStaticRankColumn(int, Integer)
+     */
+    public StaticRankColumn getStaticRankColumn() {
+        return scorer.getStaticRankColumn(now, functionIndex);
+    }
+
+}
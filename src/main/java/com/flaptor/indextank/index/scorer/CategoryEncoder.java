@@ -28,15 +28,19 @@ public class CategoryEncoder {
      * Precondition bitmask.length >= data.length
      */
     public static int decode(int[] data, int dataOffset, int[] bitmask) {
+        int available = data.length - dataOffset;
         int retval = 0;
-        for (int i = bitmask.length - 1; i >= 0 ; i--) {
-            for (int j = 31; j >=0; j--) {
-                if ((bitmask[i] & (1<<j)) != 0) {
-                    retval = retval << 1;
-                    if ((data.length - dataOffset > i) && ( (data[i+dataOffset] & (1<<j)) != 0)) {
-                        retval = retval | 1;
-                    }
+        int valueShift = 0;
+        for (int i = 0; i < bitmask.length; i++) {
+            int remaining = bitmask[i];
+            while (remaining != 0) {
+                int shift = Integer.numberOfTrailingZeros(remaining);
+                int mask = runMask(remaining, shift);
+                if (i < available) {
+                    retval |= ((data[i + dataOffset] >>> shift) & mask) << valueShift;
                 }
+                valueShift += Integer.bitCount(mask);
+                remaining &= ~(mask << shift);
             }
         }
         return retval;
@@ -50,15 +54,14 @@ public class CategoryEncoder {
         } else {
             data = oldData;
         }
-        for (int i =dataOffset; i < data.length &&  i < bitmask.length + dataOffset; i++) {
-            for (int j = 0; j < 32; j++) {
-                if ((bitmask[i - dataOffset] & (1<<j)) != 0) {
-                    data[i] = data[i] & (~(1<<j));
-                    if ((value & 1) != 0) {
-                        data[i] = data[i] | (1 << j);
-                    }
-                    value = value >>> 1;
-                }
+        for (int i = 0; i < bitmask.length; i++) {
+            int remaining = bitmask[i];
+            while (remaining != 0) {
+                int shift = Integer.numberOfTrailingZeros(remaining);
+                int mask = runMask(remaining, shift);
+                data[i + dataOffset] = (data[i + dataOffset] & ~(mask << shift)) | ((value & mask) << shift);
+                value = Integer.bitCount(mask) == 32 ? 0 : value >>> Integer.bitCount(mask);
+                remaining &= ~(mask << shift);
             }
         }
         if (value != 0) {
@@ -68,6 +71,103 @@ public class CategoryEncoder {
 
     }
 
+    /**
+     * Returns the mask, shifted to bit 0, of the run of contiguous set bits
+     * starting at the given shift.
+     */
+    private static int runMask(int word, int shift) {
+        int length = Integer.numberOfTrailingZeros(~(word >>> shift));
+        return length == 32 ? -1 : (1 << length) - 1;
+    }
+
+    /**
+     * A bitmask compiled into the runs of contiguous bits in each of its words,
+     * so that a value is extracted or stored with a shift and a mask per run
+     * instead of going through every bit. Encodes and decodes the same as
+     * {@link #encode(int[], int, int[], int)} and {@link #decode(int[], int, int[])}.
+     */
+    public static final class Mask {
+        private final int[] bitmask;
+        private final int[] words;
+        private final int[] shifts;
+        private final int[] masks;
+        private final int[] valueShifts;
+        private final int bits;
+
+        public Mask(int[] bitmask) {
+            this.bitmask = bitmask;
+            int runs = 0;
+            for (int i = 0; i < bitmask.length; i++) {
+                // a run starts at every set bit whose lower neighbour is clear
+                runs += Integer.bitCount(bitmask[i] & ~(bitmask[i] << 1));
+            }
+            words = new int[runs];
+            shifts = new int[runs];
+            masks = new int[runs];
+            valueShifts = new int[runs];
+            int run = 0;
+            int valueShift = 0;
+            for (int i = 0; i < bitmask.length; i++) {
+                int remaining = bitmask[i];
+                while (remaining != 0) {
+                    int shift = Integer.numberOfTrailingZeros(remaining);
+                    words[run] = i;
+                    shifts[run] = shift;
+                    masks[run] = runMask(remaining, shift);
+                    valueShifts[run] = valueShift;
+                    valueShift += Integer.bitCount(masks[run]);
+                    remaining &= ~(masks[run] << shift);
+                    run++;
+                }
+            }
+            bits = valueShift;
+        }
+
+        public int decode(int[] data, int dataOffset) {
+            int available = data.length - dataOffset;
+            int value = 0;
+            for (int run = 0; run < words.length; run++) {
+                int word = words[run];
+                if (word < available) {
+                    value |= ((data[word + dataOffset] >>> shifts[run]) & masks[run]) << valueShifts[run];
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Stores the value in the data, which is enlarged if it's shorter than the
+         * bitmask.
+         * 
+         * @return the data, or a longer copy of it.
+         */
+        public int[] encode(int[] oldData, int dataOffset, int value) {
+            if (bits < 32 && (value >>> bits) != 0) {
+                throw new IllegalArgumentException("value too big to encode in bitmasked space");
+            }
+            int[] data = oldData;
+            if (oldData.length - dataOffset < bitmask.length) {
+                data = Arrays.copyOf(oldData, bitmask.length + dataOffset);
+            }
+            for (int run = 0; run < words.length; run++) {
+                int word = words[run] + dataOffset;
+                data[word] = (data[word] & ~(masks[run] << shifts[run])) | (((value >>> valueShifts[run]) & masks[run]) << shifts[run]);
+            }
+            return data;
+        }
+
+        public int[] getBitmask() {
+            return bitmask;
+        }
+
+        /**
+         * Returns the number of bits in the bitmask.
+         */
+        public int getBits() {
+            return bits;
+        }
+    }
+
     /**
      * Check if the dataBitmap masked with the categoriesBitmask is compliant with the valuesBitmap.
      * This implies anding every int in the dataBitmap with its correspoding int in the categoriesBitmask
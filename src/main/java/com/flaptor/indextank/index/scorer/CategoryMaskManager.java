@@ -20,32 +20,40 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 
 import com.flaptor.util.Execute;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 
+/**
+ * Assigns each category a bitmask in the documents' category words, and each of
+ * its values a code that fits in it. Bitmasks are never modified: when a category
+ * needs another bit it gets a new bitmask, so the ones handed out stay valid and
+ * {@link #writeData(DataOutputStream)} can take a consistent copy without
+ * blocking the creation of categories and values.
+ */
 public class CategoryMaskManager implements Serializable {
     private static final Logger logger = Logger.getLogger(Execute.whoAmI());
 
     private AtomicInteger nextbit;
     private ConcurrentMap<String, CategoryInfo> categoryInfoMap;
 
-    private final ReentrantReadWriteLock dumpLock;
-
-    public CategoryMaskManager(ReentrantReadWriteLock dumpLock) {
+    public CategoryMaskManager() {
         this.nextbit = new AtomicInteger(0);
         this.categoryInfoMap = new MapMaker().makeMap();
-        this.dumpLock = dumpLock;
     }
 
     public int getMaxMaskSize() {
@@ -59,6 +67,14 @@ public class CategoryMaskManager implements Serializable {
     	
     }
     
+    /**
+     * Returns the number of bits given to categories so far. It changes whenever
+     * a category gets a bit, that is, whenever a bitmask is replaced.
+     */
+    int getBitCount() {
+        return nextbit.get();
+    }
+
     public CategoryValueInfo getCategoryValueInfo(final String category, String value) {
         CategoryInfo catInfo = categoryInfoMap.get(category);
         if (value.isEmpty()) {
@@ -68,16 +84,11 @@ public class CategoryMaskManager implements Serializable {
         	if (value == null) {
         		return null;
         	}
-            dumpLock.readLock().lock();
-            try {
-                catInfo = new CategoryInfo();
-                CategoryInfo previous = categoryInfoMap.putIfAbsent(category, catInfo);
-                if (previous != null) {
-                    // somebody beat us to it
-                    catInfo = previous;
-                }
-            } finally {
-                dumpLock.readLock().unlock();
+            catInfo = new CategoryInfo();
+            CategoryInfo previous = categoryInfoMap.putIfAbsent(category, catInfo);
+            if (previous != null) {
+                // somebody beat us to it
+                catInfo = previous;
             }
         }
 
@@ -88,49 +99,155 @@ public class CategoryMaskManager implements Serializable {
 		return categoryInfoMap;
 	}
 
-    private static int getBitMaskSize(int[] bitmask) {
-    	int counter = 0;
-    	for (int i = 0; i < bitmask.length; i++) {
-    		int mask = 1;
-			for (int j = 0; j < 32; j++) {
-				if ((bitmask[i] & mask) != 0) {
-					counter++;
-				}
-				mask = mask << 1;
-			}
-		}
-    	
-    	return 1 << counter;
+    /**
+     * Returns a new manager for the given categories, each one with only the
+     * given values, coded from 1 in their order. Each category takes the bits it
+     * needs, contiguous and within a single word, and categories are packed in
+     * as few words as possible. Categories without values are left out.
+     */
+    CategoryMaskManager compact(Map<String, List<String>> values) {
+        Map<String, Integer> bits = Maps.newHashMap();
+        for (Entry<String, List<String>> entry : values.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                bits.put(entry.getKey(), getBitsFor(entry.getValue().size()));
+            }
+        }
+        Packing packing = pack(bits);
+        CategoryMaskManager compacted = new CategoryMaskManager();
+        for (Entry<String, int[]> entry : packing.bitmasks.entrySet()) {
+            CategoryInfo info = compacted.new CategoryInfo();
+            info.mask = new CategoryEncoder.Mask(entry.getValue());
+            int code = 1;
+            for (String value : values.get(entry.getKey())) {
+                info.valueCodes.put(value, code);
+                info.codeValues.put(code, value);
+                code++;
+            }
+            compacted.categoryInfoMap.put(entry.getKey(), info);
+        }
+        // new bits are taken after the last packed one, the room left in other words is lost
+        compacted.nextbit.set(packing.nextbit);
+        return compacted;
+    }
+
+    /**
+     * Returns the words per document that {@link #compact(Map)} would take for
+     * categories with the given number of values each, without building them.
+     */
+    static int getPackedSize(Map<String, Integer> valueCounts) {
+        Map<String, Integer> bits = Maps.newHashMap();
+        for (Entry<String, Integer> entry : valueCounts.entrySet()) {
+            if (entry.getValue() > 0) {
+                bits.put(entry.getKey(), getBitsFor(entry.getValue()));
+            }
+        }
+        return pack(bits).words;
+    }
+
+    /**
+     * Returns the bits needed to code the given number of values, leaving 0 for
+     * no value.
+     */
+    private static int getBitsFor(int values) {
+        return 32 - Integer.numberOfLeadingZeros(values);
+    }
+
+    private static final class Packing {
+        private final Map<String, int[]> bitmasks = Maps.newHashMap();
+        private int words;
+        private int nextbit;
+    }
+
+    /**
+     * Places each category in the first word with room for its bits, the ones
+     * that need more bits first.
+     */
+    private static Packing pack(Map<String, Integer> bits) {
+        List<Entry<String, Integer>> categories = Lists.newArrayList(bits.entrySet());
+        Collections.sort(categories, new Comparator<Entry<String, Integer>>() {
+            @Override
+            public int compare(Entry<String, Integer> a, Entry<String, Integer> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        Packing packing = new Packing();
+        List<Integer> used = Lists.newArrayList();
+        for (Entry<String, Integer> category : categories) {
+            int length = category.getValue();
+            int word = 0;
+            while (word < used.size() && used.get(word) + length > 32) {
+                word++;
+            }
+            if (word == used.size()) {
+                used.add(0);
+            }
+            int[] bitmask = new int[word + 1];
+            bitmask[word] = (length == 32 ? -1 : (1 << length) - 1) << used.get(word);
+            used.set(word, used.get(word) + length);
+            packing.bitmasks.put(category.getKey(), bitmask);
+        }
+        packing.words = used.size();
+        packing.nextbit = used.isEmpty() ? 0 : (used.size() - 1) * 32 + used.get(used.size() - 1);
+        return packing;
+    }
+
+    private static int getBitMaskSize(CategoryEncoder.Mask mask) {
+    	return 1 << mask.getBits();
     }
 
-    private int[] enlargeBitMask(int[] bitmask) {
+    /**
+     * Returns a copy of the bitmask with one more bit.
+     */
+    private CategoryEncoder.Mask enlargeBitMask(CategoryEncoder.Mask mask) {
+    	int[] bitmask = mask.getBitmask();
     	int bit = nextbit.getAndIncrement();
     	int position = bit / 32;
-    	if (bitmask.length <= position) {
-    		int[] newBitmask = new int[position + 1];
-    		System.arraycopy(bitmask, 0, newBitmask, 0, bitmask.length);
-    		bitmask = newBitmask;
-    	}
+    	int[] newBitmask = new int[Math.max(position + 1, bitmask.length)];
+    	System.arraycopy(bitmask, 0, newBitmask, 0, bitmask.length);
     	
-    	bitmask[position] = bitmask[position] + (int)(1 << bit % 32);
-    	return bitmask;
+    	newBitmask[position] = newBitmask[position] + (int)(1 << bit % 32);
+    	return new CategoryEncoder.Mask(newBitmask);
     }
     
     /**
-     * Private method to save state to disk.
-     * Blocking.
+     * Private method to save state to disk. Categories and values may be added
+     * while it's written, the copy written may miss them but it's consistent:
+     * every value code fits the bitmask written for its category, and the next
+     * bit is past every bitmask.
      */
     synchronized void writeData(DataOutputStream dos) throws IOException {
+        // a value is added once its category's bitmask has room for it, and a bit is
+        // taken before it's added to a bitmask: so values are read before bitmasks,
+        // and bitmasks before the next bit
+        Map<String, Map<String, Integer>> values = Maps.newHashMap();
+        Map<String, int[]> bitmasks = Maps.newHashMap();
+        for (Entry<String, CategoryInfo> entry : categoryInfoMap.entrySet()) {
+            values.put(entry.getKey(), ImmutableMap.copyOf(entry.getValue().valueCodes));
+            bitmasks.put(entry.getKey(), entry.getValue().getBitmask());
+        }
         dos.writeInt(nextbit.get());
         
-        for (Entry<String, CategoryInfo> entry : categoryInfoMap.entrySet()) {
+        for (Entry<String, int[]> entry : bitmasks.entrySet()) {
             dos.writeUTF(entry.getKey());
-            entry.getValue().writeData(dos);
+            writeCategoryInfoData(dos, entry.getValue(), values.get(entry.getKey()));
         }
         
         dos.writeUTF("\u0000");
     }
 
+    private static void writeCategoryInfoData(DataOutputStream dos, int[] bitmask, Map<String, Integer> valueCodes) throws IOException {
+        dos.writeInt(bitmask.length);
+        for (int i = 0; i < bitmask.length; i++) {
+            dos.writeInt(bitmask[i]);
+        }
+        for (Entry<String, Integer> entry : valueCodes.entrySet()) {
+            dos.writeInt(entry.getValue());
+            dos.writeUTF(entry.getKey());
+        }
+        
+        dos.writeInt(-1);
+    }
+
     synchronized void readData(DataInputStream dis) throws IOException {
         nextbit.set(dis.readInt());
         
@@ -145,10 +262,11 @@ public class CategoryMaskManager implements Serializable {
     CategoryInfo readCategoryInfoData(DataInputStream dis) throws IOException {
         CategoryInfo ci = new CategoryInfo();
         int len = dis.readInt();
-        ci.bitmask = new int[len];
+        int[] bitmask = new int[len];
         for (int i = 0; i < len; i++) {
-            ci.bitmask[i] = dis.readInt();
+            bitmask[i] = dis.readInt();
         }
+        ci.mask = new CategoryEncoder.Mask(bitmask);
         while (true) {
             int code = dis.readInt();
             if (code == -1) break;
@@ -164,31 +282,17 @@ public class CategoryMaskManager implements Serializable {
     public final class CategoryInfo implements Serializable {
     	private ConcurrentMap<String, Integer> valueCodes;
     	private ConcurrentMap<Integer, String> codeValues;
-    	private int[] bitmask;
+    	private volatile CategoryEncoder.Mask mask;
 
     	public CategoryInfo() {
 			this.valueCodes = new ConcurrentHashMap<String, Integer>();
 			this.codeValues = new ConcurrentHashMap<Integer, String>();
-			this.bitmask = new int[0];
+			this.mask = new CategoryEncoder.Mask(new int[0]);
 		}
     	
-    	void writeData(DataOutputStream dos) throws IOException {
-    	    int[] bm = bitmask;
-    	    dos.writeInt(bm.length);
-    	    for (int i = 0; i < bm.length; i++) {
-    	        dos.writeInt(bm[i]);
-            }
-            for (Entry<String, Integer> entry : valueCodes.entrySet()) {
-                dos.writeInt(entry.getValue());
-                dos.writeUTF(entry.getKey());
-            }
-            
-            dos.writeInt(-1);
-        }
-    	
         public CategoryValueInfo getCategoryValueInfo(String value) {
             // optimize lock
-            synchronized (bitmask) {
+            synchronized (this) {
             	Integer intValue;
             	if (value != null) {
             		intValue = valueCodes.get(value);
@@ -198,24 +302,27 @@ public class CategoryMaskManager implements Serializable {
         		
         		if (intValue == null) {
         				intValue = valueCodes.size() + 1;
-        				if (getBitMaskSize(bitmask) - 1 < intValue) {
-        				    dumpLock.readLock().lock();
-        				    try {
-        				        bitmask = enlargeBitMask(bitmask);
-        				    } finally {
-        				        dumpLock.readLock().unlock();
-        				    }
+        				if (getBitMaskSize(mask) - 1 < intValue) {
+        				    mask = enlargeBitMask(mask);
         				}
         				valueCodes.put(value, intValue);
         				codeValues.put(intValue, value);
     
     			}
-        		return new CategoryValueInfo(bitmask, intValue);
+        		return new CategoryValueInfo(mask, intValue);
     		}
     	}
     	
     	public int[] getBitmask() {
-    		return bitmask;
+    		return mask.getBitmask();
+    	}
+
+    	/**
+    	 * Returns the current bitmask compiled. A new one is returned whenever the
+    	 * category gets another bit.
+    	 */
+    	public CategoryEncoder.Mask getMask() {
+    		return mask;
     	}
     	
     	public Integer getValueCode(String value) {
@@ -233,16 +340,20 @@ public class CategoryMaskManager implements Serializable {
     }
 
     public static final class CategoryValueInfo {
-        private final int[] bitmask;
+        private final CategoryEncoder.Mask mask;
         private final int valueCode;
 
-        public CategoryValueInfo(int[] bitmask, int valueCode) {
-            this.bitmask = bitmask;
+        public CategoryValueInfo(CategoryEncoder.Mask mask, int valueCode) {
+            this.mask = mask;
             this.valueCode = valueCode;
         }
 
         public int[] getBitmask() {
-            return bitmask;
+            return mask.getBitmask();
+        }
+
+        public CategoryEncoder.Mask getMask() {
+            return mask;
         }
 
         public int getValueCode() {
@@ -254,6 +365,7 @@ public class CategoryMaskManager implements Serializable {
         HashMap<String, String> stats = Maps.newHashMap();
         stats.put("categories_bits", String.valueOf(nextbit.get()));
         stats.put("categories_count", String.valueOf(categoryInfoMap.size()));
+        stats.put("categories_words", String.valueOf(getMaxMaskSize()));
         return stats;
     }
 
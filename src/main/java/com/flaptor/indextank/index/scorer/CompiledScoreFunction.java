@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import com.flaptor.indextank.index.scorer.expression.ScoreExpression;
+import com.google.common.base.Preconditions;
+
+/**
+ * Base class of the functions compiled from formulas by the score formula
+ * parser. Besides the generated code, it keeps the expression tree of the
+ * formula so that its scores can be bounded before computing them.
+ */
+public abstract class CompiledScoreFunction implements BatchScoreFunction {
+
+    private volatile ScoreExpression expression;
+
+    public ScoreExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Called once by the parser after the function is compiled.
+     */
+    public void setExpression(ScoreExpression expression) {
+        Preconditions.checkState(this.expression == null, "The expression was already set");
+        this.expression = expression;
+    }
+
+}
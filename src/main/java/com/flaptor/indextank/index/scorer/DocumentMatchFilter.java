@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import com.flaptor.indextank.index.DocId;
+
+/**
+ * A {@link MatchFilter} whose outcome depends only on the document's dynamic
+ * data, and not on the textual score, the query time or the query variables.
+ * These filters can be evaluated ahead of time for every document of an index
+ * and their results kept, as long as the dynamic data doesn't change.
+ * <br><br>
+ * Implementations should implement equals and hashCode based on what they
+ * filter, so that equivalent filters from different queries can share the
+ * precomputed results.
+ */
+public interface DocumentMatchFilter extends MatchFilter {
+	boolean matches(DocId documentId);
+
+	/**
+	 * @return the manager holding the data this filter reads, changes to
+	 * documents are tracked through it.
+	 */
+	DynamicDataManager getDynamicDataManager();
+}
@@ -22,12 +22,13 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 
 import com.flaptor.indextank.index.DocId;
 import com.flaptor.indextank.index.scorer.CategoryMaskManager.CategoryInfo;
 import com.flaptor.indextank.index.scorer.DynamicDataManager.DynamicData;
-import com.flaptor.indextank.index.scorer.DynamicDataManager.FacetsCollector;
 import com.flaptor.indextank.query.QueryVariables;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -38,11 +39,13 @@ import com.google.common.collect.ObjectArrays;
 public class DynamicDataFacetingManager extends FacetingManager {
 	private final DynamicDataManager dynamicDataManager;
 	
-	public class DynamicDataFacetFilter implements MatchFilter {
+	public class DynamicDataFacetFilter implements DocumentMatchFilter {
+		private final Multimap<String, String> filteringFacets;
 		private List<CategoryFilter> matchingCategories = new ArrayList<CategoryFilter>();
-		private int dataOffset;
 		//TODO: optimize to avoid searching the index when true
 		private boolean isNoneMatchingFilter = false;
+		// replaced when the categories are compacted
+		private CategoryMaskManager compiledFor;
 		
 		private class CategoryFilter {
 			public int[] bitmask;
@@ -55,9 +58,18 @@ public class DynamicDataFacetingManager extends FacetingManager {
 		}
 		
 		public DynamicDataFacetFilter(Multimap<String, String> filteringFacets) {
-			CategoryMaskManager maskManager = dynamicDataManager.getMaskManager();
+			this.filteringFacets = filteringFacets;
+			compile(dynamicDataManager.getMaskManager());
+		}
+
+		/**
+		 * Encodes the filtered values with the manager's bitmasks.
+		 */
+		private void compile(CategoryMaskManager maskManager) {
+			compiledFor = maskManager;
+			matchingCategories = new ArrayList<CategoryFilter>();
+			isNoneMatchingFilter = false;
 			int maxMaskSize = maskManager.getMaxMaskSize();
-			dataOffset = dynamicDataManager.getNumberOfBoosts() + 1;
 			
 			if (maxMaskSize == 0) {
 				if (filteringFacets.size() == 0) {
@@ -82,7 +94,7 @@ public class DynamicDataFacetingManager extends FacetingManager {
 						return;
 					}
 
-					int[] bitmask = categoryInfo.getBitmask();
+					CategoryEncoder.Mask mask = categoryInfo.getMask();
 					Integer valueCode = categoryInfo.getValueCode(entry.getValue());
 					
 					if (valueCode == null) {
@@ -90,9 +102,9 @@ public class DynamicDataFacetingManager extends FacetingManager {
 						return;
 					}
 					
-					CategoryEncoder.encode(totalValue, 0, bitmask, valueCode);
+					mask.encode(totalValue, 0, valueCode);
 					
-					orArrays(bitmask, totalMask);
+					orArrays(mask.getBitmask(), totalMask);
 				}
 				
 				matchingCategories.add(new CategoryFilter(totalMask, new int[][] { totalValue } ));
@@ -104,7 +116,7 @@ public class DynamicDataFacetingManager extends FacetingManager {
 						isNoneMatchingFilter = true;
 						return;
 					}
-					int[] bitmask = categoryInfo.getBitmask();
+					CategoryEncoder.Mask mask = categoryInfo.getMask();
 
 					Collection<String> values = filteringFacets.get(categoryKey);
 					List<int[]> valuesBitmaps = Lists.newArrayList();
@@ -112,7 +124,7 @@ public class DynamicDataFacetingManager extends FacetingManager {
 					for (String value : values) {
 						Integer valueCode = categoryInfo.getValueCode(value);
 						if (valueCode != null) {
-							int[] encodedValue = CategoryEncoder.encode(new int[0], 0, bitmask, valueCode);
+							int[] encodedValue = mask.encode(new int[0], 0, valueCode);
 							valuesBitmaps.add(encodedValue);
 						}
 					}
@@ -122,7 +134,7 @@ public class DynamicDataFacetingManager extends FacetingManager {
 						return;
 					}
 					
-					matchingCategories.add(new CategoryFilter(bitmask, valuesBitmaps.toArray(new int[valuesBitmaps.size()][])));
+					matchingCategories.add(new CategoryFilter(mask.getBitmask(), valuesBitmaps.toArray(new int[valuesBitmaps.size()][])));
 				}
 			}
 		}
@@ -135,13 +147,36 @@ public class DynamicDataFacetingManager extends FacetingManager {
 		
 		@Override
 		public boolean matches(DocId documentId, double textualScore, int now, QueryVariables queryVars) {
+			return matches(documentId);
+		}
+
+		@Override
+		public boolean matches(DocId documentId, Boosts data, double textualScore, int now, QueryVariables queryVars) {
+			return matches(documentId, data);
+		}
+
+		@Override
+		public boolean matches(DocId documentId) {
+			return matches(documentId, null);
+		}
+
+		private boolean matches(DocId documentId, Boosts fetched) {
 			if (isNoneMatchingFilter) {
 				return false;
 			}
 			
-			DynamicData dynamicData = dynamicDataManager.getDynamicData(documentId);
+			DynamicData dynamicData = dynamicDataManager.getDynamicData(documentId, fetched);
+			if (dynamicData == null) {
+				return false;
+			}
+			if (dynamicData.getMaskManager() != compiledFor) {
+				compile(dynamicData.getMaskManager());
+				if (isNoneMatchingFilter) {
+					return false;
+				}
+			}
 			
-			int[] data = dynamicData.getData();
+			int[] categories = dynamicData.getCategories();
 			
 			/*
 			 * For every category we checked that at least one of the
@@ -152,7 +187,7 @@ public class DynamicDataFacetingManager extends FacetingManager {
 				boolean matched = false;
 				
 				for (int i = 0; i < values.length; i++) {
-					if (CategoryEncoder.matches(data, dataOffset, categoryFilter.bitmask, values[i])) {
+					if (CategoryEncoder.matches(categories, 0, categoryFilter.bitmask, values[i])) {
 						matched = true;
 						break;
 					}
@@ -164,6 +199,26 @@ public class DynamicDataFacetingManager extends FacetingManager {
 			
 			return true;
 		}
+
+		@Override
+		public DynamicDataManager getDynamicDataManager() {
+			return dynamicDataManager;
+		}
+
+		@Override
+		public int hashCode() {
+			return filteringFacets.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			DynamicDataFacetFilter other = (DynamicDataFacetFilter) obj;
+			return getDynamicDataManager() == other.getDynamicDataManager() && filteringFacets.equals(other.filteringFacets);
+		}
 		
 	}
 	
@@ -171,49 +226,195 @@ public class DynamicDataFacetingManager extends FacetingManager {
 		this.dynamicDataManager = dynamicDataManager;
 	}
 
-	public class DynamicDataFaceter implements Faceter, FacetsCollector {
-		private Map<String, int[]> rawFacets = Maps.newHashMap();
+	/**
+	 * Counts the values of the documents' categories. The categories are resolved
+	 * into a plan when the faceter is created, with the compiled mask and an array
+	 * of counts per category, and the plan is built again when categories are
+	 * added during the query. Only the requested categories are counted, and
+	 * documents are sampled past the request's threshold. Ranges of variables
+	 * are counted in the same pass, reading the variables' columns, and returned
+	 * apart from the categories.
+	 * 
+	 * @see FacetingRequest
+	 */
+	public class DynamicDataFaceter implements Faceter {
+		private CategoryMaskManager maskManager;
+		private final FacetingRequest request;
+		private final int sampleThreshold;
+		// documents are counted with probability 1 / stride, stride times each. The sequence
+		// is the same for every faceter, so that a query always gets the same estimates
+		private final Random random = new Random(1);
+		private int stride = 1;
+		private int countedAtStride = 0;
+		private boolean approximate = false;
+		private int compiledBits = -1;
+		private String[] categories = new String[0];
+		private CategoryInfo[] infos = new CategoryInfo[0];
+		private int[][] counts = new int[0][];
+		private boolean[] seen = new boolean[0];
+		private final FacetingRequest.Range[] ranges;
+		private final int[][] rangeCounts;
 		
+		public DynamicDataFaceter(FacetingRequest request) {
+			Preconditions.checkNotNull(request);
+			this.request = request;
+			this.sampleThreshold = request.getSampleThreshold();
+			this.ranges = request.getRanges().toArray(new FacetingRequest.Range[0]);
+			this.rangeCounts = new int[ranges.length][];
+			for (int i = 0; i < ranges.length; i++) {
+				Preconditions.checkArgument(ranges[i].getVariable() < dynamicDataManager.getNumberOfBoosts(), "Invalid variable index " + ranges[i].getVariable());
+				rangeCounts[i] = new int[ranges[i].getRangeCount()];
+			}
+		}
+
 		@Override
 		public void computeDocument(DocId documentId) {
-			dynamicDataManager.populateCollector(documentId, this);
+			computeDocument(documentId, null);
+		}
+
+		@Override
+		public void computeDocument(DocId documentId, Boosts fetched) {
+			int weight = 1;
+			if (sampleThreshold > 0) {
+				if (stride > 1 && random.nextInt(stride) != 0) {
+					approximate = true;
+					return;
+				}
+				weight = stride;
+				if (++countedAtStride == sampleThreshold) {
+					countedAtStride = 0;
+					stride <<= 1;
+				}
+			}
+			DynamicData data = dynamicDataManager.getDynamicData(documentId, fetched);
+			if (null == data) {
+				throw new IllegalArgumentException("no data for document " + documentId);
+			}
+			CategoryMaskManager masks = data.getMaskManager();
+			if (masks != maskManager || masks.getBitCount() != compiledBits) {
+				compile(masks);
+			}
+			for (int i = 0; i < ranges.length; i++) {
+				int variable = ranges[i].getVariable();
+				double value = variable == DynamicDataManager.TIMESTAMP_VARIABLE ? data.getTimestamp() : data.getBoost(variable);
+				if (!Double.isNaN(value)) {
+					rangeCounts[i][ranges[i].getRange(value)] += weight;
+				}
+			}
+			if (infos.length == 0) {
+				return;
+			}
+			int[] words = data.getCategories();
+			for (int i = 0; i < infos.length; i++) {
+				// masks are compiled once per bitmask, and replaced when a category gets another bit
+				int valueCode = infos[i].getMask().decode(words, 0);
+				if (valueCode != 0) {
+					int[] categoryCounts = counts[i];
+					if (valueCode > categoryCounts.length) {
+						categoryCounts = counts[i] = Arrays.copyOf(categoryCounts, Math.max(valueCode, categoryCounts.length * 2));
+					}
+					categoryCounts[valueCode - 1] += weight;
+					seen[i] = true;
+				}
+			}
+		}
+
+		/**
+		 * Builds the plan for the manager's categories, keeping the counts so far.
+		 * Counts are moved to the new codes if the categories were compacted.
+		 */
+		private void compile(CategoryMaskManager masks) {
+			boolean recoded = maskManager != null && masks != maskManager;
+			maskManager = masks;
+			// read before the bitmasks, so a bit taken while compiling triggers another compilation
+			compiledBits = maskManager.getBitCount();
+			Map<String, Integer> previous = Maps.newHashMap();
+			for (int i = 0; i < categories.length; i++) {
+				previous.put(categories[i], i);
+			}
+			List<Entry<String, CategoryInfo>> entries = Lists.newArrayList();
+			for (Entry<String, CategoryInfo> entry : maskManager.getCategoryInfos().entrySet()) {
+				if (request.isRequested(entry.getKey())) {
+					entries.add(entry);
+				}
+			}
+			int size = entries.size();
+			String[] newCategories = new String[size];
+			CategoryInfo[] newInfos = new CategoryInfo[size];
+			int[][] newCounts = new int[size][];
+			boolean[] newSeen = new boolean[size];
+			for (int i = 0; i < size; i++) {
+				newCategories[i] = entries.get(i).getKey();
+				newInfos[i] = entries.get(i).getValue();
+				Integer old = previous.get(newCategories[i]);
+				if (old != null && recoded) {
+					newCounts[i] = new int[newInfos[i].getSize()];
+					newSeen[i] = seen[old];
+					for (int j = 0; j < counts[old].length; j++) {
+						Integer code = counts[old][j] == 0 ? null : newInfos[i].getValueCode(infos[old].getValue(j + 1));
+						if (code != null) {
+							newCounts[i][code - 1] += counts[old][j];
+						}
+					}
+				} else if (old != null) {
+					newCounts[i] = counts[old];
+					newSeen[i] = seen[old];
+				} else {
+					newCounts[i] = new int[newInfos[i].getSize()];
+				}
+			}
+			categories = newCategories;
+			infos = newInfos;
+			counts = newCounts;
+			seen = newSeen;
 		}
 
 		@Override
 		public Map<String, Multiset<String>> getFacets() {
-			CategoryMaskManager maskManager = dynamicDataManager.getMaskManager();
 			Map<String, Multiset<String>> results = Maps.newHashMap();
 			
-			for (Entry<String, int[]> entry : rawFacets.entrySet()) {
-				Multiset<String> counts = HashMultiset.create();
-				String category = entry.getKey();
-				CategoryInfo categoryInfo = maskManager.getCategoryInfos().get(category);					
-				int[] rawCounts = entry.getValue();
-				for (int i = 0; i < rawCounts.length; i++) {
-					String value = categoryInfo.getValue(i+1);
-					counts.add(value, rawCounts[i]);
+			for (int i = 0; i < categories.length; i++) {
+				if (!seen[i]) {
+					continue;
+				}
+				// all the values are returned, the limits are applied once the
+				// counts of every index are merged
+				Multiset<String> categoryCounts = HashMultiset.create();
+				int[] rawCounts = counts[i];
+				for (int j = 0; j < rawCounts.length; j++) {
+					if (rawCounts[j] > 0) {
+						categoryCounts.add(infos[i].getValue(j + 1), rawCounts[j]);
+					}
 				}
-				results.put(category, counts);
+				results.put(categories[i], categoryCounts);
 			}
 			
 			return results;
 		}
 
 		@Override
-		public void addCategoryValue(String category, Integer valueCode) {
-			int[] categorySet = rawFacets.get(category);
-			if (categorySet == null) {
-				categorySet = new int[dynamicDataManager.getMaskManager().getCategoryInfos().get(category).getSize()];
-				rawFacets.put(category, categorySet);
+		public Map<String, Multiset<String>> getRangeFacets() {
+			Map<String, Multiset<String>> results = Maps.newHashMap();
+			for (int i = 0; i < ranges.length; i++) {
+				Multiset<String> counts = HashMultiset.create();
+				for (int j = 0; j < rangeCounts[i].length; j++) {
+					counts.add(ranges[i].getLabel(j), rangeCounts[i][j]);
+				}
+				results.put(ranges[i].getName(), counts);
 			}
-			categorySet[valueCode - 1]++;
+			return results;
+		}
+
+		@Override
+		public boolean isApproximate() {
+			return approximate;
 		}
 		
 	}
 	
 	@Override
-	public Faceter createFaceter() {
-		return new DynamicDataFaceter();
+	public Faceter createFaceter(FacetingRequest request) {
+		return new DynamicDataFaceter(request);
 	}
 
 	@Override
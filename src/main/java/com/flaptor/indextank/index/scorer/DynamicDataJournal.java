@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.util.Execute;
+import com.google.common.collect.Maps;
+
+/**
+ * Append-only journal of the changes to a {@link DynamicDataManager}'s data.
+ * <br><br>
+ * Changes are recorded in memory and written to disk in groups by {@link #commit()},
+ * so a crash loses the changes since the last commit. Changes are kept in memory
+ * until they are synced, if writing them fails the next commit retries them. The journal is split in
+ * numbered files: {@link #rotate()} starts a new one, so that a snapshot of the
+ * data taken afterwards covers every file before it, which can then be deleted
+ * with {@link #deleteBefore(long)}. 
+ * <br><br>
+ * Every change is recorded with absolute values, so replaying the files in order
+ * on top of a snapshot that already contains some of their changes gives the
+ * same data. This lets snapshots be taken while the data is being modified.
+ * <br><br>
+ * Each change is written with its length and a checksum, so that replaying a file
+ * stops at the first change that a crash left cut short or garbled.
+ *
+ * @author Flaptor Team
+ */
+class DynamicDataJournal {
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+    private static final String FILE_PREFIX = "dynamicData.journal.";
+    private static final int VERSION = 1;
+
+    private static final byte SET_BOOSTS = 1;
+    private static final byte SET_CATEGORIES = 2;
+    private static final byte REMOVE = 3;
+
+    // length and checksum of each change
+    private static final int CHANGE_HEADER_SIZE = 8;
+    
+    /**
+     * Receives the changes read from the journal.
+     */
+    interface Replayer {
+        void setBoosts(DocId docId, Integer timestamp, Map<Integer, Float> boosts);
+        void setCategoryValues(DocId docId, Map<String, String> categories);
+        void remove(DocId docId);
+    }
+
+    private final File dir;
+    private final Object commitLock = new Object();
+
+    // guarded by this
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private DataOutputStream pendingData = new DataOutputStream(pending);
+    private ByteArrayOutputStream change = new ByteArrayOutputStream();
+    private DataOutputStream changeData = new DataOutputStream(change);
+
+    // guarded by commitLock
+    private long number;
+    private FileOutputStream out;
+    // bytes of out synced to disk, anything after them was left by a failed write
+    private long outLength;
+    private volatile long committedBytes;
+
+    DynamicDataJournal(File dir) {
+        this.dir = dir;
+    }
+    
+    /**
+     * Replays every journal file in the directory, in order, and starts a new one
+     * to record the changes from now on.
+     */
+    void open(Replayer replayer) throws IOException {
+        synchronized (commitLock) {
+            SortedMap<Long, File> files = listFiles();
+            for (File file : files.values()) {
+                replay(file, replayer);
+                committedBytes += file.length();
+            }
+            number = files.isEmpty() ? 0 : files.lastKey() + 1;
+            out = create(number);
+        }
+    }
+
+    synchronized void logBoosts(DocId docId, Integer timestamp, Map<Integer, Float> boosts) {
+        try {
+            changeData.writeByte(SET_BOOSTS);
+            docId.writeData(changeData);
+            changeData.writeBoolean(timestamp != null);
+            changeData.writeInt(timestamp == null ? 0 : timestamp);
+            changeData.writeInt(boosts.size());
+            for (Entry<Integer, Float> entry : boosts.entrySet()) {
+                changeData.writeInt(entry.getKey());
+                changeData.writeFloat(entry.getValue());
+            }
+            recordChange();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized void logCategoryValues(DocId docId, Map<String, String> categories) {
+        try {
+            changeData.writeByte(SET_CATEGORIES);
+            docId.writeData(changeData);
+            changeData.writeInt(categories.size());
+            for (Entry<String, String> entry : categories.entrySet()) {
+                changeData.writeUTF(entry.getKey());
+                changeData.writeUTF(entry.getValue());
+            }
+            recordChange();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized void logRemove(DocId docId) {
+        try {
+            changeData.writeByte(REMOVE);
+            docId.writeData(changeData);
+            recordChange();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds the change written to changeData to the pending ones, after its
+     * length and checksum.
+     */
+    private void recordChange() throws IOException {
+        assert Thread.holdsLock(this);
+        byte[] bytes = change.toByteArray();
+        change.reset();
+        pendingData.writeInt(bytes.length);
+        pendingData.writeInt(checksum(bytes, bytes.length));
+        pendingData.write(bytes);
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes the changes recorded since the last commit to disk, and syncs them.
+     */
+    void commit() throws IOException {
+        synchronized (commitLock) {
+            commitPending();
+        }
+    }
+
+    /**
+     * Commits the recorded changes and closes the journal file. Changes can't be
+     * committed afterwards.
+     */
+    void close() throws IOException {
+        synchronized (commitLock) {
+            if (out != null) {
+                commitPending();
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Commits the recorded changes and starts a new journal file. 
+     * 
+     * @return the number of the new file. Snapshots taken from now on contain
+     * every change recorded in the previous files.
+     */
+    long rotate() throws IOException {
+        synchronized (commitLock) {
+            commitPending();
+            out.close();
+            out = create(++number);
+            return number;
+        }
+    }
+
+    /**
+     * Deletes the journal files before the given one.
+     */
+    void deleteBefore(long first) {
+        synchronized (commitLock) {
+            for (Entry<Long, File> entry : listFiles().entrySet()) {
+                if (entry.getKey() < first) {
+                    committedBytes -= entry.getValue().length();
+                    if (!entry.getValue().delete()) {
+                        logger.warn("Couldn't delete journal file " + entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes committed to the journal files on disk.
+     */
+    long getCommittedBytes() {
+        return committedBytes;
+    }
+
+    /**
+     * Writes the pending changes, and only once they are synced drops them. Must
+     * be called holding the commitLock.
+     */
+    private void commitPending() throws IOException {
+        if (out == null) {
+            throw new IOException("The journal is closed.");
+        }
+        byte[] bytes = getPending();
+        if (bytes.length == 0) {
+            return;
+        }
+        FileChannel channel = out.getChannel();
+        if (channel.position() != outLength) {
+            // discard what a failed write left, its changes are still pending
+            channel.truncate(outLength);
+        }
+        append(out, bytes);
+        outLength += bytes.length;
+        committedBytes += bytes.length;
+        dropPending(bytes.length);
+    }
+
+    /**
+     * Writes the bytes at the end of the journal file and syncs them to disk.
+     */
+    void append(FileOutputStream stream, byte[] bytes) throws IOException {
+        stream.write(bytes);
+        stream.getChannel().force(false);
+    }
+
+    private synchronized byte[] getPending() {
+        return pending.toByteArray();
+    }
+
+    /**
+     * Drops the first committed bytes of the pending changes, keeping those
+     * recorded while they were being committed.
+     */
+    private synchronized void dropPending(int committed) {
+        byte[] bytes = pending.toByteArray();
+        pending.reset();
+        pending.write(bytes, committed, bytes.length - committed);
+    }
+
+    private FileOutputStream create(long fileNumber) throws IOException {
+        FileOutputStream stream = new FileOutputStream(new File(dir, FILE_PREFIX + fileNumber));
+        DataOutputStream header = new DataOutputStream(stream);
+        header.writeInt(VERSION);
+        header.flush();
+        outLength = 4;
+        committedBytes += 4;
+        return stream;
+    }
+
+    private SortedMap<Long, File> listFiles() {
+        SortedMap<Long, File> files = Maps.newTreeMap();
+        File[] all = dir.listFiles();
+        if (all != null) {
+            for (File file : all) {
+                String name = file.getName();
+                if (name.startsWith(FILE_PREFIX)) {
+                    try {
+                        files.put(Long.parseLong(name.substring(FILE_PREFIX.length())), file);
+                    } catch (NumberFormatException e) {
+                        logger.warn("Ignoring unknown file " + file);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Replays the changes in the file, up to the first one that is cut short or
+     * doesn't match its checksum, as left by a crash while committing. The file
+     * is truncated there.
+     */
+    private static void replay(File file, Replayer replayer) throws IOException {
+        long length = file.length();
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        int count = 0;
+        long valid = 0;
+        try {
+            if (length < 4) {
+                // cut short before its header
+                length = 0;
+            } else {
+                int version = dis.readInt();
+                if (version > VERSION) {
+                    throw new IllegalStateException(String.format("Journal version is newer than known by this class: %d > %d", version, VERSION));
+                }
+                valid = 4;
+            }
+            byte[] bytes = new byte[0];
+            while (valid + CHANGE_HEADER_SIZE <= length) {
+                int changeLength = dis.readInt();
+                int checksum = dis.readInt();
+                if (changeLength <= 0 || changeLength > length - valid - CHANGE_HEADER_SIZE) {
+                    break;
+                }
+                if (bytes.length < changeLength) {
+                    bytes = new byte[changeLength];
+                }
+                dis.readFully(bytes, 0, changeLength);
+                if (checksum(bytes, changeLength) != checksum) {
+                    break;
+                }
+                replayChange(new DataInputStream(new ByteArrayInputStream(bytes, 0, changeLength)), replayer, file);
+                valid += CHANGE_HEADER_SIZE + changeLength;
+                count++;
+            }
+        } finally {
+            Execute.close(dis);
+        }
+        if (valid < length) {
+            logger.warn("Journal " + file + " ends in " + (length - valid) + " bytes of a truncated or corrupt change, discarding them.");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(valid);
+            } finally {
+                raf.close();
+            }
+        }
+        logger.info("Replayed " + count + " changes from " + file);
+    }
+
+    /**
+     * Replays a change whose checksum matched.
+     */
+    private static void replayChange(DataInputStream dis, Replayer replayer, File file) throws IOException {
+        int type = dis.read();
+        DocId docId = DocId.readData(dis);
+        switch (type) {
+            case SET_BOOSTS:
+                boolean hasTimestamp = dis.readBoolean();
+                int timestamp = dis.readInt();
+                int boostsCount = dis.readInt();
+                Map<Integer, Float> boosts = Maps.newHashMap();
+                for (int i = 0; i < boostsCount; i++) {
+                    boosts.put(dis.readInt(), dis.readFloat());
+                }
+                replayer.setBoosts(docId, hasTimestamp ? timestamp : null, boosts);
+                break;
+            case SET_CATEGORIES:
+                int categoriesCount = dis.readInt();
+                Map<String, String> categories = Maps.newHashMap();
+                for (int i = 0; i < categoriesCount; i++) {
+                    categories.put(dis.readUTF(), dis.readUTF());
+                }
+                replayer.setCategoryValues(docId, categories);
+                break;
+            case REMOVE:
+                replayer.remove(docId);
+                break;
+            default:
+                throw new IllegalStateException("Unknown change type " + type + " in journal " + file);
+        }
+    }
+
+}
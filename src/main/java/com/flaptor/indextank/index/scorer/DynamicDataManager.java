@@ -17,48 +17,72 @@
 package com.flaptor.indextank.index.scorer;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.DocumentOrdinals;
 import com.flaptor.indextank.index.scorer.CategoryMaskManager.CategoryInfo;
 import com.flaptor.indextank.index.scorer.CategoryMaskManager.CategoryValueInfo;
 import com.flaptor.indextank.index.scorer.DynamicBoostsManager.DynamicBoosts;
+import com.flaptor.indextank.index.scorer.expression.Interval;
 import com.flaptor.util.Execute;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 @SuppressWarnings("deprecation")
 public class DynamicDataManager implements BoostsManager {
 	private static final Logger logger = Logger.getLogger(Execute.whoAmI());
 	private static final String OLD_MAIN_FILE_NAME = "dynamicBoosts";
 	private static final String MAIN_FILE_NAME = "dynamicData";
+	private static final int CHANGE_LOG_SIZE = 64 * 1024;
+	private static final long COMMIT_INTERVAL = 1000;
+	/* the journal is compacted into a snapshot once it's larger than this, or than half the snapshot */
+	private static final long MIN_COMPACTION_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * Variable index used to refer to the documents' timestamp in {@link #getValue(DocId, int)}.
+	 */
+	public static final int TIMESTAMP_VARIABLE = -1;
 
 	private final int numberOfBoosts;
-    private final ConcurrentMap<DocId, DynamicData> dynamicDataMap;
+    private final DynamicDataStore store;
     private final File backupDir;
-    private final DynamicData emptyData;
-    private final CategoryMaskManager maskManager;
-    private final ReentrantReadWriteLock dumpLock = new ReentrantReadWriteLock();
+    private final Boosts emptyData;
+    private final AtomicLong generation = new AtomicLong();
+    private final DynamicDataJournal journal;
+    private final CommitterThread committer;
+    
+    // smallest and largest timestamp (at 0) and variables (at 1-n) ever stored,
+    // they never shrink. documents without data have all of them in zero.
+    private final double[] minValues;
+    private final double[] maxValues;
+    /* ring buffer with the last changed documents, the change for generation g is at g % CHANGE_LOG_SIZE */
+    private final DocId[] changeLog = new DocId[CHANGE_LOG_SIZE];
 
     /**
      * Build a {@link DynamicDataManager} with a backupDir. If the directory containts a
@@ -73,8 +97,10 @@ public class DynamicDataManager implements BoostsManager {
     	checkDirArgument(backupDir);
         this.numberOfBoosts = numberOfBoosts;
         this.backupDir = backupDir;
-        this.emptyData = new DynamicData(numberOfBoosts);
-        this.maskManager = new CategoryMaskManager(dumpLock);
+        this.store = new DynamicDataStore(1 + numberOfBoosts);
+        this.emptyData = new EmptyData();
+        this.minValues = new double[1 + numberOfBoosts];
+        this.maxValues = new double[1 + numberOfBoosts];
 
         File oldFormatFile = new File(this.backupDir, OLD_MAIN_FILE_NAME);
         File newFormatFile = new File(this.backupDir, MAIN_FILE_NAME);
@@ -82,7 +108,7 @@ public class DynamicDataManager implements BoostsManager {
             logger.info("Found old format file, loading it.");
             ObjectInputStream is = null;
             try {
-                is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(oldFormatFile)));
+                is = new LegacyObjectInputStream(new BufferedInputStream(new FileInputStream(oldFormatFile)));
                 int storedNumberOfBoosts = is.readInt();
                 if (storedNumberOfBoosts != numberOfBoosts) {
                 	throw new IllegalArgumentException("Number of boosts specified in Manager construction differ from the one stored in the backup file (" + numberOfBoosts + " vs. " + storedNumberOfBoosts +")");
@@ -90,19 +116,25 @@ public class DynamicDataManager implements BoostsManager {
                 try {
                     ConcurrentMap<?, ?> read = (ConcurrentMap<?, ?>) is.readObject();
                     Set<?> keys = read.keySet();
-                    if (keys.isEmpty() || (keys.iterator().next() instanceof DocId && read.values().iterator().next() instanceof DynamicData)) {
-                        // last version, assign directly to field
-                        dynamicDataMap = (ConcurrentMap<DocId, DynamicData>) read;
+                    if (keys.isEmpty() || (keys.iterator().next() instanceof DocId && read.values().iterator().next() instanceof LegacyData)) {
+                        // last version, copy the rows to the store
+                        for (Map.Entry<DocId, LegacyData> e : ((ConcurrentMap<DocId, LegacyData>) read).entrySet()) {
+                            int ordinal = store.getOrCreateOrdinal(e.getKey());
+                            widenRanges(e.getValue().data);
+                            store.setRow(ordinal, e.getValue().data);
+                        }
                     } else {
                         // values are definitely Boosts, we'll need to transform them
                         // and check whether the keys are strings (v1) or DocIds (v2)
-                        dynamicDataMap = new ConcurrentHashMap<DocId, DynamicData>();
                         boolean areDocids = keys.iterator().next() instanceof DocId;
                         for (Map.Entry<?,?> e : read.entrySet()) {
                             // convert key to docid if necessary
                             DocId docId = areDocids ? (DocId)e.getKey() : new DocId((String)e.getKey());
-                            // convert value and add to the map
-                            dynamicDataMap.put(docId, new DynamicData((DynamicBoosts)e.getValue()));
+                            // convert value and add to the store
+                            int ordinal = store.getOrCreateOrdinal(docId);
+                            int[] row = toRow((DynamicBoosts)e.getValue());
+                            widenRanges(row);
+                            store.setRow(ordinal, row);
                         }
                     }
                     logger.info("State loaded.");
@@ -116,17 +148,47 @@ public class DynamicDataManager implements BoostsManager {
 			} finally {
                 Execute.close(is);
             }
-        } else {
-        	this.dynamicDataMap = new ConcurrentHashMap<DocId, DynamicData>();
-        	if (newFormatFile.exists()) {
-        	    readFromDisk();
-        	}
+        } else if (newFormatFile.exists()) {
+            readFromDisk();
+        }
+        this.journal = new DynamicDataJournal(backupDir);
+        try {
+            journal.open(new DynamicDataJournal.Replayer() {
+                @Override
+                public void setBoosts(DocId docId, Integer timestamp, Map<Integer, Float> boosts) {
+                    applyBoosts(docId, timestamp, boosts);
+                }
+                @Override
+                public void setCategoryValues(DocId docId, Map<String, String> categories) {
+                    applyCategoryValues(docId, categories);
+                }
+                @Override
+                public void remove(DocId docId) {
+                    store.remove(docId);
+                }
+            });
+        } catch (IOException e) {
+            logger.fatal("Error while replaying the dynamic data journal", e);
+            throw new RuntimeException(e);
         }
+        this.committer = new CommitterThread();
+        committer.start();
     }
     
+	Iterable<DocId> getDocumentIds() {
+	    return store.getDocumentIds();
+	}
+
+	/**
+	 * Returns the ordinals of the documents with data, which index their rows.
+	 */
+	public DocumentOrdinals getDocumentOrdinals() {
+	    return store.getDocumentOrdinals();
+	}
+
 	@Override
 	public Boosts getBoosts(DocId documentId) {
-	    DynamicData data = dynamicDataMap.get(documentId);
+	    DynamicData data = getDynamicData(documentId);
 	    if (data == null) {
 	        logger.warn("Failed to find boosts for document " + documentId);
 	        return this.emptyData;
@@ -135,7 +197,7 @@ public class DynamicDataManager implements BoostsManager {
 	}
 
     public Map<Integer, Double> getVariablesAsMap(DocId documentId) {
-        DynamicData data = dynamicDataMap.get(documentId);
+        DynamicData data = getDynamicData(documentId);
         if (data == null) {
             logger.warn("Failed to find variables for document " + documentId);
             return ImmutableMap.of();
@@ -158,16 +220,55 @@ public class DynamicDataManager implements BoostsManager {
 	
 	@Override
 	public int getDocumentCount() {
-		return dynamicDataMap.size();
+		return store.size();
 	}
 
+	/**
+	 * Returns a view of the document's data, or null if it has none.
+	 */
 	DynamicData getDynamicData(DocId docId) {
-		return dynamicDataMap.get(docId);
+		int ordinal = store.getOrdinal(docId);
+		return ordinal < 0 ? null : new DynamicData(store, ordinal);
+	}
+
+	/**
+	 * Returns a view of the data of the document with the given ordinal.
+	 */
+	DynamicData getDynamicData(int ordinal) {
+		return new DynamicData(store, ordinal);
+	}
+
+	/**
+	 * Returns the given data if it was fetched from this manager, otherwise
+	 * looks up the document's.
+	 */
+	DynamicData getDynamicData(DocId docId, Boosts data) {
+		return data instanceof DynamicData ? (DynamicData) data : getDynamicData(docId);
+	}
+
+	/**
+	 * Returns the value of the given variable for a document, or its timestamp if the 
+	 * variable is {@link #TIMESTAMP_VARIABLE}. If there's no data for the document, 
+	 * NaN is returned.
+	 */
+	public double getValue(DocId docId, int variable) {
+		Preconditions.checkArgument(variable >= TIMESTAMP_VARIABLE && variable < numberOfBoosts, "Invalid variable index " + variable);
+		int ordinal = store.getOrdinal(docId);
+		if (ordinal < 0) {
+			return Double.NaN;
+		}
+		int value = store.get(ordinal, variable + 1);
+		return variable == TIMESTAMP_VARIABLE ? value : Float.intBitsToFloat(value);
 	}
 	
 	@Override
 	public void removeBoosts(String documentId) {
-		dynamicDataMap.remove(new DocId(documentId));
+		DocId docId = new DocId(documentId);
+		synchronized (journal) {
+		    store.remove(docId);
+		    journal.logRemove(docId);
+		}
+		logChange(docId);
 	}
 
 	@Override
@@ -176,27 +277,36 @@ public class DynamicDataManager implements BoostsManager {
 	}
 	
     public void setCategoryValues(String documentId, Map<String, String> categories) {
-    	DynamicData data = getOrCreateData(documentId);
+    	DocId docId = new DocId(documentId);
+    	synchronized (journal) {
+    	    applyCategoryValues(docId, categories);
+    	    journal.logCategoryValues(docId, categories);
+    	}
+        logChange(docId);
+    }
+
+    private void applyCategoryValues(DocId docId, Map<String, String> categories) {
+        int ordinal = store.getOrCreateOrdinal(docId);
         for (Map.Entry<String, String> entry : categories.entrySet()) {
-            CategoryValueInfo catInfo = maskManager.getCategoryValueInfo(entry.getKey(), entry.getValue());
+            CategoryValueInfo catInfo = store.getMaskManager().getCategoryValueInfo(entry.getKey(), entry.getValue());
             if (catInfo != null) {
-            	data.setCategoryValue(catInfo.getBitmask(), catInfo.getValueCode());
+                store.setCategoryValue(ordinal, catInfo.getMask(), catInfo.getValueCode());
             }
         }
     }
 
     public Map<String, String> getCategoryValues(DocId documentId) {
-    	DynamicData data = dynamicDataMap.get(documentId);
+    	DynamicData data = getDynamicData(documentId);
     	if (null == data) {
     		throw new IllegalArgumentException("no data for document " + documentId);
     	}
     	Map<String, String> results = Maps.newHashMap();
     	
-    	Map<String, CategoryInfo> categoryInfos = maskManager.getCategoryInfos();
+    	Map<String, CategoryInfo> categoryInfos = data.getMaskManager().getCategoryInfos();
     	
     	for (Entry<String, CategoryInfo> entry : categoryInfos.entrySet()) {
     		CategoryInfo categoryInfo = entry.getValue();
-    		int valueCode = data.getCategoryValue(categoryInfo.getBitmask());
+    		int valueCode = data.getCategoryValue(categoryInfo.getMask());
     		if (valueCode != 0) {
     			results.put(entry.getKey(), categoryInfo.getValue(valueCode));
     		}
@@ -210,15 +320,23 @@ public class DynamicDataManager implements BoostsManager {
     }
     
     public void populateCollector(DocId documentId, FacetsCollector collector) {
-    	DynamicData data = dynamicDataMap.get(documentId);
+        populateCollector(documentId, null, collector);
+    }
+
+    /**
+     * Same as {@link #populateCollector(DocId, FacetsCollector)}, given the data
+     * of the document as fetched by {@link BoundScorer#fetch(DocId)}, or null.
+     */
+    public void populateCollector(DocId documentId, Boosts fetched, FacetsCollector collector) {
+    	DynamicData data = getDynamicData(documentId, fetched);
     	if (null == data) {
     		throw new IllegalArgumentException("no data for document " + documentId);
     	}
-    	Map<String, CategoryInfo> categoryInfos = maskManager.getCategoryInfos();
+    	Map<String, CategoryInfo> categoryInfos = data.getMaskManager().getCategoryInfos();
     	
     	for (Entry<String, CategoryInfo> entry : categoryInfos.entrySet()) {
     		CategoryInfo categoryInfo = entry.getValue();
-    		int valueCode = data.getCategoryValue(categoryInfo.getBitmask());
+    		int valueCode = data.getCategoryValue(categoryInfo.getMask());
     		if (valueCode != 0) {
     			collector.addCategoryValue(entry.getKey(), valueCode);
     		}
@@ -226,8 +344,12 @@ public class DynamicDataManager implements BoostsManager {
     	
     }
     
+    /**
+     * Returns the manager of the current category bitmasks. It's replaced when
+     * the categories are compacted.
+     */
     public CategoryMaskManager getMaskManager() {
-    	return maskManager;
+    	return store.getMaskManager();
     }
     
     
@@ -240,45 +362,268 @@ public class DynamicDataManager implements BoostsManager {
 				throw new IllegalArgumentException("Invalid boost index (" + index + " for a Scorer with a maximum of " + numberOfBoosts + " boosts)");
 			}
 		}
-		DynamicData data = getOrCreateData(documentId);
+		DocId docId = new DocId(documentId);
+		synchronized (journal) {
+		    applyBoosts(docId, timestamp, boosts);
+		    journal.logBoosts(docId, timestamp, boosts);
+		}
+		logChange(docId);
+	}
+
+	private void applyBoosts(DocId docId, Integer timestamp, Map<Integer, Float> boosts) {
+		// widened before the values are published, so that no reader sees values out of the ranges
+		synchronized (minValues) {
+		    for (Entry<Integer, Float> entry : boosts.entrySet()) {
+		        widenRange(1 + entry.getKey(), entry.getValue());
+		    }
+		    if (timestamp != null) {
+		        widenRange(0, timestamp);
+		    }
+		}
+		int ordinal = store.getOrCreateOrdinal(docId);
 		for (Entry<Integer, Float> entry : boosts.entrySet()) {
-			data.setBoost(entry.getKey(), entry.getValue());
+			store.set(ordinal, 1 + entry.getKey(), Float.floatToRawIntBits(entry.getValue()));
 		}
 		if (timestamp != null) {
-            data.setTimestamp(timestamp);
+            store.set(ordinal, 0, timestamp);
 		}
 	}
 
-    private DynamicData getOrCreateData(String docid) {
-        DocId key = new DocId(docid);
-        DynamicData data = dynamicDataMap.get(key);
-		if (data == null) {
-			data = new DynamicData(numberOfBoosts);
-			
-			DynamicData previousValue = dynamicDataMap.putIfAbsent(key, data);
-			if (previousValue != null) {
-				data = previousValue;
-			}
-		}
-        return data;
+    /**
+     * Widens the ranges to include the values of a row, before it's stored.
+     * Missing values are 0, which the ranges always include.
+     */
+    private void widenRanges(int[] row) {
+        synchronized (minValues) {
+            for (int i = 0; i < row.length && i < minValues.length; i++) {
+                widenRange(i, i == 0 ? row[i] : Float.intBitsToFloat(row[i]));
+            }
+        }
+    }
+
+    /**
+     * Must be called holding the lock of the ranges. NaN values are left out,
+     * they would make the ranges NaN as well.
+     */
+    private void widenRange(int i, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        minValues[i] = Math.min(minValues[i], value);
+        maxValues[i] = Math.max(maxValues[i], value);
+    }
+
+    @Override
+    public Interval getRange(int boostIndex) {
+        int i = boostIndex == TIMESTAMP_VARIABLE ? 0 : boostIndex + 1;
+        if (i < 0 || i >= minValues.length) {
+            return Interval.ALL;
+        }
+        synchronized (minValues) {
+            return Interval.of(minValues[i], maxValues[i]);
+        }
+    }
+
+    /**
+     * Returns a counter that is incremented on every change to the stored
+     * variables, timestamps or categories.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    private void logChange(DocId docId) {
+        synchronized (changeLog) {
+            long g = generation.incrementAndGet();
+            changeLog[(int) (g % CHANGE_LOG_SIZE)] = docId;
+        }
+    }
+
+    /**
+     * Returns the documents whose data changed after the given generation, or null
+     * if there were too many changes since then to keep track of them.
+     * The result may include changes newer than the current {@link #getGeneration()}.
+     */
+    public Set<DocId> getChangesSince(long since) {
+        synchronized (changeLog) {
+            long current = generation.get();
+            if (current - since >= CHANGE_LOG_SIZE) {
+                return null;
+            }
+            Set<DocId> changes = Sets.newHashSet();
+            for (long g = since + 1; g <= current; g++) {
+                changes.add(changeLog[(int) (g % CHANGE_LOG_SIZE)]);
+            }
+            return changes;
+        }
     }
 
     /*
      * Check the synching block 
      */
     
+    /**
+     * Commits the changes recorded in the journal, and compacts it into a new
+     * snapshot if it has grown large compared to the last one.
+     */
     @Override
     public void dump() throws IOException {
         logger.info("Starting DynamicDataManager's dump.");
-        dumpLock.writeLock().lock();
-        try {
-            newSyncToDisk();
-        } finally {
-            dumpLock.writeLock().unlock();
+        journal.commit();
+        long snapshotBytes = new File(backupDir, MAIN_FILE_NAME).length();
+        if (journal.getCommittedBytes() > Math.max(MIN_COMPACTION_BYTES, snapshotBytes / 2)) {
+            compact();
         }
         logger.info("DynamicDataManager's dump completed.");
     }
 
+    /**
+     * Stops committing the journal periodically, commits the changes recorded
+     * so far and closes the journal. Changes made afterwards are not persisted.
+     */
+    public void close() throws IOException {
+        committer.shutdown();
+        journal.close();
+    }
+
+    /**
+     * Writes a snapshot of the data and deletes the journal files it covers.
+     * Writers are not blocked while the snapshot is written. The categories are
+     * compacted first, if that saves words, and so are the docids of the
+     * documents added since the last load, if many were removed.
+     */
+    public synchronized void compact() throws IOException {
+        if (store.getMaskManager().getMaxMaskSize() > 1) {
+            compactCategories();
+        }
+        if (store.getDocumentOrdinals().compactArena()) {
+            logger.info("Compacted the docids arena to " + store.getDocumentOrdinals().getArenaBytes() + " bytes.");
+        }
+        logger.info("Compacting DynamicDataManager's journal.");
+        long first = journal.rotate();
+        newSyncToDisk();
+        journal.deleteBefore(first);
+    }
+
+    /**
+     * Packs the categories in as few words as possible, keeping only the values
+     * some document has, and rewrites the category words of every document for
+     * the new bitmasks, if that takes fewer words than now. Whether it does is
+     * checked first without blocking changes, then changes are blocked while the
+     * categories are rewritten, searches are not: they decode each document with
+     * the bitmasks its words were read with.
+     * <br><br>
+     * It doesn't change the data, so the journal is not involved, and it's kept
+     * by the next snapshot.
+     * 
+     * @return whether the categories were rewritten.
+     */
+    public synchronized boolean compactCategories() {
+        if (!isCompactionWorthIt(store.getMaskManager())) {
+            return false;
+        }
+        synchronized (journal) {
+            final CategoryMaskManager current = store.getMaskManager();
+            int before = current.getMaxMaskSize();
+            final List<Entry<String, CategoryInfo>> categories = Lists.newArrayList(current.getCategoryInfos().entrySet());
+            final boolean[][] live = getLiveCodes(categories);
+            
+            Map<String, List<String>> values = Maps.newHashMap();
+            for (int i = 0; i < live.length; i++) {
+                List<String> categoryValues = Lists.newArrayList();
+                for (int code = 1; code < live[i].length; code++) {
+                    if (live[i][code]) {
+                        categoryValues.add(categories.get(i).getValue().getValue(code));
+                    }
+                }
+                values.put(categories.get(i).getKey(), categoryValues);
+            }
+            final CategoryMaskManager compacted = current.compact(values);
+            if (compacted.getMaxMaskSize() >= before) {
+                return false;
+            }
+            
+            // old code to new code, per category
+            final int[][] codes = new int[live.length][];
+            final CategoryEncoder.Mask[] masks = new CategoryEncoder.Mask[live.length];
+            for (int i = 0; i < live.length; i++) {
+                CategoryInfo info = compacted.getCategoryInfos().get(categories.get(i).getKey());
+                if (info == null) {
+                    continue;
+                }
+                masks[i] = info.getMask();
+                codes[i] = new int[live[i].length];
+                int next = 1;
+                for (int code = 1; code < live[i].length; code++) {
+                    if (live[i][code]) {
+                        codes[i][code] = next++;
+                    }
+                }
+            }
+            store.rewriteCategories(compacted, new Function<int[], int[]>() {
+                @Override
+                public int[] apply(int[] words) {
+                    int[] newWords = new int[0];
+                    for (int i = 0; i < codes.length; i++) {
+                        int code = categories.get(i).getValue().getMask().decode(words, 0);
+                        if (code != 0) {
+                            newWords = masks[i].encode(newWords, 0, codes[i][code]);
+                        }
+                    }
+                    return newWords;
+                }
+            });
+            logger.info("Compacted categories from " + before + " to " + compacted.getMaxMaskSize() + " words per document.");
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether packing the values in use of the categories takes fewer
+     * words than now, without blocking changes. Values added meanwhile may be
+     * missed, so it's checked again with changes blocked before rewriting.
+     */
+    private boolean isCompactionWorthIt(CategoryMaskManager current) {
+        int before = current.getMaxMaskSize();
+        List<Entry<String, CategoryInfo>> categories = Lists.newArrayList(current.getCategoryInfos().entrySet());
+        Map<String, Integer> counts = Maps.newHashMap();
+        boolean[][] live = getLiveCodes(categories);
+        for (int i = 0; i < live.length; i++) {
+            int count = 0;
+            for (boolean used : live[i]) {
+                if (used) {
+                    count++;
+                }
+            }
+            counts.put(categories.get(i).getKey(), count);
+        }
+        return CategoryMaskManager.getPackedSize(counts) < before;
+    }
+
+    /**
+     * Returns, per category, which of its codes some document has. Values added
+     * while the documents are scanned may be left out.
+     */
+    private boolean[][] getLiveCodes(List<Entry<String, CategoryInfo>> categories) {
+        boolean[][] live = new boolean[categories.size()][];
+        CategoryEncoder.Mask[] masks = new CategoryEncoder.Mask[live.length];
+        for (int i = 0; i < live.length; i++) {
+            masks[i] = categories.get(i).getValue().getMask();
+            live[i] = new boolean[categories.get(i).getValue().getSize() + 1];
+        }
+        int capacity = store.getDocumentOrdinals().getCapacity();
+        for (int ordinal = 0; ordinal < capacity; ordinal++) {
+            int[] words = store.getCategories(ordinal);
+            for (int i = 0; i < live.length; i++) {
+                int code = masks[i].decode(words, 0);
+                if (code != 0 && code < live[i].length) {
+                    live[i][code] = true;
+                }
+            }
+        }
+        return live;
+    }
+
     /**
      * Syncs the stored data to disk.
      * This method is non-blocking, and does not ensure that the operation will be completed
@@ -288,34 +633,52 @@ public class DynamicDataManager implements BoostsManager {
         (new SyncerThread()).start();
     }
 
-    private static final int SERIALIZATION_VERSION = 1;
+    /* version of the files written before snapshots were mapped */
+    private static final int STREAM_VERSION = 1;
     private synchronized void newSyncToDisk() throws IOException {
         File f = new File(backupDir, MAIN_FILE_NAME);
-        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
-        try {
-            dos.writeInt(SERIALIZATION_VERSION);
-            dos.writeInt(numberOfBoosts);
-            
-            for (Entry<DocId, DynamicData> entry : dynamicDataMap.entrySet()) {
-                entry.getKey().writeData(dos);
-                entry.getValue().writeData(dos);
-            }
-            DocId.writeNull(dos);
-            
-            maskManager.writeData(dos);
-        } finally {
-            Execute.close(dos);
+        File tmp = new File(backupDir, MAIN_FILE_NAME + ".tmp");
+        double[] minCopy, maxCopy;
+        synchronized (minValues) {
+            minCopy = minValues.clone();
+            maxCopy = maxValues.clone();
+        }
+        DynamicDataSnapshot.write(tmp, numberOfBoosts, store, minCopy, maxCopy, store.getMaskManager());
+        if (!tmp.renameTo(f)) {
+            throw new IOException("Couldn't rename " + tmp + " to " + f);
         }
     }
     
     private synchronized void readFromDisk() {
         File f = new File(backupDir, MAIN_FILE_NAME);
+        try {
+            if (DynamicDataSnapshot.isSnapshot(f)) {
+                DynamicDataSnapshot snapshot = DynamicDataSnapshot.open(f, numberOfBoosts);
+                store.load(snapshot);
+                snapshot.readMasks(store.getMaskManager());
+                synchronized (minValues) {
+                    for (int i = 0; i < minValues.length; i++) {
+                        minValues[i] = snapshot.getMinValue(i);
+                        maxValues[i] = snapshot.getMaxValue(i);
+                    }
+                }
+                logger.info("Mapped snapshot with " + snapshot.getCount() + " documents.");
+            } else {
+                readStream(f);
+            }
+        } catch (IOException e) {
+            logger.fatal("Error while loading dynamic data", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void readStream(File f) throws IOException {
         DataInputStream dis = null;
         try {
             dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
             int version = dis.readInt();
-            if (version > SERIALIZATION_VERSION) {
-                throw new IllegalStateException(String.format("File version is newer than known by this class: %d > %d", version, SERIALIZATION_VERSION));
+            if (version > STREAM_VERSION) {
+                throw new IllegalStateException(String.format("File version is newer than known by this class: %d > %d", version, STREAM_VERSION));
             }
             
             int fileBoosts = dis.readInt();
@@ -328,18 +691,19 @@ public class DynamicDataManager implements BoostsManager {
                 if (docid == null) {
                     break;
                 }
-                DynamicData data = DynamicData.readData(numberOfBoosts, dis);
-                dynamicDataMap.put(docid, data);
+                int[] row = new int[dis.readInt()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = dis.readInt();
+                }
+                int ordinal = store.getOrCreateOrdinal(docid);
+                widenRanges(row);
+                store.setRow(ordinal, row);
             }
             
-            maskManager.readData(dis);
-        } catch (IOException e) {
-            logger.fatal("Error while loading dynamic data", e);
-            throw new RuntimeException(e);
+            store.getMaskManager().readData(dis);
         } finally {
             Execute.close(dis);
         }
-        
     }
     
     //----------------------------------------------------------------------------------------
@@ -361,32 +725,23 @@ public class DynamicDataManager implements BoostsManager {
     //----------------------------------------------------------------------------------------
     //PRIVATE CLASSES
 
-    static class DynamicData implements Serializable, Boosts {
-        private static final long serialVersionUID = 1L;
-        
-        private int[] data; // timestamp = data[0], variables = data[1-n], categories = data[n+1, m]
-        private int dataBoundary;
-
-        DynamicData(int numberOfBoosts) {
-            data = new int[1 + numberOfBoosts];
-            dataBoundary = numberOfBoosts + 1;
-        }
-
-        DynamicData(DynamicBoosts oldBoosts) {
-            data = new int[1 + oldBoosts.boosts.length];
-            data[0] = oldBoosts.timestamp;
-            for (int i = 0; i < oldBoosts.boosts.length; i++) {
-                data[1 + i] = Float.floatToRawIntBits(oldBoosts.boosts[i]);
-            }
-        }
-    	
-        public DynamicData(int numberOfBoosts, int[] data) {
-            this.data = data;
-            this.dataBoundary = numberOfBoosts + 1;
+    /**
+     * A view of a document's row in the store. Views are meant to be short lived,
+     * since the row may be taken by another document once this one is removed.
+     */
+    static class DynamicData implements Boosts {
+        private final DynamicDataStore store;
+        private final int ordinal;
+        private DynamicDataStore.Layout layout;
+        private int[] categories;
+
+        DynamicData(DynamicDataStore store, int ordinal) {
+            this.store = store;
+            this.ordinal = ordinal;
         }
 
-        public int[] getData() {
-        	return data;
+        public int getOrdinal() {
+            return ordinal;
         }
 
         public Map<Integer, Double> getVariablesAsMap(int numberOfVariables) {
@@ -399,53 +754,100 @@ public class DynamicDataManager implements BoostsManager {
         
         @Override
 		public float getBoost(int boostIndex) {
-			return Float.intBitsToFloat(data[1 + boostIndex]);
+			return Float.intBitsToFloat(store.get(ordinal, 1 + boostIndex));
 		}
 
-        public void setBoost(int boostIndex, float boostValue) {
-            data[1 + boostIndex] = Float.floatToRawIntBits(boostValue);
+        /**
+         * Returns the category words of the document, read once per view.
+         */
+        public int[] getCategories() {
+            if (categories == null) {
+                categories = getLayout().getCategories(ordinal);
+            }
+            return categories;
+        }
+
+        /**
+         * Returns the manager of the bitmasks that the category words of this
+         * view are encoded with.
+         */
+        public CategoryMaskManager getMaskManager() {
+            return getLayout().getMaskManager();
         }
 
-        public void setCategoryValue(int[] bitmask, int value) {
-        	if (data.length - dataBoundary < bitmask.length) {
-        		int[] newData = new int[bitmask.length + dataBoundary];
-        		System.arraycopy(data, 0, newData, 0, data.length);
-        		data = newData;
-        	}
-            data = CategoryEncoder.encode(data, dataBoundary, bitmask, value);
+        private DynamicDataStore.Layout getLayout() {
+            if (layout == null) {
+                layout = store.getLayout();
+            }
+            return layout;
         }
 
         public int getCategoryValue(int[] bitmask) {
-            return CategoryEncoder.decode(data, dataBoundary, bitmask);
+            return CategoryEncoder.decode(getCategories(), 0, bitmask);
+        }
+
+        public int getCategoryValue(CategoryEncoder.Mask mask) {
+            return mask.decode(getCategories(), 0);
         }
 
         @Override
 		public int getTimestamp() {
-			return data[0];
+			return store.get(ordinal, 0);
 		}
+    }
+
+    /**
+     * Data of documents that have none.
+     */
+    private static class EmptyData implements Boosts {
+        @Override
+        public float getBoost(int boostIndex) {
+            return 0;
+        }
 
-        public void setTimestamp(int timestamp) {
-            data[0] = timestamp;
+        @Override
+        public int getTimestamp() {
+            return 0;
         }
+    }
+
+    /**
+     * Row of a document as serialized by the previous versions, when data was kept
+     * in a map of {@link DynamicData}. 
+     */
+    private static class LegacyData implements Serializable {
+        private static final long serialVersionUID = 1L;
         
-        void writeData(DataOutputStream dos) throws IOException {
-            int len = data.length;
-            dos.writeInt(len);
-            for (int i = 0; i < len; i++) {
-                dos.writeInt(data[i]);
-            }
+        private int[] data;
+        @SuppressWarnings("unused")
+        private int dataBoundary;
+    }
+
+    /**
+     * Reads the serialized {@link DynamicData} of old files as {@link LegacyData}.
+     */
+    private static class LegacyObjectInputStream extends ObjectInputStream {
+        LegacyObjectInputStream(InputStream in) throws IOException {
+            super(in);
         }
 
-        static DynamicData readData(int numberOfBoosts, DataInputStream dis) throws IOException {
-            int len = dis.readInt();
-            int[] data = new int[len];
-            for (int i = 0; i < len; i++) {
-                data[i] = dis.readInt();
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            if (descriptor.getName().equals(DynamicData.class.getName())) {
+                return ObjectStreamClass.lookup(LegacyData.class);
             }
-            return new DynamicData(numberOfBoosts, data);
+            return descriptor;
         }
-        
-        
+    }
+
+    private static int[] toRow(DynamicBoosts oldBoosts) {
+        int[] row = new int[1 + oldBoosts.boosts.length];
+        row[0] = oldBoosts.timestamp;
+        for (int i = 0; i < oldBoosts.boosts.length; i++) {
+            row[1 + i] = Float.floatToRawIntBits(oldBoosts.boosts[i]);
+        }
+        return row;
     }
     
     private class SyncerThread extends Thread {
@@ -455,12 +857,40 @@ public class DynamicDataManager implements BoostsManager {
         @Override
         public void run() {
             try {
-                newSyncToDisk();
+                dump();
             } catch (Exception e) {
                 logger.error(e);
             }
         }
     }
+
+    /**
+     * Commits the journal every {@link #COMMIT_INTERVAL} milliseconds, until
+     * it's stopped.
+     */
+    private class CommitterThread extends Thread {
+        // not interrupted, an interrupt while syncing would close the journal file
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        public CommitterThread() {
+            setName("DynamicDataManager's journal committer");
+            setDaemon(true);
+        }
+        @Override
+        public void run() {
+            while (!Uninterruptibles.awaitUninterruptibly(stopped, COMMIT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                try {
+                    journal.commit();
+                } catch (Throwable t) {
+                    logger.error("Failed while committing the journal", t);
+                }
+            }
+        }
+        void shutdown() {
+            stopped.countDown();
+            Uninterruptibles.joinUninterruptibly(this);
+        }
+    }
     
     public static void main(String[] args) {
         int boosts = Integer.parseInt(args[0]);
@@ -484,8 +914,12 @@ public class DynamicDataManager implements BoostsManager {
 
     public Map<String, String> getStats() {
         HashMap<String, String> stats = Maps.newHashMap();
-        stats.putAll(maskManager.getStats());
-        stats.put("dynamic_data_count", String.valueOf(this.dynamicDataMap.size()));
+        stats.putAll(store.getMaskManager().getStats());
+        stats.put("dynamic_data_count", String.valueOf(store.size()));
+        stats.put("dynamic_data_columns", String.valueOf(store.getWidth()));
+        stats.put("dynamic_data_off_heap_bytes", String.valueOf(store.getAllocatedBytes()));
+        stats.put("dynamic_data_docid_bytes", String.valueOf(store.getDocumentOrdinals().getArenaBytes()));
+        stats.put("dynamic_data_docid_dead_bytes", String.valueOf(store.getDocumentOrdinals().getDeadArenaBytes()));
         stats.put("dynamic_data_variables", String.valueOf(this.numberOfBoosts));
         return stats;
     }
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.DocumentOrdinals;
+import com.flaptor.util.Execute;
+import com.google.common.collect.Lists;
+
+/**
+ * Snapshot of a {@link DynamicDataStore} in a file that is memory-mapped and
+ * used in place, so that opening it takes the same time for any number of
+ * documents. The file holds, in order:
+ * <ul>
+ * <li>a header with the version, number of variables, number of documents, 
+ * number of columns, size of the docid index and size of the docids.</li>
+ * <li>the smallest and largest value of the timestamp and of each variable.</li>
+ * <li>every column, one int per document.</li>
+ * <li>the position of each document's docid.</li>
+ * <li>an open addressing hash index of the docids, holding their ordinals plus one.</li>
+ * <li>the docids, as written by {@link DocId#writeData(DataOutputStream)}.</li>
+ * <li>the category masks, as written by {@link CategoryMaskManager}.</li>
+ * </ul>
+ * The columns are mapped privately: they can be written and the pages written
+ * are copied on demand, leaving the file untouched.
+ *
+ * @author Flaptor Team
+ */
+final class DynamicDataSnapshot implements DocumentOrdinals.Base {
+
+    static final int VERSION = 2;
+
+    private final int count;
+    private final double[] minValues;
+    private final double[] maxValues;
+    private final IntBuffer[] columns;
+    private final IntBuffer docIdPositions;
+    private final IntBuffer index;
+    private final ByteBuffer docIds;
+    private final File file;
+    private final long masksPosition;
+
+    private DynamicDataSnapshot(File file, int numberOfBoosts) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            int rangesCount = 1 + numberOfBoosts;
+            long position = 6 * 4 + rangesCount * 2 * 8;
+            ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, position);
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IllegalStateException(String.format("Unexpected snapshot version: %d, expected %d", version, VERSION));
+            }
+            int fileBoosts = header.getInt();
+            if (numberOfBoosts != fileBoosts) {
+                throw new IllegalStateException(String.format("Incorrect number of boosts in file. Actual: %d, Expected: %d", fileBoosts, numberOfBoosts));
+            }
+            count = header.getInt();
+            int width = header.getInt();
+            int capacity = header.getInt();
+            int docIdBytes = header.getInt();
+            minValues = new double[rangesCount];
+            maxValues = new double[rangesCount];
+            for (int i = 0; i < rangesCount; i++) {
+                minValues[i] = header.getDouble();
+                maxValues[i] = header.getDouble();
+            }
+
+            columns = new IntBuffer[width];
+            for (int i = 0; i < width; i++) {
+                columns[i] = channel.map(MapMode.PRIVATE, position, count * 4L).asIntBuffer();
+                position += count * 4L;
+            }
+            docIdPositions = channel.map(MapMode.READ_ONLY, position, count * 4L).asIntBuffer();
+            position += count * 4L;
+            index = channel.map(MapMode.READ_ONLY, position, capacity * 4L).asIntBuffer();
+            position += capacity * 4L;
+            docIds = channel.map(MapMode.READ_ONLY, position, docIdBytes);
+            masksPosition = position + docIdBytes;
+        } finally {
+            Execute.close(raf);
+        }
+    }
+
+    /**
+     * Returns whether the file holds a snapshot in this format.
+     */
+    static boolean isSnapshot(File file) throws IOException {
+        DataInputStream dis = new DataInputStream(new FileInputStream(file));
+        try {
+            return dis.readInt() == VERSION;
+        } finally {
+            Execute.close(dis);
+        }
+    }
+
+    /**
+     * Maps the snapshot in the file.
+     */
+    static DynamicDataSnapshot open(File file, int numberOfBoosts) throws IOException {
+        return new DynamicDataSnapshot(file, numberOfBoosts);
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    int getWidth() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the values of the column for every document, indexed by ordinal.
+     */
+    IntBuffer getColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * Returns the smallest value of the timestamp (at 0) or of a variable (at 1-n).
+     */
+    double getMinValue(int i) {
+        return minValues[i];
+    }
+
+    /**
+     * Returns the largest value of the timestamp (at 0) or of a variable (at 1-n).
+     */
+    double getMaxValue(int i) {
+        return maxValues[i];
+    }
+
+    /**
+     * Returns the ordinal of the document in the snapshot, or -1 if it's not in it.
+     */
+    @Override
+    public int find(DocId docId) {
+        int mask = index.capacity() - 1;
+        for (int slot = hash(docId) & mask; ; slot = (slot + 1) & mask) {
+            int entry = index.get(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            int position = docIdPositions.get(entry - 1);
+            if (docId.equalsBytes(docIds, position + 4, docIds.getInt(position))) {
+                return entry - 1;
+            }
+        }
+    }
+
+    @Override
+    public DocId getDocId(int ordinal) {
+        int position = docIdPositions.get(ordinal);
+        byte[] bytes = new byte[docIds.getInt(position)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = docIds.get(position + 4 + i);
+        }
+        return new DocId(bytes, 0, bytes.length);
+    }
+
+    void readMasks(CategoryMaskManager maskManager) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(fis));
+        try {
+            fis.getChannel().position(masksPosition);
+            maskManager.readData(dis);
+        } finally {
+            Execute.close(dis);
+        }
+    }
+
+    private static int hash(DocId docId) {
+        int h = docId.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Writes a snapshot of the store to the file, without blocking its writers.
+     * Rows may change while they're written, but only to values that are in the
+     * journal. The category masks are written last, so that they include every
+     * value in the rows.
+     */
+    static void write(File file, int numberOfBoosts, DynamicDataStore store, double[] minValues, double[] maxValues, CategoryMaskManager maskManager) throws IOException {
+        List<DocId> ids = Lists.newArrayList();
+        int[] ordinals = new int[16];
+        long docIdBytes = 0;
+        for (Entry<DocId, Integer> entry : store.getEntries()) {
+            if (ids.size() == ordinals.length) {
+                int[] newOrdinals = new int[ordinals.length * 2];
+                System.arraycopy(ordinals, 0, newOrdinals, 0, ordinals.length);
+                ordinals = newOrdinals;
+            }
+            ordinals[ids.size()] = entry.getValue();
+            ids.add(entry.getKey());
+            docIdBytes += 4 + entry.getKey().length();
+        }
+        if (docIdBytes > Integer.MAX_VALUE) {
+            throw new IOException("Docids are too large to be mapped: " + docIdBytes + " bytes");
+        }
+        int count = ids.size();
+        int width = store.getWidth();
+        int capacity = 16;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+
+        FileOutputStream fos = new FileOutputStream(file);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            dos.writeInt(VERSION);
+            dos.writeInt(numberOfBoosts);
+            dos.writeInt(count);
+            dos.writeInt(width);
+            dos.writeInt(capacity);
+            dos.writeInt((int) docIdBytes);
+            for (int i = 0; i < 1 + numberOfBoosts; i++) {
+                dos.writeDouble(minValues[i]);
+                dos.writeDouble(maxValues[i]);
+            }
+
+            for (int column = 0; column < width; column++) {
+                for (int i = 0; i < count; i++) {
+                    dos.writeInt(store.get(ordinals[i], column));
+                }
+            }
+            int position = 0;
+            for (DocId id : ids) {
+                dos.writeInt(position);
+                position += 4 + id.length();
+            }
+            int[] table = new int[capacity];
+            for (int i = 0; i < count; i++) {
+                int slot = hash(ids.get(i)) & (capacity - 1);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                table[slot] = i + 1;
+            }
+            for (int entry : table) {
+                dos.writeInt(entry);
+            }
+            for (DocId id : ids) {
+                id.writeData(dos);
+            }
+
+            maskManager.writeData(dos);
+            dos.flush();
+            fos.getChannel().force(false);
+        } finally {
+            Execute.close(dos);
+        }
+    }
+
+}
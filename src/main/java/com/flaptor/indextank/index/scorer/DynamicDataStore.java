@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.DocumentOrdinals;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * Columnar store of the documents' dynamic data, addressed by the ordinals
+ * of a {@link DocumentOrdinals}. Every column holds one int per document: the
+ * timestamp at 0, the raw bits of the variables at 1-n and the category words
+ * after them. Category columns are added as the category space grows, and
+ * documents without a value in them read zero.
+ * <br><br>
+ * Columns are kept off-heap in fixed size chunks of direct buffers, so that the
+ * only per-document objects on the heap are the entries of the ordinals' map.
+ * Rows of removed documents are cleared, and taken by the next ones added.
+ * <br><br>
+ * A store can start from a {@link DynamicDataSnapshot}, used in place: its
+ * documents keep their ordinals in the snapshot, and their rows are written in
+ * its privately mapped columns.
+ * <br><br>
+ * The category columns go together with the {@link CategoryMaskManager} whose
+ * bitmasks they're encoded with, in a {@link Layout}. Compacting the categories
+ * builds new category columns for new bitmasks and replaces both at once, so
+ * readers decode the words they read with the bitmasks they were written with.
+ * <br><br>
+ * Reads need no locking. Writes to a single document aren't atomic, as with
+ * the arrays this store replaces, and readers may see a partially updated row.
+ *
+ * @author Flaptor Team
+ */
+final class DynamicDataStore {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int fixedColumns;
+    private final DocumentOrdinals ordinals = new DocumentOrdinals();
+    private volatile Layout layout;
+
+    /**
+     * @param fixedColumns the number of columns every document has, before the
+     * category ones.
+     */
+    DynamicDataStore(int fixedColumns) {
+        Preconditions.checkArgument(fixedColumns > 0);
+        this.fixedColumns = fixedColumns;
+        IntColumn[] columns = new IntColumn[fixedColumns];
+        for (int i = 0; i < fixedColumns; i++) {
+            columns[i] = new IntColumn();
+        }
+        this.layout = new Layout(columns, new CategoryMaskManager());
+    }
+
+    /**
+     * Starts from the documents in the snapshot. Must be called before the store
+     * is used.
+     */
+    synchronized void load(DynamicDataSnapshot snapshot) {
+        Preconditions.checkArgument(snapshot.getWidth() >= fixedColumns);
+        ordinals.load(snapshot);
+        ensureColumns(snapshot.getWidth());
+        for (int i = 0; i < snapshot.getWidth(); i++) {
+            layout.columns[i].setBase(snapshot.getColumn(i), snapshot.getCount());
+        }
+    }
+
+    Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the manager of the bitmasks the category words are encoded with.
+     */
+    CategoryMaskManager getMaskManager() {
+        return layout.maskManager;
+    }
+
+    DocumentOrdinals getDocumentOrdinals() {
+        return ordinals;
+    }
+
+    /**
+     * Returns the ordinal of the document, or -1 if it has no data.
+     */
+    int getOrdinal(DocId docId) {
+        return ordinals.get(docId);
+    }
+
+    /**
+     * Returns the ordinal of the document, assigning it an empty row if it had none.
+     */
+    int getOrCreateOrdinal(DocId docId) {
+        return ordinals.getOrCreate(docId);
+    }
+
+    /**
+     * Removes the document's row and returns whether it had one.
+     */
+    synchronized boolean remove(DocId docId) {
+        int ordinal = ordinals.get(docId);
+        if (ordinal < 0) {
+            return false;
+        }
+        // cleared before it can be taken by another document
+        for (IntColumn column : layout.columns) {
+            column.set(ordinal, 0);
+        }
+        ordinals.release(docId);
+        return true;
+    }
+
+    int get(int ordinal, int column) {
+        IntColumn[] current = layout.columns;
+        return column < current.length ? current[column].get(ordinal) : 0;
+    }
+
+    void set(int ordinal, int column, int value) {
+        ensureColumns(column + 1);
+        layout.columns[column].set(ordinal, value);
+    }
+
+    /**
+     * Returns the number of columns, which is the length of the longest row.
+     */
+    int getWidth() {
+        return layout.columns.length;
+    }
+
+    /**
+     * Returns a copy of the document's category words.
+     */
+    int[] getCategories(int ordinal) {
+        return layout.getCategories(ordinal);
+    }
+
+    /**
+     * Encodes the value in the document's category words selected by the bitmask.
+     * 
+     * @see CategoryEncoder.Mask#encode(int[], int, int)
+     */
+    synchronized void setCategoryValue(int ordinal, CategoryEncoder.Mask mask, int value) {
+        int[] words = mask.encode(getCategories(ordinal), 0, value);
+        for (int i = 0; i < words.length; i++) {
+            set(ordinal, fixedColumns + i, words[i]);
+        }
+    }
+
+    /**
+     * Returns a copy of the document's row, as long as the store is wide.
+     */
+    int[] getRow(int ordinal) {
+        IntColumn[] current = layout.columns;
+        int[] row = new int[current.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = current[i].get(ordinal);
+        }
+        return row;
+    }
+
+    void setRow(int ordinal, int[] row) {
+        for (int i = 0; i < row.length; i++) {
+            set(ordinal, i, row[i]);
+        }
+    }
+
+    int size() {
+        return ordinals.size();
+    }
+
+    Iterable<Entry<DocId, Integer>> getEntries() {
+        return ordinals.getEntries();
+    }
+
+    Iterable<DocId> getDocumentIds() {
+        return Iterables.transform(getEntries(), new Function<Entry<DocId, Integer>, DocId>() {
+            @Override
+            public DocId apply(Entry<DocId, Integer> entry) {
+                return entry.getKey();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of bytes allocated off-heap by the columns, not
+     * counting the snapshot.
+     */
+    long getAllocatedBytes() {
+        long bytes = 0;
+        for (IntColumn column : layout.columns) {
+            bytes += column.getAllocatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Rewrites the category words of every document for another set of bitmasks,
+     * into new columns, and replaces the current ones and their bitmasks with
+     * them. There must be no writes meanwhile.
+     * 
+     * @param rewrite given the current words of a document that has categories,
+     * returns its words for the new bitmasks.
+     */
+    synchronized void rewriteCategories(CategoryMaskManager maskManager, Function<int[], int[]> rewrite) {
+        Layout current = layout;
+        List<IntColumn> newColumns = Lists.newArrayList(Arrays.asList(current.columns).subList(0, fixedColumns));
+        int capacity = ordinals.getCapacity();
+        for (int ordinal = 0; ordinal < capacity; ordinal++) {
+            int[] words = current.getCategories(ordinal);
+            if (isZero(words)) {
+                continue;
+            }
+            int[] newWords = rewrite.apply(words);
+            for (int i = 0; i < newWords.length; i++) {
+                if (newColumns.size() <= fixedColumns + i) {
+                    newColumns.add(new IntColumn());
+                }
+                newColumns.get(fixedColumns + i).set(ordinal, newWords[i]);
+            }
+        }
+        layout = new Layout(newColumns.toArray(new IntColumn[newColumns.size()]), maskManager);
+    }
+
+    private static boolean isZero(int[] words) {
+        for (int word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureColumns(int count) {
+        if (layout.columns.length < count) {
+            synchronized (this) {
+                Layout current = layout;
+                if (current.columns.length < count) {
+                    IntColumn[] newColumns = new IntColumn[count];
+                    System.arraycopy(current.columns, 0, newColumns, 0, current.columns.length);
+                    for (int i = current.columns.length; i < count; i++) {
+                        newColumns[i] = new IntColumn();
+                    }
+                    layout = new Layout(newColumns, current.maskManager);
+                }
+            }
+        }
+    }
+
+    /**
+     * The columns of the store, with the manager of the bitmasks its category
+     * words are encoded with.
+     */
+    final class Layout {
+        private final IntColumn[] columns;
+        private final CategoryMaskManager maskManager;
+
+        private Layout(IntColumn[] columns, CategoryMaskManager maskManager) {
+            this.columns = columns;
+            this.maskManager = maskManager;
+        }
+
+        CategoryMaskManager getMaskManager() {
+            return maskManager;
+        }
+
+        /**
+         * Returns a copy of the document's category words.
+         */
+        int[] getCategories(int ordinal) {
+            int[] words = new int[columns.length - fixedColumns];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = columns[fixedColumns + i].get(ordinal);
+            }
+            return words;
+        }
+    }
+
+    /**
+     * A column of ints in direct buffers, allocated a chunk at a time as it's
+     * written. Missing chunks read as zero. The first ordinals may be in a base
+     * buffer instead, mapped from a snapshot.
+     */
+    private static class IntColumn {
+        private volatile IntBuffer[] chunks = new IntBuffer[0];
+        private IntBuffer base;
+        private int baseCount;
+
+        void setBase(IntBuffer base, int baseCount) {
+            this.base = base;
+            this.baseCount = baseCount;
+        }
+
+        int get(int ordinal) {
+            if (ordinal < baseCount) {
+                return base.get(ordinal);
+            }
+            IntBuffer[] current = chunks;
+            int chunk = ordinal >>> CHUNK_BITS;
+            if (chunk >= current.length || current[chunk] == null) {
+                return 0;
+            }
+            return current[chunk].get(ordinal & CHUNK_MASK);
+        }
+
+        void set(int ordinal, int value) {
+            if (ordinal < baseCount) {
+                base.put(ordinal, value);
+                return;
+            }
+            int chunk = ordinal >>> CHUNK_BITS;
+            IntBuffer[] current = chunks;
+            if (chunk >= current.length || current[chunk] == null) {
+                if (value == 0) {
+                    return;
+                }
+                current = allocate(chunk);
+            }
+            current[chunk].put(ordinal & CHUNK_MASK, value);
+        }
+
+        private synchronized IntBuffer[] allocate(int chunk) {
+            IntBuffer[] current = chunks;
+            if (chunk >= current.length) {
+                IntBuffer[] newChunks = new IntBuffer[Math.max(chunk + 1, current.length * 2)];
+                System.arraycopy(current, 0, newChunks, 0, current.length);
+                current = newChunks;
+            }
+            if (current[chunk] == null) {
+                current[chunk] = ByteBuffer.allocateDirect(CHUNK_SIZE * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+            chunks = current;
+            return current;
+        }
+
+        long getAllocatedBytes() {
+            long bytes = 0;
+            for (IntBuffer chunk : chunks) {
+                if (chunk != null) {
+                    bytes += CHUNK_SIZE * 4;
+                }
+            }
+            return bytes;
+        }
+    }
+
+}
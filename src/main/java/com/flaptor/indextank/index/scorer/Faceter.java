@@ -24,4 +24,22 @@ import com.google.common.collect.Multiset;
 public interface Faceter {
 	public Map<String, Multiset<String>> getFacets();
 	public void computeDocument(DocId documentId);
+
+	/**
+	 * Same as {@link #computeDocument(DocId)}, given the data of the document
+	 * as fetched by {@link BoundScorer#fetch(DocId)}, or null.
+	 */
+	public void computeDocument(DocId documentId, Boosts data);
+
+	/**
+	 * Returns true if the facets were estimated from a sample of the documents.
+	 */
+	public boolean isApproximate();
+
+	/**
+	 * Returns the counts of the requested {@link FacetingRequest.Range ranges},
+	 * by their names. They are kept apart from {@link #getFacets()} since a
+	 * category could have the same name.
+	 */
+	public Map<String, Multiset<String>> getRangeFacets();
 }
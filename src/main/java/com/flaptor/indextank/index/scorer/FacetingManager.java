@@ -25,7 +25,11 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Multiset;
 
 public abstract class FacetingManager {
-	public abstract Faceter createFaceter();		
+	public Faceter createFaceter() {
+		return createFaceter(FacetingRequest.ALL);
+	}
+
+	public abstract Faceter createFaceter(FacetingRequest request);
 	
 	public abstract MatchFilter getFacetFilter(Multimap<String, String> filteringFacets);
 	
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+
+/**
+ * What to compute for the facets of a query: which categories, how many values
+ * of each (the ones with the most matches), and the number of matches above
+ * which the counts are estimated from a sample of them.
+ * <br><br>
+ * Past the sample threshold, the faceter counts each match with probability 1/2,
+ * scaled by 2, for the next <code>threshold</code> counted matches, then with
+ * probability 1/4, and so on, so that about <code>threshold</code> matches are
+ * counted per doubling of the matches. Facets computed that way are flagged as
+ * approximate.
+ * <br><br>
+ * Besides categories, facets can count the matches in ranges of a variable or
+ * of the timestamp, given by the edges between them. Each {@link Range} is
+ * returned apart from the categories, named after its source, with a value per
+ * range, and is never limited.
+ *
+ * @author Flaptor Team
+ */
+public final class FacetingRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Every value of every category, counting every match.
+     */
+    public static final FacetingRequest ALL = new FacetingRequest(null, 0, ImmutableMap.<String, Integer>of(), 0);
+
+    /**
+     * Ranges of a document variable, or of the timestamp, to count matches in.
+     * The edges split the values in <code>edges.length + 1</code> ranges, each
+     * including its lower edge: below the first edge, between each pair of
+     * edges and from the last edge on.
+     */
+    public static final class Range implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int variable;
+        private final double[] edges;
+
+        /**
+         * @param variable the index of the document variable, or
+         * {@link DynamicDataManager#TIMESTAMP_VARIABLE}.
+         * @param edges the edges between ranges, in increasing order.
+         */
+        public Range(int variable, double... edges) {
+            Preconditions.checkArgument(variable >= DynamicDataManager.TIMESTAMP_VARIABLE, "Invalid variable index " + variable);
+            Preconditions.checkArgument(edges.length > 0, "ranges need at least one edge");
+            for (int i = 1; i < edges.length; i++) {
+                Preconditions.checkArgument(edges[i - 1] < edges[i], "range edges must be increasing");
+            }
+            this.variable = variable;
+            this.edges = edges.clone();
+        }
+
+        public int getVariable() {
+            return variable;
+        }
+
+        /**
+         * Returns the name the ranges are returned by, apart from the categories:
+         * 'timestamp' or 'var[n]'.
+         */
+        public String getName() {
+            return variable == DynamicDataManager.TIMESTAMP_VARIABLE ? "timestamp" : "var[" + variable + "]";
+        }
+
+        public int getRangeCount() {
+            return edges.length + 1;
+        }
+
+        /**
+         * Returns the range of the value, from 0 to the number of edges.
+         */
+        public int getRange(double value) {
+            int position = Arrays.binarySearch(edges, value);
+            return position >= 0 ? position + 1 : -position - 1;
+        }
+
+        /**
+         * Returns the name of the range, as 'from..to', with '*' for the
+         * unbounded ends.
+         */
+        public String getLabel(int range) {
+            String from = range == 0 ? "*" : format(edges[range - 1]);
+            String to = range == edges.length ? "*" : format(edges[range]);
+            return from + ".." + to;
+        }
+
+        private static String format(double edge) {
+            return edge == Math.rint(edge) && Math.abs(edge) < Long.MAX_VALUE ? String.valueOf((long) edge) : String.valueOf(edge);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * variable + Arrays.hashCode(edges);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Range))
+                return false;
+            Range other = (Range) obj;
+            return variable == other.variable && Arrays.equals(edges, other.edges);
+        }
+
+        @Override
+        public String toString() {
+            return getName() + Arrays.toString(edges);
+        }
+    }
+
+    private final ImmutableSet<String> categories;
+    private final int defaultLimit;
+    private final ImmutableMap<String, Integer> limits;
+    private final int sampleThreshold;
+    private final ImmutableList<Range> ranges;
+
+    /**
+     * @param categories the categories to compute, or null for all of them.
+     * @param defaultLimit the number of values to return for categories without
+     * a limit of their own, or 0 to return them all.
+     * @param limits the number of values to return for some categories.
+     * @param sampleThreshold the number of matches above which facets are estimated
+     * from a sample, or 0 to count them all.
+     */
+    public FacetingRequest(Set<String> categories, int defaultLimit, Map<String, Integer> limits, int sampleThreshold) {
+        this(categories, defaultLimit, limits, sampleThreshold, ImmutableList.<Range>of());
+    }
+
+    /**
+     * @param ranges the ranges of variables to count matches in, besides the categories.
+     */
+    public FacetingRequest(Set<String> categories, int defaultLimit, Map<String, Integer> limits, int sampleThreshold, List<Range> ranges) {
+        Preconditions.checkArgument(defaultLimit >= 0, "facets limit must not be negative");
+        Preconditions.checkNotNull(limits);
+        for (Integer limit : limits.values()) {
+            Preconditions.checkArgument(limit > 0, "facets limit must be positive");
+        }
+        Preconditions.checkArgument(sampleThreshold >= 0, "facets sample threshold must not be negative");
+        this.categories = categories == null ? null : ImmutableSet.copyOf(categories);
+        this.defaultLimit = defaultLimit;
+        this.limits = ImmutableMap.copyOf(limits);
+        this.sampleThreshold = sampleThreshold;
+        this.ranges = ImmutableList.copyOf(ranges);
+        Set<String> names = Sets.newHashSet();
+        for (Range range : ranges) {
+            Preconditions.checkArgument(names.add(range.getName()), "ranges requested twice for " + range.getName());
+        }
+    }
+
+    public boolean isRequested(String category) {
+        return categories == null || categories.contains(category);
+    }
+
+    /**
+     * Returns the number of values to return for the category, or 0 for all.
+     */
+    public int getLimit(String category) {
+        Integer limit = limits.get(category);
+        return limit == null ? defaultLimit : limit;
+    }
+
+    /**
+     * Returns the number of matches counted before sampling, or 0 if facets
+     * are never sampled.
+     */
+    public int getSampleThreshold() {
+        return sampleThreshold;
+    }
+
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Returns the requested categories of the facets, each with at most as many
+     * values as its limit.
+     */
+    public Map<String, Multiset<String>> limit(Map<String, Multiset<String>> facets) {
+        if (this.equals(ALL)) {
+            return facets;
+        }
+        Map<String, Multiset<String>> results = Maps.newHashMap();
+        for (Entry<String, Multiset<String>> entry : facets.entrySet()) {
+            String category = entry.getKey();
+            if (!isRequested(category)) {
+                continue;
+            }
+            int limit = getLimit(category);
+            Multiset<String> counts = entry.getValue();
+            if (limit == 0 || counts.elementSet().size() <= limit) {
+                results.put(category, counts);
+                continue;
+            }
+            List<Multiset.Entry<String>> values = Lists.newArrayList(counts.entrySet());
+            Collections.sort(values, MOST_FREQUENT_FIRST);
+            Multiset<String> top = HashMultiset.create();
+            for (Multiset.Entry<String> value : values.subList(0, limit)) {
+                top.add(value.getElement(), value.getCount());
+            }
+            results.put(category, top);
+        }
+        return results;
+    }
+
+    private static final Comparator<Multiset.Entry<String>> MOST_FREQUENT_FIRST = new Comparator<Multiset.Entry<String>>() {
+        @Override
+        public int compare(Multiset.Entry<String> a, Multiset.Entry<String> b) {
+            if (a.getCount() != b.getCount()) {
+                return a.getCount() > b.getCount() ? -1 : 1;
+            }
+            return a.getElement().compareTo(b.getElement());
+        }
+    };
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(categories, defaultLimit, limits, sampleThreshold, ranges);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof FacetingRequest))
+            return false;
+        FacetingRequest other = (FacetingRequest) obj;
+        return defaultLimit == other.defaultLimit
+            && sampleThreshold == other.sampleThreshold
+            && Objects.equal(categories, other.categories)
+            && limits.equals(other.limits)
+            && ranges.equals(other.ranges);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("categories", categories)
+            .add("limit", defaultLimit)
+            .add("limits", limits)
+            .add("sampleThreshold", sampleThreshold)
+            .add("ranges", ranges)
+            .toString();
+    }
+
+}
@@ -17,10 +17,12 @@
 package com.flaptor.indextank.index.scorer;
 
 import java.util.Collection;
+import java.util.Map;
 
 import com.flaptor.indextank.index.DocId;
 import com.flaptor.indextank.query.QueryVariables;
 import com.flaptor.util.Pair;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 
 public class FunctionRangeFilter implements MatchFilter {
@@ -32,6 +34,11 @@ public class FunctionRangeFilter implements MatchFilter {
 	public static MatchFilter NO_FILTER = new NoneMatchFilter();
 	private final Scorer scorer;
 	private DynamicDataManager dynamicDataManager;
+	/**
+	 * The scorers bound for the last query seen, so that the functions are
+	 * resolved once per query instead of once per document. 
+	 */
+	private volatile Bindings bindings;
 	
 	
 	public FunctionRangeFilter(Scorer scorer, DynamicDataManager dynamicDataManager, Multimap<Integer, Pair<Float, Float>> ranges) {
@@ -42,8 +49,18 @@ public class FunctionRangeFilter implements MatchFilter {
 
 	@Override
 	public boolean matches(DocId documentId, double textualScore, int now, QueryVariables queryVars) {
+		return matches(documentId, null, textualScore, now, queryVars);
+	}
+
+	@Override
+	public boolean matches(DocId documentId, Boosts data, double textualScore, int now, QueryVariables queryVars) {
+		Bindings current = bindings;
+		if (current == null || !current.isFor(now, queryVars)) {
+			current = new Bindings(now, queryVars);
+			bindings = current;
+		}
 		for (Integer functionIndex : ranges.keySet()) {
-			double value = scorer.scoreDocument(documentId, textualScore, now, queryVars, functionIndex);
+			double value = current.get(functionIndex).score(documentId, data, textualScore);
 			if (!checkValue(value, ranges.get(functionIndex))) {
 				return false;
 			}
@@ -59,5 +76,42 @@ public class FunctionRangeFilter implements MatchFilter {
 		}
 		return false;
 	}
+
+	private class Bindings {
+		private final int now;
+		private final QueryVariables queryVars;
+		private final Map<Integer, BoundScorer> scorers = Maps.newHashMap();
+
+		Bindings(int now, QueryVariables queryVars) {
+			this.now = now;
+			this.queryVars = queryVars;
+			for (Integer functionIndex : ranges.keySet()) {
+				scorers.put(functionIndex, scorer.bind(now, queryVars, functionIndex));
+			}
+		}
+
+		boolean isFor(int now, QueryVariables queryVars) {
+			return this.now == now && this.queryVars == queryVars;
+		}
+
+		BoundScorer get(Integer functionIndex) {
+			return scorers.get(functionIndex);
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return ranges.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		FunctionRangeFilter other = (FunctionRangeFilter) obj;
+		return scorer == other.scorer && dynamicDataManager == other.dynamicDataManager && ranges.equals(other.ranges);
+	}
 }
 
@@ -37,8 +37,13 @@ public class IntersectionMatchFilter implements MatchFilter {
 	public boolean matches(DocId documentId, double textualScore, int now,
 			QueryVariables queryVars) {
 		
+		return matches(documentId, null, textualScore, now, queryVars);
+	}
+
+	@Override
+	public boolean matches(DocId documentId, Boosts data, double textualScore, int now, QueryVariables queryVars) {
 		for (MatchFilter filter : this.filters) {
-			if (!filter.matches(documentId, textualScore, now, queryVars)) {
+			if (!filter.matches(documentId, data, textualScore, now, queryVars)) {
 				return false;
 			}
 		}
@@ -46,4 +51,22 @@ public class IntersectionMatchFilter implements MatchFilter {
 		return true;
 	}
 
+	public Collection<MatchFilter> getFilters() {
+		return filters;
+	}
+
+	@Override
+	public int hashCode() {
+		return filters.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		return filters.equals(((IntersectionMatchFilter) obj).filters);
+	}
+
 }
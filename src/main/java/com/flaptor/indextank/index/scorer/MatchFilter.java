@@ -21,4 +21,10 @@ import com.flaptor.indextank.query.QueryVariables;
 
 public interface MatchFilter {
 	boolean matches(DocId documentId, double textualScore, int now, QueryVariables queryVars);
+
+	/**
+	 * Same as {@link #matches(DocId, double, int, QueryVariables)}, given the data
+	 * of the document as fetched by {@link BoundScorer#fetch(DocId)}, or null.
+	 */
+	boolean matches(DocId documentId, Boosts data, double textualScore, int now, QueryVariables queryVars);
 }
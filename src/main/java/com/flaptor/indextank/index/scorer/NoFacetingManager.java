@@ -27,7 +27,7 @@ import com.google.common.collect.Multiset;
 public class NoFacetingManager extends FacetingManager {
 
 	@Override
-	public Faceter createFaceter() {
+	public Faceter createFaceter(FacetingRequest request) {
 		return new Faceter() {
 			@Override
 			public Map<String, Multiset<String>> getFacets() {
@@ -36,6 +36,17 @@ public class NoFacetingManager extends FacetingManager {
 			@Override
 			public void computeDocument(DocId documentId) {
 			}
+			@Override
+			public void computeDocument(DocId documentId, Boosts data) {
+			}
+			@Override
+			public boolean isApproximate() {
+				return false;
+			}
+			@Override
+			public Map<String, Multiset<String>> getRangeFacets() {
+				return ImmutableMap.of();
+			}
 		};
 	}
 
@@ -46,6 +57,10 @@ public class NoFacetingManager extends FacetingManager {
 			public boolean matches(DocId documentId, double textualScore, int now, QueryVariables queryVars) {
 				return true;
 			}
+			@Override
+			public boolean matches(DocId documentId, Boosts data, double textualScore, int now, QueryVariables queryVars) {
+				return true;
+			}
 		};
 	}
 
@@ -24,4 +24,19 @@ public class NoneMatchFilter implements MatchFilter {
 	public boolean matches(DocId documentId, double textualScore, int now, QueryVariables queryVars) {
 		return true;
 	}
+
+	@Override
+	public boolean matches(DocId documentId, Boosts data, double textualScore, int now, QueryVariables queryVars) {
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return getClass().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj != null && getClass() == obj.getClass();
+	}
 }
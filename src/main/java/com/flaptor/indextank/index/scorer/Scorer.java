@@ -34,6 +34,32 @@ public interface Scorer {
 	 * @return the final score for this document.
 	 */
 	public double scoreDocument(DocId documentId, double textualScore, int now, QueryVariables queryVars, Integer functionIndex);
+
+	/**
+	 * Scores a block of documents.
+	 * Same as calling {@link #scoreDocument} for each of the first <code>count</code>
+	 * documents, replacing their textual scores in <code>scores</code> by the final ones.
+	 */
+	public void scoreDocuments(DocId[] documentIds, double[] scores, int count, int now, QueryVariables queryVars, Integer functionIndex);
+
+	/**
+	 * Returns a score that no document with a textual score of at most <code>textualScore</code>
+	 * can exceed, or positive infinity if there's no known bound.
+	 */
+	public double getUpperBound(double textualScore, int now, QueryVariables queryVars, Integer functionIndex);
+
+	/**
+	 * Returns the precomputed scores of the function, up to date for a query at
+	 * the given time, or null if they aren't kept for it. Columns are only kept
+	 * for the functions configured to be precomputed.
+	 */
+	public StaticRankColumn getStaticRankColumn(int now, Integer functionIndex);
+
+	/**
+	 * Returns a scorer for the matches of a query at the given time, with the
+	 * given variables and function.
+	 */
+	public BoundScorer bind(int now, QueryVariables queryVars, Integer functionIndex);
 	
 	/**
 	 * Add a scoring function for the given index.
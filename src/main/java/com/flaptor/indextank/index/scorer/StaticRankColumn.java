@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.scorer.DynamicDataManager.DynamicData;
+import com.flaptor.indextank.index.scorer.expression.Input;
+import com.flaptor.indextank.index.scorer.expression.Interval;
+import com.flaptor.indextank.index.scorer.expression.Monotonicity;
+import com.flaptor.indextank.index.scorer.expression.ScoreExpression;
+import com.flaptor.indextank.index.scorer.expression.VariableRanges;
+
+/**
+ * Precomputed scores of a function that reads neither the textual score nor
+ * the query variables, for every document with dynamic data.
+ * <br><br>
+ * If the function doesn't read the age either, the precomputed score is the
+ * final score of the document. Otherwise the function is required not to grow
+ * with the age, so the score computed when the column was refreshed is an upper
+ * bound of the score at any later time. The column is refreshed from the
+ * changes of the {@link DynamicDataManager}, and rebuilt when the changes are
+ * no longer available or its values get older than {@link #MAX_STALENESS}
+ * seconds, to keep the bounds tight.
+ * <br><br>
+ * Queries never wait for the column: rebuilds run in the background and are
+ * swapped in when done, and a query that finds the column out of date while
+ * it's being refreshed or rebuilt scores its matches without it.
+ * <br><br>
+ * Columns are only kept for the functions configured to be precomputed, see
+ * {@link BoostsScorer}. Scores are kept as floats in an array indexed by the
+ * documents' ordinals in the {@link DynamicDataManager}, bounds rounded up so
+ * that they still hold. The slot of a removed document is cleared as
+ * soon as its ordinal is {@link #released(int) released}, so that a document
+ * taking it has no score until the column is refreshed.
+ */
+public class StaticRankColumn {
+
+    static final int MAX_STALENESS = 600;
+
+    /**
+     * Runs each rebuild in a thread of its own, they are rare and long.
+     */
+    static final Executor BACKGROUND = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            Thread thread = new Thread(command, "static-rank-rebuild");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    };
+
+    private final ScoreFunction function;
+    private final boolean exact;
+    private final DynamicDataManager dynamicDataManager;
+    private final Executor rebuilder;
+    // null until first built. updated in place holding the lock, replaced by rebuilds
+    private volatile Scores current = null;
+    private final Lock lock = new ReentrantLock();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    // released while a rebuild runs, cleared in the rebuilt scores once swapped in
+    private final Queue<Integer> releasedDuringRebuild = new ConcurrentLinkedQueue<Integer>();
+
+    private StaticRankColumn(ScoreFunction function, boolean exact, DynamicDataManager dynamicDataManager, Executor rebuilder) {
+        this.function = function;
+        this.exact = exact;
+        this.dynamicDataManager = dynamicDataManager;
+        this.rebuilder = rebuilder;
+    }
+
+    /**
+     * Returns a column for the function, or null if its scores can't be precomputed.
+     * 
+     * @param rebuilder runs the rebuilds of the column.
+     */
+    static StaticRankColumn create(ScoreFunction function, DynamicDataManager dynamicDataManager, Executor rebuilder) {
+        if (!(function instanceof CompiledScoreFunction)) {
+            return null;
+        }
+        ScoreExpression expression = ((CompiledScoreFunction) function).getExpression();
+        Set<Input> inputs = expression.getInputs();
+        for (Input input : inputs) {
+            if (input.getKind() == Input.Kind.RELEVANCE || input.getKind() == Input.Kind.QUERY_VARIABLE) {
+                return null;
+            }
+        }
+        if (!inputs.contains(Input.AGE)) {
+            return new StaticRankColumn(function, true, dynamicDataManager, rebuilder);
+        }
+        // variables are unbounded, so that the analysis holds whatever values they take later
+        VariableRanges ranges = new VariableRanges(Interval.ALL, Interval.ALL, null);
+        Monotonicity monotonicity = expression.getMonotonicity(Input.AGE, ranges);
+        if (monotonicity == Monotonicity.CONSTANT || monotonicity == Monotonicity.DECREASING) {
+            return new StaticRankColumn(function, false, dynamicDataManager, rebuilder);
+        }
+        return null;
+    }
+
+    public ScoreFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Whether the values are final scores, rather than upper bounds.
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Whether the values can be used for a query at the given time. Bounds
+     * computed after the query time don't hold for it.
+     */
+    boolean isValidAt(int now) {
+        Scores scores = current;
+        return scores != null && (exact || scores.computedAt <= now);
+    }
+
+    /**
+     * Returns the precomputed score of the document, or NaN if it isn't in the column.
+     */
+    public double getScore(DocId documentId) {
+        return getScore(documentId, null);
+    }
+
+    /**
+     * Same as {@link #getScore(DocId)}, given the data of the document as fetched
+     * by {@link BoundScorer#fetch(DocId)}, or null.
+     */
+    public double getScore(DocId documentId, Boosts data) {
+        DynamicData dynamicData = dynamicDataManager.getDynamicData(documentId, data);
+        return dynamicData == null ? Double.NaN : getScore(dynamicData.getOrdinal());
+    }
+
+    private double getScore(int ordinal) {
+        Scores scores = current;
+        return scores != null && ordinal < scores.values.length ? scores.values[ordinal] : Double.NaN;
+    }
+
+    /**
+     * Clears the score of a released ordinal, before it's given to another document.
+     */
+    void released(int ordinal) {
+        // queued before clearing the current scores, so that rebuilt ones swapped
+        // in meanwhile are either cleared here or when the queue is drained
+        if (rebuilding.get()) {
+            releasedDuringRebuild.add(ordinal);
+        }
+        Scores scores = current;
+        if (scores != null && ordinal < scores.values.length) {
+            scores.values[ordinal] = Float.NaN;
+        }
+    }
+
+    /**
+     * Brings the column up to date with the dynamic data, as of the given time,
+     * without waiting for rebuilds or for other refreshes.
+     * 
+     * @return whether the column is up to date, otherwise it can't be used.
+     */
+    boolean refresh(int now) {
+        Scores scores = current;
+        if (scores == null || (!exact && now - scores.computedAt > MAX_STALENESS)) {
+            // stale bounds still hold, they are used until the rebuild is done
+            rebuild(now);
+        }
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            scores = current;
+            if (scores == null) {
+                return false;
+            }
+            Scores updated = update(scores);
+            if (updated == null) {
+                rebuild(now);
+                return false;
+            }
+            current = updated;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a rebuild of the column, unless one is already running.
+     */
+    private void rebuild(final int now) {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        rebuilder.execute(new Runnable() {
+            @Override
+            public void run() {
+                Scores rebuilt = null;
+                try {
+                    long generation = dynamicDataManager.getGeneration();
+                    float[] values = new float[dynamicDataManager.getDocumentOrdinals().getCapacity()];
+                    Arrays.fill(values, Float.NaN);
+                    for (Entry<DocId, Integer> entry : dynamicDataManager.getDocumentOrdinals().getEntries()) {
+                        compute(values, entry.getKey(), dynamicDataManager.getDynamicData(entry.getValue()), now);
+                    }
+                    lock.lock();
+                    try {
+                        // catch up with the changes made meanwhile, or try again later
+                        rebuilt = update(new Scores(values, generation, now));
+                        if (rebuilt != null) {
+                            current = rebuilt;
+                            clearReleased(rebuilt);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                } finally {
+                    rebuilding.set(false);
+                    clearReleased(rebuilt);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the changes of the dynamic data since the scores were computed. Must
+     * be called holding the lock.
+     * 
+     * @return the updated scores, or null if the changes are no longer available.
+     */
+    private Scores update(Scores scores) {
+        long generation = dynamicDataManager.getGeneration();
+        if (generation == scores.generation) {
+            return scores;
+        }
+        Set<DocId> changes = dynamicDataManager.getChangesSince(scores.generation);
+        if (changes == null) {
+            return null;
+        }
+        float[] values = scores.values;
+        int capacity = dynamicDataManager.getDocumentOrdinals().getCapacity();
+        if (values.length < capacity) {
+            values = Arrays.copyOf(values, capacity);
+            Arrays.fill(values, scores.values.length, capacity, Float.NaN);
+        }
+        for (DocId documentId : changes) {
+            // removed documents have no ordinal anymore
+            DynamicData data = dynamicDataManager.getDynamicData(documentId);
+            if (data != null) {
+                compute(values, documentId, data, scores.computedAt);
+            }
+        }
+        return new Scores(values, generation, scores.computedAt);
+    }
+
+    private void compute(float[] values, DocId documentId, DynamicData data, int computedAt) {
+        int ordinal = data.getOrdinal();
+        // added after the capacity was read
+        if (ordinal < values.length) {
+            double score = function.score(0, computedAt - data.getTimestamp(), data, null);
+            float value = (float) score;
+            if (!exact && value < score) {
+                value = Math.nextUp(value);
+            }
+            values[ordinal] = value;
+            // released while it was computed, its ordinal may have been taken
+            if (dynamicDataManager.getDocumentOrdinals().get(documentId) != ordinal) {
+                values[ordinal] = Float.NaN;
+            }
+        }
+    }
+
+    /**
+     * Clears the ordinals released during a rebuild in its scores, or discards
+     * them if it didn't finish.
+     */
+    private void clearReleased(Scores rebuilt) {
+        for (Integer ordinal = releasedDuringRebuild.poll(); ordinal != null; ordinal = releasedDuringRebuild.poll()) {
+            if (rebuilt != null && ordinal < rebuilt.values.length) {
+                rebuilt.values[ordinal] = Float.NaN;
+            }
+        }
+    }
+
+    /**
+     * The scores of the column as of a generation of the dynamic data, with
+     * bounds computed at a given time.
+     */
+    private static class Scores {
+        private final float[] values;
+        private final long generation;
+        private final int computedAt;
+
+        Scores(float[] values, long generation, int computedAt) {
+            this.values = values;
+            this.generation = generation;
+            this.computedAt = computedAt;
+        }
+    }
+
+}
@@ -24,7 +24,7 @@ import com.flaptor.indextank.query.QueryVariables;
 import com.flaptor.util.Pair;
 import com.google.common.collect.Multimap;
 
-public class VariablesRangeFilter implements MatchFilter {
+public class VariablesRangeFilter implements DocumentMatchFilter {
 	private DynamicDataManager dynamicDataManager;
 	/**
 	 * The ranges apply considering both ends as inclusive and using OR to
@@ -41,7 +41,24 @@ public class VariablesRangeFilter implements MatchFilter {
 
 	@Override
 	public boolean matches(DocId documentId, double textualScore, int now, QueryVariables queryVars) {
-		DynamicData dynamicData = dynamicDataManager.getDynamicData(documentId);
+		return matches(documentId);
+	}
+
+	@Override
+	public boolean matches(DocId documentId, Boosts data, double textualScore, int now, QueryVariables queryVars) {
+		return matches(documentId, data);
+	}
+
+	@Override
+	public boolean matches(DocId documentId) {
+		return matches(documentId, null);
+	}
+
+	private boolean matches(DocId documentId, Boosts data) {
+		DynamicData dynamicData = dynamicDataManager.getDynamicData(documentId, data);
+		if (dynamicData == null) {
+			return false;
+		}
 		for (Integer variable : ranges.keySet()) {
 			if (!checkVariable(dynamicData.getBoost(variable), ranges.get(variable))) {
 				return false;
@@ -58,5 +75,39 @@ public class VariablesRangeFilter implements MatchFilter {
 		}
 		return false;
 	}
+
+	/**
+	 * @return the ranges of each variable.
+	 */
+	public Multimap<Integer, Pair<Float, Float>> getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * @return true if this filter has no ranges, and therefore matches every document.
+	 */
+	public boolean isEmpty() {
+		return ranges.isEmpty();
+	}
+
+	@Override
+	public DynamicDataManager getDynamicDataManager() {
+		return dynamicDataManager;
+	}
+
+	@Override
+	public int hashCode() {
+		return ranges.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		VariablesRangeFilter other = (VariablesRangeFilter) obj;
+		return dynamicDataManager == other.dynamicDataManager && ranges.equals(other.ranges);
+	}
 }
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer.expression;
+
+/**
+ * One of the values a scoring function reads: the textual score of the
+ * document, its age, one of its variables or one of the query variables.
+ */
+public final class Input {
+
+    public enum Kind { RELEVANCE, AGE, DOCUMENT_VARIABLE, QUERY_VARIABLE }
+
+    public static final Input RELEVANCE = new Input(Kind.RELEVANCE, 0);
+    public static final Input AGE = new Input(Kind.AGE, 0);
+
+    private final Kind kind;
+    private final int index;
+
+    private Input(Kind kind, int index) {
+        this.kind = kind;
+        this.index = index;
+    }
+
+    public static Input documentVariable(int index) {
+        return new Input(Kind.DOCUMENT_VARIABLE, index);
+    }
+
+    public static Input queryVariable(int index) {
+        return new Input(Kind.QUERY_VARIABLE, index);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * The index of the variable, only meaningful for variables.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Input)) {
+            return false;
+        }
+        Input other = (Input) obj;
+        return kind == other.kind && index == other.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return kind.hashCode() * 31 + index;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case RELEVANCE:         return "relevance";
+            case AGE:               return "age";
+            case DOCUMENT_VARIABLE: return "doc.var[" + index + "]";
+            default:                return "query.var[" + index + "]";
+        }
+    }
+
+}
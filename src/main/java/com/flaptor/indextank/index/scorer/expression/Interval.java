@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer.expression;
+
+/**
+ * A closed range of doubles, used to bound the values a {@link ScoreExpression}
+ * can take. Operations that could produce NaN result in {@link #ALL}.
+ */
+public final class Interval {
+
+    public static final Interval ALL = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+    private final double min;
+    private final double max;
+
+    private Interval(double min, double max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    public static Interval of(double min, double max) {
+        if (Double.isNaN(min) || Double.isNaN(max)) {
+            return ALL;
+        }
+        if (min > max) {
+            throw new IllegalArgumentException("Empty interval [" + min + ", " + max + "]");
+        }
+        return new Interval(min, max);
+    }
+
+    public static Interval point(double value) {
+        return of(value, value);
+    }
+
+    /**
+     * Returns the smallest interval containing all the given values.
+     */
+    static Interval hull(double... values) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            if (Double.isNaN(value)) {
+                return ALL;
+            }
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return new Interval(min, max);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public boolean isPoint() {
+        return min == max;
+    }
+
+    public boolean isBounded() {
+        return !Double.isInfinite(min) && !Double.isInfinite(max);
+    }
+
+    public boolean isNonNegative() {
+        return min >= 0;
+    }
+
+    public boolean isNonPositive() {
+        return max <= 0;
+    }
+
+    public boolean contains(double value) {
+        return min <= value && value <= max;
+    }
+
+    public Interval union(Interval other) {
+        return new Interval(Math.min(min, other.min), Math.max(max, other.max));
+    }
+
+    Interval plus(Interval other) {
+        return of(min + other.min, max + other.max);
+    }
+
+    Interval negate() {
+        return new Interval(-max, -min);
+    }
+
+    Interval times(Interval other) {
+        return hull(min * other.min, min * other.max, max * other.min, max * other.max);
+    }
+
+    Interval reciprocal() {
+        if (contains(0)) {
+            return ALL;
+        }
+        return hull(1 / min, 1 / max);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Interval)) {
+            return false;
+        }
+        Interval other = (Interval) obj;
+        return min == other.min && max == other.max;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(min) * 31 + Double.doubleToLongBits(max);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "[" + min + ", " + max + "]";
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer.expression;
+
+/**
+ * How a {@link ScoreExpression} changes when one of its inputs grows and
+ * every other input stays the same. Monotonicity is never strict.
+ */
+public enum Monotonicity {
+    CONSTANT,
+    INCREASING,
+    DECREASING,
+    /**
+     * Nothing is known about it.
+     */
+    NONE;
+
+    public Monotonicity negate() {
+        switch (this) {
+            case INCREASING: return DECREASING;
+            case DECREASING: return INCREASING;
+            default:         return this;
+        }
+    }
+
+    /**
+     * Returns the monotonicity of the sum of two expressions, which is also
+     * that of their maximum or minimum.
+     */
+    public Monotonicity combine(Monotonicity other) {
+        if (this == CONSTANT) {
+            return other;
+        }
+        if (other == CONSTANT || other == this) {
+            return this;
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns this monotonicity if the sign is non-negative, its negation if the
+     * sign is non-positive, and {@link #NONE} if the sign is unknown.
+     */
+    Monotonicity scale(Interval sign) {
+        if (this == CONSTANT || sign.isNonNegative()) {
+            return this;
+        }
+        if (sign.isNonPositive()) {
+            return negate();
+        }
+        return NONE;
+    }
+}
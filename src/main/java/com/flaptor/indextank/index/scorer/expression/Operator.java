@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer.expression;
+
+import com.flaptor.indextank.index.scorer.ScoreMath;
+
+/**
+ * The arithmetic operators and functions of the scoring formulas. Each one
+ * knows how to bound its result and how its monotonicity follows from that
+ * of its arguments, mirroring the semantics of {@link ScoreMath}.
+ */
+public enum Operator {
+    PLUS("+", 2) {
+        Interval bounds(Interval[] a) {
+            return a[0].plus(a[1]);
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return m[0].combine(m[1]);
+        }
+    },
+    MINUS("-", 2) {
+        Interval bounds(Interval[] a) {
+            return a[0].plus(a[1].negate());
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return m[0].combine(m[1].negate());
+        }
+    },
+    MULT("*", 2) {
+        Interval bounds(Interval[] a) {
+            return a[0].times(a[1]);
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return product(m[0], a[0], m[1], a[1]);
+        }
+    },
+    DIV("/", 2) {
+        Interval bounds(Interval[] a) {
+            return a[0].times(a[1].reciprocal());
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            Monotonicity reciprocal = a[1].contains(0) ? constantOrNone(m[1]) : m[1].negate();
+            return product(m[0], a[0], reciprocal, a[1].reciprocal());
+        }
+    },
+    NEG("neg", 1) {
+        Interval bounds(Interval[] a) {
+            return a[0].negate();
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return m[0].negate();
+        }
+    },
+    ABS("abs", 1) {
+        Interval bounds(Interval[] a) {
+            if (a[0].isNonNegative()) {
+                return a[0];
+            }
+            if (a[0].isNonPositive()) {
+                return a[0].negate();
+            }
+            return Interval.of(0, Math.max(-a[0].getMin(), a[0].getMax()));
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return m[0].scale(a[0]);
+        }
+    },
+    LOG("log", 1) {
+        Interval bounds(Interval[] a) {
+            if (!a[0].isNonNegative()) {
+                return Interval.ALL;
+            }
+            return Interval.of(ScoreMath.log(a[0].getMin()), ScoreMath.log(a[0].getMax()));
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return a[0].isNonNegative() ? m[0] : constantOrNone(m[0]);
+        }
+    },
+    SQRT("sqrt", 1) {
+        Interval bounds(Interval[] a) {
+            if (!a[0].isNonNegative()) {
+                return Interval.ALL;
+            }
+            return Interval.of(ScoreMath.sqrt(a[0].getMin()), ScoreMath.sqrt(a[0].getMax()));
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return a[0].isNonNegative() ? m[0] : constantOrNone(m[0]);
+        }
+    },
+    POW("pow", 2) {
+        // the exponent is truncated to an integer
+        Interval bounds(Interval[] a) {
+            if (!a[1].isPoint() || !a[0].isNonNegative()) {
+                return Interval.ALL;
+            }
+            double exp = a[1].getMin();
+            return Interval.hull(ScoreMath.pow(a[0].getMin(), exp), ScoreMath.pow(a[0].getMax(), exp));
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            if (!a[1].isPoint() || !a[0].isNonNegative()) {
+                return constantOrNone(m[0].combine(m[1]));
+            }
+            int exp = (int) a[1].getMin();
+            return exp == 0 ? Monotonicity.CONSTANT : exp > 0 ? m[0] : m[0].negate();
+        }
+    },
+    MAX("max", 2) {
+        Interval bounds(Interval[] a) {
+            return Interval.of(Math.max(a[0].getMin(), a[1].getMin()), Math.max(a[0].getMax(), a[1].getMax()));
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return m[0].combine(m[1]);
+        }
+    },
+    MIN("min", 2) {
+        Interval bounds(Interval[] a) {
+            return Interval.of(Math.min(a[0].getMin(), a[1].getMin()), Math.min(a[0].getMax(), a[1].getMax()));
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return m[0].combine(m[1]);
+        }
+    },
+    KM("km", 4) {
+        Interval bounds(Interval[] a) {
+            return distance(a);
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return allConstant(m);
+        }
+    },
+    MILES("miles", 4) {
+        Interval bounds(Interval[] a) {
+            return distance(a);
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return allConstant(m);
+        }
+    },
+    BIT("bit", 2) {
+        Interval bounds(Interval[] a) {
+            return Interval.of(0, 1);
+        }
+        Monotonicity monotonicity(Monotonicity[] m, Interval[] a) {
+            return allConstant(m);
+        }
+    };
+
+    private final String symbol;
+    private final int arity;
+
+    private Operator(String symbol, int arity) {
+        this.symbol = symbol;
+        this.arity = arity;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * Returns an interval containing every result of applying the operator to
+     * values taken from the given intervals.
+     */
+    abstract Interval bounds(Interval[] args);
+
+    /**
+     * Returns the monotonicity of the result given the monotonicities of the
+     * arguments and the intervals they range over.
+     */
+    abstract Monotonicity monotonicity(Monotonicity[] args, Interval[] bounds);
+
+    private static Monotonicity product(Monotonicity m1, Interval a1, Monotonicity m2, Interval a2) {
+        if (m1 == Monotonicity.CONSTANT) {
+            return m2.scale(a1);
+        }
+        if (m2 == Monotonicity.CONSTANT) {
+            return m1.scale(a2);
+        }
+        if (m1 == m2 && a1.isNonNegative() && a2.isNonNegative()) {
+            return m1;
+        }
+        if (m1 == m2 && a1.isNonPositive() && a2.isNonPositive()) {
+            return m1.negate();
+        }
+        return Monotonicity.NONE;
+    }
+
+    private static Monotonicity constantOrNone(Monotonicity m) {
+        return m == Monotonicity.CONSTANT ? m : Monotonicity.NONE;
+    }
+
+    private static Monotonicity allConstant(Monotonicity[] m) {
+        for (Monotonicity each : m) {
+            if (each != Monotonicity.CONSTANT) {
+                return Monotonicity.NONE;
+            }
+        }
+        return Monotonicity.CONSTANT;
+    }
+
+    private static Interval distance(Interval[] a) {
+        for (Interval each : a) {
+            if (each.equals(Interval.ALL)) {
+                return Interval.ALL;
+            }
+        }
+        return Interval.of(0, Double.POSITIVE_INFINITY);
+    }
+}
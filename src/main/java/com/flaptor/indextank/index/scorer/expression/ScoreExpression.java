@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer.expression;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+
+/**
+ * Expression tree of a scoring formula, built by the formula parser along
+ * with the bytecode. It isn't used to compute scores but to reason about
+ * them: how the score moves with each {@link Input} and how high it can get
+ * when the inputs are known to lie in given {@link VariableRanges}.
+ */
+public abstract class ScoreExpression {
+
+    /**
+     * Returns an interval containing every value the expression takes when
+     * its inputs lie in the given ranges.
+     */
+    public abstract Interval getBounds(VariableRanges ranges);
+
+    /**
+     * Returns how the expression changes as the given input grows, when its
+     * inputs lie in the given ranges.
+     */
+    public abstract Monotonicity getMonotonicity(Input input, VariableRanges ranges);
+
+    abstract void collectInputs(Set<Input> inputs);
+
+    /**
+     * Returns the inputs the expression reads.
+     */
+    public Set<Input> getInputs() {
+        Set<Input> inputs = Sets.newHashSet();
+        collectInputs(inputs);
+        return inputs;
+    }
+
+    /**
+     * Returns a value the expression can't exceed when its inputs lie in the
+     * given ranges, positive infinity if it isn't bounded.
+     */
+    public double getUpperBound(VariableRanges ranges) {
+        return getBounds(ranges).getMax();
+    }
+
+    public static ScoreExpression constant(double value) {
+        return new Constant(value);
+    }
+
+    public static ScoreExpression input(Input input) {
+        Preconditions.checkNotNull(input);
+        return new InputValue(input);
+    }
+
+    public static ScoreExpression operation(Operator operator, ScoreExpression... args) {
+        Preconditions.checkArgument(args.length == operator.getArity(), "%s takes %s arguments", operator, operator.getArity());
+        return new Operation(operator, args);
+    }
+
+    /**
+     * Returns an expression that is 1 when the comparison holds and 0 otherwise.
+     * @param comparison one of ==, !=, <, <=, > or >=
+     */
+    public static ScoreExpression condition(String comparison, ScoreExpression left, ScoreExpression right) {
+        return new Condition(comparison, left, right);
+    }
+
+    /**
+     * @param condition an expression returned by {@link #condition}
+     */
+    public static ScoreExpression ifThenElse(ScoreExpression condition, ScoreExpression then, ScoreExpression otherwise) {
+        Preconditions.checkArgument(condition instanceof Condition, "Not a condition: %s", condition);
+        return new IfThenElse((Condition) condition, then, otherwise);
+    }
+
+    private static class Constant extends ScoreExpression {
+        private final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        public Interval getBounds(VariableRanges ranges) {
+            return Interval.point(value);
+        }
+
+        public Monotonicity getMonotonicity(Input input, VariableRanges ranges) {
+            return Monotonicity.CONSTANT;
+        }
+
+        void collectInputs(Set<Input> inputs) {
+        }
+
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    private static class InputValue extends ScoreExpression {
+        private final Input input;
+
+        InputValue(Input input) {
+            this.input = input;
+        }
+
+        public Interval getBounds(VariableRanges ranges) {
+            return ranges.get(input);
+        }
+
+        public Monotonicity getMonotonicity(Input input, VariableRanges ranges) {
+            return this.input.equals(input) ? Monotonicity.INCREASING : Monotonicity.CONSTANT;
+        }
+
+        void collectInputs(Set<Input> inputs) {
+            inputs.add(input);
+        }
+
+        public String toString() {
+            return input.toString();
+        }
+    }
+
+    private static class Operation extends ScoreExpression {
+        private final Operator operator;
+        private final ScoreExpression[] args;
+
+        Operation(Operator operator, ScoreExpression[] args) {
+            this.operator = operator;
+            this.args = args;
+        }
+
+        private Interval[] argBounds(VariableRanges ranges) {
+            Interval[] bounds = new Interval[args.length];
+            for (int i = 0; i < args.length; i++) {
+                bounds[i] = args[i].getBounds(ranges);
+            }
+            return bounds;
+        }
+
+        public Interval getBounds(VariableRanges ranges) {
+            return operator.bounds(argBounds(ranges));
+        }
+
+        public Monotonicity getMonotonicity(Input input, VariableRanges ranges) {
+            Monotonicity[] monotonicities = new Monotonicity[args.length];
+            for (int i = 0; i < args.length; i++) {
+                monotonicities[i] = args[i].getMonotonicity(input, ranges);
+            }
+            return operator.monotonicity(monotonicities, argBounds(ranges));
+        }
+
+        void collectInputs(Set<Input> inputs) {
+            for (ScoreExpression arg : args) {
+                arg.collectInputs(inputs);
+            }
+        }
+
+        public String toString() {
+            if (args.length == 2 && !Character.isLetter(operator.getSymbol().charAt(0))) {
+                return "(" + args[0] + " " + operator.getSymbol() + " " + args[1] + ")";
+            }
+            return operator.getSymbol() + "(" + Joiner.on(", ").join(Arrays.asList(args)) + ")";
+        }
+    }
+
+    private static class Condition extends ScoreExpression {
+        private final String comparison;
+        private final ScoreExpression left;
+        private final ScoreExpression right;
+
+        Condition(String comparison, ScoreExpression left, ScoreExpression right) {
+            Preconditions.checkArgument(Arrays.asList("==", "!=", "<", "<=", ">", ">=").contains(comparison), "Unknown comparison: %s", comparison);
+            this.comparison = comparison;
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * Returns whether the comparison holds for every value in the ranges,
+         * fails for all of them, or null if it depends on the values.
+         */
+        Boolean decide(VariableRanges ranges) {
+            Interval l = left.getBounds(ranges);
+            Interval r = right.getBounds(ranges);
+            if (l.equals(Interval.ALL) || r.equals(Interval.ALL)) {
+                return null;
+            }
+            if (comparison.equals(">"))  return decide(l.getMin() > r.getMax(), l.getMax() <= r.getMin());
+            if (comparison.equals(">=")) return decide(l.getMin() >= r.getMax(), l.getMax() < r.getMin());
+            if (comparison.equals("<"))  return decide(l.getMax() < r.getMin(), l.getMin() >= r.getMax());
+            if (comparison.equals("<=")) return decide(l.getMax() <= r.getMin(), l.getMin() > r.getMax());
+            boolean equal = l.isPoint() && l.equals(r);
+            boolean disjoint = l.getMax() < r.getMin() || r.getMax() < l.getMin();
+            if (comparison.equals("==")) return decide(equal, disjoint);
+            return decide(disjoint, equal);
+        }
+
+        private static Boolean decide(boolean holds, boolean fails) {
+            return holds ? Boolean.TRUE : fails ? Boolean.FALSE : null;
+        }
+
+        public Interval getBounds(VariableRanges ranges) {
+            Boolean decision = decide(ranges);
+            return decision == null ? Interval.of(0, 1) : Interval.point(decision ? 1 : 0);
+        }
+
+        public Monotonicity getMonotonicity(Input input, VariableRanges ranges) {
+            if (decide(ranges) != null) {
+                return Monotonicity.CONSTANT;
+            }
+            // the comparison moves with the difference between both sides
+            Monotonicity difference = left.getMonotonicity(input, ranges).combine(right.getMonotonicity(input, ranges).negate());
+            if (difference == Monotonicity.CONSTANT) {
+                return difference;
+            }
+            if (comparison.startsWith(">")) {
+                return difference;
+            }
+            if (comparison.startsWith("<")) {
+                return difference.negate();
+            }
+            return Monotonicity.NONE;
+        }
+
+        void collectInputs(Set<Input> inputs) {
+            left.collectInputs(inputs);
+            right.collectInputs(inputs);
+        }
+
+        public String toString() {
+            return left + " " + comparison + " " + right;
+        }
+    }
+
+    private static class IfThenElse extends ScoreExpression {
+        private final Condition condition;
+        private final ScoreExpression then;
+        private final ScoreExpression otherwise;
+
+        IfThenElse(Condition condition, ScoreExpression then, ScoreExpression otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        public Interval getBounds(VariableRanges ranges) {
+            Boolean decision = condition.decide(ranges);
+            if (decision != null) {
+                return decision ? then.getBounds(ranges) : otherwise.getBounds(ranges);
+            }
+            return then.getBounds(ranges).union(otherwise.getBounds(ranges));
+        }
+
+        public Monotonicity getMonotonicity(Input input, VariableRanges ranges) {
+            Boolean decision = condition.decide(ranges);
+            if (decision != null) {
+                return decision ? then.getMonotonicity(input, ranges) : otherwise.getMonotonicity(input, ranges);
+            }
+            // the branch taken may only change along with the input if the two agree
+            if (condition.getMonotonicity(input, ranges) != Monotonicity.CONSTANT) {
+                return Monotonicity.NONE;
+            }
+            return then.getMonotonicity(input, ranges).combine(otherwise.getMonotonicity(input, ranges));
+        }
+
+        void collectInputs(Set<Input> inputs) {
+            condition.collectInputs(inputs);
+            then.collectInputs(inputs);
+            otherwise.collectInputs(inputs);
+        }
+
+        public String toString() {
+            return "if(" + condition + ", " + then + ", " + otherwise + ")";
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer.expression;
+
+import java.util.Map;
+
+import com.flaptor.indextank.query.NoSuchQueryVariableException;
+import com.flaptor.indextank.query.QueryVariables;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * The values each {@link Input} of a scoring function may take. Query
+ * variables are known exactly, inputs without a range are unbounded.
+ */
+public final class VariableRanges {
+
+    private final Map<Input, Interval> ranges = Maps.newHashMap();
+    private final QueryVariables queryVars;
+
+    public VariableRanges(Interval relevance, Interval age, QueryVariables queryVars) {
+        Preconditions.checkNotNull(relevance);
+        Preconditions.checkNotNull(age);
+        ranges.put(Input.RELEVANCE, relevance);
+        ranges.put(Input.AGE, age);
+        this.queryVars = queryVars;
+    }
+
+    private VariableRanges(VariableRanges other) {
+        this.ranges.putAll(other.ranges);
+        this.queryVars = other.queryVars;
+    }
+
+    public VariableRanges withDocumentVariable(int index, Interval range) {
+        return with(Input.documentVariable(index), range);
+    }
+
+    /**
+     * Returns a copy of these ranges, with the range of the given input replaced.
+     */
+    public VariableRanges with(Input input, Interval range) {
+        Preconditions.checkNotNull(range);
+        Preconditions.checkArgument(input.getKind() != Input.Kind.QUERY_VARIABLE, "Query variables are given by the query");
+        VariableRanges copy = new VariableRanges(this);
+        copy.ranges.put(input, range);
+        return copy;
+    }
+
+    public Interval get(Input input) {
+        if (input.getKind() == Input.Kind.QUERY_VARIABLE) {
+            if (queryVars == null) {
+                return Interval.ALL;
+            }
+            try {
+                return Interval.point(queryVars.getValue(input.getIndex()));
+            } catch (NoSuchQueryVariableException e) {
+                return Interval.ALL;
+            }
+        }
+        Interval range = ranges.get(input);
+        return range == null ? Interval.ALL : range;
+    }
+
+}
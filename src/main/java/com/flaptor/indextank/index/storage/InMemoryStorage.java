@@ -56,7 +56,7 @@ import com.google.common.collect.Maps;
  */
 public class InMemoryStorage extends DocumentBinaryStorage {
   private static final Logger logger = Logger.getLogger(Execute.whoAmI());
-  private static final String MAIN_FILE_NAME = "InMemoryStorage";
+  static final String MAIN_FILE_NAME = "InMemoryStorage";
 
   private final File backupDir;
   private ConcurrentMap<String, byte[]> compressedMap = new MapMaker().makeMap();
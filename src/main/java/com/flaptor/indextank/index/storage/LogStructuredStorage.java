@@ -0,0 +1,606 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.storage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.flaptor.util.Execute;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+
+/**
+ * {@link DocumentBinaryStorage} that appends the documents to numbered segment
+ * files and keeps in memory only the location of each document's last record.
+ * <br><br>
+ * Every save appends a record with the document, and every delete appends one
+ * without it, so a dump only has to sync what was appended since the previous
+ * one. Only the last segment is written to: when it reaches the segment size a
+ * new one is started and the old one is mapped to memory for reading, so the
+ * documents are kept off the heap.
+ * <br><br>
+ * Records that were overwritten or deleted are left behind in their segments.
+ * On each dump, the segments that are mostly dead are compacted: their live
+ * records are appended again to the last segment and the files are deleted.
+ * A deletion is live only while an older segment may have a record of the
+ * document, so every record keeps the oldest segment that may have one.
+ * Searches are not blocked by compaction, and writers are only blocked while
+ * each record is moved. Dumps are run one at a time.
+ * <br><br>
+ * On startup, the segments are scanned in order to rebuild the locations, the
+ * last record of each document wins. Each record has a checksum, and a segment
+ * is replayed up to the first record that is cut short by a crash or doesn't
+ * match its checksum, the rest of the segment is discarded. An
+ * {@link InMemoryStorage} file found in the backup directory is imported, and
+ * renamed once its documents are on disk.
+ *
+ * @author Flaptor Team
+ */
+public class LogStructuredStorage extends DocumentBinaryStorage {
+    private static final Logger logger = Logger.getLogger(Execute.whoAmI());
+    private static final String DIR_NAME = "documents";
+    private static final String FILE_PREFIX = "documents.segment.";
+    private static final String IMPORTED_SUFFIX = ".imported";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    
+    /**
+     * Segments with a smaller fraction of live bytes are compacted.
+     */
+    private static final double COMPACTION_THRESHOLD = 0.5;
+    
+    // docid length, data length, oldest segment with a record of the docid,
+    // checksum of the rest of the record
+    private static final int HEADER_SIZE = 16;
+    private static final int OLDEST_OFFSET = 8;
+    private static final int CHECKSUM_OFFSET = 12;
+    private static final int DELETED = -1;
+
+    private final File dir;
+    private final int segmentSize;
+    private final ConcurrentMap<String, Long> locations = new MapMaker().makeMap();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+    private final AtomicLong compactions = new AtomicLong();
+    private final Object dumpLock = new Object();
+
+    // guarded by this
+    private Segment last;
+    // the last deletion of each deleted docid, while it's live. Guarded by this
+    private final Map<String, Long> deletions = Maps.newHashMap();
+    private volatile boolean closed;
+
+    public LogStructuredStorage(File backupDir, boolean load) throws IOException {
+        this(backupDir, load, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize the number of bytes after which a new segment is started.
+     */
+    public LogStructuredStorage(File backupDir, boolean load, int segmentSize) throws IOException {
+        Preconditions.checkNotNull(backupDir);
+        Preconditions.checkArgument(backupDir.canRead() && backupDir.canWrite(), "Can't read and write the backup directory(%s).", backupDir.getAbsolutePath());
+        Preconditions.checkArgument(segmentSize > 0);
+        this.segmentSize = segmentSize;
+        this.dir = new File(backupDir, DIR_NAME);
+        if (!dir.exists() && !dir.mkdir()) {
+            throw new IOException("Couldn't create " + dir.getAbsolutePath());
+        }
+
+        SortedMap<Integer, File> files = listFiles();
+        if (load) {
+            for (Entry<Integer, File> entry : files.entrySet()) {
+                Segment segment = new Segment(entry.getKey(), entry.getValue());
+                segments.put(segment.number, segment);
+                replay(segment);
+                if (segment.size == 0) {
+                    segments.remove(segment.number);
+                    segment.delete();
+                } else {
+                    segment.seal();
+                }
+            }
+            logger.info("Loaded " + locations.size() + " documents from " + segments.size() + " segments.");
+        } else {
+            for (File file : files.values()) {
+                if (!file.delete()) {
+                    throw new IOException("Couldn't delete " + file.getAbsolutePath());
+                }
+            }
+            logger.info("Starting a new(empty) LogStructuredStorage.");
+        }
+        int number = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        last = new Segment(number, new File(dir, FILE_PREFIX + number));
+        segments.put(number, last);
+
+        File inMemory = new File(backupDir, InMemoryStorage.MAIN_FILE_NAME);
+        if (load && inMemory.exists()) {
+            importInMemoryStorage(inMemory);
+        }
+    }
+
+    private SortedMap<Integer, File> listFiles() {
+        SortedMap<Integer, File> files = Maps.newTreeMap();
+        for (File file : dir.listFiles()) {
+            String name = file.getName();
+            if (name.startsWith(FILE_PREFIX)) {
+                try {
+                    files.put(Integer.parseInt(name.substring(FILE_PREFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file " + file.getAbsolutePath());
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Reads the segment's records, pointing each docid to its record, and
+     * truncates the segment after the last complete record that matches its
+     * checksum.
+     */
+    private void replay(Segment segment) throws IOException {
+        long length = segment.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        int offset = 0;
+        while (offset + HEADER_SIZE <= length) {
+            header.clear();
+            segment.readFully(header, offset);
+            header.flip();
+            int keyLength = header.getInt();
+            int dataLength = header.getInt();
+            long end = (long) offset + HEADER_SIZE + keyLength + Math.max(dataLength, 0);
+            if (keyLength < 0 || dataLength < DELETED || end > length) {
+                break;
+            }
+            int recordSize = (int) (end - offset);
+            ByteBuffer record = ByteBuffer.allocate(recordSize);
+            segment.readFully(record, offset);
+            if (record.getInt(CHECKSUM_OFFSET) != checksum(record.array())) {
+                logger.error("Checksum mismatch at offset " + offset + " of " + segment.file.getAbsolutePath());
+                break;
+            }
+            String docId = new String(record.array(), HEADER_SIZE, keyLength, UTF8);
+            long location = location(segment.number, offset);
+            segment.size = (int) end;
+            segment.liveBytes.addAndGet(recordSize);
+            if (dataLength == DELETED) {
+                release(locations.remove(docId));
+                release(deletions.put(docId, location));
+            } else {
+                release(locations.put(docId, location));
+                release(deletions.remove(docId));
+            }
+            offset = (int) end;
+        }
+        if (offset < length) {
+            logger.warn("Discarding " + (length - offset) + " bytes at the end of " + segment.file.getAbsolutePath());
+            segment.channel.truncate(offset);
+        }
+    }
+
+    /**
+     * Copies the documents of a serialized {@link InMemoryStorage} to this storage.
+     * Its file is only renamed, once the segments are synced, so it's imported
+     * again if that doesn't happen, and kept as a backup otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    private void importInMemoryStorage(File file) throws IOException {
+        logger.info("Importing documents from " + file.getAbsolutePath());
+        Map<String, byte[]> documents;
+        ObjectInputStream is = null;
+        try {
+            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            documents = (Map<String, byte[]>) is.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Execute.close(is);
+        }
+        for (Entry<String, byte[]> entry : documents.entrySet()) {
+            if (!locations.containsKey(entry.getKey()) && !deletions.containsKey(entry.getKey())) {
+                saveBinaryDoc(entry.getKey(), entry.getValue());
+            }
+        }
+        dump();
+        File imported = new File(file.getPath() + IMPORTED_SUFFIX);
+        if (!file.renameTo(imported)) {
+            throw new IOException("Couldn't rename " + file.getAbsolutePath() + " to " + imported.getAbsolutePath());
+        }
+        logger.info("Imported " + documents.size() + " documents, the old file is kept as " + imported.getAbsolutePath());
+    }
+
+    @Override
+    protected byte[] getBinaryDoc(String docId) {
+        while (true) {
+            Preconditions.checkState(!closed, "The storage is closed.");
+            Long location = locations.get(docId);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = segments.get(segmentOf(location));
+            if (segment != null) {
+                return segment.readData(offsetOf(location));
+            }
+            // the segment was just compacted, the document has a new location.
+        }
+    }
+
+    @Override
+    protected synchronized void saveBinaryDoc(String docId, byte[] bytes) {
+        Long previous = locations.get(docId);
+        if (previous == null) {
+            previous = deletions.remove(docId);
+        }
+        locations.put(docId, append(docId, bytes, oldestOf(previous)));
+        release(previous);
+    }
+
+    @Override
+    protected synchronized void deleteBinaryDoc(String docId) {
+        Long location = locations.remove(docId);
+        if (location != null) {
+            deletions.put(docId, append(docId, null, oldestOf(location)));
+            release(location);
+        }
+    }
+
+    /**
+     * Syncs the last segment to disk and compacts the segments that are mostly
+     * dead. The deletions that no longer hide any record are released first,
+     * so that they don't keep their segments from being compacted.
+     */
+    public void dump() throws IOException {
+        synchronized (dumpLock) {
+            Preconditions.checkState(!closed, "The storage is closed.");
+            sync();
+            releaseDeletions();
+            for (Segment segment : segments.values()) {
+                if (segment.isSealed() && segment.liveBytes.get() < segment.size * COMPACTION_THRESHOLD) {
+                    compact(segment);
+                }
+            }
+        }
+    }
+
+    private synchronized void sync() throws IOException {
+        last.channel.force(false);
+    }
+
+    /**
+     * Syncs the last segment to disk and closes the segments. The mappings are
+     * released when they are collected. The storage can't be used afterwards.
+     */
+    public void close() throws IOException {
+        synchronized (dumpLock) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                last.channel.force(false);
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+                segments.clear();
+            }
+        }
+    }
+
+    private void releaseDeletions() {
+        Map<String, Long> current;
+        synchronized (this) {
+            current = Maps.newHashMap(deletions);
+        }
+        for (Entry<String, Long> entry : current.entrySet()) {
+            Long location = entry.getValue();
+            synchronized (this) {
+                if (location.equals(deletions.get(entry.getKey())) && !hidesRecords(oldestOf(location), segmentOf(location))) {
+                    deletions.remove(entry.getKey());
+                    release(location);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a deletion in the given segment may hide records in older
+     * segments, given the oldest segment that may have a record of its docid.
+     * The records before it in its own segment go away along with it.
+     */
+    private boolean hidesRecords(int oldest, int segment) {
+        return !segments.subMap(oldest, segment).isEmpty();
+    }
+
+    /**
+     * Appends the live records of a sealed segment to the last one, and deletes it.
+     * Deletions are dropped if there are no older segments that may have records
+     * of their docids.
+     */
+    private void compact(Segment segment) throws IOException {
+        logger.info("Compacting segment " + segment.number + ", " + segment.liveBytes.get() + " live bytes out of " + segment.size);
+        ByteBuffer buffer = segment.map.duplicate();
+        int offset = 0;
+        while (offset < segment.size) {
+            buffer.position(offset);
+            int keyLength = buffer.getInt();
+            int dataLength = buffer.getInt();
+            int oldest = buffer.getInt();
+            buffer.position(offset + HEADER_SIZE);
+            byte[] key = new byte[keyLength];
+            buffer.get(key);
+            String docId = new String(key, UTF8);
+            Long location = location(segment.number, offset);
+            synchronized (this) {
+                if (dataLength == DELETED) {
+                    if (location.equals(deletions.get(docId))) {
+                        if (hidesRecords(oldest, segment.number)) {
+                            deletions.put(docId, append(docId, null, oldest));
+                        } else {
+                            deletions.remove(docId);
+                        }
+                    }
+                } else if (location.equals(locations.get(docId))) {
+                    byte[] data = new byte[dataLength];
+                    buffer.get(data);
+                    locations.put(docId, append(docId, data, oldest));
+                }
+            }
+            offset += HEADER_SIZE + keyLength + Math.max(dataLength, 0);
+        }
+        // the moved records have to be on disk before their old copies are gone
+        sync();
+        synchronized (this) {
+            segments.remove(segment.number);
+            segment.delete();
+        }
+        compactions.incrementAndGet();
+    }
+
+    /**
+     * Appends a record to the last segment, starting a new one if it is full.
+     * 
+     * @param data the document, or null for a deletion.
+     * @param oldest the oldest segment that may have an earlier record of the
+     * docid, {@link Integer#MAX_VALUE} if none does.
+     * @return the location of the record.
+     */
+    private long append(String docId, byte[] data, int oldest) {
+        assert Thread.holdsLock(this);
+        Preconditions.checkState(!closed, "The storage is closed.");
+        byte[] key = docId.getBytes(UTF8);
+        int recordSize = HEADER_SIZE + key.length + (data == null ? 0 : data.length);
+        try {
+            if (last.size > 0 && (long) last.size + recordSize > segmentSize) {
+                last.channel.force(false);
+                last.seal();
+                int number = last.number + 1;
+                last = new Segment(number, new File(dir, FILE_PREFIX + number));
+                segments.put(number, last);
+            }
+            ByteBuffer record = ByteBuffer.allocate(recordSize);
+            record.putInt(key.length);
+            record.putInt(data == null ? DELETED : data.length);
+            record.putInt(Math.min(oldest, last.number));
+            record.position(HEADER_SIZE);
+            record.put(key);
+            if (data != null) {
+                record.put(data);
+            }
+            record.putInt(CHECKSUM_OFFSET, checksum(record.array()));
+            record.flip();
+            int offset = last.size;
+            while (record.hasRemaining()) {
+                last.channel.write(record, offset + record.position());
+            }
+            last.size += recordSize;
+            last.liveBytes.addAndGet(recordSize);
+            return location(last.number, offset);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the oldest segment that may have a record of the docid of the
+     * record at the given location, or {@link Integer#MAX_VALUE} if there's none.
+     */
+    private int oldestOf(Long location) {
+        if (location == null) {
+            return Integer.MAX_VALUE;
+        }
+        Segment segment = segments.get(segmentOf(location));
+        return segment == null ? 0 : segment.readOldest(offsetOf(location));
+    }
+
+    /**
+     * Discounts the record at the given location from its segment's live bytes.
+     */
+    private void release(Long location) {
+        if (location == null) {
+            return;
+        }
+        Segment segment = segments.get(segmentOf(location));
+        if (segment != null) {
+            segment.liveBytes.addAndGet(-segment.readRecordSize(offsetOf(location)));
+        }
+    }
+
+    /**
+     * Returns the checksum of a record, of all of it but the checksum itself.
+     */
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, CHECKSUM_OFFSET);
+        crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+        return (int) crc.getValue();
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    @Override
+    public Map<String, String> getStats() {
+        Map<String, String> stats = Maps.newHashMap();
+        long bytes = 0;
+        long liveBytes = 0;
+        List<Segment> current = Lists.newArrayList(segments.values());
+        for (Segment segment : current) {
+            bytes += segment.size;
+            liveBytes += segment.liveBytes.get();
+        }
+        stats.put("log_storage_count", String.valueOf(locations.size()));
+        synchronized (this) {
+            stats.put("log_storage_deletions", String.valueOf(deletions.size()));
+        }
+        stats.put("log_storage_segments", String.valueOf(current.size()));
+        stats.put("log_storage_bytes", String.valueOf(bytes));
+        stats.put("log_storage_live_bytes", String.valueOf(liveBytes));
+        stats.put("log_storage_compactions", String.valueOf(compactions.get()));
+        return stats;
+    }
+
+    /**
+     * A segment file. It's read through its channel until it is sealed, and
+     * through a read-only mapping afterwards.
+     */
+    private static class Segment {
+        private final int number;
+        private final File file;
+        private final FileChannel channel;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private volatile MappedByteBuffer map;
+        // written by the storage's writer, records below it are complete
+        private volatile int size;
+
+        Segment(int number, File file) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+
+        boolean isSealed() {
+            return map != null;
+        }
+
+        void seal() throws IOException {
+            map = channel.map(MapMode.READ_ONLY, 0, size);
+        }
+
+        void close() throws IOException {
+            channel.close();
+            map = null;
+        }
+
+        void delete() throws IOException {
+            // the mapping stays valid for the readers that still use it
+            channel.close();
+            if (!file.delete()) {
+                logger.warn("Couldn't delete " + file.getAbsolutePath());
+            }
+        }
+
+        byte[] readData(int offset) {
+            MappedByteBuffer map = this.map;
+            if (map != null) {
+                ByteBuffer buffer = map.duplicate();
+                buffer.position(offset);
+                int keyLength = buffer.getInt();
+                byte[] data = new byte[buffer.getInt()];
+                buffer.position(offset + HEADER_SIZE + keyLength);
+                buffer.get(data);
+                return data;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, offset);
+            header.flip();
+            int keyLength = header.getInt();
+            ByteBuffer data = ByteBuffer.allocate(header.getInt());
+            readFully(data, offset + HEADER_SIZE + keyLength);
+            return data.array();
+        }
+
+        int readRecordSize(int offset) {
+            ByteBuffer header = readHeader(offset);
+            return HEADER_SIZE + header.getInt() + Math.max(header.getInt(), 0);
+        }
+
+        int readOldest(int offset) {
+            return readHeader(offset).getInt(OLDEST_OFFSET);
+        }
+
+        /**
+         * Returns a buffer positioned at the header of the record at the offset,
+         * with its position as the origin of absolute reads.
+         */
+        private ByteBuffer readHeader(int offset) {
+            MappedByteBuffer map = this.map;
+            if (map != null) {
+                ByteBuffer header = map.duplicate();
+                header.position(offset);
+                return header.slice();
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, offset);
+            header.flip();
+            return header;
+        }
+
+        void readFully(ByteBuffer buffer, long position) {
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IllegalStateException("Unexpected end of " + file.getAbsolutePath());
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
@@ -16,8 +16,6 @@
 
 package com.flaptor.indextank.index.term;
 
-import java.util.NavigableMap;
-
 import com.flaptor.indextank.index.DocId;
 import com.flaptor.indextank.util.SkippableIterable;
 
@@ -26,17 +24,35 @@ public interface TermMatcher extends RawMatchesDecoder {
 
 	public SkippableIterable<DocTermMatch> getMatches(String field, String term);
 	/**
-	 * Range (prefix) matching. All terms (existing in the index) between termFrom and termTo
-	 * (lexicographically speaking) will be matched for the field.  
+	 * Range (prefix) enumeration. All terms (existing in the index) between termFrom and termTo
+	 * (lexicographically speaking) for the field. Terms are read lazily as the iteration goes.
+	 * Iterators may hold resources until they are exhausted, callers that stop earlier must
+	 * close them if they are {@link java.io.Closeable}.
 	 * 
 	 * @param field the field to match in
 	 * @param termFrom the left boundary of the range (inclusive)
 	 * @param termTo the rigth boundary of the range (exclusive)
 	 * 
-	 * @return a NavigableMap from the terms to the resulting Iterables of DocTermMatch
+	 * @return the terms, in order
+	 */
+	public Iterable<String> getTerms(String field, String termFrom, String termTo);
+	/**
+	 * Seeks the terms dictionary of a field.
+	 * 
+	 * @return the smallest term (existing in the index) for the field that is equal to or 
+	 * greater than the given one (lexicographically speaking), or null if there is none.
 	 */
-	public NavigableMap<String, SkippableIterable<DocTermMatch>> getMatches(String field, String termFrom, String termTo);
+	public String getCeilingTerm(String field, String term);
+	/**
+	 * @return a number that changes whenever documents are added to or removed from the
+	 * matcher, so that anything derived from its terms or matches can be cached.
+	 */
+	public long getGeneration();
 	public SkippableIterable<Integer> getAllDocs();
 	public boolean hasChanges(DocId docid);
+	/**
+	 * @return the rawId of the given document, or -1 if it's not (or no longer) part of this matcher.
+	 */
+	public int getRawId(DocId docid);
 
 }
@@ -18,21 +18,27 @@ package com.flaptor.indextank.index.term.query;
 
 import com.flaptor.indextank.util.AbstractSkippableIterable;
 import com.flaptor.indextank.util.AbstractSkippableIterator;
+import com.flaptor.indextank.util.Deadline;
 import com.flaptor.indextank.util.PeekingSkippableIterator;
 import com.flaptor.indextank.util.SkippableIterable;
 import com.flaptor.indextank.util.SkippableIterator;
 
 final class AndMerger2 extends AbstractSkippableIterable<RawMatch> {
 	
-	AndMerger2(SkippableIterable<RawMatch> l, SkippableIterable<RawMatch> r, double boost) {
+	/**
+	 * @param deadline checked while skipping, the matches end when it expires.
+	 */
+	AndMerger2(SkippableIterable<RawMatch> l, SkippableIterable<RawMatch> r, double boost, Deadline deadline) {
 	    this.left = l;
 	    this.right = r;
         this.boost = boost;
+        this.deadline = deadline;
     }
 
     private final SkippableIterable<RawMatch> left;
     private final SkippableIterable<RawMatch> right;
     private final double boost;
+    private final Deadline deadline;
 
     @Override
     public SkippableIterator<RawMatch> iterator() {
@@ -43,6 +49,7 @@ final class AndMerger2 extends AbstractSkippableIterable<RawMatch> {
             @Override
             protected RawMatch computeNext() {
                 while (true) {
+                    if (deadline.check()) return endOfData();
                     if (!it1.hasNext()) return endOfData();
                     if (!it2.hasNext()) return endOfData();
                     
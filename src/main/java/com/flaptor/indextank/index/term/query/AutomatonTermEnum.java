@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.term.query;
+
+import com.flaptor.indextank.index.term.TermMatcher;
+import com.flaptor.org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Enumerates, in order, the terms of a field that are accepted by an automaton.
+ * <br><br>
+ * Instead of running the automaton on every term of the field, the terms
+ * dictionary is seeked: whenever a term is rejected, the enumeration jumps to
+ * the smallest string greater than it that could still be accepted, so only
+ * a few terms are visited for each accepted one.
+ * 
+ * @author Flaptor Team
+ */
+public class AutomatonTermEnum extends AbstractIterator<String> {
+
+    private final TermMatcher matcher;
+    private final String field;
+    private final CharacterRunAutomaton automaton;
+    private final int[] points;
+    
+    // the string to seek next, null when there are no more terms
+    private String seek = "";
+    // the state before reading each code point of the current term, and its offset
+    private int[] states = new int[16];
+    private int[] offsets = new int[16];
+
+    public AutomatonTermEnum(TermMatcher matcher, String field, CharacterRunAutomaton automaton) {
+        Preconditions.checkNotNull(matcher);
+        Preconditions.checkNotNull(field);
+        Preconditions.checkNotNull(automaton);
+        this.matcher = matcher;
+        this.field = field;
+        this.automaton = automaton;
+        this.points = automaton.getCharIntervals();
+    }
+    
+    @Override
+    protected String computeNext() {
+        while (seek != null) {
+            String term = matcher.getCeilingTerm(field, seek);
+            if (term == null) {
+                break;
+            }
+            int state = automaton.getInitialState();
+            int depth = 0;
+            boolean dead = false;
+            for (int i = 0; i < term.length(); ) {
+                int cp = term.codePointAt(i);
+                push(depth, i, state);
+                int next = automaton.step(state, cp);
+                if (next == -1) {
+                    dead = true;
+                    break;
+                }
+                state = next;
+                depth++;
+                i += Character.charCount(cp);
+            }
+            if (dead) {
+                seek = nextSeek(term, depth);
+            } else {
+                int c = nextLive(state, -1);
+                seek = c == -1 ? nextSeek(term, depth - 1) : seekTarget(term, term, c);
+                if (automaton.isAccept(state)) {
+                    return term;
+                }
+            }
+        }
+        seek = null;
+        return endOfData();
+    }
+
+    /**
+     * Finds the smallest string greater than the term that could be accepted, changing
+     * its code point at the given depth or at a previous one.  
+     */
+    private String nextSeek(String term, int depth) {
+        for (int d = depth; d >= 0; d--) {
+            int c = nextLive(states[d], term.codePointAt(offsets[d]));
+            if (c != -1) {
+                return seekTarget(term, term.substring(0, offsets[d]), c);
+            }
+        }
+        return null;
+    }
+    
+    private static String seekTarget(String term, String prefix, int c) {
+        if (c >= Character.MIN_SURROGATE) {
+            // strings are sorted by utf-16 units, which doesn't follow the code 
+            // points order from here on. just go to the term's successor.
+            return term + '\u0000';
+        }
+        return prefix + (char) c;
+    }
+    
+    /**
+     * @return the smallest code point greater than the given one that has
+     * a transition from the state, or -1 if there is none.
+     */
+    private int nextLive(int state, int after) {
+        int c = after + 1;
+        if (c > Character.MAX_CODE_POINT) {
+            return -1;
+        }
+        if (automaton.step(state, c) != -1) {
+            return c;
+        }
+        // transitions only change at the intervals' start points
+        for (int point : points) {
+            if (point > c && automaton.step(state, point) != -1) {
+                return point;
+            }
+        }
+        return -1;
+    }
+
+    private void push(int depth, int offset, int state) {
+        if (depth == states.length) {
+            int[] newStates = new int[depth * 2];
+            int[] newOffsets = new int[depth * 2];
+            System.arraycopy(states, 0, newStates, 0, depth);
+            System.arraycopy(offsets, 0, newOffsets, 0, depth);
+            states = newStates;
+            offsets = newOffsets;
+        }
+        states[depth] = state;
+        offsets[depth] = offset;
+    }
+    
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.term.query;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.flaptor.indextank.index.term.DocTermMatch;
+import com.flaptor.indextank.index.term.TermMatcher;
+import com.flaptor.indextank.util.AbstractSkippableIterable;
+import com.flaptor.indextank.util.AbstractSkippableIterator;
+import com.flaptor.indextank.util.Deadline;
+import com.flaptor.indextank.util.SkippableIterable;
+import com.flaptor.indextank.util.SkippableIterator;
+
+/**
+ * Union of the matches of a large number of terms, resolved into the sorted
+ * rawIds of the matching documents and their scores.
+ * <br><br>
+ * Merging the matches of many terms on the fly needs an iterator per term 
+ * and a merge step per match. Instead, terms are read one at a time and 
+ * their matches are accumulated, scoring each document by the norm of its 
+ * term scores, as {@link TermBasedQueryMatcher} does for prefixes. Unions
+ * take space proportional to their number of matches, and are immutable 
+ * once built, so they can be cached and shared.
+ * 
+ * @author Flaptor Team
+ */
+public class DenseTermUnion {
+    private final int[] rawIds;
+    private final float[] scores;
+    private final boolean complete;
+    
+    private DenseTermUnion(int[] rawIds, float[] scores, boolean complete) {
+        this.rawIds = rawIds;
+        this.scores = scores;
+        this.complete = complete;
+    }
+
+    /**
+     * Builds the union of the matches of the given terms of a field. If the deadline
+     * is reached the union is left incomplete, with the matches read so far.
+     */
+    public static DenseTermUnion build(TermMatcher matcher, String field, Iterator<String> terms, Deadline deadline) {
+        // each term match packed as its rawId followed by its square score, so
+        // that sorting them groups the matches of each document
+        long[] matches = new long[1024];
+        int count = 0;
+        boolean complete = true;
+        
+        terms:
+        while (terms.hasNext()) {
+            for (DocTermMatch match : matcher.getMatches(field, terms.next())) {
+                if (deadline.check()) {
+                    complete = false;
+                    break terms;
+                }
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                }
+                float score = (float) match.getSquareTermScore();
+                matches[count++] = ((long) match.getRawId() << 32) | (Float.floatToIntBits(score) & 0xFFFFFFFFL);
+            }
+        }
+        Arrays.sort(matches, 0, count);
+
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || rawId(matches[i]) != rawId(matches[i - 1])) {
+                size++;
+            }
+        }
+        int[] rawIds = new int[size];
+        float[] scores = new float[size];
+        int n = -1;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || rawId(matches[i]) != rawId(matches[i - 1])) {
+                rawIds[++n] = rawId(matches[i]);
+            }
+            scores[n] += Float.intBitsToFloat((int) matches[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            scores[i] = (float) Math.sqrt(scores[i]);
+        }
+        return new DenseTermUnion(rawIds, scores, complete);
+    }
+
+    private static int rawId(long match) {
+        return (int) (match >>> 32);
+    }
+
+    /**
+     * @return false if the deadline was reached while building the union.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+    
+    public int size() {
+        return rawIds.length;
+    }
+    
+    public SkippableIterable<RawMatch> matches(final double boost) {
+        return new AbstractSkippableIterable<RawMatch>() {
+            @Override
+            public SkippableIterator<RawMatch> iterator() {
+                return new AbstractSkippableIterator<RawMatch>() {
+                    private final RawMatch rawMatch = new RawMatch(0, 0d, boost);
+                    private int next = 0;
+                    
+                    @Override
+                    protected RawMatch computeNext() {
+                        if (next >= rawIds.length) {
+                            return endOfData();
+                        }
+                        rawMatch.setRawId(rawIds[next]);
+                        rawMatch.setScore(scores[next]);
+                        rawMatch.setBoost(boost);
+                        next++;
+                        return rawMatch;
+                    }
+
+                    @Override
+                    public void skipTo(int i) {
+                        if (next < rawIds.length && rawIds[next] < i) {
+                            int position = Arrays.binarySearch(rawIds, next, rawIds.length, i);
+                            next = position >= 0 ? position : -position - 1;
+                        }
+                    }
+                };
+            }
+        };
+    }
+    
+}
@@ -18,6 +18,7 @@ package com.flaptor.indextank.index.term.query;
 
 import com.flaptor.indextank.util.AbstractSkippableIterable;
 import com.flaptor.indextank.util.AbstractSkippableIterator;
+import com.flaptor.indextank.util.Deadline;
 import com.flaptor.indextank.util.PeekingSkippableIterator;
 import com.flaptor.indextank.util.SkippableIterable;
 import com.flaptor.indextank.util.SkippableIterator;
@@ -27,27 +28,34 @@ class DifferenceMerger extends AbstractSkippableIterable<RawMatch> {
     private final SkippableIterable<RawMatch> included;
     private final SkippableIterable<RawMatch> excluded;
     private final double boost;
+    private final Deadline deadline;
 
-    DifferenceMerger(SkippableIterable<RawMatch> left, SkippableIterable<RawMatch> right, double boost) {
+    /**
+     * @param deadline checked while skipping, the matches end when it expires.
+     */
+    DifferenceMerger(SkippableIterable<RawMatch> left, SkippableIterable<RawMatch> right, double boost, Deadline deadline) {
         this.included = left;
         this.excluded = right;
         this.boost = boost;
+        this.deadline = deadline;
     }
 
     @Override
     public SkippableIterator<RawMatch> iterator() {
-        return new DifferenceIterator(included.iterator(), excluded.iterator(), boost);
+        return new DifferenceIterator(included.iterator(), excluded.iterator(), boost, deadline);
     }
 
     private static class DifferenceIterator extends AbstractSkippableIterator<RawMatch> {
         private final PeekingSkippableIterator<RawMatch> included;
         private final PeekingSkippableIterator<RawMatch> excluded;
         private final double boost;
+        private final Deadline deadline;
 
-        public DifferenceIterator(SkippableIterator<RawMatch> included, SkippableIterator<RawMatch> excluded, double boost) {
+        public DifferenceIterator(SkippableIterator<RawMatch> included, SkippableIterator<RawMatch> excluded, double boost, Deadline deadline) {
             this.included = new PeekingSkippableIterator<RawMatch>(included);
             this.excluded = new PeekingSkippableIterator<RawMatch>(excluded);
             this.boost = boost;
+            this.deadline = deadline;
         }
         
         private static int id(RawMatch r) {
@@ -59,7 +67,7 @@ class DifferenceMerger extends AbstractSkippableIterable<RawMatch> {
         
         @Override
         protected RawMatch computeNext() {
-            while (included.hasNext()) {
+            while (!deadline.check() && included.hasNext()) {
             	RawMatch candidate = included.next();
 
             	// check if the candidate is excluded
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.term.query;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.ScoredMatch;
+import com.flaptor.indextank.index.scorer.DocumentMatchFilter;
+import com.flaptor.indextank.index.scorer.DynamicDataManager;
+import com.flaptor.indextank.index.term.TermMatcher;
+import com.flaptor.indextank.util.AbstractSkippableIterable;
+import com.flaptor.indextank.util.AbstractSkippableIterator;
+import com.flaptor.indextank.util.SkippableIterable;
+import com.flaptor.indextank.util.SkippableIterator;
+import com.flaptor.indextank.util.Skippables;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Keeps, for the most recently used {@link DocumentMatchFilter}s, the set of
+ * rawIds of a {@link TermMatcher} that pass the filter.
+ * <br><br>
+ * Bitsets are built lazily the first time a filter is requested. After that
+ * they are kept up to date incrementally: documents added to the matcher
+ * after the bitset was built are evaluated, and so are the documents that
+ * the {@link DynamicDataManager} reports as changed. Returned bitsets are
+ * never modified, updates are applied on a copy, so they can be used safely
+ * while other queries update the cache.
+ * <br><br>
+ * The cache is only locked to look up and store entries. Bitsets are built and
+ * updated outside of the lock, and each filter is built by a single thread
+ * while the other queries that need it wait for it.
+ *
+ * @author Flaptor Team
+ */
+public class FilterBitSetCache {
+    private static final int MAX_ENTRIES = 32;
+
+    private final TermMatcher matcher;
+    private final Map<DocumentMatchFilter, Entry> entries = new LinkedHashMap<DocumentMatchFilter, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<DocumentMatchFilter, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final ConcurrentMap<DocumentMatchFilter, FutureTask<Entry>> builds = new MapMaker().makeMap();
+
+    public FilterBitSetCache(TermMatcher matcher) {
+        Preconditions.checkNotNull(matcher);
+        this.matcher = matcher;
+    }
+
+    /**
+     * Returns the rawIds of the documents that pass the given filter. 
+     * The returned bitset must not be modified.
+     */
+    public BitSet getBits(DocumentMatchFilter filter) {
+        DynamicDataManager dynamicDataManager = filter.getDynamicDataManager();
+        long generation = dynamicDataManager.getGeneration();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(filter);
+        }
+        if (entry == null) {
+            return build(filter).bits;
+        }
+
+        BitSet bits = entry.bits;
+        if (generation != entry.generation) {
+            Set<DocId> changes = dynamicDataManager.getChangesSince(entry.generation);
+            if (changes == null) {
+                return build(filter).bits;
+            }
+            bits = (BitSet) bits.clone();
+            for (DocId docId : changes) {
+                int rawId = matcher.getRawId(docId);
+                if (rawId >= 0 && rawId < entry.watermark) {
+                    bits.set(rawId, filter.matches(docId));
+                }
+            }
+        }
+
+        BitSet added = new BitSet();
+        int watermark = evaluate(filter, added, entry.watermark);
+        if (watermark > entry.watermark) {
+            if (bits == entry.bits) {
+                bits = (BitSet) bits.clone();
+            }
+            bits.or(added);
+        }
+
+        if (bits != entry.bits || watermark != entry.watermark) {
+            entry = new Entry(bits, Math.max(watermark, entry.watermark), generation);
+            publish(filter, entry);
+        }
+        return entry.bits;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Builds the filter's bitset from scratch, or waits for the thread that is
+     * already building it.
+     */
+    private Entry build(final DocumentMatchFilter filter) {
+        FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                long generation = filter.getDynamicDataManager().getGeneration();
+                BitSet bits = new BitSet();
+                int watermark = evaluate(filter, bits, 0);
+                return new Entry(bits, watermark, generation);
+            }
+        });
+        FutureTask<Entry> running = builds.putIfAbsent(filter, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                builds.remove(filter, task);
+            }
+            running = task;
+        }
+        Entry entry;
+        try {
+            entry = Uninterruptibles.getUninterruptibly(running);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        publish(filter, entry);
+        return entry;
+    }
+
+    /**
+     * Stores the entry for the filter, unless the cached one is newer.
+     */
+    private void publish(DocumentMatchFilter filter, Entry entry) {
+        synchronized (entries) {
+            Entry current = entries.get(filter);
+            if (current == null || current.isOlderThan(entry)) {
+                entries.put(filter, entry);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the filter for all the documents from the given rawId on.
+     * @return the rawId up to which the documents were evaluated (exclusive)
+     */
+    private int evaluate(DocumentMatchFilter filter, BitSet bits, final int from) {
+        final SkippableIterable<Integer> allDocs = matcher.getAllDocs();
+        final RawMatch rawMatch = new RawMatch(0, 1d, 1d);
+        SkippableIterable<RawMatch> rawMatches = Skippables.transform(new AbstractSkippableIterable<Integer>() {
+            @Override
+            public SkippableIterator<Integer> iterator() {
+                SkippableIterator<Integer> it = allDocs.iterator();
+                it.skipTo(from);
+                return it;
+            }
+        }, new Function<Integer, RawMatch>() {
+            @Override
+            public RawMatch apply(Integer rawId) {
+                rawMatch.setRawId(rawId);
+                return rawMatch;
+            }
+        });
+
+        int watermark = from;
+        for (ScoredMatch match : matcher.decode(rawMatches, 1d)) {
+            DocId docId = match.getDocId();
+            if (docId == null) {
+                // the document is still being added, evaluate it next time
+                break;
+            }
+            int rawId = rawMatch.getRawId();
+            if (filter.matches(docId)) {
+                bits.set(rawId);
+            }
+            watermark = rawId + 1;
+        }
+        return watermark;
+    }
+
+    /**
+     * Filters the raw matches, leaving only those whose rawId is set in the given bits.
+     * The underlying iterators are skipped to the next set bit whenever a match is discarded.
+     */
+    public static SkippableIterable<RawMatch> filter(final SkippableIterable<RawMatch> rawMatches, final BitSet bits) {
+        return new AbstractSkippableIterable<RawMatch>() {
+            @Override
+            public SkippableIterator<RawMatch> iterator() {
+                final SkippableIterator<RawMatch> it = rawMatches.iterator();
+                return new AbstractSkippableIterator<RawMatch>() {
+                    @Override
+                    protected RawMatch computeNext() {
+                        while (it.hasNext()) {
+                            RawMatch m = it.next();
+                            int rawId = m.getRawId();
+                            if (bits.get(rawId)) {
+                                return m;
+                            }
+                            int next = bits.nextSetBit(rawId + 1);
+                            if (next < 0) {
+                                break;
+                            }
+                            it.skipTo(next);
+                        }
+                        return endOfData();
+                    }
+
+                    @Override
+                    public void skipTo(int i) {
+                        it.skipTo(i);
+                    }
+                };
+            }
+        };
+    }
+
+    private static class Entry {
+        private final BitSet bits;
+        private final int watermark;
+        private final long generation;
+
+        Entry(BitSet bits, int watermark, long generation) {
+            this.bits = bits;
+            this.watermark = watermark;
+            this.generation = generation;
+        }
+
+        boolean isOlderThan(Entry other) {
+            return generation <= other.generation && watermark <= other.watermark;
+        }
+    }
+}
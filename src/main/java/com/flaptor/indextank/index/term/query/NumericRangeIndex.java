@@ -0,0 +1,586 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.term.query;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.ScoredMatch;
+import com.flaptor.indextank.index.scorer.DynamicDataManager;
+import com.flaptor.indextank.index.scorer.VariablesRangeFilter;
+import com.flaptor.indextank.index.term.TermMatcher;
+import com.flaptor.indextank.util.AbstractSkippableIterable;
+import com.flaptor.indextank.util.AbstractSkippableIterator;
+import com.flaptor.indextank.util.SkippableIterable;
+import com.flaptor.indextank.util.SkippableIterator;
+import com.flaptor.indextank.util.Skippables;
+import com.flaptor.util.Pair;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Numeric index over the documents' variables and timestamp, in the rawId
+ * space of a {@link TermMatcher}.
+ * <br><br>
+ * For every variable that has been queried, it keeps the (value, rawId) pairs of
+ * the matcher's documents sorted by value, so that any range can be resolved
+ * with a binary search. Documents whose values changed after the column was
+ * sorted, and documents added to the matcher since then, are kept aside as
+ * pending and evaluated directly, until there are enough of them to justify
+ * sorting the column again.
+ * <br><br>
+ * Values are stored as ints that sort like the original values: timestamps as
+ * they are, and variables as their float bits with the negative values flipped.
+ * <br><br>
+ * Columns are never modified once published, refreshing one creates a new one.
+ * Sorting a column is done by a single thread, without blocking the queries
+ * that can keep using the previous column meanwhile.
+ * <br><br>
+ * The bits of the most recently used ranges are cached along with the columns
+ * they were computed from, and reused while those columns are still current,
+ * that is, while no value changed and no document was added. Cached bits are
+ * shared, so they must not be modified by the callers.
+ *
+ * @author Flaptor Team
+ */
+public class NumericRangeIndex {
+    public static final String TIMESTAMP_FIELD = "timestamp";
+    public static final String VARIABLE_FIELD_PREFIX = "variable_";
+
+    private static final int MIN_PENDING_FOR_REBUILD = 1024;
+    private static final int MAX_CACHED_BITS = 32;
+
+    private final TermMatcher matcher;
+    private final DynamicDataManager dynamicDataManager;
+    private final ConcurrentMap<Integer, Column> columns = new MapMaker().makeMap();
+    private final ConcurrentMap<Integer, FutureTask<Column>> builds = new MapMaker().makeMap();
+    private final Map<Object, CachedBits> cachedBits = new LinkedHashMap<Object, CachedBits>(MAX_CACHED_BITS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, CachedBits> eldest) {
+            return size() > MAX_CACHED_BITS;
+        }
+    };
+
+    public NumericRangeIndex(TermMatcher matcher, DynamicDataManager dynamicDataManager) {
+        Preconditions.checkNotNull(matcher);
+        Preconditions.checkNotNull(dynamicDataManager);
+        this.matcher = matcher;
+        this.dynamicDataManager = dynamicDataManager;
+    }
+
+    /**
+     * Returns the variable index a range field refers to, either
+     * {@link DynamicDataManager#TIMESTAMP_VARIABLE} for "timestamp" or
+     * <i>n</i> for "variable_<i>n</i>".
+     * 
+     * @throws IllegalArgumentException if the field is not a numeric one.
+     */
+    public int getVariable(String field) {
+        int variable;
+        if (TIMESTAMP_FIELD.equals(field)) {
+            variable = DynamicDataManager.TIMESTAMP_VARIABLE;
+        } else if (field != null && field.startsWith(VARIABLE_FIELD_PREFIX)) {
+            try {
+                variable = Integer.parseInt(field.substring(VARIABLE_FIELD_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid range field: " + field);
+            }
+        } else {
+            throw new IllegalArgumentException("Range queries are only supported on the " + TIMESTAMP_FIELD + " and " + VARIABLE_FIELD_PREFIX + "<n> fields, found: " + field);
+        }
+        if (variable < DynamicDataManager.TIMESTAMP_VARIABLE || variable >= dynamicDataManager.getNumberOfBoosts()) {
+            throw new IllegalArgumentException("Invalid variable for range query: " + field);
+        }
+        return variable;
+    }
+
+    /**
+     * Returns the rawIds of the documents whose value for the given variable falls in the range.
+     * Infinite bounds leave that side of the range open. The returned bits must not be modified.
+     */
+    public BitSet getBits(int variable, double from, boolean includeFrom, double to, boolean includeTo) {
+        int lowerKey = lowerKey(variable, from, includeFrom);
+        int upperKey = upperKey(variable, to, includeTo);
+        if (lowerKey > upperKey) {
+            return new BitSet();
+        }
+        Column[] used = { getColumn(variable) };
+        Object key = Arrays.asList(variable, lowerKey, upperKey);
+        BitSet bits = getCachedBits(key, used);
+        if (bits == null) {
+            bits = getBits(used[0], lowerKey, upperKey);
+            putCachedBits(key, used, bits);
+        }
+        return bits;
+    }
+
+    private BitSet getBits(Column column, int lowerKey, int upperKey) {
+        int variable = column.variable;
+        BitSet bits = new BitSet();
+        if (lowerKey > upperKey) {
+            return bits;
+        }
+        int start = lowerBound(column.keys, lowerKey);
+        int end = upperBound(column.keys, upperKey);
+        for (int i = start; i < end; i++) {
+            int rawId = column.rawIds[i];
+            if (!column.pendingBits.get(rawId)) {
+                bits.set(rawId);
+            }
+        }
+        for (Entry<Integer, DocId> entry : column.pending.entrySet()) {
+            double value = dynamicDataManager.getValue(entry.getValue(), variable);
+            if (!Double.isNaN(value)) {
+                int key = encode(variable, value);
+                if (key >= lowerKey && key <= upperKey) {
+                    bits.set(entry.getKey());
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the rawIds of the documents that pass a {@link VariablesRangeFilter}:
+     * those in any of the ranges of each of its variables.
+     * 
+     * The returned bits must not be modified.
+     * 
+     * @return null if the filter can't be resolved by this index, because it's
+     * empty or it isn't over the same data.
+     */
+    public BitSet getBits(VariablesRangeFilter filter) {
+        if (filter.getDynamicDataManager() != dynamicDataManager || filter.isEmpty()) {
+            return null;
+        }
+        Multimap<Integer, Pair<Float, Float>> ranges = filter.getRanges();
+        for (Integer variable : ranges.keySet()) {
+            if (variable < 0 || variable >= dynamicDataManager.getNumberOfBoosts()) {
+                return null;
+            }
+        }
+        List<Integer> variables = Lists.newArrayList(ranges.keySet());
+        Column[] used = new Column[variables.size()];
+        for (int i = 0; i < used.length; i++) {
+            used[i] = getColumn(variables.get(i));
+        }
+        BitSet bits = getCachedBits(filter, used);
+        if (bits != null) {
+            return bits;
+        }
+        for (int i = 0; i < used.length; i++) {
+            int variable = variables.get(i);
+            BitSet union = new BitSet();
+            for (Pair<Float, Float> range : ranges.get(variable)) {
+                double from = range.first() == null ? Double.NEGATIVE_INFINITY : range.first();
+                double to = range.last() == null ? Double.POSITIVE_INFINITY : range.last();
+                union.or(getBits(used[i], lowerKey(variable, from, true), upperKey(variable, to, true)));
+            }
+            if (bits == null) {
+                bits = union;
+            } else {
+                bits.and(union);
+            }
+        }
+        putCachedBits(filter, used, bits);
+        return bits;
+    }
+
+    /**
+     * Returns the bits cached for the key, if they were computed from the given columns.
+     */
+    private BitSet getCachedBits(Object key, Column[] used) {
+        synchronized (cachedBits) {
+            CachedBits cached = cachedBits.get(key);
+            if (cached != null && Arrays.equals(cached.columns, used)) {
+                return cached.bits;
+            }
+            return null;
+        }
+    }
+
+    private void putCachedBits(Object key, Column[] used, BitSet bits) {
+        synchronized (cachedBits) {
+            cachedBits.put(key, new CachedBits(used, bits));
+        }
+    }
+
+    /**
+     * Returns the rawIds set in the given bits that are still live documents of
+     * the matcher as matches, with a constant score.
+     */
+    public SkippableIterable<RawMatch> matches(final BitSet bits, final double boost) {
+        final SkippableIterable<Integer> allDocs = matcher.getAllDocs();
+        return new AbstractSkippableIterable<RawMatch>() {
+            @Override
+            public SkippableIterator<RawMatch> iterator() {
+                final SkippableIterator<Integer> docs = allDocs.iterator();
+                return new AbstractSkippableIterator<RawMatch>() {
+                    private final RawMatch match = new RawMatch(0, 1d, boost);
+                    private int next = 0;
+
+                    @Override
+                    protected RawMatch computeNext() {
+                        int rawId = bits.nextSetBit(next);
+                        while (rawId >= 0) {
+                            // skip documents deleted after the bits were computed
+                            docs.skipTo(rawId);
+                            if (!docs.hasNext()) {
+                                break;
+                            }
+                            int doc = docs.next();
+                            if (doc == rawId) {
+                                next = rawId + 1;
+                                match.setRawId(rawId);
+                                match.setScore(1d);
+                                match.setBoost(boost);
+                                return match;
+                            }
+                            rawId = bits.nextSetBit(doc);
+                        }
+                        return endOfData();
+                    }
+
+                    @Override
+                    public void skipTo(int i) {
+                        next = Math.max(next, i);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns an up to date column for the variable.
+     */
+    private Column getColumn(int variable) {
+        Column column = columns.get(variable);
+        if (column == null) {
+            return build(variable, null);
+        }
+        Column refreshed = column.refresh();
+        if (refreshed == null) {
+            // too many changes to follow, only a new sort gives the current values
+            return build(variable, null);
+        }
+        if (refreshed.needsSorting()) {
+            return build(variable, refreshed);
+        }
+        publish(variable, refreshed);
+        return refreshed;
+    }
+
+    /**
+     * Sorts the variable's column, unless another thread is already doing it.
+     * In that case it waits for it, unless a fallback column is given.
+     */
+    private Column build(final int variable, Column fallback) {
+        FutureTask<Column> task = new FutureTask<Column>(new Callable<Column>() {
+            @Override
+            public Column call() {
+                return Column.build(NumericRangeIndex.this, variable);
+            }
+        });
+        FutureTask<Column> running = builds.putIfAbsent(variable, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                builds.remove(variable, task);
+            }
+            running = task;
+        } else if (fallback != null) {
+            publish(variable, fallback);
+            return fallback;
+        }
+        Column column;
+        try {
+            column = Uninterruptibles.getUninterruptibly(running);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        publish(variable, column);
+        return column;
+    }
+
+    /**
+     * Replaces the variable's column with the given one, unless the current one is newer.
+     */
+    private void publish(int variable, Column column) {
+        synchronized (columns) {
+            Column current = columns.get(variable);
+            if (current == null || current.isOlderThan(column)) {
+                columns.put(variable, column);
+            }
+        }
+    }
+
+    private static class Column {
+        private final NumericRangeIndex index;
+        private final int variable;
+        private final int[] keys;
+        private final int[] rawIds;
+        /** rawIds below this one are either sorted or pending */
+        private final int watermark;
+        private final long generation;
+        /** documents whose current value may not be the one in the sorted arrays */
+        private final Map<Integer, DocId> pending;
+        private final BitSet pendingBits;
+
+        private Column(NumericRangeIndex index, int variable, int[] keys, int[] rawIds, int watermark, long generation, Map<Integer, DocId> pending, BitSet pendingBits) {
+            this.index = index;
+            this.variable = variable;
+            this.keys = keys;
+            this.rawIds = rawIds;
+            this.watermark = watermark;
+            this.generation = generation;
+            this.pending = pending;
+            this.pendingBits = pendingBits;
+        }
+
+        static Column build(final NumericRangeIndex index, final int variable) {
+            final DynamicDataManager dynamicDataManager = index.dynamicDataManager;
+            long generation = dynamicDataManager.getGeneration();
+            final LongArray entries = new LongArray();
+            int watermark = index.scan(0, new Collector() {
+                public void collect(int rawId, DocId docId) {
+                    double value = dynamicDataManager.getValue(docId, variable);
+                    if (!Double.isNaN(value)) {
+                        // sort by value first, and rawId second
+                        entries.add(((long) encode(variable, value) << 32) | rawId);
+                    }
+                }
+            });
+            long[] sorted = entries.values;
+            int size = entries.size;
+            Arrays.sort(sorted, 0, size);
+            int[] keys = new int[size];
+            int[] rawIds = new int[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (int) (sorted[i] >> 32);
+                rawIds[i] = (int) sorted[i];
+            }
+            return new Column(index, variable, keys, rawIds, watermark, generation, Maps.<Integer, DocId>newHashMap(), new BitSet());
+        }
+
+        /**
+         * Returns a column with the documents changed or added since this one was
+         * built as pending, this same column if there are none, or null if the
+         * changes are no longer available.
+         */
+        Column refresh() {
+            DynamicDataManager dynamicDataManager = index.dynamicDataManager;
+            final List<Integer> newRawIds = Lists.newArrayList();
+            final List<DocId> newDocIds = Lists.newArrayList();
+            long current = dynamicDataManager.getGeneration();
+            if (current != generation) {
+                Set<DocId> changes = dynamicDataManager.getChangesSince(generation);
+                if (changes == null) {
+                    return null;
+                }
+                for (DocId docId : changes) {
+                    int rawId = index.matcher.getRawId(docId);
+                    if (rawId >= 0 && rawId < watermark) {
+                        newRawIds.add(rawId);
+                        newDocIds.add(docId);
+                    }
+                }
+            }
+            int newWatermark = index.scan(watermark, new Collector() {
+                public void collect(int rawId, DocId docId) {
+                    newRawIds.add(rawId);
+                    newDocIds.add(docId.copy());
+                }
+            });
+            if (current == generation && newWatermark == watermark) {
+                return this;
+            }
+            Map<Integer, DocId> newPending = pending;
+            BitSet newPendingBits = pendingBits;
+            if (!newRawIds.isEmpty()) {
+                newPending = Maps.newHashMap(pending);
+                newPendingBits = (BitSet) pendingBits.clone();
+                for (int i = 0; i < newRawIds.size(); i++) {
+                    newPending.put(newRawIds.get(i), newDocIds.get(i));
+                    newPendingBits.set(newRawIds.get(i));
+                }
+            }
+            return new Column(index, variable, keys, rawIds, newWatermark, current, newPending, newPendingBits);
+        }
+
+        boolean needsSorting() {
+            return pending.size() > Math.max(MIN_PENDING_FOR_REBUILD, keys.length / 16);
+        }
+
+        boolean isOlderThan(Column other) {
+            return generation <= other.generation && watermark <= other.watermark;
+        }
+    }
+
+    private static class CachedBits {
+        /** columns are never modified, if they are still current so are the bits */
+        private final Column[] columns;
+        private final BitSet bits;
+
+        private CachedBits(Column[] columns, BitSet bits) {
+            this.columns = columns;
+            this.bits = bits;
+        }
+    }
+
+    private static class LongArray {
+        private long[] values = new long[16];
+        private int size = 0;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private interface Collector {
+        void collect(int rawId, DocId docId);
+    }
+
+    /**
+     * Passes every document of the matcher from the given rawId on to the collector.
+     * @return the rawId up to which the documents were collected (exclusive)
+     */
+    private int scan(final int from, Collector collector) {
+        final SkippableIterable<Integer> allDocs = matcher.getAllDocs();
+        final RawMatch rawMatch = new RawMatch(0, 1d, 1d);
+        SkippableIterable<RawMatch> rawMatches = Skippables.transform(new AbstractSkippableIterable<Integer>() {
+            @Override
+            public SkippableIterator<Integer> iterator() {
+                SkippableIterator<Integer> it = allDocs.iterator();
+                it.skipTo(from);
+                return it;
+            }
+        }, new Function<Integer, RawMatch>() {
+            @Override
+            public RawMatch apply(Integer rawId) {
+                rawMatch.setRawId(rawId);
+                return rawMatch;
+            }
+        });
+
+        int watermark = from;
+        for (ScoredMatch match : matcher.decode(rawMatches, 1d)) {
+            DocId docId = match.getDocId();
+            if (docId == null) {
+                // the document is still being added, it will be collected next time
+                break;
+            }
+            int rawId = rawMatch.getRawId();
+            collector.collect(rawId, docId);
+            watermark = rawId + 1;
+        }
+        return watermark;
+    }
+
+    private static int encode(int variable, double value) {
+        if (variable == DynamicDataManager.TIMESTAMP_VARIABLE) {
+            return (int) value;
+        }
+        float f = (float) value;
+        if (f == 0f) {
+            f = 0f; // -0.0 and 0.0 are the same value
+        }
+        int bits = Float.floatToIntBits(f);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    /** the smallest key in the range */
+    private static int lowerKey(int variable, double bound, boolean inclusive) {
+        if (bound == Double.NEGATIVE_INFINITY) {
+            return Integer.MIN_VALUE;
+        }
+        if (variable == DynamicDataManager.TIMESTAMP_VARIABLE) {
+            return toInt(inclusive ? Math.ceil(bound) : Math.floor(bound) + 1);
+        }
+        float f = (float) bound;
+        if (inclusive ? f < bound : f <= bound) {
+            f = Math.nextUp(f);
+        }
+        return encode(variable, f);
+    }
+
+    /** the largest key in the range */
+    private static int upperKey(int variable, double bound, boolean inclusive) {
+        if (bound == Double.POSITIVE_INFINITY) {
+            return Integer.MAX_VALUE;
+        }
+        if (variable == DynamicDataManager.TIMESTAMP_VARIABLE) {
+            return toInt(inclusive ? Math.floor(bound) : Math.ceil(bound) - 1);
+        }
+        float f = (float) bound;
+        if (inclusive ? f > bound : f >= bound) {
+            f = Math.nextAfter(f, Double.NEGATIVE_INFINITY);
+        }
+        return encode(variable, f);
+    }
+
+    private static int toInt(double value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    /** index of the first key greater or equal than the given one */
+    private static int lowerBound(int[] keys, int key) {
+        int low = 0, high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** index of the first key strictly greater than the given one */
+    private static int upperBound(int[] keys, int key) {
+        int low = 0, high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
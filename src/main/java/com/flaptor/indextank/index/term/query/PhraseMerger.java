@@ -24,6 +24,7 @@ import java.util.List;
 import com.flaptor.indextank.index.term.DocTermMatch;
 import com.flaptor.indextank.util.AbstractSkippableIterable;
 import com.flaptor.indextank.util.AbstractSkippableIterator;
+import com.flaptor.indextank.util.Deadline;
 import com.flaptor.indextank.util.IdentityIntersection;
 import com.flaptor.indextank.util.Intersection;
 import com.flaptor.indextank.util.PeekingSkippableIterator;
@@ -42,11 +43,16 @@ final class PhraseMerger extends AbstractSkippableIterable<RawMatch> {
     private Iterable<SkippableIterable<DocTermMatch>> cursors;
     private int[] termPositions;
     private double boost;
+    private Deadline deadline;
     
-    PhraseMerger(Iterable<SkippableIterable<DocTermMatch>> cursors, int[] termPositions, double boost) {
+    /**
+     * @param deadline checked while skipping, the matches end when it expires.
+     */
+    PhraseMerger(Iterable<SkippableIterable<DocTermMatch>> cursors, int[] termPositions, double boost, Deadline deadline) {
         this.cursors = cursors;
         this.termPositions = termPositions;
         this.boost = boost;
+        this.deadline = deadline;
     }
 
     @Override
@@ -59,6 +65,9 @@ final class PhraseMerger extends AbstractSkippableIterable<RawMatch> {
                 int current = -1;
                 
                 while (true) {
+                    if (deadline.check()) {
+                        return endOfData();
+                    }
                     boolean found = true;
                     for (PeekingSkippableIterator<DocTermMatch> it : iterators) {
                         while (it.hasNext() && current != -1 && it.peek().getRawId() < current) {
@@ -16,8 +16,11 @@
 
 package com.flaptor.indextank.index.term.query;
 
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.NavigableMap;
 import java.util.PriorityQueue;
 
 import com.flaptor.indextank.index.DocId;
@@ -25,48 +28,155 @@ import com.flaptor.indextank.index.QueryMatcher;
 import com.flaptor.indextank.index.ScoredMatch;
 import com.flaptor.indextank.index.TopMatches;
 import com.flaptor.indextank.index.results.SimpleScoredDocIds;
+import com.flaptor.indextank.index.scorer.Boosts;
+import com.flaptor.indextank.index.scorer.BoundScorer;
+import com.flaptor.indextank.index.scorer.DocumentMatchFilter;
 import com.flaptor.indextank.index.scorer.Faceter;
 import com.flaptor.indextank.index.scorer.FacetingManager;
+import com.flaptor.indextank.index.scorer.IntersectionMatchFilter;
 import com.flaptor.indextank.index.scorer.MatchFilter;
+import com.flaptor.indextank.index.scorer.NoneMatchFilter;
 import com.flaptor.indextank.index.scorer.Scorer;
+import com.flaptor.indextank.index.scorer.StaticRankColumn;
+import com.flaptor.indextank.index.scorer.VariablesRangeFilter;
 import com.flaptor.indextank.index.term.DocTermMatch;
 import com.flaptor.indextank.index.term.TermMatcher;
 import com.flaptor.indextank.query.AndQuery;
+import com.flaptor.indextank.query.AutomatonTermQuery;
 import com.flaptor.indextank.query.DifferenceQuery;
+import com.flaptor.indextank.query.FuzzyTermQuery;
 import com.flaptor.indextank.query.MatchAllQuery;
 import com.flaptor.indextank.query.OrQuery;
 import com.flaptor.indextank.query.PrefixTermQuery;
 import com.flaptor.indextank.query.Query;
 import com.flaptor.indextank.query.QueryNode;
 import com.flaptor.indextank.query.RangeQuery;
+import com.flaptor.indextank.query.SearchCursor;
 import com.flaptor.indextank.query.SimplePhraseQuery;
 import com.flaptor.indextank.query.TermQuery;
 import com.flaptor.indextank.util.AbstractSkippableIterable;
+import com.flaptor.indextank.util.Deadline;
 import com.flaptor.indextank.util.SkippableIterable;
 import com.flaptor.indextank.util.SkippableIterator;
 import com.flaptor.indextank.util.Skippables;
 import com.flaptor.indextank.util.Union;
+import com.flaptor.org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import com.flaptor.org.apache.lucene.util.automaton.LevenshteinAutomata;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
 
 public class TermBasedQueryMatcher implements QueryMatcher {
 
+	/**
+	 * Prefixes and patterns that expand to more terms than this are resolved through a {@link DenseTermUnion}.
+	 */
+	private static final int MAX_MERGED_TERMS = 256;
+
+	/**
+	 * Number of matches handed to the scorer at once.
+	 */
+	private static final int SCORE_BLOCK_SIZE = 256;
+
 	private final TermMatcher matcher;
 	private final Scorer scorer;
 	private final FacetingManager facetingManager;
+	private final FilterBitSetCache filterCache;
+	private final NumericRangeIndex rangeIndex;
+	private final TermExpansionCache expansionCache;
 
 	public TermBasedQueryMatcher(Scorer scorer, TermMatcher matcher, FacetingManager facetingManager) {
+		this(scorer, matcher, facetingManager, new FilterBitSetCache(matcher));
+	}
+
+	/**
+	 * @param filterCache cache of filter bitsets in the matcher's rawId space, 
+	 * it may be shared with other matchers over the same rawIds.
+	 */
+	public TermBasedQueryMatcher(Scorer scorer, TermMatcher matcher, FacetingManager facetingManager, FilterBitSetCache filterCache) {
+		this(scorer, matcher, facetingManager, filterCache, null);
+	}
+
+	/**
+	 * @param rangeIndex numeric index in the matcher's rawId space used to resolve
+	 * {@link RangeQuery range queries}, it may be shared with other matchers over
+	 * the same rawIds. If null, range queries are not supported.
+	 */
+	public TermBasedQueryMatcher(Scorer scorer, TermMatcher matcher, FacetingManager facetingManager, FilterBitSetCache filterCache, NumericRangeIndex rangeIndex) {
+		this(scorer, matcher, facetingManager, filterCache, rangeIndex, new TermExpansionCache(matcher));
+	}
+
+	/**
+	 * @param expansionCache cache of the terms that wildcard and regexp queries expand
+	 * to, it may be shared with other matchers over the same terms.
+	 */
+	public TermBasedQueryMatcher(Scorer scorer, TermMatcher matcher, FacetingManager facetingManager, FilterBitSetCache filterCache, NumericRangeIndex rangeIndex, TermExpansionCache expansionCache) {
 		this.matcher = matcher;
 		this.scorer = scorer;
 		this.facetingManager = facetingManager;
+		this.filterCache = filterCache;
+		this.rangeIndex = rangeIndex;
+		this.expansionCache = expansionCache;
 	}
 	
 	public TopMatches findMatches(Query query, Predicate<DocId> idFilter, int limit, int scoringFunctionIndex) {
-		Iterable<RawMatch> rawMatches = match(query.getRoot());
-		return getBestResults(rawMatches, idFilter, limit, query, scoringFunctionIndex);
+		Deadline deadline = new Deadline(query.getDeadline());
+		SkippableIterable<RawMatch> rawMatches = match(query.getRoot(), deadline);
+		List<MatchFilter> filters = getFilters(query);
+
+		// filters that only depend on the documents are resolved through cached
+		// bitsets, or the range index for variable ranges, and applied before 
+		// decoding and scoring the matches
+		BitSet bits = null;
+		for (Iterator<MatchFilter> it = filters.iterator(); it.hasNext(); ) {
+			MatchFilter filter = it.next();
+			if (filter instanceof DocumentMatchFilter) {
+				BitSet filterBits = null;
+				if (rangeIndex != null && filter instanceof VariablesRangeFilter) {
+					filterBits = rangeIndex.getBits((VariablesRangeFilter) filter);
+				}
+				if (filterBits == null) {
+					filterBits = filterCache.getBits((DocumentMatchFilter) filter);
+				}
+				if (bits == null) {
+					bits = filterBits;
+				} else {
+					// cached bitsets are shared, don't modify them
+					bits = (BitSet) bits.clone();
+					bits.and(filterBits);
+				}
+				it.remove();
+			}
+		}
+		if (bits != null) {
+			rawMatches = FilterBitSetCache.filter(rawMatches, bits);
+		}
+		return getBestResults(rawMatches, idFilter, limit, query, scoringFunctionIndex, filters, deadline);
+	}
+
+	private List<MatchFilter> getFilters(Query query) {
+		List<MatchFilter> filters = Lists.newArrayList();
+		if (query.getFilteringFacets() != null && !query.getFilteringFacets().isEmpty()) {
+			filters.add(facetingManager.getFacetFilter(query.getFilteringFacets()));
+		}
+		addFilter(filters, query.getRangeFilter());
+		return filters;
+	}
+
+	private static void addFilter(List<MatchFilter> filters, MatchFilter filter) {
+		if (filter == null || filter instanceof NoneMatchFilter) {
+			return;
+		} else if (filter instanceof IntersectionMatchFilter) {
+			for (MatchFilter f : ((IntersectionMatchFilter) filter).getFilters()) {
+				addFilter(filters, f);
+			}
+		} else if (!(filter instanceof VariablesRangeFilter && ((VariablesRangeFilter) filter).isEmpty())) {
+			filters.add(filter);
+		}
 	}
 
 	@Override
@@ -75,7 +185,8 @@ public class TermBasedQueryMatcher implements QueryMatcher {
 	}
 
 	public int countMatches(Query query, Predicate<DocId> idFilter) {
-	    return getCount(match(query.getRoot()), idFilter);
+	    Deadline deadline = new Deadline(query.getDeadline());
+	    return getCount(match(query.getRoot(), deadline), idFilter, deadline);
 	}
 	
 	@Override
@@ -88,72 +199,137 @@ public class TermBasedQueryMatcher implements QueryMatcher {
 		return matcher.hasChanges(docid);
 	}
 
-	private TopMatches getBestResults(Iterable<RawMatch> rawMatches, Predicate<DocId> docFilter, int n, Query query, int scoringFunctionIndex) {
-	    String property = System.getProperty("limitTermBasedQueryMatcher");
-	    int limit = Integer.MAX_VALUE;
-	    int minTime = Integer.MAX_VALUE;
-	    if (property != null) {
-	        String[] parts = property.split(",");
-	        limit = Integer.parseInt(parts[0]);
-	        minTime = Integer.parseInt(parts[1]);
-	    }
+	private TopMatches getBestResults(Iterable<RawMatch> rawMatches, Predicate<DocId> docFilter, int n, Query query, int scoringFunctionIndex, List<MatchFilter> filters, Deadline deadline) {
+	    Faceter faceter = facetingManager.createFaceter(query.getFacetingRequest());
+	    BoundScorer bound = scorer.bind(query.getNow(), query.getVars(), scoringFunctionIndex);
 	    
-	    Faceter faceter = facetingManager.createFaceter();
+	    // in two phases, only the best matches by textual score are scored with the function 
+	    int window = query.getRescoreWindow() > 0 ? Math.max(n, query.getRescoreWindow()) : 0;
+	    PriorityQueue<ScoredMatch> candidates = window > 0 ? new PriorityQueue<ScoredMatch>(window, ScoredMatch.INVERSE_ORDER) : null;
 	    
-	    long startTime = System.currentTimeMillis();
 		PriorityQueue<ScoredMatch> top = new PriorityQueue<ScoredMatch>(n, ScoredMatch.INVERSE_ORDER);
 		
+		// otherwise, matches are scored in blocks to save a call per match
+		ScoredMatch[] block = candidates == null ? new ScoredMatch[SCORE_BLOCK_SIZE] : null;
+		StaticRankColumn column = candidates == null ? bound.getStaticRankColumn() : null;
+		SearchCursor after = query.getAfter();
+		DocId[] blockIds = new DocId[SCORE_BLOCK_SIZE];
+		Boosts[] blockData = candidates == null ? new Boosts[SCORE_BLOCK_SIZE] : null;
+		double[] blockScores = new double[SCORE_BLOCK_SIZE];
+		int blockSize = 0;
+		
 		int totalCount = 0;
 
 		Iterable<ScoredMatch> matches = matcher.decode(rawMatches, query.getRoot().getBoostedNorm());
 
-		MatchFilter facetFilter = null;
-		if (query.getFilteringFacets() != null) {
-			facetFilter = facetingManager.getFacetFilter(query.getFilteringFacets());
-		}
-		
 		for (ScoredMatch match : matches) {
+			if (deadline.check()) {
+			    // every match collected so far is a real one, return them
+			    break;
+			}
 			if (docFilter.apply(match.getDocId())) {
-				if (facetFilter == null || facetFilter.matches(match.getDocId(), match.getScore(), query.getNow(), query.getVars())) {
-					if (query.getRangeFilter() == null || query.getRangeFilter().matches(match.getDocId(), match.getScore(), query.getNow(), query.getVars())) {
-					    rescore(match, query, scoringFunctionIndex);
-					    faceter.computeDocument(match.getDocId());
-					    
-					    if (top.size() < n || top.peek().compareTo(match) > 0) {
-					        ScoredMatch newMatch;
-					        if (top.size() == n) {
-					            newMatch = top.remove();
-					            newMatch.getDocId().updateFrom(match.getDocId());
-					            newMatch.setScore(match.getScore());
-					        } else {
-					            newMatch = new ScoredMatch(match.getScore(), match.getDocId().copy(256));
-					        }
-		                    top.add(newMatch);
-					    }
-						totalCount++;
-						
-						if (totalCount > limit) {
-						    if (System.currentTimeMillis() - startTime > minTime) {
-						        totalCount = -totalCount;
-						        break;
-						    }
-						}
-					}
+			    // a single lookup of the document's data for filters, faceter and scorer
+			    Boosts data = bound.fetch(match.getDocId());
+				if (matchesAll(filters, match, data, query)) {
+				    faceter.computeDocument(match.getDocId(), data);
+				    
+				    if (candidates != null) {
+				        collect(candidates, window, match);
+				    } else if (column == null || !collectPrecomputed(column, match, data, after, top, n)) {
+				        if (block[blockSize] == null) {
+				            block[blockSize] = new ScoredMatch(match.getScore(), match.getDocId().copy(256));
+				        } else {
+				            block[blockSize].getDocId().updateFrom(match.getDocId());
+				            block[blockSize].setScore(match.getScore());
+				        }
+				        blockData[blockSize] = data;
+				        if (++blockSize == SCORE_BLOCK_SIZE) {
+				            scoreBlock(block, blockData, blockSize, blockIds, blockScores, bound, after, top, n);
+				            blockSize = 0;
+				        }
+				    }
+					totalCount++;
 				}
 			}
 		}
+		if (candidates != null) {
+		    // best textual scores first, so that once a block can't make it to the top
+		    // neither can the ones after it
+		    ScoredMatch[] all = candidates.toArray(new ScoredMatch[candidates.size()]);
+		    Arrays.sort(all);
+		    block = new ScoredMatch[SCORE_BLOCK_SIZE];
+		    for (int i = 0; i < all.length; i += SCORE_BLOCK_SIZE) {
+		        int count = Math.min(SCORE_BLOCK_SIZE, all.length - i);
+		        System.arraycopy(all, i, block, 0, count);
+		        if (!scoreBlock(block, null, count, blockIds, blockScores, bound, after, top, n)) {
+		            break;
+		        }
+		    }
+		} else if (blockSize > 0) {
+		    scoreBlock(block, blockData, blockSize, blockIds, blockScores, bound, after, top, n);
+		}
 		List<ScoredMatch> list = Lists.newArrayList(new ScoredMatch[top.size()]);
 		for (int i = top.size()-1; i >= 0; i--) {
 		    list.set(i, top.poll());
         }
-		return new SimpleScoredDocIds(list, n, totalCount, faceter.getFacets());
+		return new SimpleScoredDocIds(list, n, totalCount, faceter.getFacets(), deadline.isExpired(), faceter.isApproximate(), faceter.getRangeFacets());
 	}
 	
-	private int getCount(Iterable<RawMatch> rawMatches, Predicate<DocId> docFilter) {
+	/**
+	 * Adds the match to the best n, if it belongs there. The match is copied, since
+	 * matches are reused by the decoder.
+	 */
+	private static void collect(PriorityQueue<ScoredMatch> top, int n, ScoredMatch match) {
+	    if (top.size() < n || top.peek().compareTo(match) > 0) {
+	        ScoredMatch newMatch;
+	        if (top.size() == n) {
+	            newMatch = top.remove();
+	            newMatch.getDocId().updateFrom(match.getDocId());
+	            newMatch.setScore(match.getScore());
+	        } else {
+	            newMatch = new ScoredMatch(match.getScore(), match.getDocId().copy(256));
+	        }
+	        top.add(newMatch);
+	    }
+	}
+	
+	/**
+	 * Uses the precomputed score of the match, if there is one, and returns whether
+	 * it was enough to rank it: exact scores are collected, and matches whose bound
+	 * is below the worst score in a full top are discarded.
+	 */
+	private static boolean collectPrecomputed(StaticRankColumn column, ScoredMatch match, Boosts data, SearchCursor after, PriorityQueue<ScoredMatch> top, int n) {
+	    double score = column.getScore(match.getDocId(), data);
+	    if (Double.isNaN(score)) {
+	        return false;
+	    }
+	    if (column.isExact()) {
+	        match.setScore(score);
+	        if (after == null || after.precedes(match)) {
+	            collect(top, n, match);
+	        }
+	        return true;
+	    }
+	    return top.size() == n && !top.isEmpty() && score < top.peek().getScore();
+	}
+	
+	private static boolean matchesAll(List<MatchFilter> filters, ScoredMatch match, Boosts data, Query query) {
+		for (MatchFilter filter : filters) {
+			if (!filter.matches(match.getDocId(), data, match.getScore(), query.getNow(), query.getVars())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int getCount(Iterable<RawMatch> rawMatches, Predicate<DocId> docFilter, Deadline deadline) {
 	    int totalCount = 0;
 	    Iterable<ScoredMatch> matches = matcher.decode(rawMatches, 1d);
 	    
 	    for (ScoredMatch m : matches) {
+	        if (deadline.check()) {
+	            break;
+	        }
 	        if (docFilter.apply(m.getDocId())) {
 	            totalCount++;
 	        }
@@ -161,21 +337,59 @@ public class TermBasedQueryMatcher implements QueryMatcher {
 	    return totalCount;
 	}
 
-	private ScoredMatch rescore(ScoredMatch match, Query query, int functionIndex) {
-	    match.setScore(scorer.scoreDocument(match.getDocId(), match.getScore(), query.getNow(), query.getVars(), functionIndex));
-	    return match;
+	/**
+	 * Replaces the textual scores of the first count matches of the block by their
+	 * final scores, and collects the ones after the cursor. Matches ranking before
+	 * the cursor were returned in previous pages, they are still counted and faceted
+	 * but never collected.
+	 * 
+	 * @param data the data fetched for each match, or null if it wasn't.
+	 * @return false if the block was skipped, because the best score any of its
+	 * matches could get is below the worst one in a full top.
+	 */
+	private static boolean scoreBlock(ScoredMatch[] block, Boosts[] data, int count, DocId[] ids, double[] scores, BoundScorer scorer, SearchCursor after, PriorityQueue<ScoredMatch> top, int n) {
+	    double bestTextualScore = Double.NEGATIVE_INFINITY;
+	    for (int i = 0; i < count; i++) {
+	        ids[i] = block[i].getDocId();
+	        scores[i] = block[i].getScore();
+	        bestTextualScore = Math.max(bestTextualScore, scores[i]);
+	    }
+	    if (top.size() == n && !top.isEmpty()) {
+	        double bound = scorer.getUpperBound(bestTextualScore);
+	        if (bound < top.peek().getScore()) {
+	            return false;
+	        }
+	    }
+	    scorer.score(ids, data, scores, count);
+	    for (int i = 0; i < count; i++) {
+	        block[i].setScore(scores[i]);
+	        if (after == null || after.precedes(block[i])) {
+	            collect(top, n, block[i]);
+	        }
+	    }
+	    return true;
 	}
 	
-	private SkippableIterable<RawMatch> match(QueryNode query) {
+	/**
+	 * The deadline is checked while collecting the matches of the whole query,
+	 * and by the mergers and expansions that may go through many matches without
+	 * producing one. Those end early when it expires, which may make the mergers
+	 * on top of them wrong, for instance the excluded side of a difference. But
+	 * an expired deadline stays expired, so the collector stops before taking
+	 * any match produced after that.
+	 */
+	private SkippableIterable<RawMatch> match(QueryNode query, Deadline deadline) {
 		// dispatch to specific methods based on query type
         if      (query instanceof TermQuery)         return matchTerm       (         (TermQuery) query );
-		else if (query instanceof PrefixTermQuery)   return matchPrefix     (   (PrefixTermQuery) query );
-		else if (query instanceof AndQuery)          return matchAnd        (          (AndQuery) query );
-		else if (query instanceof OrQuery)           return matchOr         (           (OrQuery) query );
-		else if (query instanceof DifferenceQuery)   return matchDifference (   (DifferenceQuery) query );
-		else if (query instanceof SimplePhraseQuery) return matchPhrase     ( (SimplePhraseQuery) query );
+		else if (query instanceof PrefixTermQuery)   return matchPrefix     (   (PrefixTermQuery) query, deadline );
+		else if (query instanceof FuzzyTermQuery)    return matchFuzzy      (    (FuzzyTermQuery) query );
+		else if (query instanceof AutomatonTermQuery) return matchAutomaton ((AutomatonTermQuery) query, deadline );
+		else if (query instanceof AndQuery)          return matchAnd        (          (AndQuery) query, deadline );
+		else if (query instanceof OrQuery)           return matchOr         (           (OrQuery) query, deadline );
+		else if (query instanceof DifferenceQuery)   return matchDifference (   (DifferenceQuery) query, deadline );
+		else if (query instanceof SimplePhraseQuery) return matchPhrase     ( (SimplePhraseQuery) query, deadline );
 		else if (query instanceof MatchAllQuery)     return matchAll        (     (MatchAllQuery) query );
-		else if (query instanceof RangeQuery)        throw new IllegalArgumentException("Range queries not supported yet");
+		else if (query instanceof RangeQuery)        return matchRange      (        (RangeQuery) query );
 		else throw new IllegalArgumentException("Unsupported query type: " + query.getClass());
     }
 
@@ -212,11 +426,50 @@ public class TermBasedQueryMatcher implements QueryMatcher {
         };
 	}
 
-    private SkippableIterable<RawMatch> matchPrefix(PrefixTermQuery query) {
-        NavigableMap<String, SkippableIterable<DocTermMatch>> matches = matcher.getMatches(query.getField(), query.getTerm(), getNextPrefix(query.getTerm()));
-        final RawMatch rawMatch = new RawMatch(0, 0d, query.getBoost());
+    private SkippableIterable<RawMatch> matchPrefix(PrefixTermQuery query, Deadline deadline) {
+        String field = query.getField();
+        String prefix = query.getTerm();
+        DenseTermUnion union = expansionCache.getPrefixUnion(field, prefix);
+        if (union != null) {
+            return union.matches(query.getBoost());
+        }
+
+        long generation = matcher.getGeneration();
+        Iterator<String> terms = matcher.getTerms(field, prefix, getNextPrefix(prefix)).iterator();
+        try {
+            List<String> expansion = Lists.newArrayList(Iterators.limit(terms, MAX_MERGED_TERMS));
+            if (!terms.hasNext()) {
+                List<SkippableIterable<DocTermMatch>> matches = Lists.newArrayListWithCapacity(expansion.size());
+                for (String term : expansion) {
+                    matches.add(matcher.getMatches(field, term));
+                }
+                return termsUnion(matches, query.getBoost());
+            }
 
-        Union<DocTermMatch, RawMatch> union = new Union<DocTermMatch, RawMatch>(matches.values()) {
+            // too many terms to merge their matches, accumulate them instead. if the
+            // deadline ends it early, no match is collected from it: the collector
+            // finds the deadline expired before the first one
+            union = DenseTermUnion.build(matcher, field, Iterators.concat(expansion.iterator(), terms), deadline);
+            if (union.isComplete()) {
+                expansionCache.putPrefixUnion(field, prefix, union, generation);
+            }
+            return union.matches(query.getBoost());
+        } finally {
+            // the deadline may have left the terms unread
+            if (terms instanceof Closeable) {
+                Closeables.closeQuietly((Closeable) terms);
+            }
+        }
+    }
+
+    /**
+     * Matches the documents with any of the given terms' matches, scored by
+     * the norm of their term scores.
+     */
+    private static SkippableIterable<RawMatch> termsUnion(Iterable<SkippableIterable<DocTermMatch>> matches, double boost) {
+        final RawMatch rawMatch = new RawMatch(0, 0d, boost);
+
+        Union<DocTermMatch, RawMatch> union = new Union<DocTermMatch, RawMatch>(matches) {
             @Override
             protected RawMatch transform(DocTermMatch k) {
                 rawMatch.setRawId(k.getRawId());
@@ -244,40 +497,153 @@ public class TermBasedQueryMatcher implements QueryMatcher {
         return union;
     }
     
+    private SkippableIterable<RawMatch> matchAutomaton(AutomatonTermQuery query, Deadline deadline) {
+        String field = query.getField();
+        long generation = matcher.getGeneration();
+        List<String> expansion = expansionCache.getTerms(query, MAX_MERGED_TERMS);
+        if (expansion != null) {
+            List<SkippableIterable<DocTermMatch>> matches = Lists.newArrayListWithCapacity(expansion.size());
+            for (String term : expansion) {
+                matches.add(matcher.getMatches(field, term));
+            }
+            return termsUnion(matches, query.getBoost());
+        }
+
+        // too many terms to merge their matches, accumulate them as prefixes do
+        DenseTermUnion union = expansionCache.getUnion(query);
+        if (union == null) {
+            union = DenseTermUnion.build(matcher, field, expansionCache.enumerate(query), deadline);
+            if (union.isComplete()) {
+                expansionCache.putUnion(query, union, generation);
+            }
+        }
+        return union.matches(query.getBoost());
+    }
+
+    private SkippableIterable<RawMatch> matchFuzzy(FuzzyTermQuery query) {
+        String text = query.getTerm();
+        int maxEdits = query.getMaxEdits();
+        int maxExpansions = query.getMaxExpansions();
+        LevenshteinAutomata levenshtein = new LevenshteinAutomata(text);
+        CharacterRunAutomaton[] automata = new CharacterRunAutomaton[maxEdits + 1];
+        for (int d = 0; d <= maxEdits; d++) {
+            automata[d] = new CharacterRunAutomaton(levenshtein.toAutomaton(d));
+        }
+
+        // keep the closest terms, with the worst one on top
+        PriorityQueue<FuzzyExpansion> expansions = new PriorityQueue<FuzzyExpansion>();
+        Iterator<String> terms = new AutomatonTermEnum(matcher, query.getField(), automata[maxEdits]);
+        while (terms.hasNext()) {
+            String term = terms.next();
+            int distance = 0;
+            while (!automata[distance].run(term)) {
+                distance++;
+            }
+            FuzzyExpansion expansion = new FuzzyExpansion(term, distance);
+            if (expansions.size() < maxExpansions) {
+                expansions.add(expansion);
+            } else if (expansion.compareTo(expansions.peek()) > 0) {
+                expansions.poll();
+                expansions.add(expansion);
+            }
+        }
+
+        List<SkippableIterable<FuzzyExpansion>> cursors = Lists.newArrayListWithCapacity(expansions.size());
+        for (final FuzzyExpansion expansion : expansions) {
+            cursors.add(Skippables.transform(matcher.getMatches(query.getField(), expansion.term), new Function<DocTermMatch, FuzzyExpansion>() {
+                @Override
+                public FuzzyExpansion apply(DocTermMatch match) {
+                    expansion.match = match;
+                    return expansion;
+                }
+            }));
+        }
+
+        final RawMatch rawMatch = new RawMatch(0, 0d, query.getBoost());
+        return new Union<FuzzyExpansion, RawMatch>(cursors) {
+            @Override
+            protected RawMatch transform(FuzzyExpansion k) {
+                rawMatch.setRawId(k.match.getRawId());
+                rawMatch.setScore(0d);
+                return rawMatch;
+            }
+            
+            @Override
+            protected boolean shouldUse(RawMatch v, List<FuzzyExpansion> ks) {
+                for (FuzzyExpansion expansion : ks) {
+                    rawMatch.setScore(rawMatch.getScore() + expansion.weight * expansion.weight * expansion.match.getSquareTermScore());
+                }
+                rawMatch.setScore(Math.sqrt(rawMatch.getScore()));
+                return true;
+            }
+
+            @Override
+            protected int comp(FuzzyExpansion a, FuzzyExpansion b) {
+                return a.match.getRawId() - b.match.getRawId();
+            }
+        };
+    }
+
+    /**
+     * A term matched by a fuzzy query, and its current match. Terms are
+     * weighted by their distance to the query's term, and they compare 
+     * by closeness (closer is greater, then smaller terms first). 
+     */
+    private static class FuzzyExpansion implements Comparable<FuzzyExpansion> {
+        private final String term;
+        private final int distance;
+        private final double weight;
+        private DocTermMatch match;
+        
+        FuzzyExpansion(String term, int distance) {
+            this.term = term;
+            this.distance = distance;
+            this.weight = 1d / (1 + distance);
+        }
+
+        @Override
+        public int compareTo(FuzzyExpansion o) {
+            if (distance != o.distance) {
+                return o.distance - distance;
+            }
+            return o.term.compareTo(term);
+        }
+    }
+    
     private static String getNextPrefix(String prefix) {
         return prefix.substring(0, prefix.length() - 1) + (char)(prefix.charAt(prefix.length() - 1) + 1);      
     }
     
-	private SkippableIterable<RawMatch> matchAnd(AndQuery query) {
-		SkippableIterable<RawMatch> left = match(query.getLeftQuery());
-		SkippableIterable<RawMatch> right = match(query.getRightQuery());
+	private SkippableIterable<RawMatch> matchAnd(AndQuery query, Deadline deadline) {
+		SkippableIterable<RawMatch> left = match(query.getLeftQuery(), deadline);
+		SkippableIterable<RawMatch> right = match(query.getRightQuery(), deadline);
         double boost = query.getBoost();
-		SkippableIterable<RawMatch> am = new AndMerger2(left, right, boost);
+		SkippableIterable<RawMatch> am = new AndMerger2(left, right, boost, deadline);
         return am;
 	}
 
-	private SkippableIterable<RawMatch> matchPhrase(final SimplePhraseQuery query) {
+	private SkippableIterable<RawMatch> matchPhrase(final SimplePhraseQuery query, Deadline deadline) {
 		String field = query.getField();
 		List<String> terms = query.getTerms();
 		int[] termPositions = query.getTermPositions();
         double boost = query.getBoost();
 		// each term gets converted to its item list by matching it to the given field
-		return new PhraseMerger(Iterables.transform(terms, getFieldMatcher(field)), termPositions, boost);
+		return new PhraseMerger(Iterables.transform(terms, getFieldMatcher(field)), termPositions, boost, deadline);
 	}
 
-	private SkippableIterable<RawMatch> matchOr(OrQuery query) {
+	private SkippableIterable<RawMatch> matchOr(OrQuery query, Deadline deadline) {
         QueryNode leftQuery = query.getLeftQuery();
         QueryNode rightQuery = query.getRightQuery();
-		SkippableIterable<RawMatch> left = match(leftQuery);
-		SkippableIterable<RawMatch> right = match(rightQuery);
+		SkippableIterable<RawMatch> left = match(leftQuery, deadline);
+		SkippableIterable<RawMatch> right = match(rightQuery, deadline);
 		return new OrMerger2(left, right, query.getBoost(), leftQuery.getBoost(), rightQuery.getBoost(), leftQuery.getNorm(), rightQuery.getNorm());
 	}
 
-	private SkippableIterable<RawMatch> matchDifference(DifferenceQuery query) {
-		SkippableIterable<RawMatch> left = match(query.getLeftQuery());
-		SkippableIterable<RawMatch> right = match(query.getRightQuery());
+	private SkippableIterable<RawMatch> matchDifference(DifferenceQuery query, Deadline deadline) {
+		SkippableIterable<RawMatch> left = match(query.getLeftQuery(), deadline);
+		SkippableIterable<RawMatch> right = match(query.getRightQuery(), deadline);
         double boost = query.getBoost();
-		return new DifferenceMerger(left, right, boost);
+		return new DifferenceMerger(left, right, boost, deadline);
 	}
 	
 	private SkippableIterable<RawMatch> matchAll(MatchAllQuery query) {
@@ -289,6 +655,28 @@ public class TermBasedQueryMatcher implements QueryMatcher {
         });
 	}
 	
+	private SkippableIterable<RawMatch> matchRange(RangeQuery query) {
+	    if (rangeIndex == null) {
+	        throw new IllegalArgumentException("Range queries not supported yet");
+	    }
+	    int variable = rangeIndex.getVariable(query.getField());
+	    double from = parseBound(query.getStart(), Double.NEGATIVE_INFINITY);
+	    double to = parseBound(query.getEnd(), Double.POSITIVE_INFINITY);
+	    BitSet bits = rangeIndex.getBits(variable, from, query.includesStart(), to, query.includesEnd());
+	    return rangeIndex.matches(bits, query.getBoost());
+	}
+
+	private static double parseBound(String bound, double unbounded) {
+	    if (bound == null || bound.length() == 0 || "*".equals(bound)) {
+	        return unbounded;
+	    }
+	    try {
+	        return Double.parseDouble(bound);
+	    } catch (NumberFormatException e) {
+	        throw new IllegalArgumentException("Invalid range bound: " + bound);
+	    }
+	}
+	
 	private Function<String, SkippableIterable<DocTermMatch>> getFieldMatcher(final String field) {
 		return new Function<String, SkippableIterable<DocTermMatch>>() {
 			@Override
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.term.query;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.flaptor.indextank.index.term.TermMatcher;
+import com.flaptor.indextank.query.AutomatonTermQuery;
+import com.flaptor.indextank.query.PrefixTermQuery;
+import com.flaptor.org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+
+/**
+ * Keeps, for the most recently used {@link AutomatonTermQuery} patterns, the
+ * terms of a {@link TermMatcher} they expand to. It also keeps the matches of
+ * the most recently used prefixes and patterns that expand to too many terms
+ * to be merged on the fly (see {@link DenseTermUnion}), if the matcher's terms
+ * rarely change. Otherwise every new generation would discard them.
+ * <br><br>
+ * Expansions are computed by seeking the terms dictionary with the pattern's
+ * automaton (see {@link AutomatonTermEnum}). Both expansions and unions are
+ * valid while the matcher's {@link TermMatcher#getGeneration() generation}
+ * doesn't change, after that expansions are recomputed reusing the compiled
+ * automaton. The cache is bounded by the total number of terms it holds, and
+ * expansions with more terms than can be merged only keep their automaton.
+ *
+ * @author Flaptor Team
+ */
+public class TermExpansionCache {
+    private static final int MAX_ENTRIES = 64;
+    private static final int MAX_UNIONS = 8;
+
+    /**
+     * Maximum number of terms held by all the cached expansions together.
+     */
+    private static final int MAX_CACHED_TERMS = 100000;
+
+    private final TermMatcher matcher;
+    private final boolean cacheUnions;
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private int cachedTerms = 0;
+
+    private final Map<Key, UnionEntry> unions = new LinkedHashMap<Key, UnionEntry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, UnionEntry> eldest) {
+            return size() > MAX_UNIONS;
+        }
+    };
+
+    /**
+     * Creates a cache that doesn't keep prefix unions.
+     */
+    public TermExpansionCache(TermMatcher matcher) {
+        this(matcher, false);
+    }
+
+    /**
+     * @param cacheUnions whether to keep prefix unions, only worth it if the
+     * matcher's generation rarely changes.
+     */
+    public TermExpansionCache(TermMatcher matcher, boolean cacheUnions) {
+        Preconditions.checkNotNull(matcher);
+        this.matcher = matcher;
+        this.cacheUnions = cacheUnions;
+    }
+
+    /**
+     * Returns, in order, the terms of the query's field that match its pattern,
+     * or null if there are more than maxTerms of them. In that case they can
+     * be read one at a time through {@link #enumerate}. Callers must always
+     * ask for the same maxTerms.
+     */
+    public List<String> getTerms(AutomatonTermQuery query, int maxTerms) {
+        Key key = new Key(query);
+        // read the generation before expanding, so that terms added meanwhile leave the entry invalid
+        long generation = matcher.getGeneration();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.generation == generation) {
+            return entry.terms;
+        }
+
+        CharacterRunAutomaton automaton = entry != null ? entry.automaton : new CharacterRunAutomaton(query.toAutomaton());
+        Iterator<String> expansion = new AutomatonTermEnum(matcher, query.getField(), automaton);
+        List<String> terms = ImmutableList.copyOf(Iterators.limit(expansion, maxTerms));
+        if (expansion.hasNext()) {
+            terms = null;
+        }
+        Entry updated = new Entry(automaton, terms, generation);
+        synchronized (entries) {
+            put(key, updated);
+        }
+        return terms;
+    }
+
+    /**
+     * Enumerates, in order, the terms of the query's field that match its pattern,
+     * reusing its cached automaton if there is one.
+     */
+    public Iterator<String> enumerate(AutomatonTermQuery query) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(new Key(query));
+        }
+        CharacterRunAutomaton automaton = entry != null ? entry.automaton : new CharacterRunAutomaton(query.toAutomaton());
+        return new AutomatonTermEnum(matcher, query.getField(), automaton);
+    }
+
+    /**
+     * Caches the entry and evicts the least recently used ones until the cache
+     * is within bounds. Must be called holding the entries lock.
+     */
+    private void put(Key key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        cachedTerms += entry.size() - (previous != null ? previous.size() : 0);
+        // the new entry is the most recently used and fits alone, so it's never evicted
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES || cachedTerms > MAX_CACHED_TERMS) {
+            cachedTerms -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Returns the cached union of the matches of the terms with the given prefix,
+     * or null if there is none or it's no longer valid.
+     */
+    public DenseTermUnion getPrefixUnion(String field, String prefix) {
+        return getUnion(new Key(PrefixTermQuery.class, field, prefix));
+    }
+
+    /**
+     * @param generation the matcher's generation before the union started to be built.
+     */
+    public void putPrefixUnion(String field, String prefix, DenseTermUnion union, long generation) {
+        putUnion(new Key(PrefixTermQuery.class, field, prefix), union, generation);
+    }
+
+    /**
+     * Returns the cached union of the matches of the terms that match the query's
+     * pattern, or null if there is none or it's no longer valid.
+     */
+    public DenseTermUnion getUnion(AutomatonTermQuery query) {
+        return getUnion(new Key(query));
+    }
+
+    /**
+     * @param generation the matcher's generation before the union started to be built.
+     */
+    public void putUnion(AutomatonTermQuery query, DenseTermUnion union, long generation) {
+        putUnion(new Key(query), union, generation);
+    }
+
+    private DenseTermUnion getUnion(Key key) {
+        if (!cacheUnions) {
+            return null;
+        }
+        long generation = matcher.getGeneration();
+        UnionEntry entry;
+        synchronized (unions) {
+            entry = unions.get(key);
+        }
+        return entry != null && entry.generation == generation ? entry.union : null;
+    }
+
+    private void putUnion(Key key, DenseTermUnion union, long generation) {
+        Preconditions.checkArgument(union.isComplete(), "can't cache an incomplete union");
+        if (!cacheUnions) {
+            return;
+        }
+        synchronized (unions) {
+            unions.put(key, new UnionEntry(union, generation));
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class Entry {
+        private final CharacterRunAutomaton automaton;
+        /** null if the expansion had too many terms to be merged */
+        private final List<String> terms;
+        private final long generation;
+
+        Entry(CharacterRunAutomaton automaton, List<String> terms, long generation) {
+            this.automaton = automaton;
+            this.terms = terms;
+            this.generation = generation;
+        }
+
+        int size() {
+            return terms != null ? terms.size() : 0;
+        }
+    }
+
+    private static class UnionEntry {
+        private final DenseTermUnion union;
+        private final long generation;
+
+        UnionEntry(DenseTermUnion union, long generation) {
+            this.union = union;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * The kind of pattern, its field and the pattern itself, ignoring the boost.
+     */
+    private static class Key {
+        private final Class<?> type;
+        private final String field;
+        private final String pattern;
+
+        Key(AutomatonTermQuery query) {
+            this(query.getClass(), query.getField(), query.getPattern());
+        }
+
+        Key(Class<?> type, String field, String pattern) {
+            this.type = type;
+            this.field = field;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(type, field, pattern);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return type == other.type && field.equals(other.field) && pattern.equals(other.pattern);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.query;
+
+import java.io.Serializable;
+
+import com.flaptor.org.apache.lucene.util.automaton.Automaton;
+
+/**
+ * Base class for the queries that match the terms of a field accepted by
+ * an automaton built from a pattern.
+ *  
+ * @author Flaptor Team
+ */
+public abstract class AutomatonTermQuery extends QueryNode implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final String field;
+    protected final String pattern;
+    
+    /**
+     * @param field the field where to look the terms in. Must not be null.
+     * @param pattern the pattern terms should match. Must not be null.
+     * @throws IllegalArgumentException if pattern or field are null.
+     */
+    protected AutomatonTermQuery(final String field, final String pattern) {
+        if (null == field) throw new IllegalArgumentException("constructor: field must not be null.");
+        if (null == pattern) throw new IllegalArgumentException("constructor: pattern must not be null.");
+        this.field = field;
+        this.pattern = pattern;
+    }
+    
+    /**
+     * Builds the automaton accepting the terms that match the pattern.
+     */
+    public abstract Automaton toAutomaton();
+    
+    public String getField() {
+    	return field;
+    }
+    
+    public String getPattern() {
+    	return pattern;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!super.equals(obj))
+            return false;
+        AutomatonTermQuery aq = (AutomatonTermQuery) obj;
+        return field.equals(aq.field) && pattern.equals(aq.pattern);
+    }
+    
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 17 * hash + field.hashCode();
+        hash = 17 * hash + pattern.hashCode();
+        hash = hash ^ super.hashCode();
+        return hash;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.query;
+
+import java.io.Serializable;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+
+/**
+ * Query that searches for the terms of a field within a maximum edit
+ * (Levenshtein) distance of a given term. The query will match documents
+ * with any of the closest <code>maxExpansions</code> such terms, favoring
+ * the ones with fewer edits.
+ *  
+ * @author Flaptor Team
+ */
+public final class FuzzyTermQuery extends QueryNode implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    public static final int MAX_EDITS = 2;
+    public static final int DEFAULT_MAX_EXPANSIONS = 50;
+
+    private final String field;
+    private final String term;
+    private final int maxEdits;
+    private final int maxExpansions;
+    
+    /**
+     * @param field the field where to look the terms in. Must not be null.
+     * @param term the term to search for. Must not be null.
+     * @param maxEdits the maximum number of edits, between 0 and {@link #MAX_EDITS}.
+     * @param maxExpansions the maximum number of terms to match.
+     * @throws IllegalArgumentException if term or field are null, or the limits are invalid.
+     */
+    public FuzzyTermQuery(final String field, final String term, final int maxEdits, final int maxExpansions) {
+        if (null == field) throw new IllegalArgumentException("constructor: field must not be null.");
+        if (null == term) throw new IllegalArgumentException("constructor: term must not be null.");
+        Preconditions.checkArgument(maxEdits >= 0 && maxEdits <= MAX_EDITS, "maxEdits must be between 0 and " + MAX_EDITS);
+        Preconditions.checkArgument(maxExpansions > 0, "maxExpansions must be positive");
+        this.field = field;
+        this.term = term;
+        this.maxEdits = maxEdits;
+        this.maxExpansions = maxExpansions;
+    }
+    
+    public FuzzyTermQuery(final String field, final String term, final int maxEdits) {
+        this(field, term, maxEdits, DEFAULT_MAX_EXPANSIONS);
+    }
+    
+    /**
+     * Returns the maximum edits for a term given a lucene style minimum
+     * similarity, i.e. the fraction of the term's length that must not change.
+     */
+    public static int getMaxEdits(String term, float minimumSimilarity) {
+        if (minimumSimilarity >= 1f) {
+            return Math.min(MAX_EDITS, (int) minimumSimilarity);
+        }
+        int length = term.codePointCount(0, term.length());
+        return Math.min(MAX_EDITS, (int) ((1f - minimumSimilarity) * length));
+    }
+    
+    public String getField() {
+    	return field;
+    }
+    
+    public String getTerm() {
+    	return term;
+    }
+
+    public int getMaxEdits() {
+        return maxEdits;
+    }
+
+    public int getMaxExpansions() {
+        return maxExpansions;
+    }
+
+    @Override
+    public Set<TermQuery> getPositiveTerms() {
+        return Sets.newHashSet(new TermQuery(field, term));
+    }
+
+    @Override
+    public org.apache.lucene.search.Query getLuceneQuery() {
+        org.apache.lucene.search.Query luceneQuery;
+        if (maxEdits == 0) {
+            luceneQuery = new org.apache.lucene.search.TermQuery(new Term(field, term));
+        } else {
+            float minimumSimilarity = Math.max(0f, 1f - (float) maxEdits / Math.max(1, term.length()));
+            luceneQuery = new org.apache.lucene.search.FuzzyQuery(new Term(field, term), minimumSimilarity);
+        }
+        luceneQuery.setBoost((float) getBoost());
+        return luceneQuery;
+    }
+
+    @Override
+    public String toString() {
+        return "field: " + field + "; term: " + term + "~" + maxEdits + boostString();
+    }
+    
+    @Override
+    public boolean equals(final Object obj) {
+        if (!super.equals(obj))
+            return false;
+        FuzzyTermQuery fq = (FuzzyTermQuery) obj;
+        return field.equals(fq.field) && term.equals(fq.term) && maxEdits == fq.maxEdits && maxExpansions == fq.maxExpansions;
+    }
+    
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 17 * hash + field.hashCode();
+        hash = 17 * hash + term.hashCode();
+        hash = 17 * hash + maxEdits;
+        hash = 17 * hash + maxExpansions;
+        hash = hash ^ super.hashCode();
+        return hash;
+    }
+
+    @Override
+    public QueryNode duplicate() {
+        QueryNode qn = new FuzzyTermQuery(this.field, this.term, this.maxEdits, this.maxExpansions);
+        qn.setBoost(this.getBoost());
+        qn.setNorm(this.getNorm());
+        return qn;
+    }
+
+}
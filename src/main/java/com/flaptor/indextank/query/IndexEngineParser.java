@@ -31,16 +31,24 @@ import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.util.Version;
 
+import com.flaptor.indextank.index.term.query.NumericRangeIndex;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
 
 public class IndexEngineParser {
 	private final Analyzer analyzer;
 	private final String defaultField;
+	private final int maxFuzzyExpansions;
 
-	public IndexEngineParser(String defaultField, Analyzer analyzer) {
+	public IndexEngineParser(String defaultField, Analyzer analyzer, int maxFuzzyExpansions) {
+		Preconditions.checkArgument(maxFuzzyExpansions > 0, "maxFuzzyExpansions must be positive");
 		this.defaultField = defaultField;
 		this.analyzer = analyzer;
+		this.maxFuzzyExpansions = maxFuzzyExpansions;
+	}
+	
+	public IndexEngineParser(String defaultField, Analyzer analyzer) {
+		this(defaultField, analyzer, FuzzyTermQuery.DEFAULT_MAX_EXPANSIONS);
 	}
 	
 	public IndexEngineParser(String defaultField) {
@@ -49,7 +57,7 @@ public class IndexEngineParser {
 	
     @SuppressWarnings("deprecation")
     public QueryNode parseQuery(final String queryStr) throws ParseException {
-        org.apache.lucene.queryParser.QueryParser qp = new org.apache.lucene.queryParser.QueryParser(Version.LUCENE_CURRENT, defaultField, getAnalyzer());
+        org.apache.lucene.queryParser.QueryParser qp = new RegexpAwareQueryParser(defaultField, getAnalyzer());
         qp.setDefaultOperator(org.apache.lucene.queryParser.QueryParser.Operator.AND);
         org.apache.lucene.search.Query luceneQuery;
         try {
@@ -131,6 +139,22 @@ public class IndexEngineParser {
             String field = t.field();
             String text = t.text();
             node = new PrefixTermQuery(field, text);
+        } else if (luceneQuery instanceof org.apache.lucene.search.WildcardQuery) {
+            Term t = ((org.apache.lucene.search.WildcardQuery) luceneQuery).getTerm();
+            node = new WildcardTermQuery(t.field(), t.text());
+        } else if (luceneQuery instanceof LuceneRegexpQuery) {
+            Term t = ((LuceneRegexpQuery) luceneQuery).term;
+            try {
+                node = new RegexpTermQuery(t.field(), t.text());
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("invalid regular expression: " + e.getMessage());
+            }
+        } else if (luceneQuery instanceof org.apache.lucene.search.FuzzyQuery) {
+            org.apache.lucene.search.FuzzyQuery fuzzyQuery = (org.apache.lucene.search.FuzzyQuery) luceneQuery;
+            Term t = fuzzyQuery.getTerm();
+            String field = t.field();
+            String text = t.text();
+            node = new FuzzyTermQuery(field, text, FuzzyTermQuery.getMaxEdits(text, fuzzyQuery.getMinSimilarity()), maxFuzzyExpansions);
         } else if (luceneQuery instanceof org.apache.lucene.search.BooleanQuery) {
             List<BooleanClause> clauses = ((org.apache.lucene.search.BooleanQuery) luceneQuery).clauses();
             if (clauses.isEmpty()) {
@@ -141,6 +165,10 @@ public class IndexEngineParser {
             org.apache.lucene.search.PhraseQuery phraseQuery = (org.apache.lucene.search.PhraseQuery) luceneQuery;
             int[] positions = phraseQuery.getPositions();
             node = internalParsePhraseQuery(phraseQuery.getTerms(), positions, originalStr);
+        } else if (luceneQuery instanceof org.apache.lucene.search.TermRangeQuery) {
+            org.apache.lucene.search.TermRangeQuery rangeQuery = (org.apache.lucene.search.TermRangeQuery) luceneQuery;
+            checkRange(rangeQuery.getField(), rangeQuery.getLowerTerm(), rangeQuery.getUpperTerm());
+            node = new RangeQuery(rangeQuery.getField(), rangeQuery.getLowerTerm(), rangeQuery.getUpperTerm(), rangeQuery.includesLower(), rangeQuery.includesUpper());
         } else {
             throw new ParseException("unimplemented");
         }
@@ -148,6 +176,94 @@ public class IndexEngineParser {
         return node;
     }
 
+    /**
+     * Range queries are only resolved over the timestamp and the variables, with numeric bounds.
+     */
+    private static void checkRange(String field, String lower, String upper) throws ParseException {
+        boolean valid = NumericRangeIndex.TIMESTAMP_FIELD.equals(field);
+        if (!valid && field.startsWith(NumericRangeIndex.VARIABLE_FIELD_PREFIX)) {
+            String variable = field.substring(NumericRangeIndex.VARIABLE_FIELD_PREFIX.length());
+            valid = variable.length() > 0;
+            for (int i = 0; i < variable.length(); i++) {
+                valid &= Character.isDigit(variable.charAt(i));
+            }
+        }
+        if (!valid) {
+            throw new ParseException("range queries are only supported on the " + NumericRangeIndex.TIMESTAMP_FIELD + " and " + NumericRangeIndex.VARIABLE_FIELD_PREFIX + "<n> fields, found: " + field);
+        }
+        checkBound(lower);
+        checkBound(upper);
+    }
+
+    private static void checkBound(String bound) throws ParseException {
+        if (bound == null || bound.length() == 0 || "*".equals(bound)) {
+            return;
+        }
+        try {
+            Double.parseDouble(bound);
+        } catch (NumberFormatException e) {
+            throw new ParseException("invalid range bound: " + bound);
+        }
+    }
+
+    /**
+     * Lucene's parser, extended to take terms enclosed in slashes as regular expressions.
+     * Regular expressions can't have whitespace, and the parser's special characters 
+     * other than <code>*</code> and <code>?</code> have to be escaped. They are
+     * lowercased like the other expanded terms, to match the analyzed ones.
+     */
+    private static class RegexpAwareQueryParser extends org.apache.lucene.queryParser.QueryParser {
+        @SuppressWarnings("deprecation")
+        RegexpAwareQueryParser(String defaultField, Analyzer analyzer) {
+            super(Version.LUCENE_CURRENT, defaultField, analyzer);
+        }
+
+        @Override
+        protected org.apache.lucene.search.Query getFieldQuery(String field, String queryText) throws org.apache.lucene.queryParser.ParseException {
+            if (isRegexp(queryText)) {
+                return getRegexpQuery(field, queryText);
+            }
+            return super.getFieldQuery(field, queryText);
+        }
+
+        @Override
+        protected org.apache.lucene.search.Query getWildcardQuery(String field, String termStr) throws org.apache.lucene.queryParser.ParseException {
+            if (isRegexp(termStr)) {
+                return getRegexpQuery(field, termStr);
+            }
+            return super.getWildcardQuery(field, termStr);
+        }
+
+        private org.apache.lucene.search.Query getRegexpQuery(String field, String text) {
+            String regexp = text.substring(1, text.length() - 1);
+            if (getLowercaseExpandedTerms()) {
+                regexp = regexp.toLowerCase();
+            }
+            return new LuceneRegexpQuery(new Term(field, regexp));
+        }
+
+        private static boolean isRegexp(String text) {
+            return text.length() > 2 && text.charAt(0) == '/' && text.charAt(text.length() - 1) == '/';
+        }
+    }
+
+    /**
+     * Carries a regular expression from lucene's parser to {@link #internalParse}.
+     */
+    private static class LuceneRegexpQuery extends org.apache.lucene.search.Query {
+        private static final long serialVersionUID = 1L;
+        private final Term term;
+
+        LuceneRegexpQuery(Term term) {
+            this.term = term;
+        }
+
+        @Override
+        public String toString(String field) {
+            return term.field() + ":/" + term.text() + "/";
+        }
+    }
+
     private QueryNode internalParsePhraseQuery(Term[] terms, int[] positions, final String originalStr) {
         Preconditions.checkArgument(terms.length > 0, "too few terms to build a phrase query");
         String[] strs = new String[terms.length];
@@ -33,7 +33,9 @@ package com.flaptor.indextank.query;
 
 import java.io.Serializable;
 
+import com.flaptor.indextank.index.scorer.FacetingRequest;
 import com.flaptor.indextank.index.scorer.MatchFilter;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Multimap;
 
 /**
@@ -48,6 +50,10 @@ public final class Query implements Serializable {
     private int now;
     private Multimap<String, String> filteringFacets;
     private MatchFilter rangeFilter;
+    private SearchCursor after;
+    private long deadline;
+    private int rescoreWindow;
+    private FacetingRequest facetingRequest = FacetingRequest.ALL;
 
 	/**
      * Default constructor.
@@ -65,6 +71,67 @@ public final class Query implements Serializable {
     public Query(QueryNode root, String originalStr, QueryVariables vars) {
     	this(root, originalStr, vars, null, null);
     }
+
+    /**
+     * Copy constructor, used to derive modified copies of a query.
+     */
+    private Query(Query other, QueryNode root) {
+        this.root = root;
+        this.originalStr = other.originalStr;
+        this.vars = other.vars;
+        this.now = other.now;
+        this.filteringFacets = other.filteringFacets;
+        this.rangeFilter = other.rangeFilter;
+        this.after = other.after;
+        this.deadline = other.deadline;
+        this.rescoreWindow = other.rescoreWindow;
+        this.facetingRequest = other.facetingRequest;
+    }
+    
+    /**
+     * Returns a copy of this query that only matches the results ranking
+     * after the given cursor, evaluated at the cursor's query time.
+     */
+    public Query after(SearchCursor cursor) {
+        Query query = new Query(this, this.root);
+        query.after = cursor;
+        query.now = cursor != null ? cursor.getNow() : (int)(System.currentTimeMillis()/1000);
+        return query;
+    }
+
+    /**
+     * Returns a copy of this query whose execution should stop at the given
+     * time (in milliseconds), returning the results found until then.
+     */
+    public Query withDeadline(long deadline) {
+        Query query = new Query(this, this.root);
+        query.deadline = deadline;
+        return query;
+    }
+
+    /**
+     * Returns a copy of this query that is ranked in two phases: matches are
+     * first ranked by their textual score, and only the best <code>window</code>
+     * of them are then scored with the scoring function.
+     * 
+     * @param window the number of candidates to rescore, or 0 to score every match.
+     */
+    public Query withRescoreWindow(int window) {
+        Preconditions.checkArgument(window >= 0, "rescore window must not be negative");
+        Query query = new Query(this, this.root);
+        query.rescoreWindow = window;
+        return query;
+    }
+
+    /**
+     * Returns a copy of this query whose facets are computed as requested.
+     */
+    public Query withFacetingRequest(FacetingRequest request) {
+        Preconditions.checkNotNull(request);
+        Query query = new Query(this, this.root);
+        query.facetingRequest = request;
+        return query;
+    }
     
     /**
      * Abstract method that returns the original user-generated query string.
@@ -105,18 +172,51 @@ public final class Query implements Serializable {
 		return rangeFilter;
 	}
 
+    /**
+     * Returns the position after which results are requested, or null
+     * to get them from the top.
+     */
+    public SearchCursor getAfter() {
+        return after;
+    }
+
+    /**
+     * Returns the time in milliseconds at which the execution of this query
+     * should stop, or 0 if it has no time limit. The deadline doesn't take
+     * part in the query equality.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns the number of best textual matches that are scored with the 
+     * scoring function, or 0 if all matches are.
+     */
+    public int getRescoreWindow() {
+        return rescoreWindow;
+    }
+
+    /**
+     * Returns what should be computed for the facets of the matches.
+     */
+    public FacetingRequest getFacetingRequest() {
+        return facetingRequest;
+    }
+
     public String toString() {
         return root.toString();
     }
 
     public Query duplicate() {
-        return new Query(this.root.duplicate(), this.originalStr, this.vars, this.filteringFacets, this.rangeFilter);
+        return new Query(this, this.root.duplicate()).after(this.after);
     }
 
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        result = prime * result + ((after == null) ? 0 : after.hashCode());
         result = prime * result
                 + ((filteringFacets == null) ? 0 : filteringFacets.hashCode());
         result = prime * result + now;
@@ -124,6 +224,8 @@ public final class Query implements Serializable {
                 + ((originalStr == null) ? 0 : originalStr.hashCode());
         result = prime * result
                 + ((rangeFilter == null) ? 0 : rangeFilter.hashCode());
+        result = prime * result + rescoreWindow;
+        result = prime * result + facetingRequest.hashCode();
         result = prime * result + ((root == null) ? 0 : root.hashCode());
         result = prime * result + ((vars == null) ? 0 : vars.hashCode());
         return result;
@@ -138,6 +240,11 @@ public final class Query implements Serializable {
         if (getClass() != obj.getClass())
             return false;
         Query other = (Query) obj;
+        if (after == null) {
+            if (other.after != null)
+                return false;
+        } else if (!after.equals(other.after))
+            return false;
         if (filteringFacets == null) {
             if (other.filteringFacets != null)
                 return false;
@@ -155,6 +262,10 @@ public final class Query implements Serializable {
                 return false;
         } else if (!rangeFilter.equals(other.rangeFilter))
             return false;
+        if (rescoreWindow != other.rescoreWindow)
+            return false;
+        if (!facetingRequest.equals(other.facetingRequest))
+            return false;
         if (root == null) {
             if (other.root != null)
                 return false;
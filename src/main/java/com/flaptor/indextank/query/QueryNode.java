@@ -98,7 +98,7 @@ public abstract class QueryNode implements Serializable {
     @Override
     public int hashCode() {
         int hash = (int)(10000*boost);
-        hash = 17 * hash + super.hashCode();
+        hash = 17 * hash + getClass().hashCode();
         return hash;
     }
 
@@ -16,6 +16,7 @@
 
 package com.flaptor.indextank.query;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -46,4 +47,18 @@ public final class QueryVariablesImpl implements QueryVariables {
         }
         return new QueryVariablesImpl(vars);
     }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(vars);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null || getClass() != obj.getClass())
+            return false;
+        return Arrays.equals(vars, ((QueryVariablesImpl) obj).vars);
+    }
 }
@@ -57,6 +57,26 @@ public class RangeQuery extends QueryNode {
         this.includeEnd = includeEnd;
     }
     
+    public String getField() {
+        return field;
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    public boolean includesStart() {
+        return includeStart;
+    }
+
+    public boolean includesEnd() {
+        return includeEnd;
+    }
+
     /**
      * @return a lucene query.
      * @see org.apache.lucene.search.Query
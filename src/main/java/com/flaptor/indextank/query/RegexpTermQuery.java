@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.query;
+
+import org.apache.lucene.index.Term;
+
+import com.flaptor.org.apache.lucene.util.automaton.Automaton;
+import com.flaptor.org.apache.lucene.util.automaton.RegExp;
+
+/**
+ * Query that searches for the terms of a field matching a regular expression,
+ * using the syntax of {@link RegExp}.
+ *  
+ * @author Flaptor Team
+ */
+public final class RegexpTermQuery extends AutomatonTermQuery {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @throws IllegalArgumentException if the pattern is not a valid regular expression.
+     */
+    public RegexpTermQuery(final String field, final String pattern) {
+        super(field, pattern);
+        // fail early on syntax errors
+        new RegExp(pattern);
+    }
+
+    @Override
+    public Automaton toAutomaton() {
+        return new RegExp(pattern).toAutomaton();
+    }
+
+    /**
+     * Lucene has no regular expression queries, this one has the original 
+     * pattern as a single term. 
+     */
+    @Override
+    public org.apache.lucene.search.Query getLuceneQuery() {
+        org.apache.lucene.search.Query luceneQuery = new org.apache.lucene.search.TermQuery(new Term(field, "/" + pattern + "/"));
+        luceneQuery.setBoost((float) getBoost());
+        return luceneQuery;
+    }
+
+    @Override
+    public String toString() {
+        return "field: " + field + "; regexp: /" + pattern + "/" + boostString();
+    }
+    
+    @Override
+    public QueryNode duplicate() {
+        QueryNode qn = new RegexpTermQuery(this.field, this.pattern);
+        qn.setBoost(this.getBoost());
+        qn.setNorm(this.getNorm());
+        return qn;
+    }
+
+}
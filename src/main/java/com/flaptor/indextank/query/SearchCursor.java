@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.query;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.ScoredMatch;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Position of a result in the ordering of a query's results (score descending,
+ * docid ascending), used to fetch the next page of results without collecting
+ * the previous ones again.
+ * <br><br>
+ * Scores depend on the query time, so the cursor also carries it and queries
+ * resumed from it are evaluated at the same time as the first page.
+ *
+ * @author Flaptor Team
+ */
+public final class SearchCursor implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final double score;
+    private final DocId docId;
+    private final int now;
+
+    public SearchCursor(double score, DocId docId, int now) {
+        Preconditions.checkNotNull(docId);
+        this.score = score;
+        this.docId = docId;
+        this.now = now;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public DocId getDocId() {
+        return docId;
+    }
+
+    public int getNow() {
+        return now;
+    }
+
+    /**
+     * @return true if the match ranks strictly after the position of this cursor.
+     */
+    public boolean precedes(ScoredMatch match) {
+        int c = Double.compare(score, match.getScore());
+        if (c == 0) {
+            c = match.getDocId().compareTo(docId);
+        }
+        return c > 0;
+    }
+
+    /**
+     * Returns an opaque representation of this cursor, that can be parsed
+     * back with {@link #fromToken(String)}.
+     */
+    public String toToken() {
+        return Integer.toHexString(now) + ':' + Long.toHexString(Double.doubleToLongBits(score)) + ':' + docId;
+    }
+
+    /**
+     * @throws InvalidCursorException if the token was not created by {@link #toToken()}.
+     */
+    public static SearchCursor fromToken(String token) {
+        Preconditions.checkNotNull(token);
+        String[] parts = token.split(":", 3);
+        if (parts.length != 3) {
+            throw new InvalidCursorException("Invalid search cursor: " + token);
+        }
+        try {
+            int now = (int) Long.parseLong(parts[0], 16);
+            double score = Double.longBitsToDouble(new BigInteger(parts[1], 16).longValue());
+            return new SearchCursor(score, new DocId(parts[2]), now);
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException("Invalid search cursor: " + token);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(score, docId, now);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof SearchCursor))
+            return false;
+        SearchCursor other = (SearchCursor) obj;
+        return Double.compare(score, other.score) == 0 && now == other.now && docId.equals(other.docId);
+    }
+
+    @Override
+    public String toString() {
+        return "after docId: " + docId + ", score: " + score;
+    }
+}
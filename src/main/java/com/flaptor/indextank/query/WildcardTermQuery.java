@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.query;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+
+import com.flaptor.org.apache.lucene.util.automaton.Automaton;
+import com.flaptor.org.apache.lucene.util.automaton.BasicAutomata;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Query that searches for the terms of a field matching a wildcard pattern,
+ * where <code>*</code> stands for any string and <code>?</code> for any 
+ * single character.
+ *  
+ * @author Flaptor Team
+ */
+public final class WildcardTermQuery extends AutomatonTermQuery {
+
+    private static final long serialVersionUID = 1L;
+    public static final char WILDCARD_STRING = '*';
+    public static final char WILDCARD_CHAR = '?';
+
+    public WildcardTermQuery(final String field, final String pattern) {
+        super(field, pattern);
+    }
+
+    @Override
+    public Automaton toAutomaton() {
+        List<Automaton> automata = Lists.newArrayList();
+        for (int i = 0; i < pattern.length(); ) {
+            int c = pattern.codePointAt(i);
+            switch (c) {
+                case WILDCARD_STRING:
+                    automata.add(BasicAutomata.makeAnyString());
+                    break;
+                case WILDCARD_CHAR:
+                    automata.add(BasicAutomata.makeAnyChar());
+                    break;
+                default:
+                    automata.add(BasicAutomata.makeChar(c));
+            }
+            i += Character.charCount(c);
+        }
+        return Automaton.minimize(Automaton.concatenate(automata));
+    }
+
+    @Override
+    public Set<TermQuery> getPositiveTerms() {
+        return Sets.newHashSet(new TermQuery(field, pattern));
+    }
+
+    @Override
+    public org.apache.lucene.search.Query getLuceneQuery() {
+        org.apache.lucene.search.Query luceneQuery = new org.apache.lucene.search.WildcardQuery(new Term(field, pattern));
+        luceneQuery.setBoost((float) getBoost());
+        return luceneQuery;
+    }
+
+    @Override
+    public String toString() {
+        return "field: " + field + "; wildcard: " + pattern + boostString();
+    }
+    
+    @Override
+    public QueryNode duplicate() {
+        QueryNode qn = new WildcardTermQuery(this.field, this.pattern);
+        qn.setBoost(this.getBoost());
+        qn.setNorm(this.getNorm());
+        return qn;
+    }
+
+}
@@ -35,6 +35,7 @@ import com.flaptor.indextank.index.scorer.MatchFilter;
 import com.flaptor.indextank.index.scorer.Scorer;
 import com.flaptor.indextank.index.scorer.VariablesRangeFilter;
 import com.flaptor.indextank.query.IndexEngineParser;
+import com.flaptor.indextank.query.InvalidCursorException;
 import com.flaptor.indextank.query.MatchAllQuery;
 import com.flaptor.indextank.query.NoSuchQueryVariableException;
 import com.flaptor.indextank.query.ParseException;
@@ -96,7 +97,16 @@ public class SearcherServer {
         ResultSet rs = new ResultSet();
         rs.set_status("OK");
         rs.set_matches(results.getMatches());
+        if (results.isTruncated()) {
+            rs.set_truncated(true);
+        }
         rs.set_facets(toFacetsMap(results.getFacets()));
+        if (results.isFacetsApproximate()) {
+            rs.set_facets_approximate(true);
+        }
+        if (!results.getRangeFacets().isEmpty()) {
+            rs.set_range_facets(toFacetsMap(results.getRangeFacets()));
+        }
         rs.set_didyoumean(results.getDidYouMean());
 
         rs.set_docs(Lists.<Map<String,String>>newArrayList());
@@ -113,6 +123,10 @@ public class SearcherServer {
             rs.add_to_variables(sr.getVariables());
             rs.add_to_categories(sr.getCategories()); 
         }
+
+        if (results.getNextCursor() != null) {
+            rs.set_search_after(results.getNextCursor().toToken());
+        }
         
         return rs;
     }
@@ -168,6 +182,13 @@ public class SearcherServer {
                 InvalidQueryException ite = new InvalidQueryException();
                 ite.set_message("Invalid query");
                 throw ite;
+            } catch (InvalidCursorException e) {
+                if (logger.isDebugEnabled()){
+                    logger.debug("Invalid search_after for '" + queryStr + "': " + e.getMessage(), e); 
+                }
+                InvalidQueryException ite = new InvalidQueryException();
+                ite.set_message("Invalid search_after cursor");
+                throw ite;
             } catch (RuntimeException e) {
                 logger.error("RuntimeException while processing search. Will throw an IndexTankException. Original Exception is:", e);
                 throw new IndextankException();
@@ -58,9 +58,9 @@ public class DidYouMeanSearcher extends AbstractDocumentSearcher {
                     }
                 }
                 if (bestSuggestion != null) {
-                    results = new SearchResults(results.getResults(), results.getMatches(), results.getFacets(), bestSuggestion);
+                    results = new SearchResults(results.getResults(), results.getMatches(), results.getFacets(), bestSuggestion, results.getNextCursor(), results.isTruncated(), results.isFacetsApproximate(), results.getRangeFacets());
                 } else {
-                    results = new SearchResults(results.getResults(), results.getMatches(), results.getFacets());
+                    results = new SearchResults(results.getResults(), results.getMatches(), results.getFacets(), null, results.getNextCursor(), results.isTruncated(), results.isFacetsApproximate(), results.getRangeFacets());
                 }
             } else {
                 logger.debug("already had a suggestion for query " + query.toString());
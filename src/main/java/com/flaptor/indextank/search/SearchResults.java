@@ -18,6 +18,8 @@ package com.flaptor.indextank.search;
 
 import java.util.Map;
 
+import com.flaptor.indextank.query.SearchCursor;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multiset;
 
 public class SearchResults {
@@ -25,16 +27,40 @@ public class SearchResults {
     private Iterable<SearchResult> results;
     private final Map<String, Multiset<String>> facets;
     private final String didYouMean;
+    private final SearchCursor nextCursor;
+    private final boolean truncated;
+    private final boolean facetsApproximate;
+    private final Map<String, Multiset<String>> rangeFacets;
 
     public SearchResults(Iterable<SearchResult> results, int matches, Map<String, Multiset<String>> facets){
         this(results, matches, facets, null);
     }
 
     public SearchResults(Iterable<SearchResult> results, int matches, Map<String, Multiset<String>> facets, String didYouMean){
+        this(results, matches, facets, didYouMean, null);
+    }
+
+    public SearchResults(Iterable<SearchResult> results, int matches, Map<String, Multiset<String>> facets, String didYouMean, SearchCursor nextCursor){
+        this(results, matches, facets, didYouMean, nextCursor, false);
+    }
+
+    public SearchResults(Iterable<SearchResult> results, int matches, Map<String, Multiset<String>> facets, String didYouMean, SearchCursor nextCursor, boolean truncated){
+        this(results, matches, facets, didYouMean, nextCursor, truncated, false);
+    }
+
+    public SearchResults(Iterable<SearchResult> results, int matches, Map<String, Multiset<String>> facets, String didYouMean, SearchCursor nextCursor, boolean truncated, boolean facetsApproximate){
+        this(results, matches, facets, didYouMean, nextCursor, truncated, facetsApproximate, ImmutableMap.<String, Multiset<String>>of());
+    }
+
+    public SearchResults(Iterable<SearchResult> results, int matches, Map<String, Multiset<String>> facets, String didYouMean, SearchCursor nextCursor, boolean truncated, boolean facetsApproximate, Map<String, Multiset<String>> rangeFacets){
         this.matches = matches;
         this.results = results;
 		this.facets = facets;
         this.didYouMean = didYouMean;
+        this.nextCursor = nextCursor;
+        this.truncated = truncated;
+        this.facetsApproximate = facetsApproximate;
+        this.rangeFacets = rangeFacets;
     }
 
 	public int getMatches(){
@@ -52,4 +78,35 @@ public class SearchResults {
     public String getDidYouMean(){
         return this.didYouMean;
     }
+
+    /**
+     * Returns the cursor to fetch the page following these results, or null
+     * if no cursor was requested or there are no more results.
+     */
+    public SearchCursor getNextCursor(){
+        return this.nextCursor;
+    }
+
+    /**
+     * Returns true if the search ran out of time, so these are the best results
+     * among the ones found until then and the matches are a lower bound.
+     */
+    public boolean isTruncated(){
+        return this.truncated;
+    }
+
+    /**
+     * Returns true if the facet counts were estimated from a sample of the matches.
+     */
+    public boolean isFacetsApproximate(){
+        return this.facetsApproximate;
+    }
+
+    /**
+     * Returns the counts of the requested ranges of variables, by range name.
+     * They are apart from the facets since a category could have the same name.
+     */
+    public Map<String, Multiset<String>> getRangeFacets(){
+        return this.rangeFacets;
+    }
 }
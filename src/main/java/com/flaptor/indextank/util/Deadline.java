@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.util;
+
+/**
+ * Time budget of a single query execution. It's checked cooperatively by the
+ * loops that collect the matches, which stop when it expires and finish with
+ * the partial results found so far.
+ * <br><br>
+ * The clock is only read once every {@value #CHECK_INTERVAL} checks, and once
+ * expired it stays expired. Instances are not thread safe, they are meant to be
+ * created for each execution.
+ *
+ * @author Flaptor Team
+ */
+public final class Deadline {
+    private static final int CHECK_INTERVAL = 256;
+
+    private final long deadline;
+    private int checks = 0;
+    private boolean expired = false;
+
+    /**
+     * @param deadline the time in milliseconds after which the execution should
+     * stop, or 0 for no limit.
+     */
+    public Deadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return true if the deadline has been reached, reading the clock from time to time.
+     */
+    public boolean check() {
+        if (!expired && deadline > 0 && ++checks == CHECK_INTERVAL) {
+            checks = 0;
+            expired = System.currentTimeMillis() >= deadline;
+        }
+        return expired;
+    }
+
+    /**
+     * @return true if a previous {@link #check()} found the deadline reached.
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+}
@@ -40,6 +40,8 @@ import com.flaptor.indextank.search.SearchResults;
 import com.flaptor.indextank.suggest.NoSuggestor;
 import com.flaptor.util.TestInfo;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -129,5 +131,19 @@ public class BlenderTest extends IndexTankTestCase {
         assertEquals("Number of results doesn't match",docids.size(),10);
         
     } 
+
+    @TestInfo(testType=UNIT)
+    public void testFacetsAreLimitedAfterMerging() throws ParseException, InterruptedException {
+        res1.addResult(1.0f, "1");
+        res2.addResult(0.9f, "2");
+        // 'b' is second in both indexes, but first once they are merged
+        res1.addFacet("color", "a", 10);
+        res1.addFacet("color", "b", 9);
+        res2.addFacet("color", "b", 5);
+        res2.addFacet("color", "c", 1);
+
+        SearchResults res = blender.search(dummyQuery, 0, 10, 0, ImmutableMap.of("facets_limit", "1"));
+        assertEquals(ImmutableMultiset.<String>builder().addCopies("b", 14).build(), res.getFacets().get("color"));
+    }
     
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.util.TestInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+public class DocumentOrdinalsTest extends IndexTankTestCase {
+
+    private static class ListBase implements DocumentOrdinals.Base {
+        private final List<DocId> ids;
+
+        ListBase(String... ids) {
+            ImmutableList.Builder<DocId> builder = ImmutableList.builder();
+            for (String id : ids) {
+                builder.add(new DocId(id));
+            }
+            this.ids = builder.build();
+        }
+
+        @Override
+        public int getCount() {
+            return ids.size();
+        }
+
+        @Override
+        public int find(DocId docId) {
+            return ids.indexOf(docId);
+        }
+
+        @Override
+        public DocId getDocId(int ordinal) {
+            return ids.get(ordinal);
+        }
+    }
+
+    private static Map<DocId, Integer> entries(DocumentOrdinals ordinals) {
+        Map<DocId, Integer> map = Maps.newHashMap();
+        for (Entry<DocId, Integer> entry : ordinals.getEntries()) {
+            assertNull(map.put(entry.getKey(), entry.getValue()));
+        }
+        return map;
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testRecycling() {
+        DocumentOrdinals ordinals = new DocumentOrdinals();
+        assertEquals(0, ordinals.getOrCreate(new DocId("a")));
+        assertEquals(1, ordinals.getOrCreate(new DocId("b")));
+        assertEquals(0, ordinals.getOrCreate(new DocId("a")));
+        assertEquals(0, ordinals.release(new DocId("a")));
+        assertEquals(-1, ordinals.release(new DocId("a")));
+        assertEquals(-1, ordinals.get(new DocId("a")));
+
+        assertEquals(0, ordinals.getOrCreate(new DocId("c")));
+        assertEquals(2, ordinals.getOrCreate(new DocId("d")));
+        assertEquals(3, ordinals.size());
+        assertEquals(3, ordinals.getCapacity());
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testBase() {
+        DocumentOrdinals ordinals = new DocumentOrdinals();
+        ordinals.load(new ListBase("a", "b", "c"));
+        assertEquals(1, ordinals.get(new DocId("b")));
+        assertEquals(3, ordinals.getOrCreate(new DocId("d")));
+
+        assertEquals(1, ordinals.release(new DocId("b")));
+        assertEquals(-1, ordinals.get(new DocId("b")));
+        assertEquals(1, ordinals.getOrCreate(new DocId("e")));
+        // registered again after being released
+        assertEquals(0, ordinals.release(new DocId("a")));
+        assertEquals(0, ordinals.getOrCreate(new DocId("a")));
+
+        assertEquals(4, ordinals.size());
+        assertEquals(ImmutableMap.of(new DocId("a"), 0, new DocId("c"), 2, new DocId("d"), 3, new DocId("e"), 1), entries(ordinals));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testChurn() {
+        DocumentOrdinals ordinals = new DocumentOrdinals();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 1000; i++) {
+                ordinals.getOrCreate(new DocId("doc" + round + "_" + i));
+            }
+            for (int i = 0; i < 1000; i += 2) {
+                assertTrue(ordinals.release(new DocId("doc" + round + "_" + i)) >= 0);
+            }
+        }
+        assertEquals(2500, ordinals.size());
+        // released ordinals were reused
+        assertEquals(3000, ordinals.getCapacity());
+        assertTrue(ordinals.getDeadArenaBytes() > 0);
+
+        // released docids are reclaimed, and the others keep their ordinals
+        long arenaBytes = ordinals.getArenaBytes();
+        Map<DocId, Integer> before = entries(ordinals);
+        assertTrue(ordinals.compactArena());
+        assertEquals(0, ordinals.getDeadArenaBytes());
+        assertTrue(ordinals.getArenaBytes() < arenaBytes);
+        assertFalse(ordinals.compactArena());
+        assertEquals(before, entries(ordinals));
+
+        Map<DocId, Integer> entries = entries(ordinals);
+        assertEquals(2500, entries.size());
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 1000; i++) {
+                DocId docId = new DocId("doc" + round + "_" + i);
+                int ordinal = ordinals.get(docId);
+                if (i % 2 == 0) {
+                    assertEquals(-1, ordinal);
+                } else {
+                    assertEquals(entries.get(docId).intValue(), ordinal);
+                }
+            }
+        }
+    }
+
+}
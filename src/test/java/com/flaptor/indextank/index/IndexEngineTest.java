@@ -27,7 +27,9 @@ import java.util.Set;
 
 import com.flaptor.indextank.BoostingIndexer;
 import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.scorer.MatchFilter;
 import com.flaptor.indextank.index.scorer.VariablesRangeFilter;
+import com.flaptor.indextank.query.InvalidCursorException;
 import com.flaptor.indextank.query.ParseException;
 import com.flaptor.indextank.query.Query;
 import com.flaptor.indextank.query.TermQuery;
@@ -35,9 +37,11 @@ import com.flaptor.indextank.search.DocumentSearcher;
 import com.flaptor.indextank.search.SearchResult;
 import com.flaptor.indextank.search.SearchResults;
 import com.flaptor.util.FileUtil;
+import com.flaptor.util.Pair;
 import com.flaptor.util.TestInfo;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -179,7 +183,11 @@ public class IndexEngineTest extends IndexTankTestCase {
     }
     
     private void checkResults(DocumentSearcher searcher, int start, int len, int[] expectedIds) throws InterruptedException {
-        SearchResults srs = searcher.search(new Query(new TermQuery("text","fixed"),"fixed",null),start,len, 0);
+        checkResults(searcher, start, len, expectedIds, 0);
+    }
+
+    private void checkResults(DocumentSearcher searcher, int start, int len, int[] expectedIds, int scoringFunctionIndex) throws InterruptedException {
+        SearchResults srs = searcher.search(new Query(new TermQuery("text","fixed"),"fixed",null),start,len, scoringFunctionIndex);
         Set<Integer> expIds = Sets.newHashSet();
         for (int i : expectedIds) {
             expIds.add(i);
@@ -218,6 +226,78 @@ public class IndexEngineTest extends IndexTankTestCase {
         checkResults(searcher,10,5,new int[]{9,11});
     }
     
+    @TestInfo(testType=SYSTEM)
+    public void testSearchAfterPagination() throws IOException, ParseException, InterruptedException {
+        indexTwelveDocs(this.indexEngine.getIndexer());
+        DocumentSearcher searcher = this.indexEngine.getSearcher();
+        this.indexEngine.getIndexer().promoteResult("doc_6", "fixed");
+        Query query = new Query(new TermQuery("text","fixed"),"fixed",null);
+        Map<String, String> extraParameters = Maps.newHashMap();
+        extraParameters.put("search_after", "");
+
+        List<String> ids = Lists.newArrayList();
+        SearchResults srs = searcher.search(query, 0, 5, 0, extraParameters);
+        int matches = srs.getMatches();
+        for (int pages = 1; srs.getNextCursor() != null; pages++) {
+            assertTrue("Too many pages", pages < 3);
+            for (SearchResult r : srs.getResults()) {
+                ids.add(r.getDocId());
+            }
+            extraParameters.put("search_after", srs.getNextCursor().toToken());
+            srs = searcher.search(query, 0, 5, 0, extraParameters);
+            assertEquals("Every page should report the same matches", matches, srs.getMatches());
+        }
+        for (SearchResult r : srs.getResults()) {
+            ids.add(r.getDocId());
+        }
+        assertEquals(Lists.newArrayList("doc_6", "doc_0", "doc_1", "doc_2", "doc_3", "doc_4", "doc_5", "doc_7", "doc_8", "doc_9", "doc_10", "doc_11"), ids);
+
+        extraParameters.put("search_after", "not a cursor");
+        try {
+            searcher.search(query, 0, 5, 0, extraParameters);
+            fail("a malformed cursor should be rejected");
+        } catch (InvalidCursorException e) {
+            // expected
+        }
+    }
+    
+    @TestInfo(testType=SYSTEM)
+    public void testResultCacheInvalidation() throws IOException, ParseException, InterruptedException {
+        // the cache is opt-in, and function 1 doesn't depend on the query time
+        Map<Object, Object> configuration = Maps.newHashMap();
+        configuration.put("query_cache_size", 100L);
+        File cacheDir = FileUtil.createTempDir("indextank","testcase");
+        IndexEngine cachingEngine = new IndexEngine(cacheDir, 11434, 5, false, 5, IndexEngine.SuggestValues.DOCUMENTS, IndexEngine.StorageValues.NO, 0, "1:relevance", true, "dummyCode", "TEST-environment", configuration);
+        try {
+            indexTwelveDocs(cachingEngine.getIndexer());
+            DocumentSearcher searcher = cachingEngine.getSearcher();
+            BoostingIndexer indexer = cachingEngine.getIndexer();
+            // same relevance for all, so ties are broken by docid
+            checkResults(searcher,0,5,new int[]{0,1,10,11,2},1);
+            checkResults(searcher,0,5,new int[]{0,1,10,11,2},1);
+            indexer.del("doc_2");
+            checkResults(searcher,0,5,new int[]{0,1,10,11,3},1);
+            indexer.updateBoosts("doc_0", ImmutableMap.of(0, 1d));
+            checkResults(searcher,0,5,new int[]{0,1,10,11,3},1);
+            indexer.promoteResult("doc_4", "fixed");
+            checkResults(searcher,0,5,new int[]{4,0,1,10,11},1);
+            Map<String, String> stats = indexer.getStats();
+            int hits = Integer.parseInt(stats.get("query_cache_hits"));
+            int misses = Integer.parseInt(stats.get("query_cache_misses"));
+            assertEquals(5, hits + misses);
+            assertTrue("Changes should have invalidated the cached results", misses >= 4);
+
+            // results that change with the query time are never cached
+            checkResults(searcher,0,5,new int[]{0,1,3,4,5});
+            checkResults(searcher,0,5,new int[]{0,1,3,4,5});
+            stats = indexer.getStats();
+            assertEquals(5, Integer.parseInt(stats.get("query_cache_hits")) + Integer.parseInt(stats.get("query_cache_misses")));
+            assertEquals(2, Integer.parseInt(stats.get("query_cache_bypasses")));
+        } finally {
+            FileUtil.deleteDir(cacheDir);
+        }
+    }
+
     @TestInfo(testType=SYSTEM)
     public void testFacetedSearch() throws InterruptedException {
     	indexForwardFacetedToDocuments(this.indexEngine.getIndexer());
@@ -379,5 +459,122 @@ public class IndexEngineTest extends IndexTankTestCase {
 		checkSearchResults(searchResults.getResults(), new String[] {"D5", "D1"});
 
     }
+
+    @TestInfo(testType=SYSTEM)
+    public void testFacetFilteringAfterUpdates() throws InterruptedException, ParseException {
+    	indexBackwardsFacetedToDocuments(this.indexEngine.getIndexer());
+        DocumentSearcher searcher = this.indexEngine.getSearcher();
+        BoostingIndexer indexer = this.indexEngine.getIndexer();
+        
+        Multimap<String, String> categoriesFilter = HashMultimap.create();
+        categoriesFilter.put("PRECIO", "BAJO");
+        
+		SearchResults searchResults = searcher.search(new Query(indexEngine.getParser().parseQuery("a OR b"),"a OR b", null, categoriesFilter, VariablesRangeFilter.NO_FILTER), 0, 10, 0);
+		assertEquals(4, searchResults.getMatches());
+		checkSearchResults(searchResults.getResults(), new String[] {"D6", "D5", "D2", "D1"});
+		
+		// changes to the categories must be reflected by the filters built by previous searches
+		Map<String, String> categories = Maps.newHashMap();
+		categories.put("PRECIO", "ALTO");
+		indexer.updateCategories("D5", categories);
+		categories.put("PRECIO", "BAJO");
+		indexer.updateCategories("D8", categories);
+		
+		searchResults = searcher.search(new Query(indexEngine.getParser().parseQuery("a OR b"),"a OR b", null, categoriesFilter, VariablesRangeFilter.NO_FILTER), 0, 10, 0);
+		assertEquals(4, searchResults.getMatches());
+		checkSearchResults(searchResults.getResults(), new String[] {"D8", "D6", "D2", "D1"});
+		
+		// and so must new documents
+		Document doc = new Document();
+		doc.setField("text", "a");
+		indexer.add("D9", doc, (int) (System.currentTimeMillis() / 1000L) - 10000, Maps.<Integer, Double>newHashMap());
+		indexer.updateCategories("D9", categories);
+		
+		searchResults = searcher.search(new Query(indexEngine.getParser().parseQuery("a OR b"),"a OR b", null, categoriesFilter, VariablesRangeFilter.NO_FILTER), 0, 10, 0);
+		assertEquals(5, searchResults.getMatches());
+		checkSearchResults(searchResults.getResults(), new String[] {"D8", "D6", "D2", "D1", "D9"});
+    }
+    
+    @TestInfo(testType=SYSTEM)
+    public void testRangeQueries() throws InterruptedException, ParseException {
+        BoostingIndexer indexer = this.indexEngine.getIndexer();
+        long timestamp = System.currentTimeMillis() / 1000L;
+        for (int i = 0; i < DOCS; i++) {
+            Document doc = new Document();
+            doc.setField("text", "term" + i + " fixed");
+            Map<Integer, Double> boosts = Maps.newHashMap();
+            boosts.put(0, (double) i - 5);
+            indexer.add("doc_" + i, doc, (int) (timestamp - i * 1000), boosts);
+        }
+
+        assertEquals(Sets.newHashSet("doc_3", "doc_4", "doc_5"), searchIds("fixed AND variable_0:[-2 TO 0]"));
+        assertEquals(Sets.newHashSet("doc_4"), searchIds("variable_0:{-2 TO 0}"));
+        assertEquals(Sets.newHashSet("doc_10", "doc_11"), searchIds("variable_0:[4.5 TO *]"));
+        assertEquals(Sets.newHashSet("doc_0", "doc_1"), searchIds("fixed AND timestamp:[" + (timestamp - 1000) + " TO *]"));
+        assertEquals(Sets.newHashSet("doc_2"), searchIds("term2 OR (term3 AND variable_0:[* TO -3])"));
+
+        // updated variables must be reflected by ranges resolved before
+        Map<Integer, Double> boosts = Maps.newHashMap();
+        boosts.put(0, 10d);
+        indexer.updateBoosts("doc_4", boosts);
+        assertEquals(Sets.newHashSet("doc_3", "doc_5"), searchIds("fixed AND variable_0:[-2 TO 0]"));
+        assertEquals(Sets.newHashSet("doc_4", "doc_10", "doc_11"), searchIds("variable_0:[4.5 TO *]"));
+
+        try {
+            searchIds("variable_0:[a TO b]");
+            fail("non numeric bounds should be rejected");
+        } catch (ParseException e) {
+            // expected
+        }
+        try {
+            searchIds("text:[a TO b]");
+            fail("ranges over non numeric fields should be rejected");
+        } catch (ParseException e) {
+            // expected
+        }
+    }
+
+    @TestInfo(testType=SYSTEM)
+    public void testVariableRangeFilters() throws InterruptedException, ParseException {
+        BoostingIndexer indexer = this.indexEngine.getIndexer();
+        long timestamp = System.currentTimeMillis() / 1000L;
+        for (int i = 0; i < DOCS; i++) {
+            Document doc = new Document();
+            doc.setField("text", "fixed");
+            Map<Integer, Double> boosts = Maps.newHashMap();
+            boosts.put(0, (double) i - 5);
+            boosts.put(1, (double) (i % 2));
+            indexer.add("doc_" + i, doc, (int) timestamp, boosts);
+        }
+
+        Multimap<Integer, Pair<Float, Float>> ranges = HashMultimap.create();
+        ranges.put(0, new Pair<Float, Float>(-2f, 0f));
+        ranges.put(0, new Pair<Float, Float>(4.5f, null));
+        ranges.put(1, new Pair<Float, Float>(null, 0f));
+        VariablesRangeFilter filter = new VariablesRangeFilter(indexEngine.getDynamicDataManager(), ranges);
+        assertEquals(Sets.newHashSet("doc_4", "doc_10"), searchIds("fixed", filter));
+
+        // updated variables must be reflected by ranges resolved before
+        Map<Integer, Double> boosts = Maps.newHashMap();
+        boosts.put(1, 0d);
+        indexer.updateBoosts("doc_3", boosts);
+        boosts.put(0, 1d);
+        indexer.updateBoosts("doc_4", boosts);
+        assertEquals(Sets.newHashSet("doc_3", "doc_10"), searchIds("fixed", filter));
+    }
+
+    private Set<String> searchIds(String queryStr) throws InterruptedException, ParseException {
+        return searchIds(queryStr, null);
+    }
+
+    private Set<String> searchIds(String queryStr, MatchFilter rangeFilter) throws InterruptedException, ParseException {
+        SearchResults results = this.indexEngine.getSearcher().search(new Query(indexEngine.getParser().parseQuery(queryStr), queryStr, null, null, rangeFilter), 0, DOCS, 0);
+        Set<String> ids = Sets.newHashSet();
+        for (SearchResult result : results.getResults()) {
+            ids.add(result.getDocId());
+        }
+        assertEquals(ids.size(), results.getMatches());
+        return ids;
+    }
     
 }
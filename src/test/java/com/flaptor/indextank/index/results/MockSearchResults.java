@@ -25,6 +25,7 @@ import java.util.Map;
 import com.flaptor.indextank.index.DocId;
 import com.flaptor.indextank.index.ScoredMatch;
 import com.flaptor.indextank.index.TopMatches;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
@@ -32,15 +33,24 @@ import com.google.common.collect.Multiset;
 public class MockSearchResults implements TopMatches {
 
     List<ScoredMatch> results;
+    Map<String, Multiset<String>> facets;
 
     public MockSearchResults() {
         results = Lists.newArrayList();
+        facets = Maps.newHashMap();
     }
 
     public void addResult(double score, String docid) {
         results.add(new ScoredMatch(score, new DocId(docid)));
     }
 
+    public void addFacet(String category, String value, int count) {
+        if (!facets.containsKey(category)) {
+            facets.put(category, HashMultiset.<String>create());
+        }
+        facets.get(category).add(value, count);
+    }
+
     public int getTotalMatches() {
         return results.size();
     }
@@ -57,6 +67,21 @@ public class MockSearchResults implements TopMatches {
 
 	@Override
 	public Map<String, Multiset<String>> getFacetingResults() {
+		return facets;
+	}
+
+	@Override
+	public boolean isTruncated() {
+		return false;
+	}
+
+	@Override
+	public boolean isFacetingApproximate() {
+		return false;
+	}
+
+	@Override
+	public Map<String, Multiset<String>> getRangeFacetingResults() {
 		return Maps.newHashMap();
 	}
 
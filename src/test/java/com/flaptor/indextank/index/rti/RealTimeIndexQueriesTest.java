@@ -21,14 +21,21 @@ package com.flaptor.indextank.index.rti;
 import static com.flaptor.util.TestInfo.TestType.UNIT;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.DocId;
 import com.flaptor.indextank.index.QueryMatcher;
+import com.flaptor.indextank.index.ScoredMatch;
+import com.flaptor.indextank.index.TopMatches;
 import com.flaptor.indextank.index.scorer.MockScorer;
 import com.flaptor.indextank.index.scorer.NoFacetingManager;
+import com.flaptor.indextank.index.scorer.Scorer;
 import com.flaptor.indextank.query.IndexEngineParser;
 import com.flaptor.indextank.query.ParseException;
+import com.flaptor.indextank.query.QueryVariables;
 import com.flaptor.util.TestInfo;
+import com.google.common.collect.Iterables;
 
 public class RealTimeIndexQueriesTest extends IndexTankTestCase {
 
@@ -95,4 +102,146 @@ public class RealTimeIndexQueriesTest extends IndexTankTestCase {
 		assertResultIds("complex query failed (7)", session.findMatches(query("((hola AND 3) OR (hola AND 4)) AND (2 OR 3)"), 10, 0), id3);
 	}
 	
+	@TestInfo(testType=UNIT)
+	public void testFuzzy() throws IOException, ParseException, InterruptedException {
+		RealTimeIndex fuzzyRti = new RealTimeIndex(new MockScorer(), new IndexEngineParser("text"), 10, new NoFacetingManager());
+		fuzzyRti.add("a", createDocument("hola"));
+		fuzzyRti.add("b", createDocument("hila"));
+		fuzzyRti.add("c", createDocument("holas"));
+		fuzzyRti.add("d", createDocument("bolsa"));
+		fuzzyRti.add("e", createDocument("ola abc"));
+		fuzzyRti.add("f", createDocument("hhhhh hol"));
+		fuzzyRti.add("g", createDocument("zzz"));
+		QueryMatcher fuzzySession = fuzzyRti.getSearchSession();
+
+		assertResultIds("exact fuzzy query failed", fuzzySession.findMatches(query("hola~0.9"), 10, 0), "a");
+		assertResultIds("one edit fuzzy query failed", fuzzySession.findMatches(query("hola~0.75"), 10, 0), "a", "b", "c", "e", "f");
+		assertResultIds("two edits fuzzy query failed", fuzzySession.findMatches(query("hola~"), 10, 0), "a", "b", "c", "d", "e", "f");
+		assertResultIds("fuzzy query in a phrase failed", fuzzySession.findMatches(query("abc AND hola~0.75"), 10, 0), "e");
+		assertResultIds("fuzzy query without matches failed", fuzzySession.findMatches(query("qwerty~"), 10, 0));
+
+		// the closest term goes first
+		TopMatches matches = fuzzySession.findMatches(query("hola~"), 10, 0);
+		assertEquals("a", Iterables.get(matches, 0).getDocId().toString());
+	}
+
+	@TestInfo(testType=UNIT)
+	public void testWildcardAndRegexp() throws IOException, ParseException, InterruptedException {
+		RealTimeIndex patternRti = new RealTimeIndex(new MockScorer(), new IndexEngineParser("text"), 10, new NoFacetingManager());
+		patternRti.add("a", createDocument("hola"));
+		patternRti.add("b", createDocument("hila"));
+		patternRti.add("c", createDocument("holas mundo"));
+		patternRti.add("d", createDocument("bolsa"));
+		patternRti.add("e", createDocument("ha"));
+		QueryMatcher patternSession = patternRti.getSearchSession();
+
+		assertResultIds("wildcard query failed", patternSession.findMatches(query("h?la"), 10, 0), "a", "b");
+		assertResultIds("wildcard query failed (2)", patternSession.findMatches(query("h*a"), 10, 0), "a", "b", "e");
+		assertResultIds("wildcard query failed (3)", patternSession.findMatches(query("h*a* AND mundo"), 10, 0), "c");
+		assertResultIds("wildcard query failed (4)", patternSession.findMatches(query("x?z"), 10, 0));
+		assertResultIds("regexp query failed", patternSession.findMatches(query("/h.la/"), 10, 0), "a", "b");
+		assertResultIds("regexp query failed (2)", patternSession.findMatches(query("/\\(h|b\\)ol.*/"), 10, 0), "a", "c", "d");
+		assertResultIds("regexp query failed (3)", patternSession.findMatches(query("/mundo/"), 10, 0), "c");
+		assertResultIds("regexp query failed (4)", patternSession.findMatches(query("/hola/ OR bolsa"), 10, 0), "a", "d");
+		assertResultIds("regexp query failed (5)", patternSession.findMatches(query("/H.LA/"), 10, 0), "a", "b");
+		assertResultIds("wildcard query failed (5)", patternSession.findMatches(query("H?LA"), 10, 0), "a", "b");
+
+		// new terms must show up in cached expansions
+		patternRti.add("f", createDocument("hula"));
+		assertResultIds("wildcard query failed after adding a term", patternSession.findMatches(query("h?la"), 10, 0), "a", "b", "f");
+		assertResultIds("regexp query failed after adding a term", patternSession.findMatches(query("/h.la/"), 10, 0), "a", "b", "f");
+	}
+
+	@TestInfo(testType=UNIT)
+	public void testPrefix() throws IOException, ParseException, InterruptedException {
+		RealTimeIndex prefixRti = new RealTimeIndex(new MockScorer(), new IndexEngineParser("text"), 2000, new NoFacetingManager());
+		for (int i = 0; i < 1500; i++) {
+			prefixRti.add("doc" + i, createDocument("word" + i + " common"));
+		}
+		QueryMatcher prefixSession = prefixRti.getSearchSession();
+
+		assertEquals("few terms prefix failed", 111, prefixSession.findMatches(query("word14*"), 10, 0).getTotalMatches());
+		assertEquals("many terms prefix failed", 1500, prefixSession.findMatches(query("word*"), 10, 0).getTotalMatches());
+		assertEquals("many terms prefix in a conjunction failed", 1, prefixSession.findMatches(query("word* AND word1499"), 10, 0).getTotalMatches());
+		assertEquals("many terms wildcard failed", 1500, prefixSession.findMatches(query("wo?d*"), 10, 0).getTotalMatches());
+		assertEquals("many terms regexp failed", 500, prefixSession.findMatches(query("/word1.../ OR word1499"), 10, 0).getTotalMatches());
+
+		// cached unions must see new and deleted documents
+		prefixRti.add("other", createDocument("word common"));
+		prefixRti.del("doc0");
+		assertEquals("many terms prefix failed after changes", 1500, prefixSession.findMatches(query("word*"), 10, 0).getTotalMatches());
+		assertEquals("many terms prefix failed after changes (2)", 0, prefixSession.findMatches(query("word* AND word0"), 10, 0).getTotalMatches());
+	}
+
+	@TestInfo(testType=UNIT)
+	public void testRescoreWindow() throws IOException, ParseException, InterruptedException {
+		final AtomicInteger scored = new AtomicInteger();
+		// ranks the documents in the inverse order of their textual score
+		Scorer inverseScorer = new MockScorer() {
+			@Override
+			public double scoreDocument(DocId documentId, double textualScore, int now, QueryVariables queryVars, Integer functionIndex) {
+				scored.incrementAndGet();
+				return -textualScore;
+			}
+		};
+		RealTimeIndex rescoreRti = new RealTimeIndex(inverseScorer, new IndexEngineParser("text"), 10, new NoFacetingManager());
+		String text = "foo";
+		for (int i = 0; i < 10; i++) {
+			rescoreRti.add("doc" + i, createDocument(text));
+			text += " bar";
+		}
+		QueryMatcher rescoreSession = rescoreRti.getSearchSession();
+
+		// shorter documents have higher textual scores
+		TopMatches matches = rescoreSession.findMatches(query("foo"), 1, 0);
+		assertEquals("doc9", Iterables.getOnlyElement(matches).getDocId().toString());
+		assertEquals(10, scored.get());
+
+		scored.set(0);
+		matches = rescoreSession.findMatches(query("foo").withRescoreWindow(3), 1, 0);
+		assertEquals("only the window should be rescored", 3, scored.get());
+		assertEquals("doc2", Iterables.getOnlyElement(matches).getDocId().toString());
+		assertEquals("all matches should be counted", 10, matches.getTotalMatches());
+
+		scored.set(0);
+		matches = rescoreSession.findMatches(query("foo").withRescoreWindow(3), 5, 0);
+		assertEquals("the window can't be smaller than the limit", 5, scored.get());
+		assertEquals(5, Iterables.size(matches));
+	}
+
+	@TestInfo(testType=UNIT)
+	public void testDeadline() throws IOException, ParseException, InterruptedException {
+		RealTimeIndex bigRti = new RealTimeIndex(new MockScorer(), new IndexEngineParser("text"), 2000, new NoFacetingManager());
+		for (int i = 0; i < 2000; i++) {
+			bigRti.add("doc" + i, createDocument("hola que tal " + i + (i % 10 == 1 ? "" : " excluded") + (i % 2 == 0 ? " even" : " odd")));
+		}
+		QueryMatcher bigSession = bigRti.getSearchSession();
+
+		TopMatches matches = bigSession.findMatches(query("hola AND tal"), 10, 0);
+		assertFalse("a query without deadline shouldn't be truncated", matches.isTruncated());
+		assertEquals(2000, matches.getTotalMatches());
+
+		// a deadline in the past stops the query at the first check
+		matches = bigSession.findMatches(query("hola AND tal").withDeadline(1), 10, 0);
+		assertTrue("an expired query should be truncated", matches.isTruncated());
+		assertTrue("an expired query should stop early", matches.getTotalMatches() < 2000);
+		assertEquals(10, Iterables.size(matches));
+
+		matches = bigSession.findMatches(query("hola AND tal").withDeadline(System.currentTimeMillis() + 60000), 10, 0);
+		assertFalse("a query within its deadline shouldn't be truncated", matches.isTruncated());
+		assertEquals(2000, matches.getTotalMatches());
+
+		// conjunctions and phrases without matches must stop too
+		matches = bigSession.findMatches(query("even AND odd").withDeadline(1), 10, 0);
+		assertTrue("an expired conjunction should be truncated", matches.isTruncated());
+		matches = bigSession.findMatches(query("\"even odd\"").withDeadline(1), 10, 0);
+		assertTrue("an expired phrase should be truncated", matches.isTruncated());
+
+		// stopping early must not let excluded documents through
+		matches = bigSession.findMatches(query("hola NOT excluded").withDeadline(1), 2000, 0);
+		for (ScoredMatch match : matches) {
+			assertEquals("excluded document found: " + match.getDocId(), 1, Integer.parseInt(match.getDocId().toString().substring(3)) % 10);
+		}
+	}
+	
 }
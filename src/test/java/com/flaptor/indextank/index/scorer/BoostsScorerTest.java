@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.io.File;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.scorer.parser.ScoreFormulaParser;
+import com.flaptor.util.FileUtil;
+import com.flaptor.util.Pair;
+import com.flaptor.util.TestInfo;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+
+public class BoostsScorerTest extends IndexTankTestCase {
+
+    private File tempDir;
+    private DynamicDataManager dynamicDataManager;
+    private BoostsScorer scorer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = FileUtil.createTempDir("indextank", "testcase");
+        dynamicDataManager = new DynamicDataManager(2, tempDir);
+        scorer = new BoostsScorer(dynamicDataManager, Maps.<Integer, ScoreFunction>newHashMap());
+        dynamicDataManager.setBoosts("a", 100, ImmutableMap.of(0, 2f));
+        dynamicDataManager.setBoosts("b", 200, ImmutableMap.of(0, 3f));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.deleteDir(tempDir);
+        super.tearDown();
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testFunctionTable() throws Exception {
+        scorer.putScoringFunction(5, ScoreFormulaParser.parseFormula(5, "doc.var[0] * 10"));
+        assertEquals(20d, scorer.scoreDocument(new DocId("a"), 0, 1000, null, 5));
+        // undefined functions score by age
+        assertEquals(-900d, scorer.scoreDocument(new DocId("a"), 0, 1000, null, 3));
+        assertEquals(-900d, scorer.scoreDocument(new DocId("a"), 0, 1000, null, 50));
+
+        scorer.removeScoringFunction(5);
+        assertEquals(-900d, scorer.scoreDocument(new DocId("a"), 0, 1000, null, 5));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testBoundScoring() throws Exception {
+        scorer.putScoringFunction(1, ScoreFormulaParser.parseFormula(1, "relevance + doc.var[0] - age"));
+        BoundScorer bound = scorer.bind(1000, null, 1);
+
+        DocId a = new DocId("a");
+        DocId b = new DocId("b");
+        Boosts dataA = bound.fetch(a);
+        assertNotNull(dataA);
+        assertNull(bound.fetch(new DocId("c")));
+        assertEquals(scorer.scoreDocument(a, 1, 1000, null, 1), bound.score(a, dataA, 1));
+        assertEquals(scorer.scoreDocument(a, 1, 1000, null, 1), bound.score(a, null, 1));
+
+        double[] scores = { 1, 1 };
+        bound.score(new DocId[] { a, b }, new Boosts[] { dataA, null }, scores, 2);
+        assertEquals(1 + 2 - 900d, scores[0]);
+        assertEquals(1 + 3 - 800d, scores[1]);
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testFunctionRangeFilterWithFetchedData() throws Exception {
+        scorer.putScoringFunction(1, ScoreFormulaParser.parseFormula(1, "doc.var[0]"));
+        Multimap<Integer, Pair<Float, Float>> ranges = HashMultimap.create();
+        ranges.put(1, new Pair<Float, Float>(2.5f, null));
+        MatchFilter filter = new FunctionRangeFilter(scorer, dynamicDataManager, ranges);
+
+        BoundScorer bound = scorer.bind(1000, null, 0);
+        DocId a = new DocId("a");
+        DocId b = new DocId("b");
+        assertFalse(filter.matches(a, bound.fetch(a), 0, 1000, null));
+        assertTrue(filter.matches(b, bound.fetch(b), 0, 1000, null));
+        assertTrue(filter.matches(b, null, 0, 1000, null));
+        assertTrue(filter.matches(b, 0, 1001, null));
+    }
+
+}
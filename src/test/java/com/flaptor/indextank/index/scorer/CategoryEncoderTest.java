@@ -19,6 +19,9 @@ package com.flaptor.indextank.index.scorer;
 
 import static com.flaptor.util.TestInfo.TestType.UNIT;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import com.flaptor.indextank.IndexTankTestCase;
 import com.flaptor.util.TestInfo;
 
@@ -50,6 +53,45 @@ public class CategoryEncoderTest extends IndexTankTestCase {
             }
     }
 
+    @TestInfo(testType=UNIT)
+    public void testCompiledMask() {
+        Random random = new Random(17);
+        for (int round = 0; round < 200; round++) {
+            int[] bitmask = new int[1 + random.nextInt(3)];
+            int bits = 0;
+            while (bits < 12) {
+                int bit = random.nextInt(bitmask.length * 32);
+                if ((bitmask[bit / 32] & (1 << bit % 32)) == 0) {
+                    bitmask[bit / 32] |= 1 << bit % 32;
+                    bits++;
+                }
+            }
+            CategoryEncoder.Mask decoder = new CategoryEncoder.Mask(bitmask);
+            assertEquals(12, decoder.getBits());
+            int[] data = new int[bitmask.length + 1];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = random.nextInt();
+            }
+            assertEquals(CategoryEncoder.decode(data, 1, bitmask), decoder.decode(data, 1));
+            // shorter data decodes the missing words as zeros
+            int[] shorter = new int[] { data[0], data[1] };
+            assertEquals(CategoryEncoder.decode(shorter, 1, bitmask), decoder.decode(shorter, 1));
+
+            int value = random.nextInt(1 << 12);
+            int[] expected = CategoryEncoder.encode(data.clone(), 1, bitmask, value);
+            assertTrue(Arrays.equals(expected, decoder.encode(data.clone(), 1, value)));
+            assertEquals(value, decoder.decode(expected, 1));
+            assertTrue(Arrays.equals(CategoryEncoder.encode(new int[0], 0, bitmask, value), decoder.encode(new int[0], 0, value)));
+        }
+        try {
+            new CategoryEncoder.Mask(new int[] { 0x3 }).encode(new int[1], 0, 4);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {
+            // value too big
+        }
+        assertEquals(0xFFFF, new CategoryEncoder.Mask(new int[] { -1 }).decode(new int[] { 0xFFFF }, 0));
+    }
+
     @TestInfo(testType=UNIT)
     public void testCrossCoding() {
         int[] data = new int[2];
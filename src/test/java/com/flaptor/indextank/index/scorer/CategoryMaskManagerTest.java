@@ -19,22 +19,29 @@ package com.flaptor.indextank.index.scorer;
 
 import static com.flaptor.util.TestInfo.TestType.UNIT;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.scorer.CategoryMaskManager.CategoryInfo;
 import com.flaptor.indextank.index.scorer.CategoryMaskManager.CategoryValueInfo;
 import com.flaptor.util.Pair;
 import com.flaptor.util.TestInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 
 public class CategoryMaskManagerTest extends IndexTankTestCase {
 
     @TestInfo(testType=UNIT)
     public void testBitmapsColision() throws IOException {
-        CategoryMaskManager manager = new CategoryMaskManager(new ReentrantReadWriteLock());
+        CategoryMaskManager manager = new CategoryMaskManager();
     	
     	String[] categories = new String[] {"type", "value", "type2", "type3", "value3", "type23", "type4", "value4", "type24", "type5", "value5", "type25", "type6", "value6", "type26"};
     	String[] values = new String[] {"1", "ONE", "TwO", "12", "ONE2", "TwO2"};
@@ -60,4 +67,67 @@ public class CategoryMaskManagerTest extends IndexTankTestCase {
 			}    		
 		}
     }
+
+    @TestInfo(testType=UNIT)
+    public void testWriteWhileCreating() throws Exception {
+        final CategoryMaskManager manager = new CategoryMaskManager();
+        Thread creator = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 2000; i++) {
+                    manager.getCategoryValueInfo("category" + (i % 7), "value" + i);
+                }
+            }
+        };
+        creator.start();
+        while (creator.isAlive()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            manager.writeData(new DataOutputStream(bytes));
+            CategoryMaskManager read = new CategoryMaskManager();
+            read.readData(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            for (CategoryInfo info : read.getCategoryInfos().values()) {
+                // every value code fits the bitmask written with it
+                for (int code = 1; code <= info.getSize(); code++) {
+                    CategoryEncoder.encode(new int[0], 0, info.getBitmask(), code);
+                }
+            }
+        }
+    }
+    @TestInfo(testType=UNIT)
+    public void testCompact() {
+        CategoryMaskManager manager = new CategoryMaskManager();
+        // grown in turns, so every bitmask is scattered
+        for (int i = 0; i < 300; i++) {
+            for (String category : new String[] { "a", "b", "c", "d" }) {
+                manager.getCategoryValueInfo(category, category + i);
+            }
+        }
+        assertEquals(2, manager.getMaxMaskSize());
+
+        CategoryMaskManager compacted = manager.compact(ImmutableMap.<String, List<String>>of(
+                "a", ImmutableList.of("a7", "a3"),
+                "b", ImmutableList.of("b299"),
+                "c", ImmutableList.<String>of(),
+                "d", ImmutableList.of("d0", "d1", "d2", "d3")));
+        assertEquals(1, compacted.getMaxMaskSize());
+        assertNull(compacted.getCategoryInfos().get("c"));
+        CategoryInfo a = compacted.getCategoryInfos().get("a");
+        assertEquals(Integer.valueOf(1), a.getValueCode("a7"));
+        assertEquals(Integer.valueOf(2), a.getValueCode("a3"));
+        assertEquals(2, Integer.bitCount(a.getBitmask()[0]));
+        // contiguous
+        int d = compacted.getCategoryInfos().get("d").getBitmask()[0];
+        assertEquals(3, Integer.bitCount(d));
+        assertEquals(d, 7 << Integer.numberOfTrailingZeros(d));
+        assertEquals(0, a.getBitmask()[0] & compacted.getCategoryInfos().get("b").getBitmask()[0]);
+
+        // new values take new bits
+        CategoryValueInfo info = compacted.getCategoryValueInfo("a", "a0");
+        assertEquals(3, info.getValueCode());
+        info = compacted.getCategoryValueInfo("a", "a1");
+        assertEquals(4, info.getValueCode());
+        assertEquals(3, Integer.bitCount(info.getBitmask()[0]));
+        assertEquals(0, info.getBitmask()[0] & compacted.getCategoryInfos().get("b").getBitmask()[0]);
+    }
+
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.io.File;
+import java.util.Map;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.util.FileUtil;
+import com.flaptor.util.TestInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+
+public class DynamicDataFacetingManagerTest extends IndexTankTestCase {
+
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = FileUtil.createTempDir("indextank", "testcase");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.deleteDir(tempDir);
+        super.tearDown();
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testCategoriesChangingDuringFaceting() {
+        DynamicDataManager manager = new DynamicDataManager(1, tempDir);
+        manager.setCategoryValues("a", ImmutableMap.of("color", "red", "size", "big"));
+        manager.setCategoryValues("b", ImmutableMap.of("color", "blue"));
+
+        Faceter faceter = new DynamicDataFacetingManager(manager).createFaceter();
+        faceter.computeDocument(new DocId("a"));
+        faceter.computeDocument(new DocId("b"));
+
+        // a new value enlarges the bitmask of color, and a new category takes bits
+        manager.setCategoryValues("c", ImmutableMap.of("color", "green", "shape", "round"));
+        manager.setCategoryValues("d", ImmutableMap.of("color", "red", "size", "small"));
+        faceter.computeDocument(new DocId("c"));
+        faceter.computeDocument(new DocId("d"));
+        faceter.computeDocument(new DocId("a"));
+
+        Map<String, Multiset<String>> facets = faceter.getFacets();
+        assertEquals(3, facets.size());
+        assertEquals(3, facets.get("color").count("red"));
+        assertEquals(1, facets.get("color").count("blue"));
+        assertEquals(1, facets.get("color").count("green"));
+        assertEquals(2, facets.get("size").count("big"));
+        assertEquals(1, facets.get("size").count("small"));
+        assertEquals(1, facets.get("shape").count("round"));
+        assertFalse(faceter.isApproximate());
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testCompactCategories() throws Exception {
+        DynamicDataManager manager = new DynamicDataManager(1, tempDir);
+        for (int i = 0; i < 300; i++) {
+            manager.setCategoryValues("d" + i, ImmutableMap.of("a", "a" + i, "b", "b" + i, "c", "c" + (i % 3), "e", "e" + i, "f", "f" + i));
+        }
+        for (int i = 2; i < 300; i++) {
+            manager.removeBoosts("d" + i);
+        }
+        assertEquals(2, manager.getMaskManager().getMaxMaskSize());
+
+        DynamicDataFacetingManager faceting = new DynamicDataFacetingManager(manager);
+        MatchFilter filter = faceting.getFacetFilter(ImmutableMultimap.of("a", "a1"));
+        Faceter faceter = faceting.createFaceter();
+        faceter.computeDocument(new DocId("d0"));
+
+        assertTrue(manager.compactCategories());
+        CategoryMaskManager compacted = manager.getMaskManager();
+        // nothing is rewritten when it saves no words
+        assertFalse(manager.compactCategories());
+        assertSame(compacted, manager.getMaskManager());
+        assertEquals(1, manager.getMaskManager().getMaxMaskSize());
+        assertEquals(ImmutableMap.of("a", "a1", "b", "b1", "c", "c1", "e", "e1", "f", "f1"), manager.getCategoryValues(new DocId("d1")));
+
+        // compiled before the compaction
+        assertFalse(filter.matches(new DocId("d0"), 0, 0, null));
+        assertTrue(filter.matches(new DocId("d1"), 0, 0, null));
+        faceter.computeDocument(new DocId("d1"));
+        Map<String, Multiset<String>> facets = faceter.getFacets();
+        assertEquals(ImmutableMultiset.of("a0", "a1"), facets.get("a"));
+        assertEquals(ImmutableMultiset.of("c0", "c1"), facets.get("c"));
+
+        manager.setCategoryValues("d2", ImmutableMap.of("a", "a2", "d", "x"));
+        assertEquals(ImmutableMap.of("a", "a2", "d", "x"), manager.getCategoryValues(new DocId("d2")));
+        assertEquals(ImmutableMap.of("a", "a0", "b", "b0", "c", "c0", "e", "e0", "f", "f0"), manager.getCategoryValues(new DocId("d0")));
+
+        // the snapshot is written with the compacted bitmasks
+        manager.compact();
+        DynamicDataManager reopened = new DynamicDataManager(1, tempDir);
+        assertEquals(ImmutableMap.of("a", "a2", "d", "x"), reopened.getCategoryValues(new DocId("d2")));
+        assertEquals(ImmutableMap.of("a", "a1", "b", "b1", "c", "c1", "e", "e1", "f", "f1"), reopened.getCategoryValues(new DocId("d1")));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testTopValues() {
+        DynamicDataManager manager = new DynamicDataManager(1, tempDir);
+        for (int i = 0; i < 100; i++) {
+            manager.setCategoryValues("d" + i, ImmutableMap.of("tag", "t" + (i % 10), "color", i % 3 == 0 ? "red" : "blue"));
+        }
+        manager.setCategoryValues("x", ImmutableMap.of("tag", "t0"));
+
+        FacetingRequest request = new FacetingRequest(ImmutableSet.of("tag"), 2, ImmutableMap.<String, Integer>of(), 0);
+        Faceter faceter = new DynamicDataFacetingManager(manager).createFaceter(request);
+        for (int i = 0; i < 100; i++) {
+            faceter.computeDocument(new DocId("d" + i));
+        }
+        faceter.computeDocument(new DocId("x"));
+
+        // the faceter counts every value, the limit is applied after merging indexes
+        Map<String, Multiset<String>> facets = faceter.getFacets();
+        assertEquals(ImmutableSet.of("tag"), facets.keySet());
+        assertEquals(10, facets.get("tag").elementSet().size());
+
+        facets = request.limit(facets);
+        assertEquals(2, facets.get("tag").elementSet().size());
+        assertEquals(11, facets.get("tag").count("t0"));
+        // ties are broken by value
+        assertEquals(10, facets.get("tag").count("t1"));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testRanges() {
+        DynamicDataManager manager = new DynamicDataManager(2, tempDir);
+        for (int i = 0; i < 10; i++) {
+            manager.setBoosts("d" + i, 1000 + i * 100, ImmutableMap.of(1, (float) i));
+            manager.setCategoryValues("d" + i, ImmutableMap.of("color", i % 2 == 0 ? "red" : "blue", "timestamp", "t" + (i % 3)));
+        }
+        FacetingRequest request = new FacetingRequest(null, 0, ImmutableMap.<String, Integer>of(), 0, ImmutableList.of(
+                new FacetingRequest.Range(1, 2, 5.5),
+                new FacetingRequest.Range(DynamicDataManager.TIMESTAMP_VARIABLE, 1500)));
+        Faceter faceter = new DynamicDataFacetingManager(manager).createFaceter(request);
+        for (int i = 0; i < 10; i++) {
+            faceter.computeDocument(new DocId("d" + i));
+        }
+        Map<String, Multiset<String>> facets = faceter.getFacets();
+        Map<String, Multiset<String>> ranges = faceter.getRangeFacets();
+        assertEquals(ImmutableSet.of("var[1]", "timestamp"), ranges.keySet());
+        assertEquals(ImmutableMultiset.builder().addCopies("*..2", 2).addCopies("2..5.5", 4).addCopies("5.5..*", 4).build(), ranges.get("var[1]"));
+        assertEquals(ImmutableMultiset.builder().addCopies("*..1500", 5).addCopies("1500..*", 5).build(), ranges.get("timestamp"));
+        // a category named like a range is kept apart from it
+        assertEquals(ImmutableSet.of("color", "timestamp"), facets.keySet());
+        assertEquals(ImmutableMultiset.builder().addCopies("t0", 4).addCopies("t1", 3).addCopies("t2", 3).build(), facets.get("timestamp"));
+        assertEquals(5, facets.get("color").count("red"));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testSampling() {
+        DynamicDataManager manager = new DynamicDataManager(1, tempDir);
+        int documents = 5000;
+        for (int i = 0; i < documents; i++) {
+            manager.setCategoryValues("d" + i, ImmutableMap.of("color", i % 4 == 0 ? "red" : "blue"));
+        }
+
+        Faceter exact = new DynamicDataFacetingManager(manager).createFaceter(new FacetingRequest(null, 0, ImmutableMap.<String, Integer>of(), documents));
+        Faceter sampled = new DynamicDataFacetingManager(manager).createFaceter(new FacetingRequest(null, 0, ImmutableMap.<String, Integer>of(), 500));
+        for (int i = 0; i < documents; i++) {
+            exact.computeDocument(new DocId("d" + i));
+            sampled.computeDocument(new DocId("d" + i));
+        }
+        assertFalse(exact.isApproximate());
+        assertEquals(1250, exact.getFacets().get("color").count("red"));
+
+        assertTrue(sampled.isApproximate());
+        Multiset<String> estimate = sampled.getFacets().get("color");
+        assertEquals(1250, estimate.count("red"), 200);
+        assertEquals(3750, estimate.count("blue"), 300);
+    }
+
+}
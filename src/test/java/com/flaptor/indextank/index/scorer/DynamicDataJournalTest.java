@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.util.FileUtil;
+import com.flaptor.util.TestInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class DynamicDataJournalTest extends IndexTankTestCase {
+
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = FileUtil.createTempDir("indextank", "testcase");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.deleteDir(tempDir);
+        super.tearDown();
+    }
+
+    private File[] journalFiles() {
+        return tempDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("dynamicData.journal.");
+            }
+        });
+    }
+
+    private static int countCommitters() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("DynamicDataManager's journal committer") && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void populate(DynamicDataManager manager) {
+        manager.setBoosts("a", 100, ImmutableMap.of(0, 1f));
+        manager.setBoosts("b", 200, ImmutableMap.of(0, 2f));
+        manager.setCategoryValues("a", ImmutableMap.of("color", "red"));
+        manager.setBoosts("a", ImmutableMap.of(1, 5f));
+        manager.removeBoosts("b");
+    }
+
+    private static void assertPopulated(DynamicDataManager manager) {
+        assertEquals(1, manager.getDocumentCount());
+        assertEquals(100, manager.getBoosts(new DocId("a")).getTimestamp());
+        assertEquals(1f, manager.getBoosts(new DocId("a")).getBoost(0));
+        assertEquals(5f, manager.getBoosts(new DocId("a")).getBoost(1));
+        assertTrue(Double.isNaN(manager.getValue(new DocId("b"), 0)));
+        assertEquals(ImmutableMap.of("color", "red"), manager.getCategoryValues(new DocId("a")));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testDumpOnlyCommitsTheJournal() throws Exception {
+        DynamicDataManager manager = new DynamicDataManager(2, tempDir);
+        populate(manager);
+        manager.dump();
+        assertFalse(new File(tempDir, "dynamicData").exists());
+
+        assertPopulated(new DynamicDataManager(2, tempDir));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testClose() throws Exception {
+        int committers = countCommitters();
+        DynamicDataManager manager = new DynamicDataManager(2, tempDir);
+        assertEquals(committers + 1, countCommitters());
+        populate(manager);
+        // the pending changes are committed
+        manager.close();
+        assertEquals(committers, countCommitters());
+        try {
+            manager.dump();
+            fail("should throw exception");
+        } catch (IOException e) {
+            // closed
+        }
+
+        DynamicDataManager loaded = new DynamicDataManager(2, tempDir);
+        assertPopulated(loaded);
+        loaded.close();
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testCompaction() throws Exception {
+        DynamicDataManager manager = new DynamicDataManager(2, tempDir);
+        populate(manager);
+        manager.compact();
+        assertTrue(new File(tempDir, "dynamicData").exists());
+        assertEquals(1, journalFiles().length);
+
+        // changes after the snapshot are replayed on top of it
+        manager.setBoosts("c", 300, ImmutableMap.of(0, 3f));
+        manager.dump();
+        DynamicDataManager loaded = new DynamicDataManager(2, tempDir);
+        assertEquals(3f, loaded.getBoosts(new DocId("c")).getBoost(0));
+        assertEquals(ImmutableMap.of("color", "red"), loaded.getCategoryValues(new DocId("a")));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testTruncatedChangeIsIgnored() throws Exception {
+        DynamicDataManager manager = new DynamicDataManager(2, tempDir);
+        populate(manager);
+        manager.dump();
+        File[] files = journalFiles();
+        assertEquals(1, files.length);
+        FileOutputStream out = new FileOutputStream(files[0], true);
+        out.write(new byte[] { 1, 0, 0 });
+        out.close();
+
+        assertPopulated(new DynamicDataManager(2, tempDir));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testCorruptChangesAreDiscarded() throws Exception {
+        DynamicDataManager manager = new DynamicDataManager(2, tempDir);
+        populate(manager);
+        manager.dump();
+        File[] files = journalFiles();
+        assertEquals(1, files.length);
+        long length = files[0].length();
+        // a change that doesn't match its checksum, followed by a zero-filled tail
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(files[0], true));
+        out.writeInt(5);
+        out.writeInt(12345);
+        out.write(new byte[] { 3, 0, 0, 0, 1 });
+        out.write(new byte[64]);
+        out.close();
+
+        assertPopulated(new DynamicDataManager(2, tempDir));
+        assertEquals(length, files[0].length());
+    }
+
+    /**
+     * Records the replayed changes as strings.
+     */
+    private static class Recorder implements DynamicDataJournal.Replayer {
+        private final List<String> changes = Lists.newArrayList();
+
+        @Override
+        public void setBoosts(DocId docId, Integer timestamp, Map<Integer, Float> boosts) {
+            changes.add("boosts " + docId + " " + timestamp + " " + boosts);
+        }
+
+        @Override
+        public void setCategoryValues(DocId docId, Map<String, String> categories) {
+            changes.add("categories " + docId + " " + categories);
+        }
+
+        @Override
+        public void remove(DocId docId) {
+            changes.add("remove " + docId);
+        }
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testFailedCommitIsRetried() throws Exception {
+        DynamicDataJournal journal = new DynamicDataJournal(tempDir) {
+            private boolean fail = true;
+
+            @Override
+            void append(FileOutputStream stream, byte[] bytes) throws IOException {
+                if (fail) {
+                    fail = false;
+                    // half of the changes make it to the file
+                    stream.write(bytes, 0, bytes.length / 2);
+                    throw new IOException("No space left on device");
+                }
+                super.append(stream, bytes);
+            }
+        };
+        journal.open(new Recorder());
+        journal.logBoosts(new DocId("a"), 100, ImmutableMap.of(0, 1f));
+        journal.logRemove(new DocId("b"));
+        try {
+            journal.commit();
+            fail("the write should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the changes are still pending, and are committed along with the new ones
+        journal.logRemove(new DocId("c"));
+        journal.commit();
+
+        Recorder recorder = new Recorder();
+        new DynamicDataJournal(tempDir).open(recorder);
+        assertEquals(ImmutableList.of("boosts a 100 {0=1.0}", "remove b", "remove c"), recorder.changes);
+    }
+
+}
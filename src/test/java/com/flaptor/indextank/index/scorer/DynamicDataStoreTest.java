@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Set;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.util.FileUtil;
+import com.flaptor.util.TestInfo;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+public class DynamicDataStoreTest extends IndexTankTestCase {
+
+    @TestInfo(testType=UNIT)
+    public void testOrdinalsAreReused() {
+        DynamicDataStore store = new DynamicDataStore(2);
+        int a = store.getOrCreateOrdinal(new DocId("a"));
+        int b = store.getOrCreateOrdinal(new DocId("b"));
+        assertEquals(a, store.getOrCreateOrdinal(new DocId("a")));
+        store.set(a, 1, 7);
+        store.set(b, 1, 8);
+
+        assertTrue(store.remove(new DocId("a")));
+        assertFalse(store.remove(new DocId("a")));
+        assertEquals(-1, store.getOrdinal(new DocId("a")));
+
+        // the new document takes the removed row, cleared
+        int c = store.getOrCreateOrdinal(new DocId("c"));
+        assertEquals(a, c);
+        assertEquals(0, store.get(c, 1));
+        assertEquals(8, store.get(b, 1));
+        assertEquals(2, store.size());
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testCategoryColumnsGrow() {
+        DynamicDataStore store = new DynamicDataStore(2);
+        int a = store.getOrCreateOrdinal(new DocId("a"));
+        int b = store.getOrCreateOrdinal(new DocId("b"));
+        assertEquals(0, store.getCategories(a).length);
+
+        store.setCategoryValue(a, new CategoryEncoder.Mask(new int[] { 0, 0x30 }), 2);
+        assertEquals(4, store.getWidth());
+        assertTrue(Arrays.equals(new int[] { 0, 0x20 }, store.getCategories(a)));
+        assertTrue(Arrays.equals(new int[] { 0, 0 }, store.getCategories(b)));
+        assertEquals(2, CategoryEncoder.decode(store.getCategories(a), 0, new int[] { 0, 0x30 }));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testManagerDumpAndLoad() throws Exception {
+        File dir = FileUtil.createTempDir("indextank", "testcase");
+        try {
+            DynamicDataManager manager = new DynamicDataManager(2, dir);
+            manager.setBoosts("a", 100, ImmutableMap.of(0, 1.5f, 1, -2f));
+            manager.setBoosts("b", 200, ImmutableMap.of(1, 3f));
+            manager.setCategoryValues("a", ImmutableMap.of("color", "red"));
+            manager.setCategoryValues("b", ImmutableMap.of("color", "blue"));
+            manager.removeBoosts("b");
+            manager.setBoosts("c", 300, ImmutableMap.of(0, 4f));
+            manager.dump();
+
+            DynamicDataManager loaded = new DynamicDataManager(2, dir);
+            assertEquals(2, loaded.getDocumentCount());
+            assertEquals(100, loaded.getBoosts(new DocId("a")).getTimestamp());
+            assertEquals(1.5f, loaded.getBoosts(new DocId("a")).getBoost(0));
+            assertEquals(-2f, loaded.getBoosts(new DocId("a")).getBoost(1));
+            assertEquals(4f, loaded.getBoosts(new DocId("c")).getBoost(0));
+            assertTrue(Double.isNaN(loaded.getValue(new DocId("b"), 0)));
+            assertEquals(ImmutableMap.of("color", "red"), loaded.getCategoryValues(new DocId("a")));
+            assertEquals(ImmutableMap.of(), loaded.getCategoryValues(new DocId("c")));
+        } finally {
+            FileUtil.deleteDir(dir);
+        }
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testRangesSkipNaN() throws Exception {
+        File dir = FileUtil.createTempDir("indextank", "testcase");
+        try {
+            DynamicDataManager manager = new DynamicDataManager(2, dir);
+            manager.setBoosts("a", 100, ImmutableMap.of(0, 3f));
+            manager.setBoosts("b", 200, ImmutableMap.of(0, Float.NaN));
+            assertEquals(0d, manager.getRange(0).getMin());
+            assertEquals(3d, manager.getRange(0).getMax());
+        } finally {
+            FileUtil.deleteDir(dir);
+        }
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testMappedSnapshot() throws Exception {
+        File dir = FileUtil.createTempDir("indextank", "testcase");
+        try {
+            DynamicDataManager manager = new DynamicDataManager(2, dir);
+            manager.setBoosts("a", 100, ImmutableMap.of(0, 1f));
+            manager.setBoosts("b", 200, ImmutableMap.of(0, 2f));
+            manager.setBoosts("c", 300, ImmutableMap.of(0, 3f));
+            manager.setCategoryValues("b", ImmutableMap.of("color", "red"));
+            manager.compact();
+            File snapshot = new File(dir, "dynamicData");
+            byte[] written = Files.toByteArray(snapshot);
+
+            DynamicDataManager mapped = new DynamicDataManager(2, dir);
+            assertEquals(3, mapped.getDocumentCount());
+            assertEquals(2f, mapped.getBoosts(new DocId("b")).getBoost(0));
+            assertEquals(ImmutableMap.of("color", "red"), mapped.getCategoryValues(new DocId("b")));
+            assertEquals(300d, mapped.getRange(DynamicDataManager.TIMESTAMP_VARIABLE).getMax());
+
+            // changes to mapped rows don't reach the file
+            mapped.setBoosts("a", ImmutableMap.of(1, 5f));
+            mapped.removeBoosts("b");
+            mapped.setBoosts("d", 400, ImmutableMap.of(0, 4f));
+            mapped.setBoosts("c", 500, ImmutableMap.of());
+            mapped.removeBoosts("c");
+            mapped.setBoosts("c", 600, ImmutableMap.of(0, 6f));
+            assertTrue(Arrays.equals(written, Files.toByteArray(snapshot)));
+
+            assertEquals(5f, mapped.getBoosts(new DocId("a")).getBoost(1));
+            assertTrue(Double.isNaN(mapped.getValue(new DocId("b"), 0)));
+            assertEquals(600, mapped.getBoosts(new DocId("c")).getTimestamp());
+            assertEquals(3, mapped.getDocumentCount());
+            Set<DocId> ids = Sets.newHashSet(mapped.getDocumentIds());
+            assertEquals(ImmutableSet.of(new DocId("a"), new DocId("c"), new DocId("d")), ids);
+
+            // and a new snapshot can be taken from a mapped one
+            mapped.compact();
+            DynamicDataManager remapped = new DynamicDataManager(2, dir);
+            assertEquals(3, remapped.getDocumentCount());
+            assertEquals(5f, remapped.getBoosts(new DocId("a")).getBoost(1));
+            assertEquals(6f, remapped.getBoosts(new DocId("c")).getBoost(0));
+            assertEquals(4f, remapped.getBoosts(new DocId("d")).getBoost(0));
+            assertTrue(Double.isNaN(remapped.getValue(new DocId("b"), 0)));
+        } finally {
+            FileUtil.deleteDir(dir);
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.util.Map;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.util.TestInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+
+public class FacetingRequestTest extends IndexTankTestCase {
+
+    @TestInfo(testType=UNIT)
+    public void testLimit() {
+        Map<String, Multiset<String>> facets = ImmutableMap.<String, Multiset<String>>of(
+                "color", ImmutableMultiset.of("red", "red", "blue", "green", "green", "green"),
+                "size", ImmutableMultiset.of("big", "small"),
+                "shape", ImmutableMultiset.of("round"));
+        assertSame(facets, FacetingRequest.ALL.limit(facets));
+
+        FacetingRequest request = new FacetingRequest(ImmutableSet.of("color", "size"), 1, ImmutableMap.of("color", 2), 0);
+        Map<String, Multiset<String>> limited = request.limit(facets);
+        assertEquals(ImmutableSet.of("color", "size"), limited.keySet());
+        assertEquals(ImmutableMultiset.of("red", "red", "green", "green", "green"), limited.get("color"));
+        // ties are broken by value
+        assertEquals(ImmutableMultiset.of("big"), limited.get("size"));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testRanges() {
+        FacetingRequest.Range range = new FacetingRequest.Range(0, 10, 20.5);
+        assertEquals("var[0]", range.getName());
+        assertEquals(0, range.getRange(-3));
+        assertEquals(1, range.getRange(10));
+        assertEquals(1, range.getRange(20));
+        assertEquals(2, range.getRange(20.5));
+        assertEquals("*..10", range.getLabel(0));
+        assertEquals("10..20.5", range.getLabel(1));
+        assertEquals("20.5..*", range.getLabel(2));
+
+        // ranges are returned apart, a category with the same name is not taken for one
+        FacetingRequest request = new FacetingRequest(ImmutableSet.of("color"), 1, ImmutableMap.<String, Integer>of(), 0, ImmutableList.of(range));
+        Multiset<String> counts = ImmutableMultiset.of("*..10", "10..20.5");
+        assertFalse(request.limit(ImmutableMap.of("var[0]", counts)).containsKey("var[0]"));
+        try {
+            new FacetingRequest.Range(0, 5, 5);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {
+            // edges must increase
+        }
+    }
+
+}
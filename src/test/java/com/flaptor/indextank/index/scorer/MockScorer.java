@@ -35,4 +35,26 @@ public class MockScorer implements Scorer {
 		return textualScore;
 	}
 
+	@Override
+	public void scoreDocuments(DocId[] documentIds, double[] scores, int count, int now, QueryVariables queryVars, Integer functionIndex) {
+		for (int i = 0; i < count; i++) {
+			scores[i] = scoreDocument(documentIds[i], scores[i], now, queryVars, functionIndex);
+		}
+	}
+
+	@Override
+	public double getUpperBound(double textualScore, int now, QueryVariables queryVars, Integer functionIndex) {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	@Override
+	public StaticRankColumn getStaticRankColumn(int now, Integer functionIndex) {
+		return null;
+	}
+
+	@Override
+	public BoundScorer bind(int now, QueryVariables queryVars, Integer functionIndex) {
+		return new BoundScorer(this, now, queryVars, functionIndex);
+	}
+
 }
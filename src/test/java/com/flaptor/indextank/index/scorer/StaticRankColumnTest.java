@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.DocId;
+import com.flaptor.indextank.index.scorer.parser.ScoreFormulaParser;
+import com.flaptor.util.FileUtil;
+import com.flaptor.util.TestInfo;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class StaticRankColumnTest extends IndexTankTestCase {
+
+    private static final ImmutableSet<Integer> PRECOMPUTED = ImmutableSet.of(0, 1, 2, 3, 4, 5, 6);
+
+    private File tempDir;
+    private DynamicDataManager dynamicDataManager;
+    private BoostsScorer scorer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = FileUtil.createTempDir("indextank", "testcase");
+        dynamicDataManager = new DynamicDataManager(2, tempDir);
+        // rebuilds run in the calling thread
+        scorer = new BoostsScorer(dynamicDataManager, Maps.<Integer, ScoreFunction>newHashMap(), PRECOMPUTED, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.deleteDir(tempDir);
+        super.tearDown();
+    }
+
+    private void define(int index, String formula) throws Exception {
+        scorer.putScoringFunction(index, ScoreFormulaParser.parseFormula(index, formula));
+    }
+
+    private static Map<Integer, Float> vars(float var0) {
+        return ImmutableMap.of(0, var0);
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testDetection() throws Exception {
+        define(0, "-age");
+        define(1, "doc.var[0] * 0.5 - age / 86400");
+        define(2, "log(doc.var[0] + 1)");
+        define(3, "relevance * doc.var[0]");
+        define(4, "doc.var[0] - query.var[0]");
+        define(5, "age");
+
+        assertFalse(scorer.getStaticRankColumn(1000, 0).isExact());
+        assertFalse(scorer.getStaticRankColumn(1000, 1).isExact());
+        assertTrue(scorer.getStaticRankColumn(1000, 2).isExact());
+        assertNull(scorer.getStaticRankColumn(1000, 3));
+        assertNull(scorer.getStaticRankColumn(1000, 4));
+        assertNull(scorer.getStaticRankColumn(1000, 5));
+        assertNull(scorer.getStaticRankColumn(1000, 6));
+
+        // only configured functions are precomputed
+        define(7, "doc.var[0]");
+        assertNull(scorer.getStaticRankColumn(1000, 7));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testRoundedBounds() throws Exception {
+        dynamicDataManager.setBoosts("a", 100, vars(0.1f));
+        define(1, "doc.var[0] / 3 - age");
+        StaticRankColumn bounds = scorer.getStaticRankColumn(1000, 1);
+        assertTrue(scorer.scoreDocument(new DocId("a"), 0, 1000, null, 1) <= bounds.getScore(new DocId("a")));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testRefresh() throws Exception {
+        dynamicDataManager.setBoosts("a", 100, vars(1));
+        dynamicDataManager.setBoosts("b", 200, vars(3));
+        define(0, "doc.var[0] * 2");
+        define(1, "doc.var[0] - age");
+
+        StaticRankColumn exact = scorer.getStaticRankColumn(1000, 0);
+        assertEquals(2d, exact.getScore(new DocId("a")));
+        assertEquals(6d, exact.getScore(new DocId("b")));
+        assertTrue(Double.isNaN(exact.getScore(new DocId("c"))));
+
+        dynamicDataManager.setBoosts("a", vars(5));
+        dynamicDataManager.setBoosts("c", 300, vars(1));
+        dynamicDataManager.removeBoosts("b");
+        exact = scorer.getStaticRankColumn(1010, 0);
+        assertEquals(10d, exact.getScore(new DocId("a")));
+        assertTrue(Double.isNaN(exact.getScore(new DocId("b"))));
+        assertEquals(2d, exact.getScore(new DocId("c")));
+
+        // bounds computed at some time hold later on
+        StaticRankColumn bounds = scorer.getStaticRankColumn(1000, 1);
+        assertEquals(5d - 900, bounds.getScore(new DocId("a")));
+        assertNull(scorer.getStaticRankColumn(999, 1));
+        bounds = scorer.getStaticRankColumn(1100, 1);
+        double score = scorer.scoreDocument(new DocId("a"), 0, 1100, null, 1);
+        assertTrue(score <= bounds.getScore(new DocId("a")));
+
+        // and they are recomputed when too old
+        bounds = scorer.getStaticRankColumn(1000 + StaticRankColumn.MAX_STALENESS + 1, 1);
+        assertEquals(5d - (900 + StaticRankColumn.MAX_STALENESS + 1), bounds.getScore(new DocId("a")));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testReleasedOrdinal() throws Exception {
+        dynamicDataManager.setBoosts("a", 100, vars(1));
+        define(0, "doc.var[0] * 2");
+        StaticRankColumn column = scorer.getStaticRankColumn(1000, 0);
+        assertEquals(2d, column.getScore(new DocId("a")));
+
+        // c takes the ordinal of a, but not its score
+        dynamicDataManager.removeBoosts("a");
+        dynamicDataManager.setBoosts("c", 100, vars(3));
+        assertEquals(0, dynamicDataManager.getDocumentOrdinals().get(new DocId("c")));
+        assertTrue(Double.isNaN(column.getScore(new DocId("c"))));
+        assertEquals(6d, scorer.getStaticRankColumn(1000, 0).getScore(new DocId("c")));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testBackgroundRebuild() throws Exception {
+        final List<Runnable> rebuilds = Lists.newArrayList();
+        scorer = new BoostsScorer(dynamicDataManager, Maps.<Integer, ScoreFunction>newHashMap(), PRECOMPUTED, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                rebuilds.add(command);
+            }
+        });
+        dynamicDataManager.setBoosts("a", 100, vars(5));
+        define(1, "doc.var[0] - age");
+
+        // queries don't wait for the column to be built
+        assertNull(scorer.getStaticRankColumn(1000, 1));
+        assertNull(scorer.getStaticRankColumn(1000, 1));
+        assertEquals(1, rebuilds.size());
+        rebuilds.remove(0).run();
+        assertEquals(5d - 900, scorer.getStaticRankColumn(1000, 1).getScore(new DocId("a")));
+
+        // nor for it to be recomputed, stale bounds still hold and are kept up to date
+        int later = 1000 + StaticRankColumn.MAX_STALENESS + 1;
+        assertEquals(5d - 900, scorer.getStaticRankColumn(later, 1).getScore(new DocId("a")));
+        dynamicDataManager.setBoosts("a", vars(7));
+        assertEquals(7d - 900, scorer.getStaticRankColumn(later, 1).getScore(new DocId("a")));
+        assertEquals(1, rebuilds.size());
+
+        rebuilds.remove(0).run();
+        assertEquals(7d - (later - 100), scorer.getStaticRankColumn(later, 1).getScore(new DocId("a")));
+        assertTrue(rebuilds.isEmpty());
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer.expression;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.util.Random;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.scorer.Boosts;
+import com.flaptor.indextank.index.scorer.CompiledScoreFunction;
+import com.flaptor.indextank.index.scorer.parser.ScoreFormulaParser;
+import com.flaptor.indextank.query.QueryVariables;
+import com.flaptor.indextank.query.QueryVariablesImpl;
+import com.flaptor.util.TestInfo;
+
+public class ScoreExpressionTest extends IndexTankTestCase {
+
+    private static final QueryVariables QUERY_VARS = new QueryVariablesImpl(new Double[] { 2d, -1d });
+
+    private static CompiledScoreFunction parse(String formula) throws Exception {
+        return (CompiledScoreFunction) ScoreFormulaParser.parseFormula(0, formula);
+    }
+
+    private static VariableRanges ranges(double maxRelevance, double var0, double var1) {
+        return new VariableRanges(Interval.of(0, maxRelevance), Interval.of(0, 1000), QUERY_VARS)
+            .withDocumentVariable(0, Interval.of(1, var0))
+            .withDocumentVariable(1, Interval.of(-var1, var1));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testMonotonicity() throws Exception {
+        VariableRanges ranges = ranges(10, 5, 5);
+        ScoreExpression e = parse("relevance * log(doc.var[0])").getExpression();
+        assertEquals(Monotonicity.INCREASING, e.getMonotonicity(Input.RELEVANCE, ranges));
+        assertEquals(Monotonicity.INCREASING, e.getMonotonicity(Input.documentVariable(0), ranges));
+        assertEquals(Monotonicity.CONSTANT, e.getMonotonicity(Input.AGE, ranges));
+
+        e = parse("relevance * query.var[1] - age / 60 + d[1]").getExpression();
+        assertEquals(Monotonicity.DECREASING, e.getMonotonicity(Input.RELEVANCE, ranges));
+        assertEquals(Monotonicity.DECREASING, e.getMonotonicity(Input.AGE, ranges));
+        assertEquals(Monotonicity.INCREASING, e.getMonotonicity(Input.documentVariable(1), ranges));
+
+        e = parse("relevance * d[1]").getExpression();
+        assertEquals(Monotonicity.NONE, e.getMonotonicity(Input.RELEVANCE, ranges));
+        assertEquals(Monotonicity.INCREASING, e.getMonotonicity(Input.RELEVANCE, ranges.withDocumentVariable(1, Interval.of(0, 3))));
+
+        e = parse("if(d[0] > 2, relevance, 2 * relevance)").getExpression();
+        assertEquals(Monotonicity.INCREASING, e.getMonotonicity(Input.RELEVANCE, ranges));
+        assertEquals(Monotonicity.NONE, e.getMonotonicity(Input.documentVariable(0), ranges));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testUpperBound() throws Exception {
+        ScoreExpression e = parse("relevance * log(doc.var[0])").getExpression();
+        assertEquals(10 * Math.log(5), e.getUpperBound(ranges(10, 5, 5)), 1e-9);
+
+        e = parse("relevance * q[0] - age / 100").getExpression();
+        assertEquals(20d, e.getUpperBound(ranges(10, 5, 5)), 1e-9);
+        assertEquals(10d, e.getUpperBound(ranges(5, 5, 5)), 1e-9);
+
+        e = parse("sqrt(d[1])").getExpression();
+        assertEquals(Double.POSITIVE_INFINITY, e.getUpperBound(ranges(10, 5, 5)));
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testBoundsContainScores() throws Exception {
+        String[] formulas = {
+            "relevance * log(doc.var[0])",
+            "pow(d[0], 2) - abs(d[1]) * relevance + q[0]",
+            "max(relevance, d[1]) / (1 + age)",
+            "if(d[1] <= q[1], -relevance, min(d[0], r * 3))",
+            "bit(d[0], 1) + km(d[0], d[1], q[0], q[1])",
+        };
+        Random random = new Random(42);
+        VariableRanges ranges = ranges(10, 5, 5);
+        for (String formula : formulas) {
+            CompiledScoreFunction function = parse(formula);
+            double bound = function.getExpression().getUpperBound(ranges);
+            Interval bounds = function.getExpression().getBounds(ranges);
+            for (int i = 0; i < 1000; i++) {
+                final float var0 = 1 + 4 * random.nextFloat();
+                final float var1 = 10 * random.nextFloat() - 5;
+                Boosts boosts = new Boosts() {
+                    public float getBoost(int idx) { return idx == 0 ? var0 : var1; }
+                    public int getBoostCount() { return 2; }
+                    public int getTimestamp() { return 0; }
+                };
+                double score = function.score(10 * random.nextDouble(), random.nextInt(1001), boosts, QUERY_VARS);
+                assertTrue(formula + ": " + score + " > " + bound, score <= bound);
+                assertTrue(formula + ": " + score + " not in " + bounds, bounds.contains(score));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.scorer.parser;
+
+import static com.flaptor.util.TestInfo.TestType.UNIT;
+
+import java.util.Arrays;
+
+import com.flaptor.indextank.IndexTankTestCase;
+import com.flaptor.indextank.index.scorer.BatchScoreFunction;
+import com.flaptor.indextank.index.scorer.Boosts;
+import com.flaptor.indextank.index.scorer.ScoreFunction;
+import com.flaptor.indextank.query.QueryVariables;
+import com.flaptor.indextank.query.QueryVariablesImpl;
+import com.flaptor.util.TestInfo;
+
+public class ScoreFormulaParserTest extends IndexTankTestCase {
+
+    private static final String[] FORMULAS = {
+        "relevance",
+        "-age",
+        "log(doc.var[2]) + relevance * query.var[1]",
+        "if(d[0] > 0.25, d[3] - age / 3600.0, max(r, sqrt(abs(d[1]))))",
+        "pow(boost(1), 2) * km(d[0], d[1], q[0], q[1])",
+    };
+
+    @TestInfo(testType=UNIT)
+    public void testBatchMatchesSingleScores() throws Exception {
+        QueryVariables queryVars = new QueryVariablesImpl(new Double[] { 0.5d, 1.5d });
+        int count = 37;
+        double[] textualScores = new double[count];
+        int[] ages = new int[count];
+        final float[][] docVars = new float[4][count];
+        for (int i = 0; i < count; i++) {
+            textualScores[i] = i / 7d;
+            ages[i] = i * 1000;
+            for (int var = 0; var < docVars.length; var++) {
+                docVars[var][i] = (i * (var + 1)) % 11 / 10f;
+            }
+        }
+
+        for (int f = 0; f < FORMULAS.length; f++) {
+            ScoreFunction function = ScoreFormulaParser.parseFormula(f, FORMULAS[f]);
+            assertTrue(function instanceof BatchScoreFunction);
+            BatchScoreFunction batch = (BatchScoreFunction) function;
+
+            double[] scores = textualScores.clone();
+            batch.scoreBatch(count, scores, ages, docVars, queryVars, scores);
+            for (int i = 0; i < count; i++) {
+                final int doc = i;
+                Boosts boosts = new Boosts() {
+                    public float getBoost(int idx) { return docVars[idx][doc]; }
+                    public int getBoostCount() { return docVars.length; }
+                    public int getTimestamp() { return 0; }
+                };
+                double expected = function.score(textualScores[i], ages[i], boosts, queryVars);
+                assertEquals(FORMULAS[f], expected, scores[i], 0d);
+            }
+        }
+    }
+
+    @TestInfo(testType=UNIT)
+    public void testDocumentVariables() throws Exception {
+        BatchScoreFunction function = (BatchScoreFunction) ScoreFormulaParser.parseFormula(0, "d[3] * b(1) + d[3] - age");
+        assertTrue(Arrays.equals(new int[] { 1, 3 }, function.getDocumentVariables()));
+        function = (BatchScoreFunction) ScoreFormulaParser.parseFormula(1, "relevance");
+        assertEquals(0, function.getDocumentVariables().length);
+    }
+
+}
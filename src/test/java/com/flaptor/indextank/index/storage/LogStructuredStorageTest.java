@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2011 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.flaptor.indextank.index.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.flaptor.indextank.index.Document;
+import com.flaptor.util.FileUtil;
+import com.flaptor.util.TestCase;
+import com.flaptor.util.TestInfo;
+import com.flaptor.util.TestInfo.TestType;
+
+public class LogStructuredStorageTest extends TestCase {
+
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = FileUtil.createTempDir("testLogStructuredStorage", ".tmp");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.deleteDir(tempDir);
+        super.tearDown();
+    }
+
+    private static Document document(String text, String field) {
+        Document document = new Document();
+        document.setField("text", text);
+        document.setField("f", field);
+        return document;
+    }
+
+    @TestInfo(testType=TestType.UNIT)
+    public void testReopen() throws IOException {
+        LogStructuredStorage storage = new LogStructuredStorage(tempDir, false);
+        storage.saveDocument("a", document("first", "1"));
+        storage.saveDocument("b", document("second", "2"));
+        storage.saveDocument("a", document("third", "3"));
+        storage.deleteDocument("b");
+        assertEquals(document("third", "3"), storage.getDocument("a"));
+        assertNull(storage.getBinaryDoc("b"));
+        storage.dump();
+        storage.close();
+        try {
+            storage.saveDocument("c", document("fourth", "4"));
+            fail("should throw exception");
+        } catch (IllegalStateException e) {
+            // closed
+        }
+
+        storage = new LogStructuredStorage(tempDir, true);
+        assertEquals(document("third", "3"), storage.getDocument("a"));
+        assertNull(storage.getBinaryDoc("b"));
+        assertEquals("1", storage.getStats().get("log_storage_count"));
+        storage.close();
+
+        storage = new LogStructuredStorage(tempDir, false);
+        assertNull(storage.getBinaryDoc("a"));
+    }
+
+    @TestInfo(testType=TestType.UNIT)
+    public void testCompaction() throws IOException {
+        LogStructuredStorage storage = new LogStructuredStorage(tempDir, false, 1024);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                storage.saveDocument("d" + i, document("document " + i, String.valueOf(round)));
+            }
+        }
+        for (int i = 50; i < 100; i++) {
+            storage.deleteDocument("d" + i);
+        }
+        int segments = Integer.parseInt(storage.getStats().get("log_storage_segments"));
+        storage.dump();
+        assertTrue(Integer.parseInt(storage.getStats().get("log_storage_compactions")) > 0);
+        assertTrue(Integer.parseInt(storage.getStats().get("log_storage_segments")) < segments);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(document("document " + i, "2"), storage.getDocument("d" + i));
+        }
+
+        storage = new LogStructuredStorage(tempDir, true, 1024);
+        assertEquals("50", storage.getStats().get("log_storage_count"));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(document("document " + i, "2"), storage.getDocument("d" + i));
+        }
+        for (int i = 50; i < 100; i++) {
+            assertNull(storage.getBinaryDoc("d" + i));
+        }
+    }
+
+    @TestInfo(testType=TestType.UNIT)
+    public void testDeletions() throws IOException {
+        LogStructuredStorage storage = new LogStructuredStorage(tempDir, false, 256);
+        for (int i = 0; i < 20; i++) {
+            storage.saveDocument("d" + i, document("document " + i, "1"));
+        }
+        for (int i = 0; i < 20; i++) {
+            storage.deleteDocument("d" + i);
+        }
+        storage.saveDocument("last", document("last", "1"));
+        for (int i = 0; i < 3; i++) {
+            storage.dump();
+        }
+        // once the deleted records are gone, so are the deletions, and nothing is left to compact
+        assertEquals("0", storage.getStats().get("log_storage_deletions"));
+        String compactions = storage.getStats().get("log_storage_compactions");
+        storage.dump();
+        storage.dump();
+        assertEquals(compactions, storage.getStats().get("log_storage_compactions"));
+        storage.close();
+
+        storage = new LogStructuredStorage(tempDir, true, 256);
+        assertEquals("1", storage.getStats().get("log_storage_count"));
+        for (int i = 0; i < 20; i++) {
+            assertNull(storage.getBinaryDoc("d" + i));
+        }
+        assertEquals(document("last", "1"), storage.getDocument("last"));
+    }
+
+    @TestInfo(testType=TestType.UNIT)
+    public void testTruncatedRecord() throws IOException {
+        LogStructuredStorage storage = new LogStructuredStorage(tempDir, false);
+        storage.saveDocument("a", document("first", "1"));
+        storage.dump();
+
+        // a record cut short by a crash
+        RandomAccessFile file = new RandomAccessFile(new File(new File(tempDir, "documents"), "documents.segment.0"), "rw");
+        try {
+            file.seek(file.length());
+            file.writeInt(1);
+            file.writeInt(1000);
+            file.write('b');
+        } finally {
+            file.close();
+        }
+
+        storage = new LogStructuredStorage(tempDir, true);
+        assertEquals(document("first", "1"), storage.getDocument("a"));
+        assertNull(storage.getBinaryDoc("b"));
+        storage.saveDocument("b", document("second", "2"));
+        storage.dump();
+
+        storage = new LogStructuredStorage(tempDir, true);
+        assertEquals(document("first", "1"), storage.getDocument("a"));
+        assertEquals(document("second", "2"), storage.getDocument("b"));
+    }
+
+    @TestInfo(testType=TestType.UNIT)
+    public void testCorruptedRecord() throws IOException {
+        LogStructuredStorage storage = new LogStructuredStorage(tempDir, false);
+        storage.saveDocument("a", document("first", "1"));
+        storage.dump();
+        File segment = new File(new File(tempDir, "documents"), "documents.segment.0");
+        long length = segment.length();
+        storage.saveDocument("b", document("second", "2"));
+        storage.saveDocument("c", document("third", "3"));
+        storage.dump();
+
+        // a byte of b's document flipped on disk
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(length + 20);
+            int value = file.read();
+            file.seek(length + 20);
+            file.write(value ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        // the replay stops there
+        filterOutput("Checksum mismatch");
+        storage = new LogStructuredStorage(tempDir, true);
+        assertEquals(document("first", "1"), storage.getDocument("a"));
+        assertNull(storage.getBinaryDoc("b"));
+        assertNull(storage.getBinaryDoc("c"));
+        assertEquals(length, segment.length());
+    }
+
+    @TestInfo(testType=TestType.UNIT)
+    public void testImportInMemoryStorage() throws IOException {
+        InMemoryStorage old = new InMemoryStorage(tempDir, false);
+        old.saveDocument("a", document("first", "1"));
+        old.dump();
+
+        LogStructuredStorage storage = new LogStructuredStorage(tempDir, true);
+        assertEquals(document("first", "1"), storage.getDocument("a"));
+        assertFalse(new File(tempDir, InMemoryStorage.MAIN_FILE_NAME).exists());
+        // kept as a backup, under another name so it's not imported again
+        assertTrue(new File(tempDir, InMemoryStorage.MAIN_FILE_NAME + ".imported").exists());
+
+        storage = new LogStructuredStorage(tempDir, true);
+        assertEquals(document("first", "1"), storage.getDocument("a"));
+    }
+
+}
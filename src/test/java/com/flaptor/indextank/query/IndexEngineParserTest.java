@@ -65,6 +65,21 @@ public class IndexEngineParserTest extends IndexTankTestCase {
         }
     }
 
+	@TestInfo(testType=UNIT)
+    public void testRangeFields() throws Exception {
+        assertTrue(parser.parseQuery("variable_0:[1 TO 2]") instanceof RangeQuery);
+        assertTrue(parser.parseQuery("timestamp:[* TO 1000]") instanceof RangeQuery);
+        String[] invalid = { "text:[1 TO 2]", "variable_:[1 TO 2]", "variable_x:[1 TO 2]", "variable_0:[a TO 2]" };
+        for (String query : invalid) {
+            try {
+                parser.parseQuery(query);
+                fail("should reject " + query);
+            } catch (ParseException e) {
+                //OK
+            }
+        }
+    }
+
 	@TestInfo(testType=UNIT)
 	public void testTokenizer() {
 		Iterator<AToken> tokens = parser.parseDocumentField("field", "word1 word2 word3. word4 5.6");
@@ -23,6 +23,7 @@ import java.util.Map;
 import com.flaptor.indextank.index.DocId;
 import com.flaptor.indextank.index.scorer.Boosts;
 import com.flaptor.indextank.index.scorer.BoostsManager;
+import com.flaptor.indextank.index.scorer.expression.Interval;
 
 public class DummyBoostsManager implements BoostsManager {
 
@@ -81,4 +82,9 @@ public class DummyBoostsManager implements BoostsManager {
         return null;
     }
 
+    @Override
+    public Interval getRange(int boostIndex) {
+        return Interval.ALL;
+    }
+
 }
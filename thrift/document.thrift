@@ -15,6 +15,10 @@ struct ResultSet {
   6: optional list<map<string, string>> categories = [],
   7: optional list<map<i32, double>> variables = [],
   8: optional list<double> scores,
+  9: optional string search_after,
+  10: optional bool truncated,
+  11: optional bool facets_approximate,
+  12: optional map<string, map<string, i32>> range_facets,
 }
 
 struct SearcherStats {